@@ -30,6 +30,44 @@ public interface Dimensional {
    */
   double distanceTo(Dimensional other);
 
+  /**
+   * Returns distance to the point whose coordinates are stored in an array,
+   * starting at the given offset, as if it were a dimensional object of this
+   * type. Lets spatial indexes keep coordinates in flat arrays. The default
+   * implementation builds that object with
+   * {@link Dimensional#withCoordinate(int, double)}; implementations should
+   * override it to avoid allocating.
+   *
+   * @param coordinates array of coordinates
+   * @param offset index of the first coordinate of the point
+   * @return distance to the point
+   */
+  default double distanceTo(double[] coordinates, int offset) {
+    Dimensional other = this;
+    for (int i = 0; i < numDimensions(); i++) {
+      other = other.withCoordinate(i, coordinates[offset + i]);
+    }
+    return distanceTo(other);
+  }
+
+  /**
+   * Returns a lower bound on the distance to any point on the other side of
+   * the plane where the given coordinate has the given value. Spatial indexes
+   * use it to decide whether the other side of a split could hold anything
+   * near enough. The default implementation measures the distance to this
+   * point projected onto the plane, with
+   * {@link Dimensional#withCoordinate(int, double)}; implementations should
+   * override it to avoid allocating, and must override it if the projection
+   * isn't the nearest point of the plane.
+   *
+   * @param coordinate coordinate fixed by the plane
+   * @param value value of that coordinate on the plane
+   * @return lower bound on distance to points across the plane
+   */
+  default double distanceToPlane(int coordinate, double value) {
+    return distanceTo(withCoordinate(coordinate, value));
+  }
+
   /**
    * Returns a new dimensional object with the specified coordinate set.
    *
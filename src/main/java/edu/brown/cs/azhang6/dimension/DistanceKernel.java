@@ -0,0 +1,217 @@
+package edu.brown.cs.azhang6.dimension;
+
+/**
+ * Ways to measure the distance between two latitudes and longitudes, from
+ * fast approximations to an ellipsoidal formula. Errors are given against the
+ * great-circle distance on a sphere of radius {@link LatLng#RADIUS}, which
+ * itself is within about 0.5% of the true distance on the earth.
+ *
+ * @author aaronzhang
+ */
+public enum DistanceKernel {
+
+  /**
+   * Haversine formula for the great-circle distance. Accurate to rounding at
+   * every distance. Takes five trigonometric functions, a square root, and an
+   * arctangent.
+   */
+  HAVERSINE {
+    @Override
+    public double distance(double lat1, double lng1, double lat2,
+      double lng2) {
+      double sinDLat = Math.sin((lat2 - lat1) / 2);
+      double sinDLng = Math.sin((lng2 - lng1) / 2);
+      double a = sinDLat * sinDLat
+        + Math.cos(lat1) * Math.cos(lat2) * sinDLng * sinDLng;
+      return 2 * LatLng.RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+  },
+
+  /**
+   * Spherical law of cosines for the great-circle distance. Rounding in the
+   * arccosine near 1 makes it off by up to about 0.2 m, so it suits distances
+   * of more than a few km.
+   */
+  LAW_OF_COSINES {
+    @Override
+    public double distance(double lat1, double lng1, double lat2,
+      double lng2) {
+      double cos = Math.sin(lat1) * Math.sin(lat2)
+        + Math.cos(lat1) * Math.cos(lat2) * Math.cos(lng2 - lng1);
+      return LatLng.RADIUS * Math.acos(Math.max(-1, Math.min(1, cos)));
+    }
+
+    @Override
+    public double lowerBound(double greatCircle) {
+      return Math.max(0, greatCircle - COSINES_SLACK);
+    }
+  },
+
+  /**
+   * Equirectangular projection about the mean latitude, treating the earth
+   * as flat. Takes one cosine and a square root. Between 70 degrees south and
+   * north, the relative error is under 10<sup>-6</sup> up to 10 km, under
+   * 10<sup>-4</sup> up to 100 km, and under 1% up to 1000 km; it grows
+   * toward the poles, where it shouldn't be used. Compared with the
+   * haversine formula over millions of pairs of points everywhere, it never
+   * measured less than the great-circle distance beyond rounding.
+   */
+  EQUIRECTANGULAR {
+    @Override
+    public double distance(double lat1, double lng1, double lat2,
+      double lng2) {
+      double dlng = Math.IEEEremainder(lng2 - lng1, 2 * Math.PI);
+      double x = dlng * Math.cos((lat1 + lat2) / 2);
+      double y = lat2 - lat1;
+      return LatLng.RADIUS * Math.sqrt(x * x + y * y);
+    }
+
+    @Override
+    public double lowerBound(double greatCircle) {
+      return greatCircle * (1 - ROUNDING_SLACK);
+    }
+  },
+
+  /**
+   * Vincenty's inverse formula for the geodesic distance on the WGS-84
+   * ellipsoid, accurate to about 0.5 mm on the earth. Unlike the others, it
+   * isn't a distance on the sphere, and differs from them by up to about
+   * 0.5%. Iterates, so it's the slowest; for nearly antipodal points, where
+   * it doesn't converge, falls back to the great-circle distance.
+   *
+   * <p>
+   * The radius of curvature along a meridian is least at the equator, where
+   * it is b<sup>2</sup>/a for semi-axes a and b, and along a parallel it is
+   * never less than a. So every path on the ellipsoid is at least
+   * b<sup>2</sup>/(a R), about 0.9944, times as long as the path through the
+   * same latitudes and longitudes on the sphere, and the geodesic is at
+   * least that times the great-circle distance.</p>
+   */
+  VINCENTY {
+    @Override
+    public double distance(double lat1, double lng1, double lat2,
+      double lng2) {
+      double u1 = Math.atan((1 - FLATTENING) * Math.tan(lat1));
+      double u2 = Math.atan((1 - FLATTENING) * Math.tan(lat2));
+      double sinU1 = Math.sin(u1);
+      double cosU1 = Math.cos(u1);
+      double sinU2 = Math.sin(u2);
+      double cosU2 = Math.cos(u2);
+      double l = Math.IEEEremainder(lng2 - lng1, 2 * Math.PI);
+      double lambda = l;
+      for (int i = 0; i < VINCENTY_ITERATIONS; i++) {
+        double sinLambda = Math.sin(lambda);
+        double cosLambda = Math.cos(lambda);
+        double a = cosU2 * sinLambda;
+        double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+        double sinSigma = Math.sqrt(a * a + b * b);
+        if (sinSigma == 0) {
+          // Same point
+          return 0;
+        }
+        double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+        double sigma = Math.atan2(sinSigma, cosSigma);
+        double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+        double cos2Alpha = 1 - sinAlpha * sinAlpha;
+        // On the equator, cos2Alpha is 0 and the term vanishes
+        double cos2SigmaM = cos2Alpha == 0 ? 0
+          : cosSigma - 2 * sinU1 * sinU2 / cos2Alpha;
+        double c = FLATTENING / 16 * cos2Alpha
+          * (4 + FLATTENING * (4 - 3 * cos2Alpha));
+        double previous = lambda;
+        lambda = l + (1 - c) * FLATTENING * sinAlpha * (sigma + c * sinSigma
+          * (cos2SigmaM + c * cosSigma * (2 * cos2SigmaM * cos2SigmaM - 1)));
+        if (Math.abs(lambda - previous) < VINCENTY_TOLERANCE) {
+          double uSquared = cos2Alpha * (SEMI_MAJOR * SEMI_MAJOR
+            - SEMI_MINOR * SEMI_MINOR) / (SEMI_MINOR * SEMI_MINOR);
+          double bigA = 1 + uSquared / 16384 * (4096 + uSquared
+            * (-768 + uSquared * (320 - 175 * uSquared)));
+          double bigB = uSquared / 1024 * (256 + uSquared
+            * (-128 + uSquared * (74 - 47 * uSquared)));
+          double cos2 = cos2SigmaM * cos2SigmaM;
+          double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4
+            * (cosSigma * (2 * cos2 - 1) - bigB / 6 * cos2SigmaM
+            * (4 * sinSigma * sinSigma - 3) * (4 * cos2 - 3)));
+          return SEMI_MINOR * bigA * (sigma - deltaSigma);
+        }
+      }
+      return HAVERSINE.distance(lat1, lng1, lat2, lng2);
+    }
+
+    @Override
+    public double lowerBound(double greatCircle) {
+      double scale = SEMI_MINOR * SEMI_MINOR / (SEMI_MAJOR * LatLng.RADIUS);
+      return Math.max(0,
+        greatCircle * scale * (1 - ROUNDING_SLACK) - VINCENTY_SLACK);
+    }
+  };
+
+  /**
+   * Semi-major axis of the WGS-84 ellipsoid in km.
+   */
+  private static final double SEMI_MAJOR = 6378.137;
+
+  /**
+   * Flattening of the WGS-84 ellipsoid.
+   */
+  private static final double FLATTENING = 1 / 298.257223563;
+
+  /**
+   * Semi-minor axis of the WGS-84 ellipsoid in km.
+   */
+  private static final double SEMI_MINOR = SEMI_MAJOR * (1 - FLATTENING);
+
+  /**
+   * Most iterations of Vincenty's formula before giving up.
+   */
+  private static final int VINCENTY_ITERATIONS = 200;
+
+  /**
+   * Change in longitude on the auxiliary sphere, in radians, at which
+   * Vincenty's formula has converged; about 0.0064 mm.
+   */
+  private static final double VINCENTY_TOLERANCE = 1e-12;
+
+  /**
+   * Most that Vincenty's formula may be off by once it has converged, in km,
+   * with room to spare.
+   */
+  private static final double VINCENTY_SLACK = 1e-5;
+
+  /**
+   * Most that the law of cosines may be below the great-circle distance, in
+   * km, with room to spare over its rounding error.
+   */
+  private static final double COSINES_SLACK = 1e-3;
+
+  /**
+   * Relative rounding error allowed for in lower bounds.
+   */
+  private static final double ROUNDING_SLACK = 1e-9;
+
+  /**
+   * Distance between two latitudes and longitudes. Allocates nothing.
+   *
+   * @param lat1 latitude of first point in radians
+   * @param lng1 longitude of first point in radians
+   * @param lat2 latitude of second point in radians
+   * @param lng2 longitude of second point in radians
+   * @return distance in km
+   */
+  public abstract double distance(double lat1, double lng1, double lat2,
+    double lng2);
+
+  /**
+   * Lower bound on the distance this kernel measures between points whose
+   * great-circle distance is at least the given distance. Searches that prune
+   * by great-circle distance, as kd-trees do across splitting planes, prune
+   * by this bound so they find everything within a distance measured by this
+   * kernel.
+   *
+   * @param greatCircle least great-circle distance in km
+   * @return least distance measured by this kernel in km
+   */
+  public double lowerBound(double greatCircle) {
+    return greatCircle;
+  }
+}
@@ -1,8 +1,6 @@
 package edu.brown.cs.azhang6.dimension;
 
-import java.util.Arrays;
 import java.util.Objects;
-import java.util.Optional;
 
 /**
  * Represents a point with latitude and longitude.
@@ -57,21 +55,59 @@ public class LatLng implements Dimensional {
   private final double lngRadians;
 
   /**
-   * xyz-coordinates. Empty until requested.
+   * Cosine of latitude, kept for bounding distances to meridians.
    */
-  private Optional<double[]> xyz = Optional.empty();
+  private final double cosLat;
 
   /**
-   * Instantiates with given latitude and longitude.
+   * x-coordinate on the unit sphere, toward latitude 0 and longitude 0.
+   */
+  private final double x;
+
+  /**
+   * y-coordinate on the unit sphere, toward latitude 0 and longitude 90.
+   */
+  private final double y;
+
+  /**
+   * z-coordinate on the unit sphere, toward the north pole.
+   */
+  private final double z;
+
+  /**
+   * How distances from this point are measured.
+   */
+  private final DistanceKernel kernel;
+
+  /**
+   * Instantiates with given latitude and longitude. Distances are measured
+   * with the haversine formula.
    *
    * @param lat latitude
    * @param lng longitude
    */
   public LatLng(double lat, double lng) {
+    this(lat, lng, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * Instantiates with given latitude and longitude, measuring distances from
+   * it with the given kernel.
+   *
+   * @param lat latitude
+   * @param lng longitude
+   * @param kernel how distances from this point are measured
+   */
+  public LatLng(double lat, double lng, DistanceKernel kernel) {
+    this.kernel = kernel;
     this.lat = lat;
     this.latRadians = Math.toRadians(lat);
     this.lng = lng;
     this.lngRadians = Math.toRadians(lng);
+    this.cosLat = Math.cos(latRadians);
+    this.x = cosLat * Math.cos(lngRadians);
+    this.y = cosLat * Math.sin(lngRadians);
+    this.z = Math.sin(latRadians);
   }
 
   /**
@@ -84,18 +120,6 @@ public class LatLng implements Dimensional {
     this(coordinates[0], coordinates[1]);
   }
 
-  /**
-   * Calculates xyz-coordinates.
-   */
-  private void fillXYZ() {
-    if (!xyz.isPresent()) {
-      double x = RADIUS * Math.cos(latRadians) * Math.cos(lngRadians);
-      double y = RADIUS * Math.cos(latRadians) * Math.sin(lngRadians);
-      double z = RADIUS * Math.sin(latRadians);
-      xyz = Optional.of(new double[]{x, y, z});
-    }
-  }
-
   /**
    * @return latitude
    */
@@ -125,28 +149,69 @@ public class LatLng implements Dimensional {
   }
 
   /**
-   * @return array of xyz-coordinates
+   * @return how distances from this point are measured
+   */
+  public DistanceKernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * @return array of xyz-coordinates on the earth, in km
    */
   public double[] getXYZ() {
-    fillXYZ();
-    return Arrays.copyOf(xyz.get(), xyz.get().length);
+    return new double[]{RADIUS * x, RADIUS * y, RADIUS * z};
+  }
+
+  /**
+   * @return x-coordinate on the unit sphere
+   */
+  public double getUnitX() {
+    return x;
+  }
+
+  /**
+   * @return y-coordinate on the unit sphere
+   */
+  public double getUnitY() {
+    return y;
+  }
+
+  /**
+   * @return z-coordinate on the unit sphere
+   */
+  public double getUnitZ() {
+    return z;
   }
 
   /**
    * Calculates tunnel (straight-line) distance to another latitude and
-   * longitude.
+   * longitude. Used as an A* heuristic, so allocates nothing.
    *
    * @param other other latitude and longitude
    * @return tunnel distance
    */
   public double tunnelDistanceTo(LatLng other) {
-    double[] thisXYZ = this.getXYZ();
-    double[] otherXYZ = other.getXYZ();
-    double sumSquares = 0;
-    for (int i = 0; i < thisXYZ.length; i++) {
-      sumSquares += Math.pow(thisXYZ[i] - otherXYZ[i], 2);
-    }
-    return Math.sqrt(sumSquares);
+    return chordDistance(x, y, z, other.x, other.y, other.z);
+  }
+
+  /**
+   * Length of the chord between two points on the unit sphere, scaled to the
+   * earth.
+   *
+   * @param x1 x-coordinate of first point
+   * @param y1 y-coordinate of first point
+   * @param z1 z-coordinate of first point
+   * @param x2 x-coordinate of second point
+   * @param y2 y-coordinate of second point
+   * @param z2 z-coordinate of second point
+   * @return tunnel distance in km
+   */
+  public static double chordDistance(double x1, double y1, double z1,
+    double x2, double y2, double z2) {
+    double dx = x1 - x2;
+    double dy = y1 - y2;
+    double dz = z1 - z2;
+    return RADIUS * Math.sqrt(dx * dx + dy * dy + dz * dz);
   }
 
   /**
@@ -177,10 +242,10 @@ public class LatLng implements Dimensional {
   }
 
   /**
-   * Great-circle distance to another LatLng. Uses Haversine formula.
+   * Distance to another LatLng, measured with this point's kernel.
    *
    * @param o LatLng
-   * @return great-circle distance
+   * @return distance
    */
   @Override
   public double distanceTo(Dimensional o) {
@@ -188,15 +253,61 @@ public class LatLng implements Dimensional {
       throw new IllegalArgumentException("distance undefined");
     }
     LatLng other = (LatLng) o;
+    return kernel.distance(latRadians, lngRadians, other.latRadians,
+      other.lngRadians);
+  }
+
+  /**
+   * Distance to the latitude and longitude, in degrees, at the offset in the
+   * array, measured with this point's kernel. Allocates nothing.
+   *
+   * @param coordinates array of coordinates
+   * @param offset index of latitude, followed by longitude
+   * @return distance
+   */
+  @Override
+  public double distanceTo(double[] coordinates, int offset) {
+    return kernel.distance(latRadians, lngRadians,
+      Math.toRadians(coordinates[offset]),
+      Math.toRadians(coordinates[offset + 1]));
+  }
 
-    // Haversine formula
-    double dlon = other.lngRadians - this.lngRadians;
-    double dlat = other.latRadians - this.latRadians;
-    double a = Math.pow(Math.sin(dlat / 2), 2) + Math.cos(this.latRadians)
-      * Math.cos(other.latRadians) * Math.pow(Math.sin(dlon / 2), 2);
-    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-    double d = RADIUS * c;
-    return d;
+  /**
+   * Lower bound on great-circle distance to anything across a parallel or a
+   * meridian. Crossing the parallel at a latitude means traveling at least the
+   * difference in latitude. Crossing the meridian at a longitude means
+   * reaching that half of a great circle: its nearest point is the foot of the
+   * perpendicular if the longitudes differ by at most 90 degrees, and
+   * otherwise a pole. Unlike the distance to the point with only the
+   * coordinate changed, which runs along a parallel, this is a true lower
+   * bound at every latitude. The bound is then loosened by this point's
+   * kernel, so it bounds distances as the kernel measures them.
+   * Allocates nothing.
+   *
+   * @param coordinate 0 for a parallel, 1 for a meridian
+   * @param value latitude or longitude of the plane, in degrees
+   * @return lower bound on distance to points across the plane
+   */
+  @Override
+  public double distanceToPlane(int coordinate, double value) {
+    switch (coordinate) {
+      case 0:
+        return kernel.lowerBound(
+          RADIUS * Math.abs(Math.toRadians(value) - latRadians));
+      case 1:
+        // Difference in longitude, between 0 and pi
+        double dlng = Math.abs(Math.IEEEremainder(
+          Math.toRadians(value) - lngRadians, 2 * Math.PI));
+        if (dlng <= Math.PI / 2) {
+          return kernel.lowerBound(
+            RADIUS * Math.asin(Math.min(1, cosLat * Math.sin(dlng))));
+        }
+        return kernel.lowerBound(
+          RADIUS * (Math.PI / 2 - Math.abs(latRadians)));
+      default:
+        throw new IllegalArgumentException(
+          "invalid coordinate for LatLng: must be 0 or 1");
+    }
   }
 
   /**
@@ -206,9 +317,9 @@ public class LatLng implements Dimensional {
   public Dimensional withCoordinate(int coordinate, double value) {
     switch (coordinate) {
       case 0:
-        return new LatLng(value, lng);
+        return new LatLng(value, lng, kernel);
       case 1:
-        return new LatLng(lat, value);
+        return new LatLng(lat, value, kernel);
       default:
         throw new IllegalArgumentException(
           "invalid coordinate for LatLng: must be 0 or 1");
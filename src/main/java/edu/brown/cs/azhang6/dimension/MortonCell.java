@@ -0,0 +1,210 @@
+package edu.brown.cs.azhang6.dimension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical cells of latitude and longitude, numbered in Morton order.
+ * Level {@code l} splits the longitudes from -180 to 180 degrees and the
+ * latitudes from -90 to 90 degrees into 2<sup>l</sup> equal parts each; a
+ * cell is named by interleaving the bits of its longitude and latitude parts,
+ * with the longitude in the low bit. Each cell is split into the four cells
+ * of the next level whose codes follow its own code shifted left by two, so
+ * the cells of any level inside a cell of a coarser level have consecutive
+ * codes, and a box can be covered by a few ranges of codes.
+ *
+ * @author aaronzhang
+ */
+public final class MortonCell {
+
+  /**
+   * Finest level, whose codes take 60 bits.
+   */
+  public static final int MAX_LEVEL = 30;
+
+  /**
+   * Can't be instantiated.
+   */
+  private MortonCell() {
+
+  }
+
+  /**
+   * Code of the cell of a level containing a latitude and longitude. Points
+   * on the edge between two cells are in the one with greater latitude or
+   * longitude, except at 90 degrees latitude and 180 degrees longitude, which
+   * are in the last cells.
+   *
+   * @param lat latitude
+   * @param lng longitude
+   * @param level level, from 0 to {@value MortonCell#MAX_LEVEL}
+   * @return code of cell
+   * @throws IllegalArgumentException if level is out of range
+   */
+  public static long cell(double lat, double lng, int level) {
+    checkLevel(level);
+    long side = 1L << level;
+    long x = part((lng - LatLng.MIN_LNG) / (LatLng.MAX_LNG - LatLng.MIN_LNG),
+      side);
+    long y = part((lat - LatLng.MIN_LAT) / (LatLng.MAX_LAT - LatLng.MIN_LAT),
+      side);
+    return spread(x) | spread(y) << 1;
+  }
+
+  /**
+   * Covers a box of latitude and longitude with cells, and returns the codes
+   * they cover at the given level as sorted, disjoint ranges. Cells are
+   * split until they are inside the box, outside it, or of the given level,
+   * unless that would take more ranges than allowed, in which case the cells
+   * of the last level that fit are used whole. Every point in the box is in
+   * a cell of the cover, but the cells may reach past the box. The box
+   * doesn't cross the antimeridian; longitudes past 180 degrees are clamped.
+   *
+   * @param minLat least latitude
+   * @param minLng least longitude
+   * @param maxLat greatest latitude
+   * @param maxLng greatest longitude
+   * @param level level of the codes in the ranges
+   * @param maxRanges number of ranges to try to stay within, at least 1
+   * @return starts and ends of the ranges of codes, two per range, each
+   * start included and each end excluded
+   * @throws IllegalArgumentException if level is out of range, or if
+   * maxRanges isn't positive
+   */
+  public static long[] cover(double minLat, double minLng, double maxLat,
+    double maxLng, int level, int maxRanges) {
+    checkLevel(level);
+    if (maxRanges < 1) {
+      throw new IllegalArgumentException("need at least one range");
+    }
+    List<long[]> ranges = new ArrayList<>();
+    if (minLat > maxLat || minLng > maxLng) {
+      return new long[0];
+    }
+    // Cells of the current level that are partly in the box
+    long[] cells = {0};
+    int numCells = 1;
+    for (int l = 0; numCells > 0; l++) {
+      long[] partial = new long[numCells];
+      int numPartial = 0;
+      double lngSize = (LatLng.MAX_LNG - LatLng.MIN_LNG) / (1L << l);
+      double latSize = (LatLng.MAX_LAT - LatLng.MIN_LAT) / (1L << l);
+      for (int i = 0; i < numCells; i++) {
+        long c = cells[i];
+        double west = LatLng.MIN_LNG + compact(c) * lngSize;
+        double south = LatLng.MIN_LAT + compact(c >>> 1) * latSize;
+        double east = west + lngSize;
+        double north = south + latSize;
+        if (east < minLng || west > maxLng || north < minLat
+          || south > maxLat) {
+          continue;
+        }
+        if (l == level || (west >= minLng && east <= maxLng
+          && south >= minLat && north <= maxLat)) {
+          ranges.add(range(c, l, level));
+        } else {
+          partial[numPartial++] = c;
+        }
+      }
+      if (ranges.size() + 4 * numPartial > maxRanges) {
+        // Use the cells that are partly in the box whole
+        for (int i = 0; i < numPartial; i++) {
+          ranges.add(range(partial[i], l, level));
+        }
+        break;
+      }
+      cells = new long[4 * numPartial];
+      for (int i = 0; i < numPartial; i++) {
+        for (int child = 0; child < 4; child++) {
+          cells[4 * i + child] = partial[i] << 2 | child;
+        }
+      }
+      numCells = 4 * numPartial;
+    }
+    return merge(ranges);
+  }
+
+  /**
+   * @param c code of cell
+   * @param l level of cell
+   * @param level finer level
+   * @return start and end of the codes of the cells of the finer level in the
+   * cell
+   */
+  private static long[] range(long c, int l, int level) {
+    int shift = 2 * (level - l);
+    return new long[]{c << shift, (c + 1) << shift};
+  }
+
+  /**
+   * Sorts ranges and joins those that touch.
+   *
+   * @param ranges disjoint ranges
+   * @return starts and ends of the joined ranges
+   */
+  private static long[] merge(List<long[]> ranges) {
+    ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+    long[] merged = new long[2 * ranges.size()];
+    int count = 0;
+    for (long[] range : ranges) {
+      if (count > 0 && merged[count - 1] == range[0]) {
+        merged[count - 1] = range[1];
+      } else {
+        merged[count++] = range[0];
+        merged[count++] = range[1];
+      }
+    }
+    return Arrays.copyOf(merged, count);
+  }
+
+  /**
+   * @param level level
+   * @throws IllegalArgumentException if level is out of range
+   */
+  private static void checkLevel(int level) {
+    if (level < 0 || level > MAX_LEVEL) {
+      throw new IllegalArgumentException(
+        "level must be from 0 to " + MAX_LEVEL);
+    }
+  }
+
+  /**
+   * @param fraction fraction of the way across
+   * @param side number of parts
+   * @return part, clamped to the parts
+   */
+  private static long part(double fraction, long side) {
+    return (long) Math.max(0, Math.min(side - 1, fraction * side));
+  }
+
+  /**
+   * Spreads the low 32 bits of a number out to the even bits.
+   *
+   * @param v number
+   * @return number with bit i moved to bit 2i
+   */
+  private static long spread(long v) {
+    v &= 0xFFFFFFFFL;
+    v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+    v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+    v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+    v = (v | v << 2) & 0x3333333333333333L;
+    return (v | v << 1) & 0x5555555555555555L;
+  }
+
+  /**
+   * Gathers the even bits of a number, undoing {@link #spread(long)}.
+   *
+   * @param v number
+   * @return number with bit 2i moved to bit i
+   */
+  private static long compact(long v) {
+    v &= 0x5555555555555555L;
+    v = (v | v >>> 1) & 0x3333333333333333L;
+    v = (v | v >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+    v = (v | v >>> 4) & 0x00FF00FF00FF00FFL;
+    v = (v | v >>> 8) & 0x0000FFFF0000FFFFL;
+    return (v | v >>> 16) & 0xFFFFFFFFL;
+  }
+}
@@ -90,6 +90,36 @@ public class Point implements Dimensional {
     return Math.sqrt(squaredSum);
   }
 
+  /**
+   * Euclidean distance to the point whose coordinates start at the offset in
+   * the array. Allocates nothing.
+   *
+   * @param other array of coordinates
+   * @param offset index of the first coordinate of the point
+   * @return distance to the point
+   */
+  @Override
+  public double distanceTo(double[] other, int offset) {
+    double squaredSum = 0;
+    for (int i = 0; i < coordinates.length; i++) {
+      double difference = coordinates[i] - other[offset + i];
+      squaredSum += difference * difference;
+    }
+    return Math.sqrt(squaredSum);
+  }
+
+  /**
+   * Euclidean distance to a plane is the difference in the coordinate.
+   *
+   * @param coordinate coordinate fixed by the plane
+   * @param value value of that coordinate on the plane
+   * @return distance to the plane
+   */
+  @Override
+  public double distanceToPlane(int coordinate, double value) {
+    return Math.abs(getCoordinate(coordinate) - value);
+  }
+
   /**
    * @return string representation of this {@code Point}
    */
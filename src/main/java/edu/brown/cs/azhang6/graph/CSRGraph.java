@@ -0,0 +1,496 @@
+package edu.brown.cs.azhang6.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weighted digraph stored in compressed sparse row form. Vertices and edges are
+ * identified by consecutive integer indices; the outgoing edges of vertex
+ * {@code v} are the indices from {@code outEdgesBegin(v)} (inclusive) to
+ * {@code outEdgesEnd(v)} (exclusive). Each vertex and edge also has a string
+ * ID, and the graph keeps a dictionary between the string IDs and the indices.
+ *
+ * <p>
+ * The graph also keeps the reverse adjacency, for searching backward: the
+ * incoming edges of vertex {@code v} are {@code inEdge(i)} for {@code i} from
+ * {@code inEdgesBegin(v)} (inclusive) to {@code inEdgesEnd(v)} (exclusive).</p>
+ *
+ * <p>
+ * The weight of an edge is its base length times its traffic multiplier. The
+ * topology and base lengths are fixed once built; only traffic can change. This
+ * class comes with a builder: {@link Builder}.</p>
+ *
+ * <p>
+ * Traffic is copy-on-write: a traffic array is never changed once published,
+ * and each change publishes a new array in a single write, so readers never
+ * lock. A search that must see one consistent version of the traffic, while
+ * updates keep arriving, runs on a {@link CSRGraph#snapshot()}, which pins the
+ * current version. Changes are serialized, and each call to
+ * {@link CSRGraph#setTraffic(int[], double[])} changes any number of edges
+ * with one copy.</p>
+ *
+ * @author aaronzhang
+ */
+public class CSRGraph {
+
+  /**
+   * Index of the first outgoing edge of each vertex. Has one more element than
+   * the number of vertices, so the last element is the number of edges.
+   */
+  private final int[] offsets;
+
+  /**
+   * Head vertex of each edge.
+   */
+  private final int[] targets;
+
+  /**
+   * Tail vertex of each edge.
+   */
+  private final int[] sources;
+
+  /**
+   * Index into {@link CSRGraph#inEdges} of the first incoming edge of each
+   * vertex. Has one more element than the number of vertices.
+   */
+  private final int[] inOffsets;
+
+  /**
+   * Indices of the edges grouped by head.
+   */
+  private final int[] inEdges;
+
+  /**
+   * Length of each edge, not including traffic.
+   */
+  private final double[] baseLength;
+
+  /**
+   * Traffic multiplier of each edge. Never changed once published; changes
+   * replace the array.
+   */
+  private volatile float[] traffic;
+
+  /**
+   * ID of each vertex.
+   */
+  private final String[] vertexIds;
+
+  /**
+   * ID of each edge.
+   */
+  private final String[] edgeIds;
+
+  /**
+   * Map from vertex ID to vertex index.
+   */
+  private final Map<String, Integer> vertexIndices;
+
+  /**
+   * Map from edge ID to edge index.
+   */
+  private final Map<String, Integer> edgeIndices;
+
+  /**
+   * CSR graph builder.
+   */
+  public static class Builder {
+
+    /**
+     * Initial capacity of the edge arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Vertex IDs in order added.
+     */
+    private String[] vertexIds = new String[INITIAL_CAPACITY];
+
+    /**
+     * Map from vertex ID to index.
+     */
+    private final Map<String, Integer> vertexIndices = new HashMap<>();
+
+    /**
+     * Number of vertices added.
+     */
+    private int numVertices = 0;
+
+    /**
+     * Edge IDs in order added.
+     */
+    private String[] edgeIds = new String[INITIAL_CAPACITY];
+
+    /**
+     * Tail of each edge added.
+     */
+    private int[] tails = new int[INITIAL_CAPACITY];
+
+    /**
+     * Head of each edge added.
+     */
+    private int[] heads = new int[INITIAL_CAPACITY];
+
+    /**
+     * Length of each edge added.
+     */
+    private double[] lengths = new double[INITIAL_CAPACITY];
+
+    /**
+     * Number of edges added.
+     */
+    private int numEdges = 0;
+
+    /**
+     * New builder with no vertices or edges.
+     */
+    public Builder() {
+
+    }
+
+    /**
+     * Adds a vertex with the given ID. Adding an ID that has already been added
+     * does nothing.
+     *
+     * @param id vertex id
+     * @return this builder
+     */
+    public Builder addVertex(String id) {
+      if (vertexIndices.containsKey(id)) {
+        return this;
+      }
+      if (numVertices == vertexIds.length) {
+        vertexIds = Arrays.copyOf(vertexIds, 2 * numVertices);
+      }
+      vertexIds[numVertices] = id;
+      vertexIndices.put(id, numVertices);
+      numVertices++;
+      return this;
+    }
+
+    /**
+     * Gets the index the vertex with the given ID will have in the built
+     * graph, or -1 if no such vertex has been added.
+     *
+     * @param id vertex id
+     * @return vertex index
+     */
+    public int vertexIndex(String id) {
+      Integer index = vertexIndices.get(id);
+      return index == null ? -1 : index;
+    }
+
+    /**
+     * Adds an edge with the given ID and length from the tail to the head. The
+     * tail and head must have been added beforehand.
+     *
+     * @param id edge id
+     * @param tail id of tail vertex
+     * @param head id of head vertex
+     * @param length length not including traffic, nonnegative
+     * @return this builder
+     * @throws IllegalArgumentException if either vertex hasn't been added or
+     * length is negative
+     */
+    public Builder addEdge(String id, String tail, String head, double length) {
+      Integer t = vertexIndices.get(tail);
+      if (t == null) {
+        throw new IllegalArgumentException(String.format(
+          "no vertex with id: %s", tail));
+      }
+      Integer h = vertexIndices.get(head);
+      if (h == null) {
+        throw new IllegalArgumentException(String.format(
+          "no vertex with id: %s", head));
+      }
+      if (length < 0) {
+        throw new IllegalArgumentException("length must be nonnegative");
+      }
+      if (numEdges == tails.length) {
+        int capacity = 2 * numEdges;
+        edgeIds = Arrays.copyOf(edgeIds, capacity);
+        tails = Arrays.copyOf(tails, capacity);
+        heads = Arrays.copyOf(heads, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+      }
+      edgeIds[numEdges] = id;
+      tails[numEdges] = t;
+      heads[numEdges] = h;
+      lengths[numEdges] = length;
+      numEdges++;
+      return this;
+    }
+
+    /**
+     * Builds the graph. Edges are grouped by tail with a counting sort, so
+     * edges with the same tail keep the order they were added in.
+     *
+     * @return graph
+     */
+    public CSRGraph build() {
+      int[] offsets = new int[numVertices + 1];
+      for (int e = 0; e < numEdges; e++) {
+        offsets[tails[e] + 1]++;
+      }
+      for (int v = 0; v < numVertices; v++) {
+        offsets[v + 1] += offsets[v];
+      }
+      int[] next = Arrays.copyOf(offsets, numVertices);
+      int[] targets = new int[numEdges];
+      double[] baseLength = new double[numEdges];
+      String[] sortedIds = new String[numEdges];
+      for (int e = 0; e < numEdges; e++) {
+        int index = next[tails[e]]++;
+        targets[index] = heads[e];
+        baseLength[index] = lengths[e];
+        sortedIds[index] = edgeIds[e];
+      }
+      return new CSRGraph(offsets, targets, baseLength,
+        Arrays.copyOf(vertexIds, numVertices), sortedIds,
+        new HashMap<>(vertexIndices));
+    }
+  }
+
+  /**
+   * Should be constructed by builder.
+   *
+   * @param offsets first outgoing edge of each vertex
+   * @param targets head of each edge
+   * @param baseLength length of each edge
+   * @param vertexIds vertex ids
+   * @param edgeIds edge ids
+   * @param vertexIndices map from vertex id to index
+   */
+  protected CSRGraph(int[] offsets, int[] targets, double[] baseLength,
+    String[] vertexIds, String[] edgeIds,
+    Map<String, Integer> vertexIndices) {
+    this.offsets = offsets;
+    this.targets = targets;
+    this.baseLength = baseLength;
+    int n = vertexIds.length;
+    int m = targets.length;
+    this.sources = new int[m];
+    for (int v = 0; v < n; v++) {
+      Arrays.fill(sources, offsets[v], offsets[v + 1], v);
+    }
+    // Group the edges by head with a counting sort, as the builder does by tail
+    this.inOffsets = new int[n + 1];
+    for (int e = 0; e < m; e++) {
+      inOffsets[targets[e] + 1]++;
+    }
+    for (int v = 0; v < n; v++) {
+      inOffsets[v + 1] += inOffsets[v];
+    }
+    int[] next = Arrays.copyOf(inOffsets, n);
+    this.inEdges = new int[m];
+    for (int e = 0; e < m; e++) {
+      inEdges[next[targets[e]]++] = e;
+    }
+    float[] initialTraffic = new float[targets.length];
+    Arrays.fill(initialTraffic, 1);
+    this.traffic = initialTraffic;
+    this.vertexIds = vertexIds;
+    this.edgeIds = edgeIds;
+    this.vertexIndices = vertexIndices;
+    this.edgeIndices = new HashMap<>();
+    for (int e = 0; e < edgeIds.length; e++) {
+      edgeIndices.put(edgeIds[e], e);
+    }
+  }
+
+  /**
+   * Copy of a graph that shares everything, including the current version of
+   * its traffic, but publishes its own traffic changes.
+   *
+   * @param other graph to copy
+   */
+  private CSRGraph(CSRGraph other) {
+    this.offsets = other.offsets;
+    this.targets = other.targets;
+    this.sources = other.sources;
+    this.inOffsets = other.inOffsets;
+    this.inEdges = other.inEdges;
+    this.baseLength = other.baseLength;
+    this.traffic = other.traffic;
+    this.vertexIds = other.vertexIds;
+    this.edgeIds = other.edgeIds;
+    this.vertexIndices = other.vertexIndices;
+    this.edgeIndices = other.edgeIndices;
+  }
+
+  /**
+   * Gets a snapshot of this graph: a graph with the same topology and the
+   * current traffic, which later traffic changes to this graph don't affect.
+   * Takes constant time, since nothing is copied.
+   *
+   * @return snapshot
+   */
+  public CSRGraph snapshot() {
+    return new CSRGraph(this);
+  }
+
+  /**
+   * @return number of vertices
+   */
+  public int numVertices() {
+    return vertexIds.length;
+  }
+
+  /**
+   * @return number of edges
+   */
+  public int numEdges() {
+    return targets.length;
+  }
+
+  /**
+   * @param v vertex index
+   * @return index of first outgoing edge of vertex
+   */
+  public int outEdgesBegin(int v) {
+    return offsets[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return one past the index of the last outgoing edge of vertex
+   */
+  public int outEdgesEnd(int v) {
+    return offsets[v + 1];
+  }
+
+  /**
+   * @param e edge index
+   * @return head vertex of edge
+   */
+  public int head(int e) {
+    return targets[e];
+  }
+
+  /**
+   * @param e edge index
+   * @return tail vertex of edge
+   */
+  public int tail(int e) {
+    return sources[e];
+  }
+
+  /**
+   * @param v vertex index
+   * @return position of first incoming edge of vertex
+   */
+  public int inEdgesBegin(int v) {
+    return inOffsets[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return one past the position of the last incoming edge of vertex
+   */
+  public int inEdgesEnd(int v) {
+    return inOffsets[v + 1];
+  }
+
+  /**
+   * @param i position of incoming edge, between {@code inEdgesBegin(v)} and
+   * {@code inEdgesEnd(v)} for some vertex {@code v}
+   * @return edge index
+   */
+  public int inEdge(int i) {
+    return inEdges[i];
+  }
+
+  /**
+   * @param e edge index
+   * @return length of edge, not including traffic
+   */
+  public double baseLength(int e) {
+    return baseLength[e];
+  }
+
+  /**
+   * @param e edge index
+   * @return traffic multiplier of edge
+   */
+  public double getTraffic(int e) {
+    return traffic[e];
+  }
+
+  /**
+   * Changes the traffic of several edges, publishing the changes together.
+   * Copies the traffic of every edge, so changes should be batched rather
+   * than made one edge at a time.
+   *
+   * @param edges edge indices
+   * @param values new traffic multiplier of each edge
+   * @throws IllegalArgumentException if there aren't as many values as edges
+   */
+  public synchronized void setTraffic(int[] edges, double[] values) {
+    if (edges.length != values.length) {
+      throw new IllegalArgumentException("need one value per edge");
+    }
+    float[] next = traffic.clone();
+    for (int i = 0; i < edges.length; i++) {
+      next[edges[i]] = (float) values[i];
+    }
+    traffic = next;
+  }
+
+  /**
+   * Gets the weight of an edge: its base length times its traffic.
+   *
+   * @param e edge index
+   * @return weight of edge
+   */
+  public double weight(int e) {
+    return baseLength[e] * traffic[e];
+  }
+
+  /**
+   * @param v vertex index
+   * @return vertex id
+   */
+  public String vertexId(int v) {
+    return vertexIds[v];
+  }
+
+  /**
+   * @param e edge index
+   * @return edge id
+   */
+  public String edgeId(int e) {
+    return edgeIds[e];
+  }
+
+  /**
+   * Gets index of vertex with given ID, or -1 if no such vertex.
+   *
+   * @param id vertex id
+   * @return vertex index
+   */
+  public int vertexIndex(String id) {
+    Integer index = vertexIndices.get(id);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Gets index of edge with given ID, or -1 if no such edge.
+   *
+   * @param id edge id
+   * @return edge index
+   */
+  public int edgeIndex(String id) {
+    Integer index = edgeIndices.get(id);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("[CSR graph with %d vertices and %d edges]",
+      numVertices(), numEdges());
+  }
+}
@@ -0,0 +1,756 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over a {@link CSRGraph}, for answering shortest-path
+ * queries with {@link Graphs#contractionHierarchyQuery(ContractionHierarchy,
+ * int, int)}.
+ *
+ * <p>
+ * Preprocessing contracts the vertices one at a time, least important first.
+ * Contracting a vertex removes it from the remaining graph and adds a shortcut
+ * from each remaining in-neighbor to each remaining out-neighbor, unless a
+ * witness search finds a path between them at least as short that avoids the
+ * vertex. Importance is the edge difference (shortcuts added minus edges
+ * removed) plus the number of neighbors already contracted, which keeps the
+ * contraction spread evenly over the graph. A query then only needs to search
+ * upward in rank from both ends.</p>
+ *
+ * <p>
+ * The hierarchy is built on the base lengths of the edges, so queries ignore
+ * traffic. It can be saved to a file and loaded back for the same graph, so it
+ * only has to be built once per database.</p>
+ *
+ * @author aaronzhang
+ */
+public class ContractionHierarchy {
+
+  /**
+   * First int of a saved hierarchy.
+   */
+  private static final int MAGIC = 0x43480001;
+
+  /**
+   * Max number of vertices a witness search settles. Stopping early can only
+   * add shortcuts that weren't needed, never miss one.
+   */
+  private static final int WITNESS_SETTLE_LIMIT = 256;
+
+  /**
+   * Number of vertices.
+   */
+  private final int numVertices;
+
+  /**
+   * Fingerprint of the graph this hierarchy was built for.
+   */
+  private final long fingerprint;
+
+  /**
+   * Rank of each vertex: the order it was contracted in.
+   */
+  private final int[] rank;
+
+  /**
+   * Number of arcs, which are the edges of the graph and the shortcuts.
+   */
+  private final int numArcs;
+
+  /**
+   * Tail of each arc.
+   */
+  private final int[] arcTail;
+
+  /**
+   * Head of each arc.
+   */
+  private final int[] arcHead;
+
+  /**
+   * Weight of each arc.
+   */
+  private final double[] arcWeight;
+
+  /**
+   * Edge of the graph each arc is, or -1 for a shortcut.
+   */
+  private final int[] arcEdge;
+
+  /**
+   * First of the two arcs each shortcut stands for, or -1 for an edge.
+   */
+  private final int[] arcFirst;
+
+  /**
+   * Second of the two arcs each shortcut stands for, or -1 for an edge.
+   */
+  private final int[] arcSecond;
+
+  /**
+   * Position in {@link ContractionHierarchy#upArcs} of the first arc from
+   * each vertex to a vertex of higher rank.
+   */
+  private final int[] upOffsets;
+
+  /**
+   * Arcs to a vertex of higher rank, grouped by tail.
+   */
+  private final int[] upArcs;
+
+  /**
+   * Position in {@link ContractionHierarchy#downArcs} of the first arc into
+   * each vertex from a vertex of higher rank.
+   */
+  private final int[] downOffsets;
+
+  /**
+   * Arcs from a vertex of higher rank, grouped by head.
+   */
+  private final int[] downArcs;
+
+  /**
+   * New hierarchy with the given ranks and arcs.
+   *
+   * @param numVertices number of vertices
+   * @param fingerprint fingerprint of graph
+   * @param rank rank of each vertex
+   * @param numArcs number of arcs
+   * @param arcTail tail of each arc
+   * @param arcHead head of each arc
+   * @param arcWeight weight of each arc
+   * @param arcEdge edge of each arc
+   * @param arcFirst first arc of each shortcut
+   * @param arcSecond second arc of each shortcut
+   */
+  private ContractionHierarchy(int numVertices, long fingerprint, int[] rank,
+    int numArcs, int[] arcTail, int[] arcHead, double[] arcWeight,
+    int[] arcEdge, int[] arcFirst, int[] arcSecond) {
+    this.numVertices = numVertices;
+    this.fingerprint = fingerprint;
+    this.rank = rank;
+    this.numArcs = numArcs;
+    this.arcTail = arcTail;
+    this.arcHead = arcHead;
+    this.arcWeight = arcWeight;
+    this.arcEdge = arcEdge;
+    this.arcFirst = arcFirst;
+    this.arcSecond = arcSecond;
+    // Group upward arcs by tail and downward arcs by head
+    upOffsets = new int[numVertices + 1];
+    downOffsets = new int[numVertices + 1];
+    for (int a = 0; a < numArcs; a++) {
+      if (rank[arcTail[a]] < rank[arcHead[a]]) {
+        upOffsets[arcTail[a] + 1]++;
+      } else {
+        downOffsets[arcHead[a] + 1]++;
+      }
+    }
+    for (int v = 0; v < numVertices; v++) {
+      upOffsets[v + 1] += upOffsets[v];
+      downOffsets[v + 1] += downOffsets[v];
+    }
+    upArcs = new int[upOffsets[numVertices]];
+    downArcs = new int[downOffsets[numVertices]];
+    int[] nextUp = Arrays.copyOf(upOffsets, numVertices);
+    int[] nextDown = Arrays.copyOf(downOffsets, numVertices);
+    for (int a = 0; a < numArcs; a++) {
+      if (rank[arcTail[a]] < rank[arcHead[a]]) {
+        upArcs[nextUp[arcTail[a]]++] = a;
+      } else {
+        downArcs[nextDown[arcHead[a]]++] = a;
+      }
+    }
+  }
+
+  /**
+   * Builds a contraction hierarchy for the graph, using the base lengths of
+   * its edges.
+   *
+   * @param graph graph
+   * @return contraction hierarchy
+   */
+  public static ContractionHierarchy build(CSRGraph graph) {
+    return new Contractor(graph).contractAll();
+  }
+
+  /**
+   * Loads a hierarchy saved by {@link ContractionHierarchy#save(File)}.
+   *
+   * @param file file
+   * @param graph graph the hierarchy was built for
+   * @return contraction hierarchy
+   * @throws IOException if the file can't be read, or wasn't saved for this
+   * graph
+   */
+  public static ContractionHierarchy load(File file, CSRGraph graph)
+    throws IOException {
+    try (DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("not a contraction hierarchy: " + file);
+      }
+      int n = in.readInt();
+      long print = in.readLong();
+      if (n != graph.numVertices() || print != fingerprint(graph)) {
+        throw new IOException(
+          "contraction hierarchy is for a different graph: " + file);
+      }
+      int[] rank = new int[n];
+      for (int v = 0; v < n; v++) {
+        rank[v] = in.readInt();
+      }
+      int m = in.readInt();
+      int[] tail = new int[m];
+      int[] head = new int[m];
+      double[] weight = new double[m];
+      int[] edge = new int[m];
+      int[] first = new int[m];
+      int[] second = new int[m];
+      for (int a = 0; a < m; a++) {
+        tail[a] = in.readInt();
+        head[a] = in.readInt();
+        weight[a] = in.readDouble();
+        edge[a] = in.readInt();
+        first[a] = in.readInt();
+        second[a] = in.readInt();
+      }
+      return new ContractionHierarchy(
+        n, print, rank, m, tail, head, weight, edge, first, second);
+    }
+  }
+
+  /**
+   * Loads the hierarchy for the graph from the file if the file holds one,
+   * or else builds it and saves it to the file. A file that can't be saved
+   * only means the hierarchy will be built again next time.
+   *
+   * @param file file
+   * @param graph graph
+   * @return contraction hierarchy
+   */
+  public static ContractionHierarchy loadOrBuild(File file, CSRGraph graph) {
+    if (file.exists()) {
+      try {
+        return load(file, graph);
+      } catch (IOException e) {
+        // Rebuild below
+      }
+    }
+    ContractionHierarchy ch = build(graph);
+    try {
+      ch.save(file);
+    } catch (IOException e) {
+      System.err.println("ERROR: couldn't save contraction hierarchy: " + e);
+    }
+    return ch;
+  }
+
+  /**
+   * Saves this hierarchy to a file.
+   *
+   * @param file file
+   * @throws IOException if the file can't be written
+   */
+  public void save(File file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(numVertices);
+      out.writeLong(fingerprint);
+      for (int v = 0; v < numVertices; v++) {
+        out.writeInt(rank[v]);
+      }
+      out.writeInt(numArcs);
+      for (int a = 0; a < numArcs; a++) {
+        out.writeInt(arcTail[a]);
+        out.writeInt(arcHead[a]);
+        out.writeDouble(arcWeight[a]);
+        out.writeInt(arcEdge[a]);
+        out.writeInt(arcFirst[a]);
+        out.writeInt(arcSecond[a]);
+      }
+    }
+  }
+
+  /**
+   * Fingerprint of the topology and base lengths of a graph, to tell whether
+   * a saved hierarchy was built for it.
+   *
+   * @param graph graph
+   * @return fingerprint
+   */
+  private static long fingerprint(CSRGraph graph) {
+    long print = graph.numVertices();
+    for (int v = 0; v < graph.numVertices(); v++) {
+      print = 31 * print + graph.outEdgesEnd(v);
+    }
+    for (int e = 0; e < graph.numEdges(); e++) {
+      print = 31 * print + graph.head(e);
+      print = 31 * print + Double.doubleToLongBits(graph.baseLength(e));
+    }
+    return print;
+  }
+
+  /**
+   * @return number of vertices
+   */
+  public int numVertices() {
+    return numVertices;
+  }
+
+  /**
+   * @return number of arcs, including shortcuts
+   */
+  public int numArcs() {
+    return numArcs;
+  }
+
+  /**
+   * @param v vertex index
+   * @return order in which the vertex was contracted
+   */
+  public int rank(int v) {
+    return rank[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return position of first upward arc from vertex
+   */
+  int upBegin(int v) {
+    return upOffsets[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return one past the position of last upward arc from vertex
+   */
+  int upEnd(int v) {
+    return upOffsets[v + 1];
+  }
+
+  /**
+   * @param i position of upward arc
+   * @return arc
+   */
+  int upArc(int i) {
+    return upArcs[i];
+  }
+
+  /**
+   * @param v vertex index
+   * @return position of first downward arc into vertex
+   */
+  int downBegin(int v) {
+    return downOffsets[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return one past the position of last downward arc into vertex
+   */
+  int downEnd(int v) {
+    return downOffsets[v + 1];
+  }
+
+  /**
+   * @param i position of downward arc
+   * @return arc
+   */
+  int downArc(int i) {
+    return downArcs[i];
+  }
+
+  /**
+   * @param a arc
+   * @return tail of arc
+   */
+  int tail(int a) {
+    return arcTail[a];
+  }
+
+  /**
+   * @param a arc
+   * @return head of arc
+   */
+  int head(int a) {
+    return arcHead[a];
+  }
+
+  /**
+   * @param a arc
+   * @return weight of arc
+   */
+  double weight(int a) {
+    return arcWeight[a];
+  }
+
+  /**
+   * Replaces each shortcut in a walk of arcs by the edges it stands for.
+   *
+   * @param arcs arcs in order
+   * @return edges of the graph in order
+   */
+  int[] unpack(int[] arcs) {
+    int[] edges = new int[arcs.length];
+    int count = 0;
+    int[] stack = new int[16];
+    for (int arc : arcs) {
+      int size = 0;
+      stack[size++] = arc;
+      while (size > 0) {
+        int a = stack[--size];
+        if (arcEdge[a] != -1) {
+          if (count == edges.length) {
+            edges = Arrays.copyOf(edges, 2 * count);
+          }
+          edges[count++] = arcEdge[a];
+        } else {
+          if (size + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+          }
+          // Second goes on the stack first so the first comes off first
+          stack[size++] = arcSecond[a];
+          stack[size++] = arcFirst[a];
+        }
+      }
+    }
+    return Arrays.copyOf(edges, count);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format(
+      "[Contraction hierarchy with %d vertices and %d arcs]",
+      numVertices, numArcs);
+  }
+
+  /**
+   * State of the graph while it is being contracted.
+   */
+  private static class Contractor {
+
+    /**
+     * Initial capacity of the arc arrays and adjacency lists.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Number of vertices.
+     */
+    private final int n;
+
+    /**
+     * Fingerprint of graph.
+     */
+    private final long fingerprint;
+
+    /**
+     * Number of arcs.
+     */
+    private int numArcs = 0;
+
+    /**
+     * Tail of each arc.
+     */
+    private int[] tail;
+
+    /**
+     * Head of each arc.
+     */
+    private int[] head;
+
+    /**
+     * Weight of each arc.
+     */
+    private double[] weight;
+
+    /**
+     * Edge of each arc.
+     */
+    private int[] edge;
+
+    /**
+     * First arc of each shortcut.
+     */
+    private int[] first;
+
+    /**
+     * Second arc of each shortcut.
+     */
+    private int[] second;
+
+    /**
+     * Arcs out of each vertex, including arcs to contracted vertices.
+     */
+    private final int[][] out;
+
+    /**
+     * Number of arcs out of each vertex.
+     */
+    private final int[] outSize;
+
+    /**
+     * Arcs into each vertex, including arcs from contracted vertices.
+     */
+    private final int[][] in;
+
+    /**
+     * Number of arcs into each vertex.
+     */
+    private final int[] inSize;
+
+    /**
+     * Whether each vertex has been contracted.
+     */
+    private final boolean[] contracted;
+
+    /**
+     * Number of contracted neighbors of each vertex.
+     */
+    private final int[] contractedNeighbors;
+
+    /**
+     * Rank of each vertex.
+     */
+    private final int[] rank;
+
+    /**
+     * Starts with the edges of the graph as the arcs. Loops are left out,
+     * since they are never on a shortest path.
+     *
+     * @param graph graph
+     */
+    Contractor(CSRGraph graph) {
+      n = graph.numVertices();
+      fingerprint = fingerprint(graph);
+      int m = Math.max(graph.numEdges(), INITIAL_CAPACITY);
+      tail = new int[m];
+      head = new int[m];
+      weight = new double[m];
+      edge = new int[m];
+      first = new int[m];
+      second = new int[m];
+      out = new int[n][];
+      outSize = new int[n];
+      in = new int[n][];
+      inSize = new int[n];
+      for (int v = 0; v < n; v++) {
+        out[v] = new int[INITIAL_CAPACITY];
+        in[v] = new int[INITIAL_CAPACITY];
+      }
+      contracted = new boolean[n];
+      contractedNeighbors = new int[n];
+      rank = new int[n];
+      for (int e = 0; e < graph.numEdges(); e++) {
+        int u = graph.tail(e);
+        int w = graph.head(e);
+        if (u != w) {
+          addArc(u, w, graph.baseLength(e), e, -1, -1);
+        }
+      }
+    }
+
+    /**
+     * Adds an arc.
+     *
+     * @param u tail
+     * @param w head
+     * @param length weight
+     * @param e edge, or -1 for a shortcut
+     * @param a first arc of shortcut, or -1 for an edge
+     * @param b second arc of shortcut, or -1 for an edge
+     */
+    private void addArc(int u, int w, double length, int e, int a, int b) {
+      if (numArcs == tail.length) {
+        int capacity = 2 * numArcs;
+        tail = Arrays.copyOf(tail, capacity);
+        head = Arrays.copyOf(head, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        edge = Arrays.copyOf(edge, capacity);
+        first = Arrays.copyOf(first, capacity);
+        second = Arrays.copyOf(second, capacity);
+      }
+      tail[numArcs] = u;
+      head[numArcs] = w;
+      weight[numArcs] = length;
+      edge[numArcs] = e;
+      first[numArcs] = a;
+      second[numArcs] = b;
+      if (outSize[u] == out[u].length) {
+        out[u] = Arrays.copyOf(out[u], 2 * outSize[u]);
+      }
+      out[u][outSize[u]++] = numArcs;
+      if (inSize[w] == in[w].length) {
+        in[w] = Arrays.copyOf(in[w], 2 * inSize[w]);
+      }
+      in[w][inSize[w]++] = numArcs;
+      numArcs++;
+    }
+
+    /**
+     * Contracts every vertex, least important first. Importance is updated
+     * lazily: a vertex taken off the heap is put back if its importance has
+     * grown past that of the next vertex.
+     *
+     * @return contraction hierarchy
+     */
+    ContractionHierarchy contractAll() {
+      IndexedMinHeap heap = new IndexedMinHeap(n);
+      for (int v = 0; v < n; v++) {
+        heap.insertOrDecrease(v, importance(v));
+      }
+      int next = 0;
+      while (!heap.isEmpty()) {
+        int v = heap.poll();
+        double importance = importance(v);
+        if (!heap.isEmpty() && importance > heap.peekKey()) {
+          heap.insertOrDecrease(v, importance);
+          continue;
+        }
+        contract(v, true);
+        contracted[v] = true;
+        rank[v] = next++;
+        for (int i = 0; i < outSize[v]; i++) {
+          contractedNeighbors[head[out[v][i]]]++;
+        }
+        for (int i = 0; i < inSize[v]; i++) {
+          contractedNeighbors[tail[in[v][i]]]++;
+        }
+      }
+      return new ContractionHierarchy(n, fingerprint, rank, numArcs,
+        Arrays.copyOf(tail, numArcs), Arrays.copyOf(head, numArcs),
+        Arrays.copyOf(weight, numArcs), Arrays.copyOf(edge, numArcs),
+        Arrays.copyOf(first, numArcs), Arrays.copyOf(second, numArcs));
+    }
+
+    /**
+     * Importance of a vertex: shortcuts contracting it would add, minus arcs
+     * it would remove, plus contracted neighbors.
+     *
+     * @param v vertex
+     * @return importance
+     */
+    private double importance(int v) {
+      int removed = 0;
+      for (int i = 0; i < outSize[v]; i++) {
+        if (!contracted[head[out[v][i]]]) {
+          removed++;
+        }
+      }
+      for (int i = 0; i < inSize[v]; i++) {
+        if (!contracted[tail[in[v][i]]]) {
+          removed++;
+        }
+      }
+      return contract(v, false) - removed + contractedNeighbors[v];
+    }
+
+    /**
+     * Finds the shortcuts needed to contract a vertex, and adds them if asked.
+     *
+     * @param v vertex
+     * @param add whether to add the shortcuts
+     * @return number of shortcuts needed
+     */
+    private int contract(int v, boolean add) {
+      int shortcuts = 0;
+      int inCount = inSize[v];
+      int outCount = outSize[v];
+      for (int i = 0; i < inCount; i++) {
+        int a = in[v][i];
+        int u = tail[a];
+        if (contracted[u]) {
+          continue;
+        }
+        // Longest shortcut from u that might be needed
+        double limit = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < outCount; j++) {
+          int b = out[v][j];
+          if (!contracted[head[b]] && head[b] != u) {
+            limit = Math.max(limit, weight[a] + weight[b]);
+          }
+        }
+        if (limit == Double.NEGATIVE_INFINITY) {
+          continue;
+        }
+        SearchContext c = witnessSearch(u, v, limit);
+        for (int j = 0; j < outCount; j++) {
+          int b = out[v][j];
+          int w = head[b];
+          if (contracted[w] || w == u) {
+            continue;
+          }
+          double length = weight[a] + weight[b];
+          if (c.isReached(w) && c.g[w] <= length) {
+            continue;
+          }
+          shortcuts++;
+          if (add) {
+            addArc(u, w, length, -1, a, b);
+          }
+        }
+      }
+      return shortcuts;
+    }
+
+    /**
+     * Dijkstra from a vertex over the remaining graph without the vertex being
+     * contracted, until the weight passes the limit or enough vertices have
+     * been settled. Afterward, the weight of a reached vertex is the weight of
+     * some path to it that avoids the contracted vertex.
+     *
+     * @param source start vertex
+     * @param avoid vertex being contracted
+     * @param limit weight limit
+     * @return search context with weights
+     */
+    private SearchContext witnessSearch(int source, int avoid, double limit) {
+      SearchContext c = SearchContext.get(n);
+      c.reach(source);
+      c.g[source] = 0;
+      c.heap.insertOrDecrease(source, 0);
+      int settledCount = 0;
+      while (!c.heap.isEmpty() && settledCount < WITNESS_SETTLE_LIMIT) {
+        if (c.heap.peekKey() > limit) {
+          break;
+        }
+        int v = c.heap.poll();
+        c.settle(v);
+        settledCount++;
+        for (int i = 0; i < outSize[v]; i++) {
+          int a = out[v][i];
+          int w = head[a];
+          if (w == avoid || contracted[w]) {
+            continue;
+          }
+          if (!c.isReached(w)) {
+            c.reach(w);
+            c.g[w] = Double.POSITIVE_INFINITY;
+          } else if (c.isSettled(w)) {
+            continue;
+          }
+          double newWeight = c.g[v] + weight[a];
+          if (newWeight < c.g[w]) {
+            c.g[w] = newWeight;
+            c.heap.insertOrDecrease(w, newWeight);
+          }
+        }
+      }
+      return c;
+    }
+  }
+}
@@ -1,19 +1,30 @@
 package edu.brown.cs.azhang6.graphs;
 
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.graph.Edge;
+import edu.brown.cs.azhang6.graph.Vertex;
 import edu.brown.cs.azhang6.graph.WEdge;
-import edu.brown.cs.azhang6.graph.ImmutableWEdge;
 import edu.brown.cs.azhang6.graph.WVertex;
 import edu.brown.cs.azhang6.pair.OrderedPair;
 
 import java.util.function.ToDoubleFunction;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
 import java.util.function.Predicate;
 
 /**
  * Static methods for operations on graphs. For example, implements Dijkstra's
  * algorithm for digraphs with weighted edges.
  *
+ * <p>
+ * The searches use an indexed heap with decrease-key and primitive arrays
+ * indexed by vertex, which live in a {@link SearchContext} that each thread
+ * reuses from one search to the next. So a search doesn't allocate an object
+ * per edge relaxed, and searches on a {@link CSRGraph} allocate almost nothing
+ * beyond the result.</p>
+ *
  * @author aaronzhang
  */
 public final class Graphs {
@@ -40,203 +51,265 @@ public final class Graphs {
    */
   public static <V, E> OrderedPair<Walk<V, E>, Double> dijkstra(
     WVertex<V, E> root, Predicate<WVertex<V, E>> stop) {
+    return search(root, stop, v -> 0,
+      Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Runs Dijkstra's algorithm from the root vertex until a vertex that
+   * satisfies the predicate is reached, using the A* optimization. The function
+   * argument is the heuristic used for A*.
+   *
+   * @param <V> type of vertex value
+   * @param <E> type of edge value
+   * @param <T> vertex type
+   * @param root start vertex
+   * @param stop stop condition
+   * @param heuristic heuristic on vertices
+   * @return minimum-weight walk from start to end, or null if no such walk
+   */
+  public static <V, E, T extends WVertex<V, E>> OrderedPair<Walk<V, E>, Double>
+  dijkstraAStar(T root, Predicate<T> stop,
+      ToDoubleFunction<? super T> heuristic) {
+    return search(root, stop, heuristic,
+      Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Same as the normal A* version, but fails if the next vertex to check is too
+   * far or if too many vertices have been searched.
+   *
+   * @param <V> type of vertex value
+   * @param <E> type of edge value
+   * @param <T> vertex type
+   * @param root start vertex
+   * @param stop stop condition
+   * @param heuristic heuristic on vertices
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return minimum-weight walk from start to end, or null if no such walk
+   */
+  public static <V, E, T extends WVertex<V, E>> OrderedPair<Walk<V, E>, Double>
+  dijkstraAStarFail(T root, Predicate<T> stop,
+    ToDoubleFunction<? super T> heuristic, double failLimit, int maxVertices) {
+    return search(root, stop, heuristic, failLimit, maxVertices);
+  }
+
+  /**
+   * A* search on a graph of vertex objects, which the other methods delegate
+   * to. Vertices are numbered as they are reached, so the search can use the
+   * arrays in a {@link SearchContext}; the only per-vertex allocation is the
+   * entry mapping a vertex to its number.
+   *
+   * @param <V> type of vertex value
+   * @param <E> type of edge value
+   * @param <T> vertex type
+   * @param root start vertex
+   * @param stop stop condition
+   * @param heuristic heuristic on vertices
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return minimum-weight walk from start to end, or null if no such walk
+   */
+  private static <V, E, T extends WVertex<V, E>> OrderedPair<Walk<V, E>, Double>
+  search(T root, Predicate<? super T> stop,
+    ToDoubleFunction<? super T> heuristic, double failLimit, int maxVertices) {
     // First, we check if the root itself satisfies the predicate
     if (stop.test(root)) {
       return new OrderedPair<>(new Walk.Builder<>(root).build(), 0D);
     }
-
-    // Maps visited vertices to weight and last edge of minimum path
-    // Start by putting the root in the visited set
-    HashMap<WVertex<V, E>, OrderedPair<Double, DijkstraEdge<V, E>>> visited
-      = new HashMap<>();
-    visited.put(root, new OrderedPair(0, null));
-    // Heap of outgoing edges from vertices in the visited set
-    // Start by putting the root's edges in the heap
-    PriorityQueue<DijkstraEdge<V, E>> edges = new PriorityQueue<>();
-    for (WEdge<V, E> we : root.getWEdges()) {
-      edges.add(new DijkstraEdge<>(
-        we, we.getWEndpoints().not(root), we.getWeight()));
-    }
-
-    // Iterate until we've found an appropriate vertex or no more edges
-    while (!edges.isEmpty()) {
-      // The edge of least weight (starting from a visited vertex)
-      DijkstraEdge<V, E> e = edges.poll();
-      // If the edge leads to a visited vertex, ignore it
-      WVertex<V, E> dest = e.getHead();
-      if (visited.keySet().contains(dest)) {
-        continue;
-      }
-      // Otherwise, keep track of the total weight to the head
-      double newWeight = e.getTotalWeight();
-
-      // Check if we've found a vertex that satisfies the predicate
-      if (stop.test(dest)) {
-        // Get the walk from the vertex back to the root
-        Walk.Builder builder = new Walk.Builder(dest);
-        // While there are still edges in the walk
-        while (e != null) {
-          // Follow the edge backward to its tail vertex
-          builder.addEdgeVertex(e, e.getTail());
-          // Then check the edge that lead to the tail vertex
-          e = visited.get(e.getTail()).second();
+    SearchContext c = SearchContext.get(1);
+    // Maps reached vertices to their numbers; the root is number 0
+    HashMap<T, Integer> numbers = new HashMap<>();
+    numbers.put(root, 0);
+    int count = 1;
+    try {
+      c.vertices[0] = root;
+      c.edges[0] = null;
+      c.parentVertex[0] = -1;
+      c.g[0] = 0;
+      c.h[0] = heuristic.applyAsDouble(root);
+      c.heap.insertOrDecrease(0, c.h[0]);
+      double fail = failWeight(failLimit, c.h[0]);
+      int settledCount = 0;
+
+      // Keep settling the unsettled vertex of least weight
+      while (!c.heap.isEmpty()) {
+        double key = c.heap.peekKey();
+        int v = c.heap.poll();
+        @SuppressWarnings("unchecked")
+        T vertex = (T) c.vertices[v];
+        if (v != 0) {
+          // Check if we should fail
+          if (key > fail || settledCount > maxVertices) {
+            return null;
+          }
+          // Check if we've found a vertex that satisfies the predicate
+          if (stop.test(vertex)) {
+            return new OrderedPair<>(walk(c, v), c.g[v]);
+          }
+        }
+        c.settle(v);
+        settledCount++;
+
+        // Relax the outgoing edges of the new vertex
+        double weight = c.g[v];
+        for (WEdge<V, E> e : vertex.getWEdges()) {
+          @SuppressWarnings("unchecked")
+          T head = (T) e.getWEndpoints().not(vertex);
+          Integer number = numbers.get(head);
+          int w;
+          if (number == null) {
+            w = count++;
+            c.ensureCapacity(count);
+            numbers.put(head, w);
+            c.vertices[w] = head;
+            c.g[w] = Double.POSITIVE_INFINITY;
+            c.h[w] = heuristic.applyAsDouble(head);
+          } else {
+            w = number;
+            if (c.isSettled(w)) {
+              continue;
+            }
+          }
+          double newWeight = weight + e.getWeight();
+          if (newWeight < c.g[w]) {
+            c.g[w] = newWeight;
+            c.edges[w] = e;
+            c.parentVertex[w] = v;
+            c.heap.insertOrDecrease(w, newWeight + c.h[w]);
+          }
         }
-        // Finally, reverse the walk and return the distance
-        return new OrderedPair<>(builder.reverse().build(), newWeight);
       }
 
-      // Otherwise, we can grow our visited set
-      visited.put(dest, new OrderedPair(newWeight, e));
-      // And add the outgoing edges from the new vertex to the heap
-      for (WEdge<V, E> newEdge : dest.getWEdges()) {
-        edges.add(new DijkstraEdge(
-          newEdge, newEdge.getWEndpoints().not(dest),
-          newWeight + newEdge.getWeight()));
-      }
+      // No more vertices to check, but we haven't found what we're looking for
+      return null;
+    } finally {
+      c.releaseObjects(count);
     }
-
-    // No more edges to check, but we haven't found what we're looking for
-    return null;
   }
 
   /**
-   * A weighted edge that also stores the total weight of its head. Used in
-   * Dijkstra's algorithm; the total weight of the head is the minimum weight
-   * from the root to the tail, plus the weight of the edge. Can be compared to
-   * another Dijkstra edge by total weight.
-   *
-   * <p>
-   * Note that Dijkstra's algorithm doesn't have to be run on a directed graph;
-   * objects of this class just represent temporary directed edges pointing away
-   * from the root.
+   * Follows the parents of a vertex back to the root to get the walk from the
+   * root to the vertex.
    *
    * @param <V> type of vertex value
    * @param <E> type of edge value
+   * @param c search context
+   * @param v number of end vertex
+   * @return walk from root to vertex
    */
-  private static class DijkstraEdge<V, E> extends ImmutableWEdge<V, E>
-    implements Comparable<DijkstraEdge<V, E>> {
-
-    /**
-     * Tail vertex.
-     */
-    private final WVertex<V, E> tail;
-
-    /**
-     * Head vertex.
-     */
-    private final WVertex<V, E> head;
-
-    /**
-     * Total weight of head.
-     */
-    private final double totalWeight;
-
-    /**
-     * New Dijkstra edge from the weighted edge, with the given vertex
-     * designated the head and assigned the total weight.
-     *
-     * @param tail tail
-     * @param head head
-     * @param totalWeight total weight of head
-     */
-    DijkstraEdge(WEdge<V, E> we, WVertex<V, E> head, double totalWeight) {
-      super(we.getValue(), we.getWEndpoints(), we.getWeight());
-      this.tail = getWEndpoints().not(head);
-      this.head = head;
-      this.totalWeight = totalWeight;
-    }
-
-    /**
-     * Compares to another Dijkstra edge by total weight.
-     *
-     * @param other other Dijkstra edge
-     * @return comparison of total weights
-     */
-    @Override
-    public int compareTo(DijkstraEdge other) {
-      double diff = this.totalWeight - other.totalWeight;
-      if (diff < 0) {
-        return -1;
-      }
-      if (diff == 0) {
-        return 0;
-      }
-      return 1;
-    }
-
-    /**
-     * @return total weight of head
-     */
-    double getTotalWeight() {
-      return totalWeight;
+  @SuppressWarnings("unchecked")
+  private static <V, E> Walk<V, E> walk(SearchContext c, int v) {
+    Walk.Builder<V, E> builder
+      = new Walk.Builder<>((Vertex<V, E>) c.vertices[v]);
+    while (c.parentVertex[v] != -1) {
+      builder.addEdgeVertex((Edge<V, E>) c.edges[v],
+        (Vertex<V, E>) c.vertices[c.parentVertex[v]]);
+      v = c.parentVertex[v];
     }
+    return builder.reverse().build();
+  }
 
-    /**
-     * @return tail
-     */
-    WVertex<V, E> getTail() {
-      return tail;
+  /**
+   * Weight past which a search fails: the fail limit times the heuristic of
+   * the root. An infinite fail limit never fails, even if the heuristic is 0.
+   *
+   * @param failLimit distance fail limit
+   * @param rootHeuristic heuristic of root
+   * @return weight past which a search fails
+   */
+  private static double failWeight(double failLimit, double rootHeuristic) {
+    if (failLimit == Double.POSITIVE_INFINITY) {
+      return Double.POSITIVE_INFINITY;
     }
+    return failLimit * rootHeuristic;
+  }
 
-    /**
-     * @return head
-     */
-    WVertex<V, E> getHead() {
-      return head;
-    }
+  /**
+   * Runs Dijkstra's algorithm with the A* optimization on a CSR graph, from the
+   * root vertex until a vertex that satisfies the predicate is reached. Returns
+   * the indices of the edges in a minimum-weight walk from the root to that
+   * vertex, in order, and the weight of the walk. If there is no such walk,
+   * returns null.
+   *
+   * @param graph graph
+   * @param root index of start vertex
+   * @param stop stop condition on vertex indices
+   * @param heuristic heuristic on vertex indices
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
+   */
+  public static OrderedPair<int[], Double> dijkstraAStar(CSRGraph graph,
+    int root, IntPredicate stop, IntToDoubleFunction heuristic) {
+    return dijkstraAStarFail(graph, root, stop, heuristic,
+      Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
   }
 
   /**
-   * Runs Dijkstra's algorithm from the root vertex until a vertex that
-   * satisfies the predicate is reached, using the A* optimization. The function
-   * argument is the heuristic used for A*.
+   * Same as the A* version on a CSR graph, but fails if the next vertex to
+   * check is too far or if too many vertices have been searched. The limits
+   * have the same meaning as in
+   * {@link Graphs#dijkstraAStarFail(WVertex, Predicate, ToDoubleFunction,
+   * double, int)}.
    *
-   * @param <V> type of vertex value
-   * @param <E> type of edge value
-   * @param <T> vertex type
-   * @param root start vertex
-   * @param stop stop condition
-   * @param heuristic heuristic on vertices
-   * @return minimum-weight walk from start to end, or null if no such walk
+   * @param graph graph
+   * @param root index of start vertex
+   * @param stop stop condition on vertex indices
+   * @param heuristic heuristic on vertex indices
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
    */
-  public static <V, E, T extends WVertex<V, E>> OrderedPair<Walk<V, E>, Double>
-  dijkstraAStar(T root, Predicate<T> stop,
-      ToDoubleFunction<? super T> heuristic) {
-    // Same idea as dijkstra, but include the heuristic
+  public static OrderedPair<int[], Double> dijkstraAStarFail(CSRGraph graph,
+    int root, IntPredicate stop, IntToDoubleFunction heuristic,
+    double failLimit, int maxVertices) {
     if (stop.test(root)) {
-      return new OrderedPair<>(new Walk.Builder<>(root).build(), 0D);
+      return new OrderedPair<>(new int[0], 0D);
     }
-    HashMap<T, OrderedPair<Double, DijkstraEdgeAStar<V, E, T>>> visited
-      = new HashMap<>();
-    visited.put(root, new OrderedPair(0, null));
-    // Here, the edges are sorted by total weight including heuristic
-    PriorityQueue<DijkstraEdgeAStar<V, E, T>> edges = new PriorityQueue<>();
-    for (WEdge<V, E> we : root.getWEdges()) {
-      edges.add(new DijkstraEdgeAStar<>(
-        we, (T) we.getWEndpoints().not(root), we.getWeight(), heuristic));
-    }
-
-    // Again, keep checking the outgoing edge of least weight
-    while (!edges.isEmpty()) {
-      DijkstraEdgeAStar<V, E, T> e = edges.poll();
-      T dest = e.getHead();
-      if (visited.keySet().contains(dest)) {
-        continue;
-      }
-      double newWeight = e.getTotalWeight();
-      if (stop.test(dest)) {
-        Walk.Builder builder = new Walk.Builder(dest);
-        while (e != null) {
-          builder.addEdgeVertex(e, e.getTail());
-          e = visited.get(e.getTail()).second();
+    SearchContext c = SearchContext.get(graph.numVertices());
+    c.reach(root);
+    c.parentEdge[root] = -1;
+    c.parentVertex[root] = -1;
+    c.g[root] = 0;
+    c.h[root] = heuristic.applyAsDouble(root);
+    c.heap.insertOrDecrease(root, c.h[root]);
+    double fail = failWeight(failLimit, c.h[root]);
+    int settledCount = 0;
+
+    while (!c.heap.isEmpty()) {
+      double key = c.heap.peekKey();
+      int v = c.heap.poll();
+      if (v != root) {
+        if (key > fail || settledCount > maxVertices) {
+          return null;
+        }
+        if (stop.test(v)) {
+          return new OrderedPair<>(edgePath(c, v), c.g[v]);
         }
-        return new OrderedPair<>(builder.reverse().build(), newWeight);
       }
-      visited.put(dest, new OrderedPair(newWeight, e));
-      for (WEdge<V, E> newEdge : dest.getWEdges()) {
-        edges.add(new DijkstraEdgeAStar(
-          newEdge, newEdge.getWEndpoints().not(dest),
-          newWeight + newEdge.getWeight(), heuristic));
+      c.settle(v);
+      settledCount++;
+
+      double weight = c.g[v];
+      for (int e = graph.outEdgesBegin(v), end = graph.outEdgesEnd(v);
+        e < end; e++) {
+        int w = graph.head(e);
+        if (!c.isReached(w)) {
+          c.reach(w);
+          c.g[w] = Double.POSITIVE_INFINITY;
+          c.h[w] = heuristic.applyAsDouble(w);
+        } else if (c.isSettled(w)) {
+          continue;
+        }
+        double newWeight = weight + graph.weight(e);
+        if (newWeight < c.g[w]) {
+          c.g[w] = newWeight;
+          c.parentEdge[w] = e;
+          c.parentVertex[w] = v;
+          c.heap.insertOrDecrease(w, newWeight + c.h[w]);
+        }
       }
     }
 
@@ -245,155 +318,691 @@ public final class Graphs {
   }
 
   /**
-   * Same as the normal A* version, but fails if the next vertex to check is too
-   * far or if too many vertices have been searched.
+   * Runs Dijkstra's algorithm on a CSR graph from the root vertex, settling
+   * every vertex within the budget and no others. Returns the indices of those
+   * vertices in the order they were settled, which is by increasing distance,
+   * and their distances from the root.
    *
-   * @param <V> type of vertex value
-   * @param <E> type of edge value
-   * @param <T> vertex type
-   * @param root start vertex
-   * @param stop stop condition
-   * @param heuristic heuristic on vertices
+   * @param graph graph
+   * @param root index of start vertex
+   * @param budget max weight of a walk from the root
+   * @return vertices within budget of root and their distances
+   */
+  public static OrderedPair<int[], double[]> dijkstraBudget(CSRGraph graph,
+    int root, double budget) {
+    SearchContext c = SearchContext.get(graph.numVertices());
+    c.reach(root);
+    c.parentEdge[root] = -1;
+    c.parentVertex[root] = -1;
+    c.g[root] = 0;
+    c.heap.insertOrDecrease(root, 0);
+    int[] order = c.order;
+    int count = 0;
+
+    while (!c.heap.isEmpty() && c.heap.peekKey() <= budget) {
+      int v = c.heap.poll();
+      c.settle(v);
+      order[count++] = v;
+      for (int e = graph.outEdgesBegin(v), end = graph.outEdgesEnd(v);
+        e < end; e++) {
+        double weight = graph.weight(e);
+        // Never queue what can't be settled
+        if (c.g[v] + weight <= budget) {
+          relax(c, v, graph.head(e), e, weight);
+        }
+      }
+    }
+
+    int[] within = Arrays.copyOf(order, count);
+    double[] distances = new double[count];
+    for (int i = 0; i < count; i++) {
+      distances[i] = c.g[within[i]];
+    }
+    return new OrderedPair<>(within, distances);
+  }
+
+  /**
+   * Bidirectional A* on a CSR graph: searches forward from the source and
+   * backward from the target along incoming edges until the two searches
+   * prove they have found a shortest path. Returns the indices of the edges in
+   * a minimum-weight walk from the source to the target, in order, and the
+   * weight of the walk. If there is no such walk, returns null.
+   *
+   * <p>
+   * Each heuristic must be a consistent lower bound: {@code toTarget} on the
+   * weight from a vertex to the target, and {@code fromSource} on the weight
+   * from the source to a vertex. The searches use the average of the two as
+   * their potentials, which keeps both sides consistent with each other, so the
+   * search can stop as soon as the smallest keys on the two sides add up to
+   * the weight of the best walk found.</p>
+   *
+   * @param graph graph
+   * @param source index of start vertex
+   * @param target index of end vertex
+   * @param toTarget heuristic on distance to target
+   * @param fromSource heuristic on distance from source
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
+   */
+  public static OrderedPair<int[], Double> bidirectionalAStar(CSRGraph graph,
+    int source, int target, IntToDoubleFunction toTarget,
+    IntToDoubleFunction fromSource) {
+    return bidirectionalAStarFail(graph, source, target, toTarget, fromSource,
+      Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Same as the bidirectional version, but fails if the shortest walk is known
+   * to weigh more than the fail limit times {@code toTarget} of the source, or
+   * if more than the max number of vertices have been settled by the two
+   * searches together.
+   *
+   * @param graph graph
+   * @param source index of start vertex
+   * @param target index of end vertex
+   * @param toTarget heuristic on distance to target
+   * @param fromSource heuristic on distance from source
    * @param failLimit distance fail limit
    * @param maxVertices max number of vertices to check
-   * @return minimum-weight walk from start to end, or null if no such walk
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
    */
-  public static <V, E, T extends WVertex<V, E>> OrderedPair<Walk<V, E>, Double>
-  dijkstraAStarFail(T root, Predicate<T> stop,
-    ToDoubleFunction<? super T> heuristic, double failLimit, int maxVertices) {
-    // Same idea as dijkstra, but include the heuristic
-    if (stop.test(root)) {
-      return new OrderedPair<>(new Walk.Builder<>(root).build(), 0D);
+  public static OrderedPair<int[], Double> bidirectionalAStarFail(
+    CSRGraph graph, int source, int target, IntToDoubleFunction toTarget,
+    IntToDoubleFunction fromSource, double failLimit, int maxVertices) {
+    if (source == target) {
+      return new OrderedPair<>(new int[0], 0D);
     }
-    HashMap<T, OrderedPair<Double, DijkstraEdgeAStar<V, E, T>>> visited
-      = new HashMap<>();
-    visited.put(root, new OrderedPair(0, null));
-    // Get the fail limit
-    double fail = failLimit * heuristic.applyAsDouble(root);
-    // Here, the edges are sorted by total weight including heuristic
-    PriorityQueue<DijkstraEdgeAStar<V, E, T>> edges = new PriorityQueue<>();
-    for (WEdge<V, E> we : root.getWEdges()) {
-      edges.add(new DijkstraEdgeAStar<>(
-        we, (T) we.getWEndpoints().not(root), we.getWeight(), heuristic));
-    }
-
-    // Again, keep checking the outgoing edge of least weight
-    while (!edges.isEmpty()) {
-      DijkstraEdgeAStar<V, E, T> e = edges.poll();
-      // Check if we should fail
-      if (e.getHeuristicWeight() > fail || visited.size() > maxVertices) {
+    int n = graph.numVertices();
+    SearchContext f = SearchContext.get(n);
+    SearchContext b = SearchContext.getBackward(n);
+    // Forward potential is half of toTarget - fromSource; backward is negated
+    double sourcePotential = (toTarget.applyAsDouble(source)
+      - fromSource.applyAsDouble(source)) / 2;
+    double targetPotential = (toTarget.applyAsDouble(target)
+      - fromSource.applyAsDouble(target)) / 2;
+    f.reach(source);
+    f.parentEdge[source] = -1;
+    f.parentVertex[source] = -1;
+    f.g[source] = 0;
+    f.h[source] = sourcePotential;
+    f.heap.insertOrDecrease(source, sourcePotential);
+    b.reach(target);
+    b.parentEdge[target] = -1;
+    b.parentVertex[target] = -1;
+    b.g[target] = 0;
+    b.h[target] = -targetPotential;
+    b.heap.insertOrDecrease(target, -targetPotential);
+    double fail = failWeight(failLimit, toTarget.applyAsDouble(source));
+
+    // Weight of the best walk found, and where its two halves meet
+    double best = Double.POSITIVE_INFINITY;
+    int meet = -1;
+    int settledCount = 0;
+    while (!f.heap.isEmpty() && !b.heap.isEmpty()) {
+      double forwardKey = f.heap.peekKey();
+      double backwardKey = b.heap.peekKey();
+      // Any walk lighter than the best one found weighs at least the sum of
+      // the smallest keys, so once the sum reaches the best, the best is the
+      // shortest
+      double bound = forwardKey + backwardKey;
+      if (bound >= best) {
+        break;
+      }
+      if (bound > fail || settledCount > maxVertices) {
         return null;
       }
-      T dest = e.getHead();
-      if (visited.keySet().contains(dest)) {
-        continue;
+      settledCount++;
+
+      // Expand the side with fewer vertices waiting, to keep them balanced
+      if (f.heap.size() <= b.heap.size()) {
+        int v = f.heap.poll();
+        f.settle(v);
+        double weight = f.g[v];
+        for (int e = graph.outEdgesBegin(v), end = graph.outEdgesEnd(v);
+          e < end; e++) {
+          int w = graph.head(e);
+          if (!f.isReached(w)) {
+            f.reach(w);
+            f.g[w] = Double.POSITIVE_INFINITY;
+            f.h[w] = (toTarget.applyAsDouble(w)
+              - fromSource.applyAsDouble(w)) / 2;
+          } else if (f.isSettled(w)) {
+            continue;
+          }
+          double newWeight = weight + graph.weight(e);
+          if (newWeight < f.g[w]) {
+            f.g[w] = newWeight;
+            f.parentEdge[w] = e;
+            f.parentVertex[w] = v;
+            f.heap.insertOrDecrease(w, newWeight + f.h[w]);
+            if (b.isReached(w) && newWeight + b.g[w] < best) {
+              best = newWeight + b.g[w];
+              meet = w;
+            }
+          }
+        }
+      } else {
+        int v = b.heap.poll();
+        b.settle(v);
+        double weight = b.g[v];
+        for (int i = graph.inEdgesBegin(v), end = graph.inEdgesEnd(v);
+          i < end; i++) {
+          int e = graph.inEdge(i);
+          int w = graph.tail(e);
+          if (!b.isReached(w)) {
+            b.reach(w);
+            b.g[w] = Double.POSITIVE_INFINITY;
+            b.h[w] = (fromSource.applyAsDouble(w)
+              - toTarget.applyAsDouble(w)) / 2;
+          } else if (b.isSettled(w)) {
+            continue;
+          }
+          double newWeight = weight + graph.weight(e);
+          if (newWeight < b.g[w]) {
+            b.g[w] = newWeight;
+            b.parentEdge[w] = e;
+            b.parentVertex[w] = v;
+            b.heap.insertOrDecrease(w, newWeight + b.h[w]);
+            if (f.isReached(w) && newWeight + f.g[w] < best) {
+              best = newWeight + f.g[w];
+              meet = w;
+            }
+          }
+        }
+      }
+    }
+
+    if (meet == -1) {
+      return null;
+    }
+    return new OrderedPair<>(joinPaths(f, b, meet), best);
+  }
+
+  /**
+   * Finds a shortest path with a contraction hierarchy: searches upward in
+   * rank from the source and, along incoming arcs, from the target, and joins
+   * the two at the vertex where they meet with least total weight. Returns the
+   * indices of the edges of the graph in a minimum-weight walk from the source
+   * to the target, in order, and the weight of the walk. If there is no such
+   * walk, returns null.
+   *
+   * <p>
+   * Each search only goes up in rank, so it settles few vertices however far
+   * apart the source and target are, and needs no fail limits. The weight is
+   * measured by the base lengths the hierarchy was built on.</p>
+   *
+   * @param ch contraction hierarchy
+   * @param source index of start vertex
+   * @param target index of end vertex
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
+   */
+  public static OrderedPair<int[], Double> contractionHierarchyQuery(
+    ContractionHierarchy ch, int source, int target) {
+    if (source == target) {
+      return new OrderedPair<>(new int[0], 0D);
+    }
+    int n = ch.numVertices();
+    SearchContext f = SearchContext.get(n);
+    SearchContext b = SearchContext.getBackward(n);
+    f.reach(source);
+    f.parentEdge[source] = -1;
+    f.parentVertex[source] = -1;
+    f.g[source] = 0;
+    f.heap.insertOrDecrease(source, 0);
+    b.reach(target);
+    b.parentEdge[target] = -1;
+    b.parentVertex[target] = -1;
+    b.g[target] = 0;
+    b.heap.insertOrDecrease(target, 0);
+
+    double best = Double.POSITIVE_INFINITY;
+    int meet = -1;
+    while (true) {
+      double forwardKey = f.heap.isEmpty()
+        ? Double.POSITIVE_INFINITY : f.heap.peekKey();
+      double backwardKey = b.heap.isEmpty()
+        ? Double.POSITIVE_INFINITY : b.heap.peekKey();
+      // Neither side can find a lighter walk once its keys reach the best
+      if (Math.min(forwardKey, backwardKey) >= best
+        || (f.heap.isEmpty() && b.heap.isEmpty())) {
+        break;
+      }
+      if (forwardKey <= backwardKey) {
+        int v = f.heap.poll();
+        f.settle(v);
+        if (b.isReached(v) && f.g[v] + b.g[v] < best) {
+          best = f.g[v] + b.g[v];
+          meet = v;
+        }
+        for (int i = ch.upBegin(v), end = ch.upEnd(v); i < end; i++) {
+          int a = ch.upArc(i);
+          relax(f, v, ch.head(a), a, ch.weight(a));
+        }
+      } else {
+        int v = b.heap.poll();
+        b.settle(v);
+        if (f.isReached(v) && f.g[v] + b.g[v] < best) {
+          best = f.g[v] + b.g[v];
+          meet = v;
+        }
+        for (int i = ch.downBegin(v), end = ch.downEnd(v); i < end; i++) {
+          int a = ch.downArc(i);
+          relax(b, v, ch.tail(a), a, ch.weight(a));
+        }
+      }
+    }
+
+    if (meet == -1) {
+      return null;
+    }
+    return new OrderedPair<>(ch.unpack(joinPaths(f, b, meet)), best);
+  }
+
+  /**
+   * Finds a shortest path with a multilevel overlay, using the version the
+   * overlay was last customized with, like
+   * {@link Graphs#overlayQuery(Overlay.Version, int, int)}.
+   *
+   * @param overlay overlay
+   * @param source index of start vertex
+   * @param target index of end vertex
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
+   */
+  public static OrderedPair<int[], Double> overlayQuery(Overlay overlay,
+    int source, int target) {
+    return overlayQuery(overlay.current(), source, target);
+  }
+
+  /**
+   * Finds a shortest path with a version of a multilevel overlay: a
+   * bidirectional Dijkstra that uses the edges of the graph near the source
+   * and target, and the cliques of ever larger cells farther away. Every
+   * weight, clique, and unpacked path comes from the version, so the walk and
+   * its weight agree with each other and with the version's graph whatever
+   * traffic arrives meanwhile. Returns the indices of the edges in a
+   * minimum-weight walk from the source to the target, in order, and the
+   * weight of the walk. If there is no such walk, returns null.
+   *
+   * @param version version of overlay
+   * @param source index of start vertex
+   * @param target index of end vertex
+   * @return edges of minimum-weight walk from start to end and its weight, or
+   * null if no such walk
+   */
+  public static OrderedPair<int[], Double> overlayQuery(
+    Overlay.Version version, int source, int target) {
+    if (source == target) {
+      return new OrderedPair<>(new int[0], 0D);
+    }
+    Overlay overlay = version.getOverlay();
+    CSRGraph graph = version.getGraph();
+    Partition partition = overlay.getPartition();
+    int n = graph.numVertices();
+    SearchContext f = SearchContext.get(n);
+    SearchContext b = SearchContext.getBackward(n);
+    f.reach(source);
+    f.parentEdge[source] = -1;
+    f.parentVertex[source] = -1;
+    f.g[source] = 0;
+    f.heap.insertOrDecrease(source, 0);
+    b.reach(target);
+    b.parentEdge[target] = -1;
+    b.parentVertex[target] = -1;
+    b.g[target] = 0;
+    b.heap.insertOrDecrease(target, 0);
+
+    double best = Double.POSITIVE_INFINITY;
+    int meet = -1;
+    while (true) {
+      double forwardKey = f.heap.isEmpty()
+        ? Double.POSITIVE_INFINITY : f.heap.peekKey();
+      double backwardKey = b.heap.isEmpty()
+        ? Double.POSITIVE_INFINITY : b.heap.peekKey();
+      if (forwardKey + backwardKey >= best
+        || (f.heap.isEmpty() && b.heap.isEmpty())) {
+        break;
       }
-      double newWeight = e.getTotalWeight();
-      if (stop.test(dest)) {
-        Walk.Builder builder = new Walk.Builder(dest);
-        while (e != null) {
-          builder.addEdgeVertex(e, e.getTail());
-          e = visited.get(e.getTail()).second();
+      boolean forward = forwardKey <= backwardKey;
+      SearchContext c = forward ? f : b;
+      SearchContext other = forward ? b : f;
+      int v = c.heap.poll();
+      c.settle(v);
+      int level = overlay.queryLevel(v, source, target);
+
+      // Clique arcs out of (or into) the vertex's cell on its query level
+      if (level >= 0 && overlay.boundaryIndex(level, v) != -1) {
+        int cell = partition.cell(level, v);
+        int[] vertices = overlay.boundary(level, cell);
+        double[] clique = version.clique(level, cell);
+        int k = vertices.length;
+        int i = overlay.boundaryIndex(level, v);
+        for (int j = 0; j < k; j++) {
+          double weight = forward ? clique[i * k + j] : clique[j * k + i];
+          int w = vertices[j];
+          if (j != i && weight < Double.POSITIVE_INFINITY
+            && relax(c, v, w, Overlay.cliqueArc(level), weight)
+            && other.isReached(w) && c.g[w] + other.g[w] < best) {
+            best = c.g[w] + other.g[w];
+            meet = w;
+          }
         }
-        return new OrderedPair<>(builder.reverse().build(), newWeight);
       }
-      visited.put(dest, new OrderedPair(newWeight, e));
-      for (WEdge<V, E> newEdge : dest.getWEdges()) {
-        edges.add(new DijkstraEdgeAStar(
-          newEdge, newEdge.getWEndpoints().not(dest),
-          newWeight + newEdge.getWeight(), heuristic));
+
+      // Edges of the graph, except those inside a cell the cliques cover. An
+      // edge is covered if its tail's query level is a level on which both
+      // ends are in the same cell.
+      int begin = forward ? graph.outEdgesBegin(v) : graph.inEdgesBegin(v);
+      int end = forward ? graph.outEdgesEnd(v) : graph.inEdgesEnd(v);
+      for (int i = begin; i < end; i++) {
+        int e = forward ? i : graph.inEdge(i);
+        int w = forward ? graph.head(e) : graph.tail(e);
+        int tailLevel = forward ? level : overlay.queryLevel(w, source, target);
+        if (tailLevel >= 0 && partition.cell(tailLevel, v)
+          == partition.cell(tailLevel, w)) {
+          continue;
+        }
+        if (relax(c, v, w, e, graph.weight(e))
+          && other.isReached(w) && c.g[w] + other.g[w] < best) {
+          best = c.g[w] + other.g[w];
+          meet = w;
+        }
       }
     }
 
-    // Return null if the start and end are disconnected
-    return null;
+    if (meet == -1) {
+      return null;
+    }
+    return new OrderedPair<>(unpackOverlay(version, f, b, meet), best);
   }
 
   /**
-   * Dijkstra edge for the A* optimization.
+   * Joins the halves of an overlay query at the meeting vertex and replaces
+   * each clique arc by the edges of the graph it stands for.
    *
-   * @param <V> type of vertex value
-   * @param <E> type of edge value
+   * @param version version of overlay the query used
+   * @param f forward search context
+   * @param b backward search context
+   * @param meet meeting vertex
+   * @return edges from source to target
    */
-  private static class DijkstraEdgeAStar<V, E, T extends WVertex<V, E>>
-    extends ImmutableWEdge<V, E>
-    implements Comparable<DijkstraEdgeAStar<V, E, T>> {
-
-    /**
-     * Tail vertex.
-     */
-    private final T tail;
-
-    /**
-     * Head vertex.
-     */
-    private final T head;
-
-    /**
-     * Total weight of head.
-     */
-    private final double totalWeight;
-
-    /**
-     * Total weight, including the addition from the heuristic.
-     */
-    private final double heuristicWeight;
-
-    /**
-     * New edge from the given edge, head vertex, total weight, and heuristic.
-     *
-     * @param tail tail
-     * @param head head
-     * @param totalWeight total weight of head
-     * @param heuristic heuristic
-     * @param heuristicWeight total weight including heuristic
-     */
-    DijkstraEdgeAStar(WEdge<V, E> we, T head, double totalWeight,
-      ToDoubleFunction<? super T> heuristic) {
-      super(we.getValue(), we.getWEndpoints(), we.getWeight());
-      this.tail = (T) getWEndpoints().not(head);
-      this.head = head;
-      this.totalWeight = totalWeight;
-      this.heuristicWeight = totalWeight + heuristic.applyAsDouble(head);
+  private static int[] unpackOverlay(Overlay.Version version, SearchContext f,
+    SearchContext b, int meet) {
+    // Copy out the arcs first, since unpacking starts new searches
+    int forwardCount = 0;
+    for (int u = meet; f.parentVertex[u] != -1; u = f.parentVertex[u]) {
+      forwardCount++;
+    }
+    int count = forwardCount;
+    for (int u = meet; b.parentVertex[u] != -1; u = b.parentVertex[u]) {
+      count++;
+    }
+    int[] arcs = new int[count];
+    int[] tails = new int[count];
+    int[] heads = new int[count];
+    int i = forwardCount;
+    for (int u = meet; f.parentVertex[u] != -1; u = f.parentVertex[u]) {
+      i--;
+      arcs[i] = f.parentEdge[u];
+      tails[i] = f.parentVertex[u];
+      heads[i] = u;
+    }
+    i = forwardCount;
+    for (int u = meet; b.parentVertex[u] != -1; u = b.parentVertex[u]) {
+      arcs[i] = b.parentEdge[u];
+      tails[i] = u;
+      heads[i] = b.parentVertex[u];
+      i++;
+    }
+    int[] path = new int[count];
+    int length = 0;
+    for (i = 0; i < count; i++) {
+      int[] edges = arcs[i] >= 0 ? new int[] {arcs[i]}
+        : version.unpack(-arcs[i] - 2, tails[i], heads[i]);
+      if (length + edges.length > path.length) {
+        path = Arrays.copyOf(path,
+          Math.max(2 * path.length, length + edges.length));
+      }
+      System.arraycopy(edges, 0, path, length, edges.length);
+      length += edges.length;
+    }
+    return Arrays.copyOf(path, length);
+  }
+
+  /**
+   * Relaxes an edge in a Dijkstra search without a heuristic.
+   *
+   * @param c search context
+   * @param v settled vertex
+   * @param w other end of edge
+   * @param e edge
+   * @param weight weight of edge
+   * @return whether the weight of the other end decreased
+   */
+  static boolean relax(SearchContext c, int v, int w, int e, double weight) {
+    if (!c.isReached(w)) {
+      c.reach(w);
+      c.g[w] = Double.POSITIVE_INFINITY;
+    } else if (c.isSettled(w)) {
+      return false;
+    }
+    double newWeight = c.g[v] + weight;
+    if (newWeight < c.g[w]) {
+      c.g[w] = newWeight;
+      c.parentEdge[w] = e;
+      c.parentVertex[w] = v;
+      c.heap.insertOrDecrease(w, newWeight);
+      return true;
     }
+    return false;
+  }
 
-    /**
-     * Compares to another Dijkstra edge by heuristic weight.
-     *
-     * @param other other Dijkstra edge
-     * @return comparison of total weights
-     */
-    @Override
-    public int compareTo(DijkstraEdgeAStar other) {
-      return (int) Math.signum(this.heuristicWeight - other.heuristicWeight);
+  /**
+   * Joins the halves of a bidirectional search: the forward half ends at the
+   * meeting vertex, and the backward half's parents lead from there to the
+   * target.
+   *
+   * @param f forward search context
+   * @param b backward search context
+   * @param meet meeting vertex
+   * @return edges from source to target
+   */
+  private static int[] joinPaths(SearchContext f, SearchContext b, int meet) {
+    int[] forward = edgePath(f, meet);
+    int length = forward.length;
+    for (int u = meet; b.parentVertex[u] != -1; u = b.parentVertex[u]) {
+      length++;
+    }
+    int[] path = Arrays.copyOf(forward, length);
+    int i = forward.length;
+    for (int u = meet; b.parentVertex[u] != -1; u = b.parentVertex[u]) {
+      path[i++] = b.parentEdge[u];
     }
+    return path;
+  }
 
-    /**
-     * @return total weight of head
-     */
-    double getTotalWeight() {
-      return totalWeight;
+  /**
+   * Distances from each source to each target: one Dijkstra per source, which
+   * stops once every target has been settled. Unreachable targets are
+   * infinitely far.
+   *
+   * @param graph graph
+   * @param sources indices of start vertices
+   * @param targets indices of end vertices
+   * @return distance from the i-th source to the j-th target at {@code [i][j]}
+   */
+  public static double[][] distanceMatrix(CSRGraph graph, int[] sources,
+    int[] targets) {
+    int n = graph.numVertices();
+    // Mark the targets, counting each vertex once
+    boolean[] isTarget = new boolean[n];
+    int distinct = 0;
+    for (int t : targets) {
+      if (!isTarget[t]) {
+        isTarget[t] = true;
+        distinct++;
+      }
+    }
+    double[][] matrix = new double[sources.length][targets.length];
+    for (int i = 0; i < sources.length; i++) {
+      SearchContext c = SearchContext.get(n);
+      c.reach(sources[i]);
+      c.parentEdge[sources[i]] = -1;
+      c.parentVertex[sources[i]] = -1;
+      c.g[sources[i]] = 0;
+      c.heap.insertOrDecrease(sources[i], 0);
+      int remaining = distinct;
+      while (remaining > 0 && !c.heap.isEmpty()) {
+        int v = c.heap.poll();
+        c.settle(v);
+        if (isTarget[v]) {
+          remaining--;
+        }
+        for (int e = graph.outEdgesBegin(v), end = graph.outEdgesEnd(v);
+          e < end; e++) {
+          relax(c, v, graph.head(e), e, graph.weight(e));
+        }
+      }
+      for (int j = 0; j < targets.length; j++) {
+        matrix[i][j] = c.isSettled(targets[j])
+          ? c.g[targets[j]] : Double.POSITIVE_INFINITY;
+      }
     }
+    return matrix;
+  }
 
-    /**
-     * @return total weight plus heuristic
-     */
-    double getHeuristicWeight() {
-      return heuristicWeight;
+  /**
+   * Distances from each source to each target with a contraction hierarchy,
+   * using buckets: an upward search from each target leaves its distance in
+   * a bucket at every vertex it settles, and an upward search from each
+   * source then combines its distances with the buckets it settles. Takes one
+   * small search per point instead of one per pair. Distances are measured by
+   * the base lengths the hierarchy was built on.
+   *
+   * @param ch contraction hierarchy
+   * @param sources indices of start vertices
+   * @param targets indices of end vertices
+   * @return distance from the i-th source to the j-th target at {@code [i][j]}
+   */
+  public static double[][] distanceMatrix(ContractionHierarchy ch,
+    int[] sources, int[] targets) {
+    int n = ch.numVertices();
+    // Bucket entries: vertex, target number, and distance to the target
+    int size = 0;
+    int[] entryVertex = new int[16];
+    int[] entryTarget = new int[16];
+    double[] entryDistance = new double[16];
+    for (int j = 0; j < targets.length; j++) {
+      SearchContext c = SearchContext.get(n);
+      c.reach(targets[j]);
+      c.g[targets[j]] = 0;
+      c.heap.insertOrDecrease(targets[j], 0);
+      while (!c.heap.isEmpty()) {
+        int v = c.heap.poll();
+        c.settle(v);
+        if (size == entryVertex.length) {
+          entryVertex = Arrays.copyOf(entryVertex, 2 * size);
+          entryTarget = Arrays.copyOf(entryTarget, 2 * size);
+          entryDistance = Arrays.copyOf(entryDistance, 2 * size);
+        }
+        entryVertex[size] = v;
+        entryTarget[size] = j;
+        entryDistance[size] = c.g[v];
+        size++;
+        for (int i = ch.downBegin(v), end = ch.downEnd(v); i < end; i++) {
+          int a = ch.downArc(i);
+          relax(c, v, ch.tail(a), a, ch.weight(a));
+        }
+      }
+    }
+    // Group the entries by vertex
+    int[] offsets = new int[n + 1];
+    for (int k = 0; k < size; k++) {
+      offsets[entryVertex[k] + 1]++;
+    }
+    for (int v = 0; v < n; v++) {
+      offsets[v + 1] += offsets[v];
+    }
+    int[] next = Arrays.copyOf(offsets, n);
+    int[] bucketTarget = new int[size];
+    double[] bucketDistance = new double[size];
+    for (int k = 0; k < size; k++) {
+      int position = next[entryVertex[k]]++;
+      bucketTarget[position] = entryTarget[k];
+      bucketDistance[position] = entryDistance[k];
     }
 
-    /**
-     * @return tail
-     */
-    T getTail() {
-      return tail;
+    double[][] matrix = new double[sources.length][targets.length];
+    for (int i = 0; i < sources.length; i++) {
+      double[] row = matrix[i];
+      Arrays.fill(row, Double.POSITIVE_INFINITY);
+      SearchContext c = SearchContext.get(n);
+      c.reach(sources[i]);
+      c.g[sources[i]] = 0;
+      c.heap.insertOrDecrease(sources[i], 0);
+      while (!c.heap.isEmpty()) {
+        int v = c.heap.poll();
+        c.settle(v);
+        for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+          double distance = c.g[v] + bucketDistance[k];
+          if (distance < row[bucketTarget[k]]) {
+            row[bucketTarget[k]] = distance;
+          }
+        }
+        for (int k = ch.upBegin(v), end = ch.upEnd(v); k < end; k++) {
+          int a = ch.upArc(k);
+          relax(c, v, ch.head(a), a, ch.weight(a));
+        }
+      }
     }
+    return matrix;
+  }
 
-    /**
-     * @return head
-     */
-    T getHead() {
-      return head;
+  /**
+   * ALT heuristic for searching toward a vertex: the landmark lower bound on
+   * the distance from each vertex to the target.
+   *
+   * @param landmarks landmarks
+   * @param target index of end vertex
+   * @return heuristic on vertex indices
+   */
+  public static IntToDoubleFunction landmarkHeuristic(Landmarks landmarks,
+    int target) {
+    return v -> landmarks.lowerBound(v, target);
+  }
+
+  /**
+   * ALT heuristic for searching backward from a vertex: the landmark lower
+   * bound on the distance from the source to each vertex.
+   *
+   * @param landmarks landmarks
+   * @param source index of start vertex
+   * @return heuristic on vertex indices
+   */
+  public static IntToDoubleFunction landmarkHeuristicFrom(Landmarks landmarks,
+    int source) {
+    return v -> landmarks.lowerBound(source, v);
+  }
+
+  /**
+   * Follows the parents of a vertex back to the root to get the indices of the
+   * edges from the root to the vertex, in order.
+   *
+   * @param c search context
+   * @param v end vertex
+   * @return edges from root to vertex
+   */
+  static int[] edgePath(SearchContext c, int v) {
+    int length = 0;
+    for (int u = v; c.parentVertex[u] != -1; u = c.parentVertex[u]) {
+      length++;
+    }
+    int[] path = new int[length];
+    for (int u = v; c.parentVertex[u] != -1; u = c.parentVertex[u]) {
+      path[--length] = c.parentEdge[u];
     }
+    return path;
   }
 }
@@ -0,0 +1,200 @@
+package edu.brown.cs.azhang6.graphs;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of integer items in the range {@code [0, capacity)}, keyed by
+ * doubles. Each item is in the heap at most once, and its key can be decreased
+ * in place, so Dijkstra's algorithm never has to push duplicates. Uses only
+ * primitive arrays, so nothing is allocated once the heap is large enough.
+ *
+ * @author aaronzhang
+ */
+class IndexedMinHeap {
+
+  /**
+   * Items in heap order.
+   */
+  private int[] heap;
+
+  /**
+   * Key of each item in the heap.
+   */
+  private double[] keys;
+
+  /**
+   * Position of each item in the heap, or -1 if not in the heap.
+   */
+  private int[] positions;
+
+  /**
+   * Number of items in the heap.
+   */
+  private int size = 0;
+
+  /**
+   * New empty heap for items less than the given capacity.
+   *
+   * @param capacity capacity
+   */
+  IndexedMinHeap(int capacity) {
+    heap = new int[capacity];
+    keys = new double[capacity];
+    positions = new int[capacity];
+    Arrays.fill(positions, -1);
+  }
+
+  /**
+   * Makes sure the heap can hold items less than the given capacity.
+   *
+   * @param capacity capacity
+   */
+  void ensureCapacity(int capacity) {
+    int old = positions.length;
+    if (capacity <= old) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, 2 * old);
+    heap = Arrays.copyOf(heap, newCapacity);
+    keys = Arrays.copyOf(keys, newCapacity);
+    positions = Arrays.copyOf(positions, newCapacity);
+    Arrays.fill(positions, old, newCapacity, -1);
+  }
+
+  /**
+   * @return whether the heap is empty
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return number of items in the heap
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param item item
+   * @return whether the item is in the heap
+   */
+  boolean contains(int item) {
+    return positions[item] != -1;
+  }
+
+  /**
+   * Inserts the item with the given key if it isn't in the heap, or decreases
+   * its key if the given key is smaller than its current key.
+   *
+   * @param item item
+   * @param key key
+   * @return whether the heap changed
+   */
+  boolean insertOrDecrease(int item, double key) {
+    int position = positions[item];
+    if (position == -1) {
+      position = size++;
+      heap[position] = item;
+      positions[item] = position;
+    } else if (key >= keys[item]) {
+      return false;
+    }
+    keys[item] = key;
+    siftUp(position);
+    return true;
+  }
+
+  /**
+   * @return smallest key in the heap
+   * @throws IllegalStateException if heap is empty
+   */
+  double peekKey() {
+    if (size == 0) {
+      throw new IllegalStateException("heap is empty");
+    }
+    return keys[heap[0]];
+  }
+
+  /**
+   * Removes the item with the smallest key.
+   *
+   * @return item with the smallest key
+   * @throws IllegalStateException if heap is empty
+   */
+  int poll() {
+    if (size == 0) {
+      throw new IllegalStateException("heap is empty");
+    }
+    int min = heap[0];
+    positions[min] = -1;
+    size--;
+    if (size > 0) {
+      int last = heap[size];
+      heap[0] = last;
+      positions[last] = 0;
+      siftDown(0);
+    }
+    return min;
+  }
+
+  /**
+   * Removes every item. Takes time proportional to the number of items left in
+   * the heap, not the capacity.
+   */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      positions[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Moves the item at the given position up until the heap is ordered.
+   *
+   * @param position position
+   */
+  private void siftUp(int position) {
+    int item = heap[position];
+    double key = keys[item];
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      int parentItem = heap[parent];
+      if (keys[parentItem] <= key) {
+        break;
+      }
+      heap[position] = parentItem;
+      positions[parentItem] = position;
+      position = parent;
+    }
+    heap[position] = item;
+    positions[item] = position;
+  }
+
+  /**
+   * Moves the item at the given position down until the heap is ordered.
+   *
+   * @param position position
+   */
+  private void siftDown(int position) {
+    int item = heap[position];
+    double key = keys[item];
+    int half = size >>> 1;
+    while (position < half) {
+      int child = 2 * position + 1;
+      int right = child + 1;
+      if (right < size && keys[heap[right]] < keys[heap[child]]) {
+        child = right;
+      }
+      int childItem = heap[child];
+      if (key <= keys[childItem]) {
+        break;
+      }
+      heap[position] = childItem;
+      positions[childItem] = position;
+      position = child;
+    }
+    heap[position] = item;
+    positions[item] = position;
+  }
+}
@@ -0,0 +1,196 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.util.Arrays;
+
+/**
+ * Landmarks for the ALT lower bound on distances in a {@link CSRGraph}. For
+ * each landmark L, keeps the distance from L to every vertex and from every
+ * vertex to L, and bounds the distance from v to t with the triangle
+ * inequality: it is at least d(v, L) - d(t, L) and at least d(L, t) - d(L, v).
+ *
+ * <p>
+ * Distances are measured with base lengths, so the bounds stay valid, and
+ * consistent as A* heuristics, as long as no traffic multiplier is less than
+ * 1. They are stored as floats to halve the memory; the bounds account for the
+ * rounding.</p>
+ *
+ * @author aaronzhang
+ */
+public class Landmarks {
+
+  /**
+   * Number of vertices.
+   */
+  private final int numVertices;
+
+  /**
+   * Landmark vertices.
+   */
+  private final int[] landmarks;
+
+  /**
+   * Distance from each landmark to each vertex, at {@code l * n + v}.
+   */
+  private final float[] from;
+
+  /**
+   * Distance from each vertex to each landmark, at {@code l * n + v}.
+   */
+  private final float[] to;
+
+  /**
+   * New landmarks with the given distances.
+   *
+   * @param numVertices number of vertices
+   * @param landmarks landmark vertices
+   * @param from distance from each landmark to each vertex
+   * @param to distance from each vertex to each landmark
+   */
+  private Landmarks(int numVertices, int[] landmarks, float[] from,
+    float[] to) {
+    this.numVertices = numVertices;
+    this.landmarks = landmarks;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Chooses landmarks by farthest-point selection: each new landmark is the
+   * vertex farthest from the landmarks chosen so far, counting distance both
+   * ways. Vertices no landmark can reach count as farthest, so every part of a
+   * disconnected graph gets a landmark while there are landmarks to spare.
+   *
+   * @param graph graph
+   * @param count number of landmarks; at most the number of vertices is used
+   * @return landmarks
+   * @throws IllegalArgumentException if count isn't positive
+   */
+  public static Landmarks select(CSRGraph graph, int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("need at least one landmark");
+    }
+    int n = graph.numVertices();
+    int k = Math.min(count, n);
+    int[] landmarks = new int[k];
+    float[] from = new float[k * n];
+    float[] to = new float[k * n];
+    // Distance from the chosen landmarks to each vertex, both ways
+    double[] nearest = new double[n];
+    if (n > 0) {
+      // Start from the vertex farthest from vertex 0
+      double[] forward = distances(graph, 0, true);
+      double[] backward = distances(graph, 0, false);
+      for (int v = 0; v < n; v++) {
+        nearest[v] = forward[v] + backward[v];
+      }
+    }
+    for (int l = 0; l < k; l++) {
+      int farthest = 0;
+      for (int v = 1; v < n; v++) {
+        if (nearest[v] > nearest[farthest]) {
+          farthest = v;
+        }
+      }
+      landmarks[l] = farthest;
+      double[] forward = distances(graph, farthest, true);
+      double[] backward = distances(graph, farthest, false);
+      for (int v = 0; v < n; v++) {
+        from[l * n + v] = (float) forward[v];
+        to[l * n + v] = (float) backward[v];
+        nearest[v] = l == 0 ? forward[v] + backward[v]
+          : Math.min(nearest[v], forward[v] + backward[v]);
+      }
+      nearest[farthest] = -1;
+    }
+    return new Landmarks(n, landmarks, from, to);
+  }
+
+  /**
+   * Dijkstra with base lengths from a vertex to every vertex, or from every
+   * vertex to it.
+   *
+   * @param graph graph
+   * @param source vertex
+   * @param forward whether to follow edges forward
+   * @return distance to or from each vertex, infinite if unreachable
+   */
+  private static double[] distances(CSRGraph graph, int source,
+    boolean forward) {
+    int n = graph.numVertices();
+    double[] distances = new double[n];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    SearchContext c = SearchContext.get(n);
+    c.reach(source);
+    c.g[source] = 0;
+    c.heap.insertOrDecrease(source, 0);
+    while (!c.heap.isEmpty()) {
+      int v = c.heap.poll();
+      c.settle(v);
+      distances[v] = c.g[v];
+      int begin = forward ? graph.outEdgesBegin(v) : graph.inEdgesBegin(v);
+      int end = forward ? graph.outEdgesEnd(v) : graph.inEdgesEnd(v);
+      for (int i = begin; i < end; i++) {
+        int e = forward ? i : graph.inEdge(i);
+        int w = forward ? graph.head(e) : graph.tail(e);
+        Graphs.relax(c, v, w, e, graph.baseLength(e));
+      }
+    }
+    return distances;
+  }
+
+  /**
+   * @return number of landmarks
+   */
+  public int size() {
+    return landmarks.length;
+  }
+
+  /**
+   * @param l landmark number
+   * @return landmark vertex
+   */
+  public int landmark(int l) {
+    return landmarks[l];
+  }
+
+  /**
+   * Lower bound on the distance from one vertex to another: the largest of
+   * the triangle-inequality bounds over all landmarks, and never negative.
+   * Bounds involving a landmark that can't reach, or be reached from, the
+   * vertices are skipped.
+   *
+   * @param v start vertex
+   * @param t end vertex
+   * @return lower bound on distance from v to t
+   */
+  public double lowerBound(int v, int t) {
+    double bound = 0;
+    int n = numVertices;
+    for (int l = 0, i = 0; l < landmarks.length; l++, i += n) {
+      // d(v, t) >= d(v, L) - d(t, L)
+      float vl = to[i + v];
+      float tl = to[i + t];
+      if (vl != Float.POSITIVE_INFINITY && tl != Float.POSITIVE_INFINITY) {
+        bound = Math.max(bound,
+          (double) vl - tl - Math.ulp(vl) - Math.ulp(tl));
+      }
+      // d(v, t) >= d(L, t) - d(L, v)
+      float lt = from[i + t];
+      float lv = from[i + v];
+      if (lt != Float.POSITIVE_INFINITY && lv != Float.POSITIVE_INFINITY) {
+        bound = Math.max(bound,
+          (double) lt - lv - Math.ulp(lt) - Math.ulp(lv));
+      }
+    }
+    return bound;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("[Landmarks: %s]", Arrays.toString(landmarks));
+  }
+}
@@ -0,0 +1,430 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.util.Arrays;
+
+/**
+ * Multilevel overlay of a {@link CSRGraph} over a {@link Partition}, for
+ * answering shortest-path queries with
+ * {@link Graphs#overlayQuery(Overlay.Version, int, int)} under changing
+ * traffic.
+ *
+ * <p>
+ * A vertex is a boundary vertex on a level if it has an edge to or from a
+ * vertex in another cell on that level. For each cell, the overlay keeps the
+ * clique of shortest-path weights within the cell between its boundary
+ * vertices. Level 0 cliques come from the edges in the cell, and each higher
+ * level's from the cliques of the level below and the edges between them.</p>
+ *
+ * <p>
+ * The partition doesn't depend on the weights, so a traffic change only means
+ * recomputing the cliques of the cells containing the changed edges, and of
+ * the cells above them, which is called customization. Changes are made with
+ * {@link Overlay#setTraffic(int[], double[])}, or recorded with
+ * {@link Overlay#edgeChanged(int)} after changing the graph directly, and are
+ * applied together with {@link Overlay#customize()}.</p>
+ *
+ * <p>
+ * Each customization publishes a new {@link Overlay.Version}: a snapshot of
+ * the graph and the cliques customized with the snapshot's traffic, neither
+ * of which changes afterward. A query reads every weight, clique, and path
+ * from one version, so traffic that changes during the query, before it has
+ * been customized, never mixes into its results.</p>
+ *
+ * @author aaronzhang
+ */
+public class Overlay {
+
+  /**
+   * Graph, whose traffic changes.
+   */
+  private final CSRGraph graph;
+
+  /**
+   * Partition of graph.
+   */
+  private final Partition partition;
+
+  /**
+   * Position of each vertex among the boundary vertices of its cell on each
+   * level, or -1 if it isn't a boundary vertex.
+   */
+  private final int[][] boundaryIndex;
+
+  /**
+   * Boundary vertices of each cell on each level.
+   */
+  private final int[][][] boundary;
+
+  /**
+   * Whether each cell on each level needs to be customized.
+   */
+  private final boolean[][] dirty;
+
+  /**
+   * Version from the last customization.
+   */
+  private volatile Version current;
+
+  /**
+   * Snapshot of the graph with the cliques customized for its traffic. Never
+   * changes once published.
+   */
+  public final class Version {
+
+    /**
+     * Snapshot of graph.
+     */
+    private final CSRGraph graph;
+
+    /**
+     * Clique of each cell on each level: weight from the i-th to the j-th
+     * boundary vertex at position {@code i * k + j}, where there are k
+     * boundary vertices.
+     */
+    private final double[][][] cliques;
+
+    /**
+     * @param graph snapshot of graph
+     * @param cliques clique of each cell on each level
+     */
+    private Version(CSRGraph graph, double[][][] cliques) {
+      this.graph = graph;
+      this.cliques = cliques;
+    }
+
+    /**
+     * @return overlay this is a version of
+     */
+    public Overlay getOverlay() {
+      return Overlay.this;
+    }
+
+    /**
+     * @return snapshot of graph the cliques were customized for
+     */
+    public CSRGraph getGraph() {
+      return graph;
+    }
+
+    /**
+     * @param level level
+     * @param cell cell on level
+     * @return clique of cell
+     */
+    double[] clique(int level, int cell) {
+      return cliques[level][cell];
+    }
+
+    /**
+     * Replaces a clique arc by the edges of the graph it stands for, with a
+     * Dijkstra search that stays in the cell, on this version's traffic.
+     *
+     * @param level level of clique
+     * @param u tail of clique arc
+     * @param w head of clique arc
+     * @return edges from tail to head in order
+     */
+    int[] unpack(int level, int u, int w) {
+      int cell = partition.cell(level, u);
+      SearchContext c = SearchContext.get(graph.numVertices());
+      c.reach(u);
+      c.parentEdge[u] = -1;
+      c.parentVertex[u] = -1;
+      c.g[u] = 0;
+      c.heap.insertOrDecrease(u, 0);
+      while (!c.heap.isEmpty()) {
+        int v = c.heap.poll();
+        if (v == w) {
+          return Graphs.edgePath(c, w);
+        }
+        c.settle(v);
+        scanInCell(graph, cliques, c, v, -1, level, cell);
+      }
+      throw new IllegalStateException("clique arc has no path in its cell");
+    }
+  }
+
+  /**
+   * Builds the overlay and customizes every cell.
+   *
+   * @param graph graph
+   * @param partition partition of graph
+   * @throws IllegalArgumentException if partition is for a different number of
+   * vertices
+   */
+  public Overlay(CSRGraph graph, Partition partition) {
+    int n = graph.numVertices();
+    if (partition.numVertices() != n) {
+      throw new IllegalArgumentException("partition is for another graph");
+    }
+    int levels = partition.numLevels();
+    this.graph = graph;
+    this.partition = partition;
+    boundaryIndex = new int[levels][n];
+    boundary = new int[levels][][];
+    dirty = new boolean[levels][];
+    for (int l = 0; l < levels; l++) {
+      // Mark boundary vertices, then number them within each cell
+      int[] index = boundaryIndex[l];
+      Arrays.fill(index, -1);
+      for (int e = 0; e < graph.numEdges(); e++) {
+        int u = graph.tail(e);
+        int w = graph.head(e);
+        if (partition.cell(l, u) != partition.cell(l, w)) {
+          index[u] = 0;
+          index[w] = 0;
+        }
+      }
+      int cells = partition.numCells(l);
+      int[] counts = new int[cells];
+      for (int v = 0; v < n; v++) {
+        if (index[v] != -1) {
+          index[v] = counts[partition.cell(l, v)]++;
+        }
+      }
+      boundary[l] = new int[cells][];
+      for (int c = 0; c < cells; c++) {
+        boundary[l][c] = new int[counts[c]];
+      }
+      for (int v = 0; v < n; v++) {
+        if (index[v] != -1) {
+          boundary[l][partition.cell(l, v)][index[v]] = v;
+        }
+      }
+      dirty[l] = new boolean[cells];
+      Arrays.fill(dirty[l], true);
+    }
+    customize();
+  }
+
+  /**
+   * @return graph, whose traffic changes
+   */
+  public CSRGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Gets the version from the last customization, which a query should use
+   * throughout.
+   *
+   * @return current version
+   */
+  public Version current() {
+    return current;
+  }
+
+  /**
+   * @return partition
+   */
+  public Partition getPartition() {
+    return partition;
+  }
+
+  /**
+   * Changes the traffic of several edges of the graph and records the
+   * changes, together, so a customization sees both or neither. Queries see
+   * the changes once the overlay is customized.
+   *
+   * @param edges edge indices
+   * @param values new traffic multiplier of each edge
+   * @throws IllegalArgumentException if there aren't as many values as edges
+   */
+  public synchronized void setTraffic(int[] edges, double[] values) {
+    graph.setTraffic(edges, values);
+    for (int e : edges) {
+      edgeChanged(e);
+    }
+  }
+
+  /**
+   * Records that the weight of an edge has changed. The lowest cell
+   * containing both ends needs to be customized; if there is none, the edge
+   * is only used directly by queries and nothing needs to be done. Must be
+   * called before the next customization after changing the graph directly.
+   *
+   * @param e edge index
+   */
+  public synchronized void edgeChanged(int e) {
+    int u = graph.tail(e);
+    int w = graph.head(e);
+    for (int l = 0; l < partition.numLevels(); l++) {
+      int c = partition.cell(l, u);
+      if (c == partition.cell(l, w)) {
+        dirty[l][c] = true;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Publishes a new version with a snapshot of the graph's current traffic,
+   * recomputing the cliques of the cells with changed edges, and of the cells
+   * above them, from the bottom level up. Other cliques are shared with the
+   * last version.
+   *
+   * @return number of cells customized
+   */
+  public synchronized int customize() {
+    CSRGraph pinned = graph.snapshot();
+    int levels = partition.numLevels();
+    double[][][] cliques = new double[levels][][];
+    for (int l = 0; l < levels; l++) {
+      cliques[l] = current == null ? new double[partition.numCells(l)][]
+        : current.cliques[l].clone();
+    }
+    int customized = 0;
+    for (int l = 0; l < levels; l++) {
+      for (int c = 0; c < dirty[l].length; c++) {
+        if (dirty[l][c]) {
+          customizeCell(pinned, cliques, l, c);
+          dirty[l][c] = false;
+          customized++;
+          if (l + 1 < partition.numLevels()) {
+            dirty[l + 1][partition.parent(l, c)] = true;
+          }
+        }
+      }
+    }
+    // Edges between cells may have changed too, so publish even if no cell
+    // was customized
+    current = new Version(pinned, cliques);
+    return customized;
+  }
+
+  /**
+   * Recomputes the clique of a cell with a Dijkstra search from each boundary
+   * vertex that stays in the cell. On level 0 the search uses the edges of the
+   * graph; on higher levels it uses the cliques of the level below and the
+   * edges between those cells.
+   *
+   * @param pinned snapshot of graph being customized for
+   * @param cliques cliques being customized, complete below the level
+   * @param level level
+   * @param cell cell on level
+   */
+  private void customizeCell(CSRGraph pinned, double[][][] cliques, int level,
+    int cell) {
+    int[] vertices = boundary[level][cell];
+    int k = vertices.length;
+    double[] clique = new double[k * k];
+    for (int i = 0; i < k; i++) {
+      SearchContext c = SearchContext.get(pinned.numVertices());
+      c.reach(vertices[i]);
+      c.parentEdge[vertices[i]] = -1;
+      c.parentVertex[vertices[i]] = -1;
+      c.g[vertices[i]] = 0;
+      c.heap.insertOrDecrease(vertices[i], 0);
+      while (!c.heap.isEmpty()) {
+        int v = c.heap.poll();
+        c.settle(v);
+        scanInCell(pinned, cliques, c, v, level - 1, level, cell);
+      }
+      for (int j = 0; j < k; j++) {
+        clique[i * k + j] = c.isReached(vertices[j])
+          ? c.g[vertices[j]] : Double.POSITIVE_INFINITY;
+      }
+    }
+    cliques[level][cell] = clique;
+  }
+
+  /**
+   * Relaxes the arcs out of a vertex on a level of the overlay that stay in a
+   * cell: the vertex's clique on that level, and the edges to other cells on
+   * that level. Level -1 means the edges of the graph.
+   *
+   * @param pinned snapshot of graph
+   * @param cliques cliques for snapshot
+   * @param c search context
+   * @param v vertex
+   * @param level level of arcs
+   * @param cellLevel level of cell to stay in
+   * @param cell cell to stay in
+   */
+  private void scanInCell(CSRGraph pinned, double[][][] cliques,
+    SearchContext c, int v, int level, int cellLevel, int cell) {
+    if (level >= 0) {
+      int i = boundaryIndex[level][v];
+      if (i != -1) {
+        int own = partition.cell(level, v);
+        int[] vertices = boundary[level][own];
+        double[] clique = cliques[level][own];
+        int k = vertices.length;
+        for (int j = 0; j < k; j++) {
+          if (j != i && clique[i * k + j] < Double.POSITIVE_INFINITY) {
+            Graphs.relax(c, v, vertices[j], cliqueArc(level),
+              clique[i * k + j]);
+          }
+        }
+      }
+    }
+    for (int e = pinned.outEdgesBegin(v), end = pinned.outEdgesEnd(v);
+      e < end; e++) {
+      int w = pinned.head(e);
+      if (partition.cell(cellLevel, w) == cell && (level < 0
+        || partition.cell(level, w) != partition.cell(level, v))) {
+        Graphs.relax(c, v, w, e, pinned.weight(e));
+      }
+    }
+  }
+
+  /**
+   * Level of the overlay a query from the source to the target uses at a
+   * vertex: the highest level on which the vertex is in neither the source's
+   * nor the target's cell, or -1 if it shares a level 0 cell with either, in
+   * which case the query uses the edges of the graph.
+   *
+   * @param v vertex
+   * @param source source of query
+   * @param target target of query
+   * @return query level
+   */
+  int queryLevel(int v, int source, int target) {
+    for (int l = partition.numLevels() - 1; l >= 0; l--) {
+      int c = partition.cell(l, v);
+      if (c != partition.cell(l, source) && c != partition.cell(l, target)) {
+        return l;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param level level
+   * @param v vertex
+   * @return position among boundary vertices of its cell, or -1
+   */
+  int boundaryIndex(int level, int v) {
+    return boundaryIndex[level][v];
+  }
+
+  /**
+   * @param level level
+   * @param cell cell on level
+   * @return boundary vertices of cell
+   */
+  int[] boundary(int level, int cell) {
+    return boundary[level][cell];
+  }
+
+  /**
+   * Code that a search stores as the parent edge of a vertex reached by a
+   * clique arc on the given level. Edges of the graph are nonnegative and the
+   * root is -1, so cliques are -2 and below.
+   *
+   * @param level level
+   * @return parent code
+   */
+  static int cliqueArc(int level) {
+    return -(level + 2);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("[Overlay on %s]", partition);
+  }
+}
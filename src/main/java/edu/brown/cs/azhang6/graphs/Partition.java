@@ -0,0 +1,226 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Nested partition of the vertices of a {@link CSRGraph} into cells on several
+ * levels. Level 0 has the smallest cells, and each cell on a level is a union
+ * of cells on the level below. Depends only on the topology of the graph, not
+ * on the edge weights, so it never has to be rebuilt when traffic changes.
+ *
+ * <p>
+ * Cells are grown by breadth-first search, ignoring the direction of edges:
+ * level 0 grows cells of vertices, and each higher level grows cells of cells
+ * of the level below, each up to a maximum size in vertices.</p>
+ *
+ * @author aaronzhang
+ */
+public class Partition {
+
+  /**
+   * Cell of each vertex on each level.
+   */
+  private final int[][] cells;
+
+  /**
+   * Number of cells on each level.
+   */
+  private final int[] numCells;
+
+  /**
+   * Cell on the level above of each cell on each level but the top.
+   */
+  private final int[][] parents;
+
+  /**
+   * New partition with the given cells.
+   *
+   * @param cells cell of each vertex on each level
+   * @param numCells number of cells on each level
+   * @param parents cell on the level above of each cell
+   */
+  private Partition(int[][] cells, int[] numCells, int[][] parents) {
+    this.cells = cells;
+    this.numCells = numCells;
+    this.parents = parents;
+  }
+
+  /**
+   * Partitions the graph. There is one level for each maximum cell size.
+   *
+   * @param graph graph
+   * @param maxCellSizes max number of vertices in a cell on each level, in
+   * increasing order
+   * @return partition
+   * @throws IllegalArgumentException if there are no sizes, or the sizes
+   * aren't positive and increasing
+   */
+  public static Partition build(CSRGraph graph, int... maxCellSizes) {
+    if (maxCellSizes.length == 0) {
+      throw new IllegalArgumentException("need at least one level");
+    }
+    for (int l = 0; l < maxCellSizes.length; l++) {
+      if (maxCellSizes[l] <= 0
+        || (l > 0 && maxCellSizes[l] <= maxCellSizes[l - 1])) {
+        throw new IllegalArgumentException(
+          "cell sizes must be positive and increasing");
+      }
+    }
+    int n = graph.numVertices();
+    int levels = maxCellSizes.length;
+    int[][] cells = new int[levels][];
+    int[] numCells = new int[levels];
+    int[][] parents = new int[levels - 1][];
+
+    // Level 0: grow cells of vertices
+    int[] vertexSizes = new int[n];
+    Arrays.fill(vertexSizes, 1);
+    List<Set<Integer>> vertexNeighbors = new ArrayList<>(n);
+    for (int v = 0; v < n; v++) {
+      vertexNeighbors.add(new HashSet<>());
+    }
+    for (int e = 0; e < graph.numEdges(); e++) {
+      int u = graph.tail(e);
+      int w = graph.head(e);
+      if (u != w) {
+        vertexNeighbors.get(u).add(w);
+        vertexNeighbors.get(w).add(u);
+      }
+    }
+    cells[0] = grow(vertexSizes, vertexNeighbors, maxCellSizes[0]);
+    numCells[0] = count(cells[0]);
+
+    // Higher levels: grow cells of the cells below
+    for (int l = 1; l < levels; l++) {
+      int[] below = cells[l - 1];
+      int[] sizes = new int[numCells[l - 1]];
+      for (int v = 0; v < n; v++) {
+        sizes[below[v]]++;
+      }
+      List<Set<Integer>> neighbors = new ArrayList<>(sizes.length);
+      for (int c = 0; c < sizes.length; c++) {
+        neighbors.add(new HashSet<>());
+      }
+      for (int e = 0; e < graph.numEdges(); e++) {
+        int c = below[graph.tail(e)];
+        int d = below[graph.head(e)];
+        if (c != d) {
+          neighbors.get(c).add(d);
+          neighbors.get(d).add(c);
+        }
+      }
+      parents[l - 1] = grow(sizes, neighbors, maxCellSizes[l]);
+      numCells[l] = count(parents[l - 1]);
+      cells[l] = new int[n];
+      for (int v = 0; v < n; v++) {
+        cells[l][v] = parents[l - 1][below[v]];
+      }
+    }
+    return new Partition(cells, numCells, parents);
+  }
+
+  /**
+   * Groups items into cells by breadth-first search from each item not yet in
+   * a cell, adding neighbors while they fit.
+   *
+   * @param sizes size of each item
+   * @param neighbors neighbors of each item
+   * @param maxSize max total size of a cell
+   * @return cell of each item
+   */
+  private static int[] grow(int[] sizes, List<Set<Integer>> neighbors,
+    int maxSize) {
+    int[] cell = new int[sizes.length];
+    Arrays.fill(cell, -1);
+    int[] queue = new int[sizes.length];
+    int next = 0;
+    for (int seed = 0; seed < sizes.length; seed++) {
+      if (cell[seed] != -1) {
+        continue;
+      }
+      int id = next++;
+      int size = sizes[seed];
+      cell[seed] = id;
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = seed;
+      while (head < tail && size < maxSize) {
+        int item = queue[head++];
+        for (int neighbor : neighbors.get(item)) {
+          if (cell[neighbor] == -1 && size + sizes[neighbor] <= maxSize) {
+            cell[neighbor] = id;
+            size += sizes[neighbor];
+            queue[tail++] = neighbor;
+          }
+        }
+      }
+    }
+    return cell;
+  }
+
+  /**
+   * @param cell cell of each item, numbered from 0
+   * @return number of cells
+   */
+  private static int count(int[] cell) {
+    int max = -1;
+    for (int c : cell) {
+      max = Math.max(max, c);
+    }
+    return max + 1;
+  }
+
+  /**
+   * @return number of vertices partitioned
+   */
+  public int numVertices() {
+    return cells[0].length;
+  }
+
+  /**
+   * @return number of levels
+   */
+  public int numLevels() {
+    return cells.length;
+  }
+
+  /**
+   * @param level level
+   * @return number of cells on level
+   */
+  public int numCells(int level) {
+    return numCells[level];
+  }
+
+  /**
+   * @param level level
+   * @param v vertex index
+   * @return cell of vertex on level
+   */
+  public int cell(int level, int v) {
+    return cells[level][v];
+  }
+
+  /**
+   * @param level level below the top
+   * @param c cell on level
+   * @return cell on the level above containing the cell
+   */
+  public int parent(int level, int c) {
+    return parents[level][c];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("[Partition with %s cells per level]",
+      Arrays.toString(numCells));
+  }
+}
@@ -0,0 +1,220 @@
+package edu.brown.cs.azhang6.graphs;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for one shortest-path search: tentative weights, parents, and
+ * a heap, all indexed by vertex. Each thread has its own context, which is
+ * reused across searches instead of being allocated per query.
+ *
+ * <p>
+ * Rather than clearing every array before each search, a search begins by
+ * incrementing the epoch. A vertex has been reached or settled in the current
+ * search only if its stamp equals the current epoch, so starting a search takes
+ * constant time no matter how many vertices earlier searches touched.</p>
+ *
+ * <p>
+ * A search must not start another search on the same thread (for example, from
+ * a stop condition or heuristic) while it is using the context.</p>
+ *
+ * @author aaronzhang
+ */
+final class SearchContext {
+
+  /**
+   * Context of each thread.
+   */
+  private static final ThreadLocal<SearchContext> CONTEXT
+    = ThreadLocal.withInitial(SearchContext::new);
+
+  /**
+   * Second context of each thread, for the backward half of a bidirectional
+   * search.
+   */
+  private static final ThreadLocal<SearchContext> BACKWARD
+    = ThreadLocal.withInitial(SearchContext::new);
+
+  /**
+   * Initial capacity.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Tentative weight of each reached vertex.
+   */
+  double[] g = new double[INITIAL_CAPACITY];
+
+  /**
+   * Heuristic of each reached vertex, so the heuristic is evaluated once per
+   * vertex.
+   */
+  double[] h = new double[INITIAL_CAPACITY];
+
+  /**
+   * Index of the edge used to reach each vertex, or -1 for the root.
+   */
+  int[] parentEdge = new int[INITIAL_CAPACITY];
+
+  /**
+   * Vertex the edge used to reach each vertex comes from, or -1 for the root.
+   */
+  int[] parentVertex = new int[INITIAL_CAPACITY];
+
+  /**
+   * Vertices in the order the search settled them, for searches that return
+   * every vertex they settle.
+   */
+  int[] order = new int[INITIAL_CAPACITY];
+
+  /**
+   * Vertex objects, for searches on graphs of vertex objects. Such searches
+   * number the vertices they reach.
+   */
+  Object[] vertices = new Object[INITIAL_CAPACITY];
+
+  /**
+   * Edge objects used to reach each vertex, for searches on graphs of vertex
+   * objects.
+   */
+  Object[] edges = new Object[INITIAL_CAPACITY];
+
+  /**
+   * Epoch in which each vertex was last reached.
+   */
+  private int[] reached = new int[INITIAL_CAPACITY];
+
+  /**
+   * Epoch in which each vertex was last settled.
+   */
+  private int[] settled = new int[INITIAL_CAPACITY];
+
+  /**
+   * Current epoch.
+   */
+  private int epoch = 0;
+
+  /**
+   * Heap of reached but unsettled vertices.
+   */
+  final IndexedMinHeap heap = new IndexedMinHeap(INITIAL_CAPACITY);
+
+  /**
+   * Should be obtained with {@link SearchContext#get(int)}.
+   */
+  private SearchContext() {
+
+  }
+
+  /**
+   * Gets this thread's context, ready for a new search on vertices less than
+   * the given capacity.
+   *
+   * @param capacity number of vertices
+   * @return context
+   */
+  static SearchContext get(int capacity) {
+    SearchContext context = CONTEXT.get();
+    context.begin(capacity);
+    return context;
+  }
+
+  /**
+   * Gets this thread's context for the backward half of a bidirectional
+   * search, which can be in use at the same time as the context from
+   * {@link SearchContext#get(int)}.
+   *
+   * @param capacity number of vertices
+   * @return context
+   */
+  static SearchContext getBackward(int capacity) {
+    SearchContext context = BACKWARD.get();
+    context.begin(capacity);
+    return context;
+  }
+
+  /**
+   * Starts a new search: nothing is reached, settled, or in the heap.
+   *
+   * @param capacity number of vertices
+   */
+  void begin(int capacity) {
+    ensureCapacity(capacity);
+    heap.clear();
+    epoch++;
+    if (epoch == Integer.MAX_VALUE) {
+      // Start over so old stamps can't be mistaken for the current epoch
+      Arrays.fill(reached, 0);
+      Arrays.fill(settled, 0);
+      epoch = 1;
+    }
+  }
+
+  /**
+   * Makes sure the context can hold vertices less than the given capacity.
+   * Keeps the state of the current search.
+   *
+   * @param capacity number of vertices
+   */
+  void ensureCapacity(int capacity) {
+    int old = reached.length;
+    if (capacity <= old) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, 2 * old);
+    g = Arrays.copyOf(g, newCapacity);
+    h = Arrays.copyOf(h, newCapacity);
+    parentEdge = Arrays.copyOf(parentEdge, newCapacity);
+    parentVertex = Arrays.copyOf(parentVertex, newCapacity);
+    order = Arrays.copyOf(order, newCapacity);
+    vertices = Arrays.copyOf(vertices, newCapacity);
+    edges = Arrays.copyOf(edges, newCapacity);
+    reached = Arrays.copyOf(reached, newCapacity);
+    settled = Arrays.copyOf(settled, newCapacity);
+    heap.ensureCapacity(newCapacity);
+  }
+
+  /**
+   * @param v vertex
+   * @return whether vertex has been reached in the current search
+   */
+  boolean isReached(int v) {
+    return reached[v] == epoch;
+  }
+
+  /**
+   * Marks a vertex reached in the current search.
+   *
+   * @param v vertex
+   */
+  void reach(int v) {
+    reached[v] = epoch;
+  }
+
+  /**
+   * @param v vertex
+   * @return whether vertex has been settled in the current search
+   */
+  boolean isSettled(int v) {
+    return settled[v] == epoch;
+  }
+
+  /**
+   * Marks a vertex settled in the current search.
+   *
+   * @param v vertex
+   */
+  void settle(int v) {
+    settled[v] = epoch;
+  }
+
+  /**
+   * Drops references to the first {@code count} vertex and edge objects, so
+   * the context doesn't keep them from being garbage collected.
+   *
+   * @param count number of vertex objects used
+   */
+  void releaseObjects(int count) {
+    Arrays.fill(vertices, 0, count, null);
+    Arrays.fill(edges, 0, count, null);
+  }
+}
@@ -0,0 +1,560 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * K-d tree that supports {@link DynamicKDTree#insert(Dimensional)} and
+ * {@link DynamicKDTree#remove(Dimensional)}, by the logarithmic method: the
+ * elements are kept in a few {@link FlatKDTree}s, each built once, plus a
+ * small buffer of elements inserted since the newest tree was built, which is
+ * searched one element at a time. A full buffer becomes a new tree, and trees
+ * are merged when the newer ones add up to an older one, so each tree is more
+ * than twice as big as the next, there are O(log n) trees, and each element
+ * is rebuilt O(log n) times. Removing an element from a tree hides it until
+ * the tree is merged; if more than half the elements are hidden, every tree
+ * is merged.
+ *
+ * <p>
+ * Merges run in the background on a {@link ForkJoinPool}, and queries don't
+ * wait for them or for changes: each query searches one version of the
+ * trees and buffer, which changes replace rather than modify. Changes are
+ * synchronized. Elements are kept once each, by equality.</p>
+ *
+ * <p>
+ * The tree can also start from a {@link MappedKDTree}, which is searched
+ * alongside the others but never merged, since its elements would all have to
+ * be made; removing its elements only hides them.</p>
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
+public class DynamicKDTree<T extends Dimensional> implements KDVertex<T> {
+
+  /**
+   * Number of inserted elements that become a tree.
+   */
+  static final int BUFFER_SIZE = 256;
+
+  /**
+   * Pool to build and merge trees on, or null to build them on the thread
+   * that changes this tree.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Elements in this tree, other than those in the base.
+   */
+  private final Set<T> elements = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Tree this tree started from, which is never merged, or null.
+   */
+  private final MappedKDTree<T> base;
+
+  /**
+   * Elements removed from the base.
+   */
+  private final Set<T> baseRemoved = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Number of dimensions of each element, or -1 before any element is added.
+   */
+  private int numDimensions;
+
+  /**
+   * Current version of the trees and buffer.
+   */
+  private volatile Forest<T> forest;
+
+  /**
+   * Whether a merge is running.
+   */
+  private boolean merging = false;
+
+  /**
+   * Builds a tree with the given elements, on this thread. Later merges also
+   * run on the thread that makes the change that needs them.
+   *
+   * @param elements list of elements
+   * @throws IllegalArgumentException if elements have different numbers of
+   * dimensions
+   * @throws NullPointerException if list or an element is null
+   */
+  public DynamicKDTree(List<T> elements) {
+    this(elements, null);
+  }
+
+  /**
+   * Builds a tree with the given elements on the given pool, which also runs
+   * later merges in the background.
+   *
+   * @param elements list of elements
+   * @param pool pool to build and merge on, or null to build on this thread
+   * and merge on the thread that makes the change that needs it
+   * @throws IllegalArgumentException if elements have different numbers of
+   * dimensions
+   * @throws NullPointerException if list or an element is null
+   */
+  public DynamicKDTree(List<T> elements, ForkJoinPool pool) {
+    this.pool = pool;
+    base = null;
+    List<T> distinct = new ArrayList<>();
+    for (T element : elements) {
+      if (this.elements.add(element)) {
+        distinct.add(element);
+      }
+    }
+    numDimensions = distinct.isEmpty() ? -1 : distinct.get(0).numDimensions();
+    List<FlatKDTree<T>> trees = distinct.isEmpty() ? Collections.emptyList()
+      : Collections.singletonList(new FlatKDTree<>(distinct, pool));
+    forest = new Forest<>(trees, Collections.emptyList(),
+      ConcurrentHashMap.newKeySet());
+  }
+
+  /**
+   * Starts from a mapped tree, whose elements are never merged into other
+   * trees. Merges run in the background on the given pool.
+   *
+   * @param base tree to start from
+   * @param pool pool to merge on, or null to merge on the thread that makes
+   * the change that needs it
+   * @throws NullPointerException if base is null
+   */
+  public DynamicKDTree(MappedKDTree<T> base, ForkJoinPool pool) {
+    this.pool = pool;
+    this.base = base;
+    numDimensions = base.size() == 0 ? -1 : base.numDimensions();
+    forest = new Forest<>(Collections.emptyList(), Collections.emptyList(),
+      ConcurrentHashMap.newKeySet());
+  }
+
+  /**
+   * One version of the trees and buffer. Never changed once published,
+   * except for the set of hidden elements, which versions share until a merge
+   * removes some of them.
+   *
+   * @param <T> a dimensional type
+   */
+  private static final class Forest<T extends Dimensional> {
+
+    /**
+     * Trees, oldest first.
+     */
+    private final List<FlatKDTree<T>> trees;
+
+    /**
+     * Elements inserted since the newest tree was built.
+     */
+    private final List<T> buffer;
+
+    /**
+     * Elements removed from the trees but still in them.
+     */
+    private final Set<T> removed;
+
+    /**
+     * @param trees trees, oldest first
+     * @param buffer elements not in trees
+     * @param removed elements removed from the trees
+     */
+    Forest(List<FlatKDTree<T>> trees, List<T> buffer, Set<T> removed) {
+      this.trees = Collections.unmodifiableList(trees);
+      this.buffer = Collections.unmodifiableList(buffer);
+      this.removed = removed;
+    }
+  }
+
+  /**
+   * Publishes a new version, turning the buffer into a tree if it is full.
+   *
+   * @param trees trees, oldest first
+   * @param buffer elements not in trees
+   * @param removed elements removed from the trees
+   */
+  private void publish(List<FlatKDTree<T>> trees, List<T> buffer,
+    Set<T> removed) {
+    if (buffer.size() >= BUFFER_SIZE) {
+      trees = new ArrayList<>(trees);
+      trees.add(new FlatKDTree<>(buffer));
+      buffer = Collections.emptyList();
+    }
+    forest = new Forest<>(trees, buffer, removed);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean insert(T element) {
+    if (element == null) {
+      throw new NullPointerException("Calling insert() with null");
+    }
+    if (numDimensions == -1) {
+      numDimensions = element.numDimensions();
+    } else if (element.numDimensions() != numDimensions) {
+      throw new IllegalArgumentException(String.format(
+        "Dimension mismatch between %s and tree elements", element));
+    }
+    if (base != null && base.contains(element)) {
+      return baseRemoved.remove(element);
+    }
+    if (!elements.add(element)) {
+      return false;
+    }
+    Forest<T> f = forest;
+    // If it was removed from a tree, it's still there, just hidden
+    if (f.removed.remove(element)) {
+      return true;
+    }
+    List<T> buffer = new ArrayList<>(f.buffer);
+    buffer.add(element);
+    publish(f.trees, buffer, f.removed);
+    mergeIfNeeded();
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean remove(T element) {
+    if (element == null) {
+      return false;
+    }
+    if (!elements.remove(element)) {
+      return base != null && base.contains(element)
+        && baseRemoved.add(element);
+    }
+    Forest<T> f = forest;
+    int i = f.buffer.indexOf(element);
+    if (i != -1) {
+      List<T> buffer = new ArrayList<>(f.buffer);
+      buffer.remove(i);
+      publish(f.trees, buffer, f.removed);
+    } else {
+      f.removed.add(element);
+      mergeIfNeeded();
+    }
+    return true;
+  }
+
+  /**
+   * Starts merging trees if the newer trees add up to an older one, or if
+   * more than half the elements in the trees are hidden, unless a merge is
+   * already running. Must hold the lock.
+   */
+  private void mergeIfNeeded() {
+    if (merging) {
+      return;
+    }
+    Forest<T> f = forest;
+    List<FlatKDTree<T>> trees = f.trees;
+    int from = trees.size();
+    if (!trees.isEmpty() && f.removed.size() > elements.size() / 2) {
+      from = 0;
+    } else {
+      // Oldest tree no bigger than all the trees after it together
+      long after = 0;
+      for (int i = trees.size() - 1; i >= 0; i--) {
+        if (trees.get(i).size() <= after) {
+          from = i;
+        }
+        after += trees.get(i).size();
+      }
+      if (trees.size() - from < 2) {
+        return;
+      }
+    }
+    List<FlatKDTree<T>> input = new ArrayList<>(
+      trees.subList(from, trees.size()));
+    Set<T> removed = new HashSet<>(f.removed);
+    merging = true;
+    if (pool == null) {
+      merge(input, removed);
+    } else {
+      pool.execute(() -> merge(input, removed));
+    }
+  }
+
+  /**
+   * Merges trees into one, leaving out hidden elements, and then publishes
+   * the merged tree in their place.
+   *
+   * @param input trees to merge
+   * @param removed elements hidden when the merge started
+   */
+  private void merge(List<FlatKDTree<T>> input, Set<T> removed) {
+    try {
+      List<T> kept = new ArrayList<>();
+      List<T> dropped = new ArrayList<>();
+      for (FlatKDTree<T> tree : input) {
+        for (T element : tree.getElements()) {
+          (removed.contains(element) ? dropped : kept).add(element);
+        }
+      }
+      FlatKDTree<T> merged = new FlatKDTree<>(kept, pool);
+      install(input, merged, dropped);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        merging = false;
+        notifyAll();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Replaces merged trees with the tree they were merged into.
+   *
+   * @param input trees that were merged
+   * @param merged merged tree
+   * @param dropped hidden elements that were left out
+   */
+  private synchronized void install(List<FlatKDTree<T>> input,
+    FlatKDTree<T> merged, List<T> dropped) {
+    Forest<T> f = forest;
+    // The merged trees are still together; trees built meanwhile are newer
+    int first = 0;
+    while (f.trees.get(first) != input.get(0)) {
+      first++;
+    }
+    List<FlatKDTree<T>> trees = new ArrayList<>(f.trees.subList(0, first));
+    if (merged.size() > 0) {
+      trees.add(merged);
+    }
+    trees.addAll(f.trees.subList(first + input.size(), f.trees.size()));
+    // Versions already published keep the old set, which still hides the
+    // dropped elements in the old trees
+    Set<T> removed = ConcurrentHashMap.newKeySet();
+    removed.addAll(f.removed);
+    List<T> buffer = new ArrayList<>(f.buffer);
+    for (T element : dropped) {
+      if (!removed.remove(element)) {
+        // Inserted again during the merge
+        buffer.add(element);
+      }
+    }
+    publish(trees, buffer, removed);
+    merging = false;
+    notifyAll();
+    mergeIfNeeded();
+  }
+
+  /**
+   * Waits until no merge is running. Useful for testing.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized void awaitMerges() throws InterruptedException {
+    while (merging) {
+      wait();
+    }
+  }
+
+  /**
+   * @return number of trees, not counting the buffer
+   */
+  int numTrees() {
+    return forest.trees.size();
+  }
+
+  /**
+   * Predicate that ignores what the given predicate ignores, and elements
+   * removed from the trees of a version.
+   *
+   * @param f version
+   * @param ignore predicate to also ignore, or null
+   * @return predicate, or null to ignore nothing
+   */
+  private Predicate<T> skip(Forest<T> f, Predicate<T> ignore) {
+    Set<T> removed = f.removed;
+    if (removed.isEmpty()) {
+      return ignore;
+    }
+    return element -> removed.contains(element)
+      || (ignore != null && ignore.test(element));
+  }
+
+  /**
+   * Predicate that ignores what the given predicate ignores, and elements
+   * removed from the base.
+   *
+   * @param ignore predicate to also ignore, or null
+   * @return predicate, or null to ignore nothing
+   */
+  private Predicate<T> skipBase(Predicate<T> ignore) {
+    if (baseRemoved.isEmpty()) {
+      return ignore;
+    }
+    return element -> baseRemoved.contains(element)
+      || (ignore != null && ignore.test(element));
+  }
+
+  @Override
+  public int size() {
+    int size = elements.size();
+    return base == null ? size : size + base.size() - baseRemoved.size();
+  }
+
+  @Override
+  public boolean contains(T element) {
+    return element != null && (elements.contains(element) || (base != null
+      && !baseRemoved.contains(element) && base.contains(element)));
+  }
+
+  @Override
+  public void nearestNeighbors(Dimensional d, int n, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+    nearestNeighbors(d, ignore, nearest);
+    current.clear();
+    current.addAll(nearest.toList());
+  }
+
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    if (d == null) {
+      throw new NullPointerException(
+        "Calling nearestNeighbors() with null dimensional");
+    }
+    Forest<T> f = forest;
+    if (base != null) {
+      base.nearestNeighbors(d, skipBase(ignore), nearest);
+    }
+    Predicate<T> skip = skip(f, ignore);
+    for (FlatKDTree<T> tree : f.trees) {
+      tree.nearestNeighbors(d, skip, nearest);
+    }
+    for (T element : f.buffer) {
+      if (skip == null || !skip.test(element)) {
+        nearest.offer(element, d.distanceTo(element));
+      }
+    }
+  }
+
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    withinRadius(d, r, ignore, current, null);
+  }
+
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current, ForkJoinPool searchPool) {
+    if (d == null) {
+      throw new NullPointerException(
+        "Calling withinRadius() with null dimensional");
+    }
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    Forest<T> f = forest;
+    if (base != null) {
+      base.withinRadius(d, r, skipBase(ignore), current, searchPool);
+    }
+    Predicate<T> skip = skip(f, ignore);
+    for (FlatKDTree<T> tree : f.trees) {
+      tree.withinRadius(d, r, skip, current, searchPool);
+    }
+    for (T element : f.buffer) {
+      if (skip == null || !skip.test(element)) {
+        double distance = d.distanceTo(element);
+        if (distance <= r) {
+          current.add(new DimensionalDistance<>(element, distance));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    if (base != null) {
+      Predicate<T> skipBase = skipBase(null);
+      base.inBox(min, max, skipBase == null ? visitor : element -> {
+        if (!skipBase.test(element)) {
+          visitor.accept(element);
+        }
+      });
+    }
+    Forest<T> f = forest;
+    Predicate<T> skip = skip(f, null);
+    Consumer<? super T> shown = skip == null ? visitor : element -> {
+      if (!skip.test(element)) {
+        visitor.accept(element);
+      }
+    };
+    for (FlatKDTree<T> tree : f.trees) {
+      tree.inBox(min, max, shown);
+    }
+    for (T element : f.buffer) {
+      if (KDLeaf.inBox(element, min, max)) {
+        shown.accept(element);
+      }
+    }
+  }
+
+  @Override
+  public void inBox(Dimensional min, Dimensional max, List<? super T> found,
+    ForkJoinPool searchPool) {
+    Forest<T> f = forest;
+    List<T> inTree = new ArrayList<>();
+    if (base != null) {
+      base.inBox(min, max, inTree, searchPool);
+      keep(inTree, skipBase(null), found);
+    }
+    Predicate<T> skip = skip(f, null);
+    for (FlatKDTree<T> tree : f.trees) {
+      tree.inBox(min, max, inTree, searchPool);
+      keep(inTree, skip, found);
+    }
+    for (T element : f.buffer) {
+      if (KDLeaf.inBox(element, min, max)) {
+        found.add(element);
+      }
+    }
+  }
+
+  /**
+   * Moves elements that aren't hidden from one list to another.
+   *
+   * @param from elements, which this clears
+   * @param skip elements to leave out, or null to keep every element
+   * @param to where to add the elements kept
+   */
+  private void keep(List<T> from, Predicate<T> skip, List<? super T> to) {
+    for (T element : from) {
+      if (skip == null || !skip.test(element)) {
+        to.add(element);
+      }
+    }
+    from.clear();
+  }
+
+  /**
+   * @return string representation of this {@code DynamicKDTree}
+   */
+  @Override
+  public String toString() {
+    Forest<T> f = forest;
+    return String.format("DynamicKDTree with %d elements in %d trees and %d"
+      + " more in a buffer%s", size(), f.trees.size(), f.buffer.size(),
+      base == null ? "" : ", on " + base);
+  }
+}
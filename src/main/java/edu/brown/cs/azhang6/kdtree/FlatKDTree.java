@@ -0,0 +1,720 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * K-d tree packed into flat arrays. Unlike {@link KDNode} and {@link KDLeaf},
+ * which are separate objects, the nodes are stored in preorder in parallel
+ * arrays, so the left child of a node is the next node. The elements are
+ * grouped by leaf in the same order, so each leaf is a contiguous range of
+ * elements, and their coordinates are copied into one array alongside them.
+ *
+ * <p>
+ * Queries compare and measure with the copied coordinates, through
+ * {@link Dimensional#distanceTo(double[], int)}, and only touch the elements
+ * themselves to test the predicate and to return results.</p>
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
+public class FlatKDTree<T extends Dimensional> implements KDVertex<T> {
+
+  /**
+   * Maximum number of elements in a leaf, unless all its elements have the
+   * same coordinates.
+   */
+  static final int LEAF_SIZE = KDLeaf.MAX_COUNT;
+
+  /**
+   * When building or searching in parallel, ranges with fewer elements are
+   * built or searched on one thread.
+   */
+  static final int PARALLEL_SIZE = KDNodeParallel.PARALLEL_SIZE;
+
+  /**
+   * Marks a node slot that the builder left unused.
+   */
+  private static final int UNUSED = -2;
+
+  /**
+   * Number of dimensions of each element.
+   */
+  private final int numDimensions;
+
+  /**
+   * Elements, grouped by leaf in preorder.
+   */
+  private final Object[] elements;
+
+  /**
+   * Coordinates of each element, {@code numDimensions} per element, in the
+   * same order as the elements.
+   */
+  private final double[] coordinates;
+
+  /**
+   * Coordinate each node splits, or -1 if the node is a leaf.
+   */
+  private final int[] splitCoordinates;
+
+  /**
+   * Value each node splits at. Elements less than the split are in the left
+   * subtree, and the rest are in the right subtree.
+   */
+  private final double[] splits;
+
+  /**
+   * Right child of each node that isn't a leaf.
+   */
+  private final int[] rights;
+
+  /**
+   * First element in the subtree of each node.
+   */
+  private final int[] begins;
+
+  /**
+   * One past the last element in the subtree of each node.
+   */
+  private final int[] ends;
+
+  /**
+   * Builds a tree with the given elements. Every element should have the same
+   * number of dimensions. External changes to the list argument after
+   * construction will not affect this object.
+   *
+   * @param elements list of elements
+   * @throws IllegalArgumentException if elements have different numbers of
+   * dimensions
+   * @throws NullPointerException if list is null
+   */
+  public FlatKDTree(List<T> elements) {
+    this(elements, null);
+  }
+
+  /**
+   * Builds a tree with the given elements in parallel on the given pool: the
+   * two halves of each large range are built as separate tasks, and large
+   * ranges are also read in parallel. Every element should have the same
+   * number of dimensions. External changes to the list argument after
+   * construction will not affect this object.
+   *
+   * @param elements list of elements
+   * @param pool pool to build on, or null to build on this thread
+   * @throws IllegalArgumentException if elements have different numbers of
+   * dimensions
+   * @throws NullPointerException if list is null
+   */
+  public FlatKDTree(List<T> elements, ForkJoinPool pool) {
+    int n = elements.size();
+    numDimensions = n == 0 ? 0 : elements.get(0).numDimensions();
+    Builder builder = new Builder(elements, pool != null);
+    if (pool == null) {
+      builder.build(0, 0, n, 0);
+    } else {
+      pool.invoke(ForkJoinTask.adapt(() -> builder.build(0, 0, n, 0)));
+    }
+    // Number the nodes in the slots the builder used, keeping their order
+    int[] numbers = new int[builder.splitCoordinates.length];
+    int numNodes = 0;
+    for (int slot = 0; slot < numbers.length; slot++) {
+      if (builder.splitCoordinates[slot] != UNUSED) {
+        numbers[slot] = numNodes++;
+      }
+    }
+    splitCoordinates = new int[numNodes];
+    splits = new double[numNodes];
+    rights = new int[numNodes];
+    begins = new int[numNodes];
+    ends = new int[numNodes];
+    for (int slot = 0; slot < numbers.length; slot++) {
+      int c = builder.splitCoordinates[slot];
+      if (c != UNUSED) {
+        int node = numbers[slot];
+        splitCoordinates[node] = c;
+        splits[node] = builder.splits[slot];
+        rights[node] = c == -1 ? 0 : numbers[builder.rights[slot]];
+        begins[node] = builder.begins[slot];
+        ends[node] = builder.ends[slot];
+      }
+    }
+    this.elements = new Object[n];
+    coordinates = new double[n * numDimensions];
+    for (int i = 0; i < n; i++) {
+      int e = builder.order[i];
+      this.elements[i] = elements.get(e);
+      System.arraycopy(builder.coordinates, e * numDimensions,
+        coordinates, i * numDimensions, numDimensions);
+    }
+  }
+
+  /**
+   * Lays out the nodes of a tree. Sorts the indices of the elements, rather
+   * than the elements, into leaf order. The subtree of a range of m elements
+   * gets 2m - 1 node slots, enough for any split, so subtrees can be laid out
+   * in parallel without sharing a counter; the slots are in preorder, and the
+   * constructor numbers the ones used.
+   */
+  private final class Builder {
+
+    /**
+     * Coordinates of each element, in list order.
+     */
+    private final double[] coordinates;
+
+    /**
+     * Indices of the elements, rearranged into leaf order.
+     */
+    private final int[] order;
+
+    /**
+     * Scratch space for selecting medians of coordinates.
+     */
+    private final double[] scratch;
+
+    /**
+     * Coordinate each node splits, or -1, or {@link FlatKDTree#UNUSED}.
+     */
+    private final int[] splitCoordinates;
+
+    /**
+     * Value each node splits at.
+     */
+    private final double[] splits;
+
+    /**
+     * Right child of each node.
+     */
+    private final int[] rights;
+
+    /**
+     * First element in subtree of each node.
+     */
+    private final int[] begins;
+
+    /**
+     * One past last element in subtree of each node.
+     */
+    private final int[] ends;
+
+    /**
+     * Whether to build large ranges in parallel, in the current pool.
+     */
+    private final boolean parallel;
+
+    /**
+     * @param elements elements of tree
+     * @param parallel whether to build large ranges in parallel
+     * @throws IllegalArgumentException if elements have different numbers of
+     * dimensions
+     */
+    Builder(List<T> elements, boolean parallel) {
+      this.parallel = parallel;
+      int n = elements.size();
+      coordinates = new double[n * numDimensions];
+      order = new int[n];
+      scratch = new double[n];
+      for (int i = 0; i < n; i++) {
+        T element = elements.get(i);
+        if (element.numDimensions() != numDimensions) {
+          throw new IllegalArgumentException(String.format(
+            "Dimension mismatch between %s and %s", elements.get(0), element));
+        }
+        for (int c = 0; c < numDimensions; c++) {
+          coordinates[i * numDimensions + c] = element.getCoordinate(c);
+        }
+        order[i] = i;
+      }
+      // Slots for the subtree of every element
+      int maxNodes = Math.max(2 * n - 1, 1);
+      splitCoordinates = new int[maxNodes];
+      Arrays.fill(splitCoordinates, UNUSED);
+      splits = new double[maxNodes];
+      rights = new int[maxNodes];
+      begins = new int[maxNodes];
+      ends = new int[maxNodes];
+    }
+
+    /**
+     * Lays out the subtree of a range of elements, splitting the given
+     * coordinate first. A coordinate on which every element in the range is
+     * the same can't split it, so the next one is tried; if none can, the
+     * range becomes a leaf.
+     *
+     * @param node slot of the root of the subtree
+     * @param from first element
+     * @param to one past last element
+     * @param coordinate coordinate to split first
+     */
+    void build(int node, int from, int to, int coordinate) {
+      begins[node] = from;
+      ends[node] = to;
+      splitCoordinates[node] = -1;
+      if (to - from <= LEAF_SIZE) {
+        return;
+      }
+      for (int tries = 0; tries < numDimensions; tries++) {
+        int c = (coordinate + tries) % numDimensions;
+        int middle = partition(from, to, c);
+        if (middle != -1) {
+          splitCoordinates[node] = c;
+          splits[node] = scratch[middle];
+          int next = (c + 1) % numDimensions;
+          int right = node + 2 * (middle - from);
+          rights[node] = right;
+          if (parallel && to - from >= PARALLEL_SIZE) {
+            ForkJoinTask.invokeAll(
+              ForkJoinTask.adapt(() -> build(node + 1, from, middle, next)),
+              ForkJoinTask.adapt(() -> build(right, middle, to, next)));
+          } else {
+            build(node + 1, from, middle, next);
+            build(right, middle, to, next);
+          }
+          return;
+        }
+      }
+    }
+
+    /**
+     * Splits a range of elements at the median of a coordinate: elements less
+     * than the median come first. If that would leave no elements first, the
+     * smallest value greater than the median is used instead. Finds the median
+     * by selection, in linear time on average.
+     *
+     * @param from first element
+     * @param to one past last element
+     * @param c coordinate
+     * @return first element not less than the split, whose coordinate is left
+     * in the scratch space as the split, or -1 if every element has the same
+     * coordinate
+     */
+    int partition(int from, int to, int c) {
+      if (parallel && to - from >= PARALLEL_SIZE) {
+        IntStream.range(from, to).parallel().forEach(i
+          -> scratch[i] = coordinates[order[i] * numDimensions + c]);
+      } else {
+        for (int i = from; i < to; i++) {
+          scratch[i] = coordinates[order[i] * numDimensions + c];
+        }
+      }
+      return Select.splitAtMedian(scratch, order, from, to);
+    }
+  }
+
+  /**
+   * @param i position of element
+   * @return element
+   */
+  @SuppressWarnings("unchecked")
+  private T element(int i) {
+    return (T) elements[i];
+  }
+
+  /**
+   * Checks that a query point has as many dimensions as the elements.
+   *
+   * @param d query point
+   * @throws IllegalArgumentException if it doesn't
+   * @throws NullPointerException if {@code d} is null
+   */
+  private void checkDimensions(Dimensional d) {
+    if (d.numDimensions() != numDimensions && elements.length > 0) {
+      throw new IllegalArgumentException(String.format(
+        "Dimension mismatch between %s and tree elements", d));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() {
+    return elements.length;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean contains(T element) {
+    if (element == null || elements.length == 0
+      || element.numDimensions() != numDimensions) {
+      return false;
+    }
+    int node = 0;
+    while (splitCoordinates[node] != -1) {
+      node = element.getCoordinate(splitCoordinates[node]) < splits[node]
+        ? node + 1 : rights[node];
+    }
+    for (int i = begins[node]; i < ends[node]; i++) {
+      if (elements[i].equals(element)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, int n, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+    nearestNeighbors(d, ignore, nearest);
+    current.clear();
+    current.addAll(nearest.toList());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    checkDimensions(d);
+    if (nearest.capacity() == 0 || elements.length == 0) {
+      return;
+    }
+    nearestNeighbors(0, d, ignore, nearest);
+  }
+
+  /**
+   * Nearest neighbors search in the subtree of a node.
+   *
+   * @param node node
+   * @param d point to find nearest neighbors from
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param nearest nearest neighbors found so far
+   */
+  private void nearestNeighbors(int node, Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    int c = splitCoordinates[node];
+    if (c == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        double distance = d.distanceTo(coordinates, i * numDimensions);
+        // Skip elements that can't be added before testing them
+        if (distance < nearest.bound()) {
+          T element = element(i);
+          if (ignore == null || !ignore.test(element)) {
+            nearest.offer(element, distance);
+          }
+        }
+      }
+      return;
+    }
+
+    // Search the side containing the point first
+    boolean leftFirst = d.getCoordinate(c) < splits[node];
+    nearestNeighbors(leftFirst ? node + 1 : rights[node], d, ignore, nearest);
+    if (d.distanceToPlane(c, splits[node]) < nearest.bound()) {
+      nearestNeighbors(leftFirst ? rights[node] : node + 1, d, ignore,
+        nearest);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    checkDimensions(d);
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    if (elements.length == 0) {
+      return;
+    }
+    withinRadius(0, d, r, ignore, current);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current, ForkJoinPool pool) {
+    if (pool == null || elements.length < PARALLEL_SIZE) {
+      withinRadius(d, r, ignore, current);
+      return;
+    }
+    checkDimensions(d);
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    // Each side is searched if it contains the point or the splitting plane
+    // is within the radius
+    List<Integer> roots = new ArrayList<>();
+    parallelRoots(0,
+      node -> d.getCoordinate(splitCoordinates[node]) < splits[node]
+      || d.distanceToPlane(splitCoordinates[node], splits[node]) <= r,
+      node -> d.getCoordinate(splitCoordinates[node]) >= splits[node]
+      || d.distanceToPlane(splitCoordinates[node], splits[node]) <= r,
+      roots);
+    searchInParallel(roots,
+      (root, found) -> withinRadius(root, d, r, ignore, found), current, pool);
+  }
+
+  /**
+   * Radius search in the subtree of a node.
+   *
+   * @param node node
+   * @param d search for elements in the given radius around this point
+   * @param r radius, nonnegative
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param current elements found so far
+   */
+  private void withinRadius(int node, Dimensional d, double r,
+    Predicate<T> ignore, List<DimensionalDistance<T>> current) {
+    int c = splitCoordinates[node];
+    if (c == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        double distance = d.distanceTo(coordinates, i * numDimensions);
+        if (distance <= r) {
+          T element = element(i);
+          if (ignore == null || !ignore.test(element)) {
+            current.add(new DimensionalDistance<>(element, distance));
+          }
+        }
+      }
+      return;
+    }
+
+    // Search the side containing the point, and the other side if the
+    // splitting plane is within the radius
+    boolean leftFirst = d.getCoordinate(c) < splits[node];
+    withinRadius(leftFirst ? node + 1 : rights[node], d, r, ignore, current);
+    if (d.distanceToPlane(c, splits[node]) <= r) {
+      withinRadius(leftFirst ? rights[node] : node + 1, d, r, ignore,
+        current);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    checkDimensions(min);
+    checkDimensions(max);
+    if (elements.length == 0) {
+      return;
+    }
+    inBox(0, min, max, visitor);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max, List<? super T> found,
+    ForkJoinPool pool) {
+    if (pool == null || elements.length < PARALLEL_SIZE) {
+      inBox(min, max, found::add);
+      return;
+    }
+    checkDimensions(min);
+    checkDimensions(max);
+    List<Integer> roots = new ArrayList<>();
+    parallelRoots(0,
+      node -> min.getCoordinate(splitCoordinates[node]) < splits[node],
+      node -> max.getCoordinate(splitCoordinates[node]) >= splits[node],
+      roots);
+    FlatKDTree.<T>searchInParallel(roots,
+      (root, buffer) -> inBox(root, min, max, buffer::add), found, pool);
+  }
+
+  /**
+   * Box search in the subtree of a node.
+   *
+   * @param node node
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @param visitor called with each element in the box
+   */
+  private void inBox(int node, Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    int c = splitCoordinates[node];
+    if (c == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        if (inBox(i, min, max)) {
+          visitor.accept(element(i));
+        }
+      }
+      return;
+    }
+    // Left side has values less than the split, right side the rest
+    if (min.getCoordinate(c) < splits[node]) {
+      inBox(node + 1, min, max, visitor);
+    }
+    if (max.getCoordinate(c) >= splits[node]) {
+      inBox(rights[node], min, max, visitor);
+    }
+  }
+
+  /**
+   * Checks whether an element is in the box between two corners, reading its
+   * coordinates from the flat array.
+   *
+   * @param i position of element
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @return whether element is in the box
+   */
+  private boolean inBox(int i, Dimensional min, Dimensional max) {
+    int offset = i * numDimensions;
+    for (int c = 0; c < numDimensions; c++) {
+      double value = coordinates[offset + c];
+      if (value < min.getCoordinate(c) || value > max.getCoordinate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the roots of the subtrees a parallel search runs as separate tasks:
+   * the nodes the search reaches that are leaves or have fewer than
+   * {@value FlatKDTree#PARALLEL_SIZE} elements.
+   *
+   * @param node node
+   * @param left whether the search goes to the left child of a node
+   * @param right whether the search goes to the right child of a node
+   * @param roots where to add the roots, in preorder
+   */
+  private void parallelRoots(int node, IntPredicate left, IntPredicate right,
+    List<Integer> roots) {
+    if (splitCoordinates[node] == -1
+      || ends[node] - begins[node] < PARALLEL_SIZE) {
+      roots.add(node);
+      return;
+    }
+    if (left.test(node)) {
+      parallelRoots(node + 1, left, right, roots);
+    }
+    if (right.test(node)) {
+      parallelRoots(rights[node], left, right, roots);
+    }
+  }
+
+  /**
+   * Searches subtrees in parallel on a pool, each into its own list, and adds
+   * what each found, in the order of the subtrees.
+   *
+   * @param <R> a result type
+   * @param roots roots of the subtrees
+   * @param search searches the subtree of a root into a list
+   * @param found where to add results
+   * @param pool pool to search on
+   */
+  static <R> void searchInParallel(List<Integer> roots,
+    BiConsumer<Integer, List<R>> search, List<? super R> found,
+    ForkJoinPool pool) {
+    List<List<R>> buffers = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      buffers.add(new ArrayList<>());
+    }
+    pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, roots.size())
+      .parallel().forEach(i -> search.accept(roots.get(i), buffers.get(i)))));
+    for (List<R> buffer : buffers) {
+      found.addAll(buffer);
+    }
+  }
+
+  /**
+   * Returns an unmodifiable view of the elements in this tree, in leaf
+   * order.
+   *
+   * @return elements in this tree
+   */
+  @SuppressWarnings("unchecked")
+  List<T> getElements() {
+    return (List<T>) (List<?>) Collections.unmodifiableList(
+      Arrays.asList(elements));
+  }
+
+  /**
+   * Writes the layout of this tree, in the format
+   * {@link MappedKDTree#save(FlatKDTree, Function, long, File)} describes,
+   * from the number of dimensions on.
+   *
+   * @param out output
+   * @param keys key of each element
+   * @throws IOException if output can't be written
+   */
+  void write(DataOutput out, Function<? super T, String> keys)
+    throws IOException {
+    byte[][] keyBytes = new byte[elements.length][];
+    int totalKeyBytes = 0;
+    for (int i = 0; i < elements.length; i++) {
+      keyBytes[i] = keys.apply(element(i)).getBytes(StandardCharsets.UTF_8);
+      totalKeyBytes += keyBytes[i].length;
+    }
+    int numNodes = splitCoordinates.length;
+    out.writeInt(numDimensions);
+    out.writeInt(elements.length);
+    out.writeInt(numNodes);
+    out.writeInt(totalKeyBytes);
+    for (int node = 0; node < numNodes; node++) {
+      out.writeInt(splitCoordinates[node]);
+    }
+    for (int node = 0; node < numNodes; node++) {
+      out.writeDouble(splits[node]);
+    }
+    for (int node = 0; node < numNodes; node++) {
+      out.writeInt(rights[node]);
+    }
+    for (int node = 0; node < numNodes; node++) {
+      out.writeInt(begins[node]);
+    }
+    for (int node = 0; node < numNodes; node++) {
+      out.writeInt(ends[node]);
+    }
+    for (double coordinate : coordinates) {
+      out.writeDouble(coordinate);
+    }
+    int offset = 0;
+    for (byte[] key : keyBytes) {
+      out.writeInt(offset);
+      offset += key.length;
+    }
+    out.writeInt(offset);
+    for (byte[] key : keyBytes) {
+      out.write(key);
+    }
+  }
+
+  /**
+   * @return string representation of this {@code FlatKDTree}
+   */
+  @Override
+  public String toString() {
+    return String.format("FlatKDTree with %d elements in %d nodes",
+      elements.length, splitCoordinates.length);
+  }
+}
@@ -6,6 +6,7 @@ import edu.brown.cs.azhang6.dimension.DimensionalDistance;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -44,6 +45,23 @@ public class KDLeaf<T extends Dimensional> implements KDVertex<T> {
     this.elements = new ArrayList<>(elements);
   }
 
+  /**
+   * Constructs a new {@code KDLeaf} with the elements at a range of positions
+   * of a bulk load. The range may hold more than {@link MAX_COUNT} elements
+   * only if they all have the same coordinates, since no split separates
+   * them.
+   *
+   * @param loader bulk load
+   * @param from first position
+   * @param to one past last position
+   */
+  KDLeaf(KDNode.Loader<T> loader, int from, int to) {
+    this.elements = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++) {
+      elements.add(loader.element(i));
+    }
+  }
+
   /**
    * Finds number of elements in this leaf. Useful for testing.
    *
@@ -81,17 +99,36 @@ public class KDLeaf<T extends Dimensional> implements KDVertex<T> {
       return;
     }
 
+    // Remove elements until there are at most n elements
+    while (current.size() > n) {
+      current.remove(current.size() - 1);
+    }
     // For each element in this leaf that shouldn't be ignored:
     for (T element : elements) {
       if (ignore == null || !ignore.test(element)) {
-        // Calculate distance to the given dimensional
-        new DimensionalDistance<>(element, element.distanceTo(d))
-          .insertInto(current);
+        // Insert it only if it's nearer than the farthest so far
+        double distance = d.distanceTo(element);
+        if (current.size() < n
+          || distance < current.get(current.size() - 1).getDistance()) {
+          new DimensionalDistance<>(element, distance).insertInto(current);
+          if (current.size() > n) {
+            current.remove(n);
+          }
+        }
       }
     }
-    // Remove elements until there are at most n elements
-    while (current.size() > n) {
-      current.remove(n);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    for (T element : elements) {
+      if (ignore == null || !ignore.test(element)) {
+        nearest.offer(element, d.distanceTo(element));
+      }
     }
   }
 
@@ -111,7 +148,7 @@ public class KDLeaf<T extends Dimensional> implements KDVertex<T> {
     for (T element : elements) {
       if (ignore == null || !ignore.test(element)) {
         // Check if the element is within the given distance
-        double distance = element.distanceTo(d);
+        double distance = d.distanceTo(element);
         if (distance <= r) {
           current.add(
             new DimensionalDistance<>(element, distance));
@@ -120,6 +157,37 @@ public class KDLeaf<T extends Dimensional> implements KDVertex<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    for (T element : elements) {
+      if (inBox(element, min, max)) {
+        visitor.accept(element);
+      }
+    }
+  }
+
+  /**
+   * Checks whether a point is in the box between two corners, inclusive.
+   *
+   * @param d point
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @return whether point is in the box
+   */
+  static boolean inBox(Dimensional d, Dimensional min, Dimensional max) {
+    for (int i = 0; i < d.numDimensions(); i++) {
+      double value = d.getCoordinate(i);
+      if (value < min.getCoordinate(i) || value > max.getCoordinate(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns an unmodifiable view of the list of elements in this leaf.
    *
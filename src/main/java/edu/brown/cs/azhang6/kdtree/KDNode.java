@@ -3,10 +3,10 @@ package edu.brown.cs.azhang6.kdtree;
 import edu.brown.cs.azhang6.dimension.Dimensional;
 import edu.brown.cs.azhang6.dimension.DimensionalDistance;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * Node of a k-d tree. Nodes contain no dimensional elements themselves; all the
@@ -37,12 +37,6 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
    */
   protected KDVertex<T> right;
 
-  /**
-   * If a list of elements contains more than {@link RANDOM_MEDIAN} elements and
-   * calculating its median is required, the median will be estimated.
-   */
-  static final int RANDOM_MEDIAN = 20;
-
   /**
    * Constructs a new {@code KDNode} with the given elements and index of
    * coordinate to split. The list of elements should be nonempty, and every
@@ -50,53 +44,43 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
    * changes to the list argument after construction will not affect this
    * object.
    *
+   * <p>
+   * The tree is bulk loaded: the elements are copied into one array once,
+   * and each node splits its range of the array in place at the exact median,
+   * found by selection. So every node splits its elements in half, and
+   * building takes O(n log n) time and O(n) extra space.</p>
+   *
    * @param elements nonempty list of elements
    * @param coordinate index of coordinate to split
-   * @throws IllegalArgumentException if list of elements is empty
+   * @throws IllegalArgumentException if list of elements is empty, or if
+   * elements have different numbers of dimensions
    */
   public KDNode(List<T> elements, int coordinate)
     throws IllegalArgumentException {
-    this.coordinate = coordinate;
-    List<T> elementsCopy = new ArrayList<>(elements);
-
-    // Find median coordinate, or estimate the median if list is long
-    int size = elementsCopy.size();
-    if (size == 0) {
-      throw new IllegalArgumentException("Constructing empty KDNode");
-    }
-    if (size <= RANDOM_MEDIAN) {
-      this.split = median(elementsCopy);
-    } else {
-      List<T> sample = new ArrayList<>();
-      for (int i = 0; i < 20; i++) {
-        sample.add(elementsCopy.get((int) (Math.random() * size)));
-      }
-      this.split = median(sample);
-    }
-
-    // Put each element in either the left or right subtree
-    List<T> leftList = new ArrayList<>();
-    List<T> rightList = new ArrayList<>();
-    for (T element : elementsCopy) {
-      if (element.getCoordinate(coordinate) < split) {
-        leftList.add(element);
-      } else {
-        rightList.add(element);
-      }
-    }
+    this(new Loader<>(elements), 0, elements.size(), coordinate);
+  }
 
-    // The subtrees are either nodes or leaves, based on size
-    int numDimensions = elementsCopy.get(0).numDimensions();
-    if (leftList.size() <= KDLeaf.MAX_COUNT) {
-      left = new KDLeaf<>(leftList);
-    } else {
-      left = new KDNode<>(leftList, (coordinate + 1) % numDimensions);
-    }
-    if (rightList.size() <= KDLeaf.MAX_COUNT) {
-      right = new KDLeaf<>(rightList);
-    } else {
-      right = new KDNode<>(rightList, (coordinate + 1) % numDimensions);
+  /**
+   * Constructs a new {@code KDNode} with the elements at a range of positions
+   * of a bulk load.
+   *
+   * @param loader bulk load
+   * @param from first position
+   * @param to one past last position
+   * @param coordinate index of coordinate to split
+   * @throws IllegalArgumentException if range is empty
+   */
+  KDNode(Loader<T> loader, int from, int to, int coordinate) {
+    int middle = split(loader, from, to, coordinate);
+    if (middle == from) {
+      // Every element is the same point
+      left = new KDLeaf<>(loader, from, from);
+      right = new KDLeaf<>(loader, from, to);
+      return;
     }
+    int next = (this.coordinate + 1) % loader.numDimensions();
+    left = loader.subtree(from, middle, next);
+    right = loader.subtree(middle, to, next);
   }
 
   /**
@@ -107,17 +91,168 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
   }
 
   /**
-   * Calculates the median of the list of elements relative to the coordinate to
-   * split. May mutate the list in the process.
+   * Chooses the coordinate and value to split a range of a bulk load at, and
+   * splits it: elements less than the split come first. Tries the given
+   * coordinate first, and the next ones if every element has the same value
+   * of it. If every element is the same point, everything goes to the right.
    *
-   * @param elements list to find median of, which must be modifiable
-   * @return median coordinate of list of elements
+   * @param loader bulk load
+   * @param from first position
+   * @param to one past last position
+   * @param coordinate index of coordinate to try first
+   * @return first position not less than the split
+   * @throws IllegalArgumentException if range is empty
    */
-  protected double median(List<T> elements) {
-    Collections.sort(elements, (T e1, T e2)
-      -> e1.getCoordinate(coordinate) < e2.getCoordinate(coordinate)
-        ? -1 : 1);
-    return elements.get(elements.size() / 2).getCoordinate(coordinate);
+  int split(Loader<T> loader, int from, int to, int coordinate) {
+    if (from == to) {
+      throw new IllegalArgumentException("Constructing empty KDNode");
+    }
+    int numDimensions = loader.numDimensions();
+    for (int tries = 0; tries < numDimensions; tries++) {
+      int c = (coordinate + tries) % numDimensions;
+      int middle = loader.split(from, to, c);
+      if (middle != -1) {
+        this.coordinate = c;
+        this.split = loader.key(middle);
+        return middle;
+      }
+    }
+    this.coordinate = coordinate;
+    this.split = loader.element(from).getCoordinate(coordinate);
+    return from;
+  }
+
+  /**
+   * Bulk load of a k-d tree: the elements, in an array that the nodes
+   * rearrange in place as they split it into ranges. Nodes built in parallel
+   * share a load, since they work on disjoint ranges, and a parallel load
+   * also reads the coordinates of large ranges in parallel.
+   *
+   * @param <T> a dimensional type
+   */
+  static final class Loader<T extends Dimensional> {
+
+    /**
+     * Elements, in the order they were given.
+     */
+    private final Object[] elements;
+
+    /**
+     * Indices of the elements, rearranged into tree order.
+     */
+    private final int[] order;
+
+    /**
+     * Value of the coordinate being split for each position.
+     */
+    private final double[] keys;
+
+    /**
+     * Number of dimensions of each element.
+     */
+    private final int numDimensions;
+
+    /**
+     * Whether to read the coordinates of large ranges in parallel.
+     */
+    private final boolean parallel;
+
+    /**
+     * @param elements elements of tree
+     * @throws IllegalArgumentException if elements have different numbers of
+     * dimensions
+     */
+    Loader(List<T> elements) {
+      this(elements, false);
+    }
+
+    /**
+     * @param elements elements of tree
+     * @param parallel whether to read the coordinates of ranges of at least
+     * {@link KDNodeParallel#PARALLEL_SIZE} elements in parallel, in the
+     * current pool
+     * @throws IllegalArgumentException if elements have different numbers of
+     * dimensions
+     */
+    Loader(List<T> elements, boolean parallel) {
+      this.parallel = parallel;
+      this.elements = elements.toArray();
+      int n = this.elements.length;
+      order = new int[n];
+      keys = new double[n];
+      numDimensions = n == 0 ? 0 : elements.get(0).numDimensions();
+      for (int i = 0; i < n; i++) {
+        order[i] = i;
+        T element = element(i);
+        if (element.numDimensions() != numDimensions) {
+          throw new IllegalArgumentException(String.format(
+            "Dimension mismatch between %s and %s", this.elements[0],
+            element));
+        }
+      }
+    }
+
+    /**
+     * @return number of dimensions of each element
+     */
+    int numDimensions() {
+      return numDimensions;
+    }
+
+    /**
+     * @param i position
+     * @return element at position
+     */
+    @SuppressWarnings("unchecked")
+    T element(int i) {
+      return (T) elements[order[i]];
+    }
+
+    /**
+     * @param i position
+     * @return value of the coordinate last split at position
+     */
+    double key(int i) {
+      return keys[i];
+    }
+
+    /**
+     * Splits a range at the median of a coordinate, with
+     * {@link Select#splitAtMedian(double[], int[], int, int)}.
+     *
+     * @param from first position
+     * @param to one past last position
+     * @param c coordinate
+     * @return first position not less than the split, or -1 if every element
+     * has the same coordinate
+     */
+    int split(int from, int to, int c) {
+      if (parallel && to - from >= KDNodeParallel.PARALLEL_SIZE) {
+        IntStream.range(from, to).parallel()
+          .forEach(i -> keys[i] = element(i).getCoordinate(c));
+      } else {
+        for (int i = from; i < to; i++) {
+          keys[i] = element(i).getCoordinate(c);
+        }
+      }
+      return Select.splitAtMedian(keys, order, from, to);
+    }
+
+    /**
+     * Builds the subtree of a range: a leaf if it is small enough, and
+     * otherwise a node.
+     *
+     * @param from first position
+     * @param to one past last position
+     * @param coordinate index of coordinate to split
+     * @return subtree
+     */
+    KDVertex<T> subtree(int from, int to, int coordinate) {
+      if (to - from <= KDLeaf.MAX_COUNT) {
+        return new KDLeaf<>(this, from, to);
+      }
+      return new KDNode<>(this, from, to, coordinate);
+    }
   }
 
   /**
@@ -190,7 +325,7 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
     } else {
       // Otherwise, determine if we need to check the other branch
       double farthest = current.get(current.size() - 1).getDistance();
-      if (d.distanceTo(d.withCoordinate(coordinate, split)) < farthest) {
+      if (d.distanceToPlane(coordinate, split) < farthest) {
         if (leftFirst) {
           right.nearestNeighbors(d, n, ignore, current);
         } else {
@@ -200,6 +335,23 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    // Check the branch containing the point first
+    boolean leftFirst = d.getCoordinate(coordinate) < split;
+    KDVertex<T> first = leftFirst ? left : right;
+    KDVertex<T> second = leftFirst ? right : left;
+    first.nearestNeighbors(d, ignore, nearest);
+    // Then the other branch, if it could have anything nearer
+    if (d.distanceToPlane(coordinate, split) < nearest.bound()) {
+      second.nearestNeighbors(d, ignore, nearest);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -222,7 +374,7 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
     }
 
     // Determine if we need to check the other branch
-    if (d.distanceTo(d.withCoordinate(coordinate, split)) < r) {
+    if (d.distanceToPlane(coordinate, split) < r) {
       if (leftFirst) {
         right.withinRadius(d, r, ignore, current);
       } else {
@@ -231,17 +383,32 @@ public class KDNode<T extends Dimensional> implements KDVertex<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    // Left subtree has values less than the split, right subtree the rest
+    if (min.getCoordinate(coordinate) < split) {
+      left.inBox(min, max, visitor);
+    }
+    if (max.getCoordinate(coordinate) >= split) {
+      right.inBox(min, max, visitor);
+    }
+  }
+
   /**
    * @return left subtree
    */
-  public KDVertex getLeft() {
+  public KDVertex<T> getLeft() {
     return left;
   }
 
   /**
    * @return right subtree
    */
-  public KDVertex getRight() {
+  public KDVertex<T> getRight() {
     return right;
   }
 
@@ -1,96 +1,142 @@
 package edu.brown.cs.azhang6.kdtree;
 
 import edu.brown.cs.azhang6.dimension.Dimensional;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+/**
+ * Node of a k-d tree built in parallel on a {@link ForkJoinPool}. Bulk loads
+ * like {@link KDNode#KDNode(List, int)}, but builds the two subtrees of each
+ * large range as separate tasks, which idle threads steal, so building uses
+ * as many threads as the pool has and balances itself when subtrees take
+ * different times. Ranges smaller than {@value KDNodeParallel#PARALLEL_SIZE}
+ * are built on one thread, and ranges at least that large also read their
+ * coordinates in parallel.
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
 public class KDNodeParallel<T extends Dimensional> extends KDNode<T> {
 
   /**
-   * Constructs a new {@code KDNode} with the given elements, index of
-   * coordinate to split, and level to begin multithreading.
+   * Ranges with fewer elements are built on one thread.
+   */
+  public static final int PARALLEL_SIZE = 1 << 12;
+
+  /**
+   * Constructs a new {@code KDNodeParallel} with the given elements and index
+   * of coordinate to split, building on the common pool.
+   *
+   * @param elements nonempty list of elements
+   * @param coordinate index of coordinate to split
+   * @throws IllegalArgumentException if list of elements is empty, or if
+   * elements have different numbers of dimensions
+   */
+  public KDNodeParallel(List<T> elements, int coordinate) {
+    this(elements, coordinate, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructs a new {@code KDNodeParallel} with the given elements and index
+   * of coordinate to split, building on the given pool.
    *
    * @param elements nonempty list of elements
    * @param coordinate index of coordinate to split
-   * @param parallelLevel level to begin multithreading
-   * @throws IllegalArgumentException if list of elements is empty
+   * @param pool pool to build on
+   * @throws IllegalArgumentException if list of elements is empty, or if
+   * elements have different numbers of dimensions
    */
-  public KDNodeParallel(List<T> elements, int coordinate, int parallelLevel) {
+  public KDNodeParallel(List<T> elements, int coordinate, ForkJoinPool pool) {
     super();
-    this.coordinate = coordinate;
-    List<T> elementsCopy = new ArrayList<>(elements);
+    Loader<T> loader = new Loader<>(elements, true);
+    int size = elements.size();
+    pool.invoke(ForkJoinTask.adapt(() -> build(loader, 0, size, coordinate)));
+  }
 
-    // Find median coordinate, or estimate the median if list is long
-    int size = elementsCopy.size();
-    if (size == 0) {
-      throw new IllegalArgumentException("Constructing empty KDNode");
-    }
-    if (size <= RANDOM_MEDIAN) {
-      this.split = median(elementsCopy);
-    } else {
-      List<T> sample = new ArrayList<>();
-      for (int i = 0; i < 20; i++) {
-        sample.add(elementsCopy.get((int) (Math.random() * size)));
-      }
-      this.split = median(sample);
-    }
+  /**
+   * Node whose fields are set by {@link #build(Loader, int, int, int)}.
+   */
+  private KDNodeParallel() {
+    super();
+  }
 
-    // Put each element in either the left or right subtree
-    List<T> leftList = new ArrayList<>();
-    List<T> rightList = new ArrayList<>();
-    for (T element : elementsCopy) {
-      if (element.getCoordinate(coordinate) < split) {
-        leftList.add(element);
-      } else {
-        rightList.add(element);
-      }
+  /**
+   * Splits a range of a bulk load and builds the subtrees of the two halves
+   * in parallel. Runs in a pool.
+   *
+   * @param loader bulk load
+   * @param from first position
+   * @param to one past last position
+   * @param coordinate index of coordinate to split
+   * @throws IllegalArgumentException if range is empty
+   */
+  private void build(Loader<T> loader, int from, int to, int coordinate) {
+    int middle = split(loader, from, to, coordinate);
+    if (middle == from) {
+      // Every element is the same point
+      left = new KDLeaf<>(loader, from, from);
+      right = new KDLeaf<>(loader, from, to);
+      return;
     }
+    int next = (this.coordinate + 1) % loader.numDimensions();
+    Subtree<T> leftTask = new Subtree<>(loader, from, middle, next);
+    Subtree<T> rightTask = new Subtree<>(loader, middle, to, next);
+    ForkJoinTask.invokeAll(leftTask, rightTask);
+    left = leftTask.join();
+    right = rightTask.join();
+  }
 
-    // The subtrees are either nodes or leaves, based on size
-    int numDimensions = elementsCopy.get(0).numDimensions();
-    Thread leftThread = null;
-    Thread rightThread = null;
-    if (leftList.size() <= KDLeaf.MAX_COUNT) {
-      left = new KDLeaf<>(leftList);
-    } else {
-      // Here, we check if we should start a new thread
-      if (parallelLevel == 0) {
-        leftThread = new Thread(() -> {
-          left = new KDNode<>(leftList, (coordinate + 1) % numDimensions);
-        });
-        leftThread.start();
-      } else {
-        left = new KDNodeParallel<>(
-          leftList, (coordinate + 1) % numDimensions, parallelLevel - 1);
-      }
-    }
-    if (rightList.size() <= KDLeaf.MAX_COUNT) {
-      right = new KDLeaf<>(rightList);
-    } else {
-      if (parallelLevel == 0) {
-        rightThread = new Thread(() -> {
-          right = new KDNode<>(rightList, (coordinate + 1) % numDimensions);
-        });
-        rightThread.start();
-      } else {
-        right = new KDNodeParallel<>(
-          rightList, (coordinate + 1) % numDimensions, parallelLevel - 1);
-      }
-    }
-    // Wait for any threads we started to finish
-    if (leftThread != null) {
-      try {
-        leftThread.join();
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
-      }
+  /**
+   * Task that builds the subtree of a range of a bulk load.
+   *
+   * @param <T> a dimensional type
+   */
+  private static final class Subtree<T extends Dimensional>
+    extends RecursiveTask<KDVertex<T>> {
+
+    /**
+     * Bulk load.
+     */
+    private final Loader<T> loader;
+
+    /**
+     * First position.
+     */
+    private final int from;
+
+    /**
+     * One past last position.
+     */
+    private final int to;
+
+    /**
+     * Index of coordinate to split.
+     */
+    private final int coordinate;
+
+    /**
+     * @param loader bulk load
+     * @param from first position
+     * @param to one past last position
+     * @param coordinate index of coordinate to split
+     */
+    Subtree(Loader<T> loader, int from, int to, int coordinate) {
+      this.loader = loader;
+      this.from = from;
+      this.to = to;
+      this.coordinate = coordinate;
     }
-    if (rightThread != null) {
-      try {
-        rightThread.join();
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
+
+    @Override
+    protected KDVertex<T> compute() {
+      if (to - from < PARALLEL_SIZE) {
+        return loader.subtree(from, to, coordinate);
       }
+      KDNodeParallel<T> node = new KDNodeParallel<>();
+      node.build(loader, from, to, coordinate);
+      return node;
     }
   }
 }
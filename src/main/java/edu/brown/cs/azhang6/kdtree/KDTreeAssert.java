@@ -0,0 +1,63 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Assertions for tests that compare the results of queries on a tree with the
+ * results of the same queries on a {@link KDTreeStub}. Unlike
+ * {@link KDTreeOracle}, which generates its own queries, these check results
+ * for queries the test chooses.
+ *
+ * @author aaronzhang
+ */
+final class KDTreeAssert {
+
+  /**
+   * Default tolerance for comparing distances.
+   */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * Can't be instantiated.
+   */
+  private KDTreeAssert() {
+
+  }
+
+  /**
+   * Checks that query results have the same distances in the same order, to
+   * within {@value KDTreeAssert#EPSILON}.
+   *
+   * @param <T> a dimensional type
+   * @param expected expected results
+   * @param actual actual results
+   */
+  static <T extends Dimensional> void assertSameDistances(
+    List<DimensionalDistance<T>> expected,
+    List<DimensionalDistance<T>> actual) {
+    assertSameDistances(expected, actual, EPSILON);
+  }
+
+  /**
+   * Checks that query results have the same distances in the same order.
+   *
+   * @param <T> a dimensional type
+   * @param expected expected results
+   * @param actual actual results
+   * @param epsilon most that corresponding distances may differ by
+   */
+  static <T extends Dimensional> void assertSameDistances(
+    List<DimensionalDistance<T>> expected,
+    List<DimensionalDistance<T>> actual, double epsilon) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getDistance(),
+        actual.get(i).getDistance(), epsilon);
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -81,7 +82,7 @@ class KDTreeStub<T extends Dimensional> implements KDVertex<T> {
     for (T element : elements) {
       if (ignore == null || !ignore.test(element)) {
         nearestInVertex.add(new DimensionalDistance<>(
-          element, element.distanceTo(d)));
+          element, d.distanceTo(element)));
       }
     }
     // Add up to n elements from the priority queue to the list argument
@@ -116,7 +117,7 @@ class KDTreeStub<T extends Dimensional> implements KDVertex<T> {
 
     for (T element : elements) {
       if (ignore == null || !ignore.test(element)) {
-        double distance = element.distanceTo(d);
+        double distance = d.distanceTo(element);
         if (distance <= r) {
           current.add(new DimensionalDistance<>(element, distance));
         }
@@ -124,6 +125,19 @@ class KDTreeStub<T extends Dimensional> implements KDVertex<T> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    for (T element : elements) {
+      if (KDLeaf.inBox(element, min, max)) {
+        visitor.accept(element);
+      }
+    }
+  }
+
   /**
    * Returns an unmodifiable view of the list of elements in this tree.
    *
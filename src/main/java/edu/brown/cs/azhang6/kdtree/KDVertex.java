@@ -6,6 +6,8 @@ import edu.brown.cs.azhang6.dimension.Dimensional;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -31,6 +33,33 @@ public interface KDVertex<T extends Dimensional> {
    */
   boolean contains(T element);
 
+  /**
+   * Adds an element, so later queries can find it. Trees built once, which is
+   * every tree by default, don't support this.
+   *
+   * @param element element to add
+   * @return whether the element was added; false if it was already there
+   * @throws UnsupportedOperationException if this vertex can't be changed
+   * @throws IllegalArgumentException if the element has the wrong number of
+   * dimensions
+   * @throws NullPointerException if element is null
+   */
+  default boolean insert(T element) {
+    throw new UnsupportedOperationException("insert() not implemented");
+  }
+
+  /**
+   * Removes an element, so later queries don't find it. Trees built once,
+   * which is every tree by default, don't support this.
+   *
+   * @param element element to remove
+   * @return whether the element was removed; false if it wasn't there
+   * @throws UnsupportedOperationException if this vertex can't be changed
+   */
+  default boolean remove(T element) {
+    throw new UnsupportedOperationException("remove() not implemented");
+  }
+
   /**
    * Finds up to {@code n} nearest neighbors of the given {@link Dimensional}.
    * Searches this vertex and its subvertices, but elements that satisfy the
@@ -54,12 +83,42 @@ public interface KDVertex<T extends Dimensional> {
     List<DimensionalDistance<T>> current)
     throws IllegalArgumentException, NullPointerException;
 
+  /**
+   * Finds nearest neighbors of the given {@link Dimensional}, collecting them
+   * in a {@link NeighborHeap}, which keeps as many as its capacity. Searches
+   * this vertex and its subvertices, but elements that satisfy the predicate
+   * are ignored. If the predicate is null, no elements are ignored. The heap
+   * may already hold neighbors found elsewhere.
+   *
+   * <p>
+   * The default implementation searches with
+   * {@link KDVertex#nearestNeighbors(Dimensional, int, Predicate, List)};
+   * vertices should override it to search with the heap directly.</p>
+   *
+   * @param d point to find nearest neighbors from
+   * @param ignore ignore elements in this vertex that satisfy this predicate
+   * @param nearest nearest neighbors found so far
+   * @throws IllegalArgumentException if any distances between the given
+   * dimensional and elements in this vertex are not defined
+   * @throws NullPointerException if {@code d} or {@code nearest} are null
+   */
+  default void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest)
+    throws IllegalArgumentException, NullPointerException {
+    List<DimensionalDistance<T>> current = nearest.toList();
+    nearestNeighbors(d, nearest.capacity(), ignore, current);
+    nearest.reset(nearest.capacity());
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+  }
+
   /**
    * Finds up to {@code n} nearest neighbors of the given {@link Dimensional}.
    * Searches this vertex and its subvertices, but elements that satisfy the
    * predicate are ignored. If the predicate is null, no elements are ignored.
    * Wrapper method for
-   * {@link KDVertex#nearestNeighbors(Dimensional, int, Predicate, List)}.
+   * {@link KDVertex#nearestNeighbors(Dimensional, Predicate, NeighborHeap)}.
    *
    * @param d point to find nearest neighbors from
    * @param n number of nearest neighbors, a positive integer
@@ -73,9 +132,9 @@ public interface KDVertex<T extends Dimensional> {
   default List<DimensionalDistance<T>> nearestNeighbors(Dimensional d, int n,
     Predicate<T> ignore)
     throws IllegalArgumentException, NullPointerException {
-    List<DimensionalDistance<T>> nn = new ArrayList<>();
-    nearestNeighbors(d, n, ignore, nn);
-    return nn;
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    nearestNeighbors(d, ignore, nearest);
+    return nearest.toList();
   }
 
   /**
@@ -105,6 +164,32 @@ public interface KDVertex<T extends Dimensional> {
     List<DimensionalDistance<T>> current)
     throws IllegalArgumentException, NullPointerException;
 
+  /**
+   * Finds all elements within distance {@code r} of {@link Dimensional}
+   * {@code d}, like
+   * {@link KDVertex#withinRadius(Dimensional, double, Predicate, List)}, but
+   * searching large subtrees in parallel on the given pool, each into its own
+   * list. The results are added to the given list on this thread, unsorted;
+   * the predicate is tested on the pool.
+   *
+   * <p>
+   * The default implementation searches on this thread.</p>
+   *
+   * @param d search for elements in the given radius around this point
+   * @param r radius around the given point to search, nonnegative
+   * @param ignore elements that satisfy this predicate are ignored
+   * @param current elements found so far; list must be modifiable
+   * @param pool pool to search on, or null to search on this thread
+   * @throws IllegalArgumentException if any distances between the given point
+   * and elements in this vertex are undefined; or if r is negative
+   * @throws NullPointerException if {@code d} or {@code current} is null
+   */
+  default void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current, ForkJoinPool pool)
+    throws IllegalArgumentException, NullPointerException {
+    withinRadius(d, r, ignore, current);
+  }
+
   /**
    * Finds all elements within distance {@code r} of {@link Dimensional}
    * {@code d}. Elements a distance of exactly {@code r} from {@code d} are
@@ -130,4 +215,62 @@ public interface KDVertex<T extends Dimensional> {
     Collections.sort(wr);
     return wr;
   }
+
+  /**
+   * Visits every element in the axis-aligned box between two corners:
+   * elements whose every coordinate is between the corners' coordinates,
+   * inclusive. Elements are visited once each, in no particular order, and no
+   * distances are computed. Searches this vertex and its subvertices.
+   *
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @param visitor called with each element in the box
+   * @throws IllegalArgumentException if the corners don't have as many
+   * coordinates as the elements in this vertex
+   * @throws NullPointerException if an argument is null
+   */
+  void inBox(Dimensional min, Dimensional max, Consumer<? super T> visitor)
+    throws IllegalArgumentException, NullPointerException;
+
+  /**
+   * Finds every element in the axis-aligned box between two corners,
+   * inclusive. The list is not sorted. Wrapper method for
+   * {@link KDVertex#inBox(Dimensional, Dimensional, Consumer)}.
+   *
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @return elements in the box
+   * @throws IllegalArgumentException if the corners don't have as many
+   * coordinates as the elements in this vertex
+   * @throws NullPointerException if an argument is null
+   */
+  default List<T> inBox(Dimensional min, Dimensional max)
+    throws IllegalArgumentException, NullPointerException {
+    List<T> found = new ArrayList<>();
+    inBox(min, max, found::add);
+    return found;
+  }
+
+  /**
+   * Finds every element in the axis-aligned box between two corners,
+   * inclusive, like {@link KDVertex#inBox(Dimensional, Dimensional)}, but
+   * searching large subtrees in parallel on the given pool, each into its own
+   * list. The elements are added to the given list on this thread, unsorted.
+   *
+   * <p>
+   * The default implementation searches on this thread.</p>
+   *
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @param found elements found so far; list must be modifiable
+   * @param pool pool to search on, or null to search on this thread
+   * @throws IllegalArgumentException if the corners don't have as many
+   * coordinates as the elements in this vertex
+   * @throws NullPointerException if {@code min}, {@code max}, or
+   * {@code found} is null
+   */
+  default void inBox(Dimensional min, Dimensional max, List<? super T> found,
+    ForkJoinPool pool) throws IllegalArgumentException, NullPointerException {
+    inBox(min, max, found::add);
+  }
 }
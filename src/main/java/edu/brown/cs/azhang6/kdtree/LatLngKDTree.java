@@ -2,18 +2,35 @@ package edu.brown.cs.azhang6.kdtree;
 
 import edu.brown.cs.azhang6.dimension.Dimensional;
 import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
 import edu.brown.cs.azhang6.dimension.LatLng;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * Wrapper around a kd-tree to allow handling latitude and longitude. A normal
  * kd-tree cannot handle latitude and longitude because of wrapping of longitude
  * (-180 degrees longitude = 180 degrees longitude).
  *
+ * <p>
+ * Queries search the elements on the point's side of the antimeridian in the
+ * tree as usual, and the elements across it from the point with its
+ * longitude shifted by 360 degrees, but only if the query reaches the
+ * antimeridian. Each element is on exactly one side, so results are never
+ * duplicated.</p>
+ *
+ * <p>
+ * Distances are measured with the tree's {@link DistanceKernel}, whatever the
+ * kernel of the query. Searches are pruned by great-circle distance loosened
+ * by {@link DistanceKernel#lowerBound(double)}, so they find the same
+ * elements as measuring every element with the kernel.</p>
+ *
  * @author aaronzhang
  * @param <T> LatLng type
  */
@@ -24,18 +41,59 @@ public class LatLngKDTree<T extends LatLng> implements KDVertex<T> {
    */
   private final KDVertex<T> tree;
 
+  /**
+   * How distances to queries are measured.
+   */
+  private final DistanceKernel kernel;
+
   /**
    * Used to handle longitude wrapping.
    */
   private static final double WRAP_LNG = LatLng.MAX_LNG - LatLng.MIN_LNG;
 
   /**
-   * New wrapper around the given KD-tree.
+   * Number of queries snapped together in one task.
+   */
+  static final int BATCH_SIZE = 1 << 9;
+
+  /**
+   * Number of bits of each coordinate in a Hilbert index.
+   */
+  private static final int HILBERT_BITS = 16;
+
+  /**
+   * New wrapper around the given KD-tree, measuring distances with the
+   * haversine formula.
    *
    * @param tree kd-tree
    */
   public LatLngKDTree(KDVertex<T> tree) {
+    this(tree, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * New wrapper around the given KD-tree, measuring distances with the given
+   * kernel.
+   *
+   * @param tree kd-tree
+   * @param kernel how distances to queries are measured
+   */
+  public LatLngKDTree(KDVertex<T> tree, DistanceKernel kernel) {
     this.tree = tree;
+    this.kernel = kernel;
+  }
+
+  /**
+   * @param d point
+   * @return point at the same latitude and longitude, measuring distances
+   * with the kernel of this tree
+   */
+  private LatLng query(Dimensional d) {
+    LatLng ll = (LatLng) d;
+    if (ll.getKernel() == kernel) {
+      return ll;
+    }
+    return new LatLng(ll.getLat(), ll.getLng(), kernel);
   }
 
   /**
@@ -69,104 +127,252 @@ public class LatLngKDTree<T extends LatLng> implements KDVertex<T> {
     return tree.contains(element);
   }
 
+  @Override
+  public boolean insert(T element) {
+    return tree.insert(element);
+  }
+
+  @Override
+  public boolean remove(T element) {
+    return tree.remove(element);
+  }
+
+  /**
+   * Predicate that ignores what the given predicate ignores, and elements on
+   * one side of the antimeridian from a point: those whose longitude differs
+   * from the point's by more than 180 degrees, or those whose longitude
+   * doesn't. Searching once for each side finds every element exactly once.
+   *
+   * @param <T> LatLng type
+   * @param d point
+   * @param ignore predicate to also ignore, or null
+   * @param across whether to search elements across the antimeridian
+   * @return predicate
+   */
+  private static <T extends LatLng> Predicate<T> side(LatLng d,
+    Predicate<T> ignore, boolean across) {
+    double lng = d.getLng();
+    return element -> (Math.abs(element.getLng() - lng) > WRAP_LNG / 2)
+      != across || (ignore != null && ignore.test(element));
+  }
+
   @Override
   public void nearestNeighbors(Dimensional d, int n, Predicate<T> ignore,
     List<DimensionalDistance<T>> current) {
-    // Make two copies of current...
-    List<DimensionalDistance<T>> currentCopy1 = new ArrayList<>(current);
-    tree.nearestNeighbors(d, n, ignore, currentCopy1);
-    // And search the second one from the wrapped LatLng
-    List<DimensionalDistance<T>> currentCopy2 = new ArrayList<>(current);
-    tree.nearestNeighbors(wrapped(d), n, ignore, currentCopy2);
-    // Then merge the two lists, making sure not to duplicate dimensionals
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+    nearestNeighbors(d, ignore, nearest);
     current.clear();
-    current.addAll(merge(currentCopy1, currentCopy2));
+    current.addAll(nearest.toList());
+  }
+
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    LatLng ll = query(d);
+    tree.nearestNeighbors(ll, side(ll, ignore, false), nearest);
+    // Only search across the antimeridian if something there could be nearer
+    if (ll.distanceToPlane(1, LatLng.MAX_LNG) < nearest.bound()) {
+      tree.nearestNeighbors(wrapped(ll), side(ll, ignore, true), nearest);
+    }
   }
 
   @Override
   public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
     List<DimensionalDistance<T>> current) {
-    // Same idea as in nearestNeighbors
-    List<DimensionalDistance<T>> currentCopy1 = new ArrayList<>(current);
-    tree.withinRadius(d, r, ignore, currentCopy1);
-    List<DimensionalDistance<T>> currentCopy2 = new ArrayList<>(current);
-    tree.withinRadius(wrapped(d), r, ignore, currentCopy2);
-    current.clear();
-    // Use mergeAll instead of merge so we don't miss any points
-    current.addAll(mergeAll(currentCopy1, currentCopy2));
+    withinRadius(d, r, ignore, current, null);
+  }
+
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current, ForkJoinPool pool) {
+    LatLng ll = query(d);
+    tree.withinRadius(ll, r, side(ll, ignore, false), current, pool);
+    // Only search across the antimeridian if the circle reaches it
+    if (ll.distanceToPlane(1, LatLng.MAX_LNG) <= r) {
+      tree.withinRadius(wrapped(ll), r, side(ll, ignore, true), current, pool);
+    }
   }
 
   /**
-   * Merges two lists of query results.
+   * Finds the nearest element to each of a batch of points, given by their
+   * latitudes and longitudes, and puts it in the array at the same index, or
+   * null if every element is ignored.
    *
-   * @param <T> LatLng type
-   * @param l1 list of query results
-   * @param l2 list of query results
-   * @return merged list of query results
-   */
-  private static <T extends LatLng> List<DimensionalDistance<T>> merge(
-    List<DimensionalDistance<T>> l1, List<DimensionalDistance<T>> l2) {
-    // Size of output list
-    int n = l1.size();
-    Set<Dimensional> usedDimensionals = new HashSet<>();
-    int l1Index = 0;
-    int l2Index = 0;
-    List<DimensionalDistance<T>> result = new ArrayList<>();
-    while (result.size() < n) {
-      // Pick the smallest remaining DimensionalDistance
-      DimensionalDistance<T> l1dd = l1.get(l1Index);
-      DimensionalDistance<T> l2dd = l2.get(l2Index);
-      DimensionalDistance<T> smallest;
-      if (l1dd.compareTo(l2dd) < 0) {
-        smallest = l1dd;
-        l1Index++;
-      } else {
-        smallest = l2dd;
-        l2Index++;
-      }
-      // Check if the dimensional has already been used
-      if (!usedDimensionals.contains(smallest.getDimensional())) {
-        result.add(smallest);
-        usedDimensionals.add(smallest.getDimensional());
+   * <p>
+   * The points are snapped in the order of a Hilbert curve, so each point is
+   * usually close to the one before, which is close in the tree too: the
+   * search goes down much the same path, whose nodes are already in the
+   * cache, and the element found for the point before seeds the search with
+   * a tight bound. The sorted points are split into batches of
+   * {@value LatLngKDTree#BATCH_SIZE}, snapped in parallel on the pool.</p>
+   *
+   * @param lats latitude of each point
+   * @param lngs longitude of each point
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param nearest array to put nearest element of each point in
+   * @param pool pool to snap on, or null to snap on this thread
+   * @throws IllegalArgumentException if there aren't as many latitudes,
+   * longitudes, and places for results
+   * @throws NullPointerException if an array is null
+   */
+  public void snap(double[] lats, double[] lngs, Predicate<T> ignore,
+    T[] nearest, ForkJoinPool pool) {
+    int n = lats.length;
+    if (lngs.length != n || nearest.length != n) {
+      throw new IllegalArgumentException(
+        "need a latitude, longitude, and result for each point");
+    }
+    // Index of each point after its Hilbert index, sorting both by the index
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = hilbertIndex(lats[i], lngs[i]) << 32 | i;
+    }
+    Arrays.sort(order);
+    int numBatches = (n + BATCH_SIZE - 1) / BATCH_SIZE;
+    if (pool == null) {
+      for (int b = 0; b < numBatches; b++) {
+        snap(lats, lngs, ignore, nearest, order, b);
       }
+    } else {
+      pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, numBatches)
+        .parallel().forEach(b -> snap(lats, lngs, ignore, nearest, order, b))));
     }
-    return result;
   }
 
   /**
-   * Merges two lists of query results, but considers all elements.
+   * Snaps one batch of points.
    *
-   * @param <T> LatLng type
-   * @param l1 list of query results
-   * @param l2 list of query results
-   * @return merged list of query results
-   */
-  private static <T extends LatLng> List<DimensionalDistance<T>> mergeAll(
-    List<DimensionalDistance<T>> l1, List<DimensionalDistance<T>> l2) {
-    Set<Dimensional> usedDimensionals = new HashSet<>();
-    int l1Index = 0;
-    int l2Index = 0;
-    List<DimensionalDistance<T>> result = new ArrayList<>();
-    while (l1Index < l1.size() || l2Index < l2.size()) {
-      // Pick the smallest remaining DimensionalDistance
-      DimensionalDistance<T> l1dd
-        = l1Index < l1.size() ? l1.get(l1Index) : null;
-      DimensionalDistance<T> l2dd
-        = l2Index < l2.size() ? l2.get(l2Index) : null;
-      DimensionalDistance<T> smallest;
-      if (l1dd != null && (l2dd == null || l1dd.compareTo(l2dd) < 0)) {
-        smallest = l1dd;
-        l1Index++;
-      } else {
-        smallest = l2dd;
-        l2Index++;
+   * @param lats latitude of each point
+   * @param lngs longitude of each point
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param nearest array to put nearest element of each point in
+   * @param order points sorted by Hilbert index, with the index of each point
+   * in the low 32 bits
+   * @param batch batch to snap
+   */
+  private void snap(double[] lats, double[] lngs, Predicate<T> ignore,
+    T[] nearest, long[] order, int batch) {
+    NeighborHeap<T> heap = new NeighborHeap<>(1);
+    T previous = null;
+    int end = Math.min(order.length, (batch + 1) * BATCH_SIZE);
+    for (int k = batch * BATCH_SIZE; k < end; k++) {
+      int i = (int) order[k];
+      LatLng point = new LatLng(lats[i], lngs[i], kernel);
+      heap.reset(1);
+      if (previous != null) {
+        heap.offer(previous, point.distanceTo(previous));
       }
-      // Check if the dimensional has already been used
-      if (!usedDimensionals.contains(smallest.getDimensional())) {
-        result.add(smallest);
-        usedDimensionals.add(smallest.getDimensional());
+      nearestNeighbors(point, ignore, heap);
+      previous = heap.size() == 0 ? null : heap.toList().get(0)
+        .getDimensional();
+      nearest[i] = previous;
+    }
+  }
+
+  /**
+   * Position of a point on a Hilbert curve through a grid of latitude and
+   * longitude, with {@value LatLngKDTree#HILBERT_BITS} bits for each.
+   * Points close on the curve are close on the grid.
+   *
+   * @param lat latitude
+   * @param lng longitude
+   * @return Hilbert index, less than 2 to the 32
+   */
+  static long hilbertIndex(double lat, double lng) {
+    int side = 1 << HILBERT_BITS;
+    int x = cell((lng - LatLng.MIN_LNG) / WRAP_LNG, side);
+    int y = cell((lat - LatLng.MIN_LAT) / (LatLng.MAX_LAT - LatLng.MIN_LAT),
+      side);
+    long d = 0;
+    for (int s = side / 2; s > 0; s /= 2) {
+      int rx = (x & s) == 0 ? 0 : 1;
+      int ry = (y & s) == 0 ? 0 : 1;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      // Rotate the quadrant so the curve inside it starts and ends right
+      if (ry == 0) {
+        if (rx == 1) {
+          x = side - 1 - x;
+          y = side - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
       }
     }
-    return result;
+    return d;
+  }
+
+  /**
+   * @param fraction fraction of the way across the grid
+   * @param side number of cells across the grid
+   * @return cell, clamped to the grid
+   */
+  private static int cell(double fraction, int side) {
+    return (int) Math.max(0, Math.min(side - 1, fraction * side));
+  }
+
+  /**
+   * Visits every element in the box between two corners. The box may cross
+   * the antimeridian: its longitudes may go past 180 degrees, or below -180
+   * degrees, and the part from the antimeridian on is searched again with
+   * longitudes shifted by 360 degrees. A box spanning 360 degrees of
+   * longitude or more covers every longitude once.
+   *
+   * @param min corner with the least latitude and longitude
+   * @param max corner with the greatest latitude and longitude
+   * @param visitor called with each element in the box
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    boxes(min, max, (from, to) -> tree.inBox(from, to, visitor));
+  }
+
+  /**
+   * Finds every element in the box between two corners, which may cross the
+   * antimeridian as in
+   * {@link LatLngKDTree#inBox(Dimensional, Dimensional, Consumer)}, searching
+   * large subtrees in parallel.
+   *
+   * @param min corner with the least latitude and longitude
+   * @param max corner with the greatest latitude and longitude
+   * @param found elements found so far
+   * @param pool pool to search on, or null to search on this thread
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max, List<? super T> found,
+    ForkJoinPool pool) {
+    boxes(min, max, (from, to) -> tree.inBox(from, to, found, pool));
+  }
+
+  /**
+   * Splits a box that may cross the antimeridian into boxes within the
+   * longitudes of the tree, and searches each.
+   *
+   * @param min corner with the least latitude and longitude
+   * @param max corner with the greatest latitude and longitude
+   * @param search searches the box between two corners
+   */
+  private static void boxes(Dimensional min, Dimensional max,
+    BiConsumer<Dimensional, Dimensional> search) {
+    double minLng = min.getCoordinate(1);
+    double maxLng = max.getCoordinate(1);
+    if (maxLng - minLng >= WRAP_LNG) {
+      search.accept(min.withCoordinate(1, LatLng.MIN_LNG),
+        max.withCoordinate(1, LatLng.MAX_LNG));
+      return;
+    }
+    search.accept(min, max);
+    // A box narrower than 360 degrees crosses the antimeridian at most once
+    if (minLng <= LatLng.MIN_LNG) {
+      search.accept(min.withCoordinate(1, minLng + WRAP_LNG),
+        max.withCoordinate(1, maxLng + WRAP_LNG));
+    } else if (maxLng >= LatLng.MAX_LNG) {
+      search.accept(min.withCoordinate(1, minLng - WRAP_LNG),
+        max.withCoordinate(1, maxLng - WRAP_LNG));
+    }
   }
 }
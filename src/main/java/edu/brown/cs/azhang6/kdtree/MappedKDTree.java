@@ -0,0 +1,627 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * K-d tree read from a file saved by
+ * {@link MappedKDTree#save(FlatKDTree, Function, long, File)}. The file holds
+ * the arrays of a {@link FlatKDTree}, with each element stored as its
+ * coordinates and a string key, and is mapped into memory rather than read,
+ * so opening it takes no time whatever its size, and the operating system
+ * pages in the parts that queries touch.
+ *
+ * <p>
+ * Queries compare and measure with the mapped coordinates, and only make an
+ * element, from its key and coordinates, when it has to be tested with the
+ * predicate or returned. The tree can't be changed. Large searches can run in
+ * parallel, as on a {@link FlatKDTree}.</p>
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
+public class MappedKDTree<T extends Dimensional> implements KDVertex<T> {
+
+  /**
+   * Marks a saved k-d tree.
+   */
+  private static final int MAGIC = 0x4B440001;
+
+  /**
+   * Bytes in the header: magic, fingerprint, number of dimensions, elements,
+   * and nodes, and bytes of keys.
+   */
+  private static final int HEADER_BYTES = 4 + 8 + 4 * 4;
+
+  /**
+   * Number of dimensions of each element.
+   */
+  private final int numDimensions;
+
+  /**
+   * Number of elements.
+   */
+  private final int numElements;
+
+  /**
+   * Coordinate each node splits, or -1 if the node is a leaf.
+   */
+  private final IntBuffer splitCoordinates;
+
+  /**
+   * Value each node splits at.
+   */
+  private final DoubleBuffer splits;
+
+  /**
+   * Right child of each node that isn't a leaf.
+   */
+  private final IntBuffer rights;
+
+  /**
+   * First element in the subtree of each node.
+   */
+  private final IntBuffer begins;
+
+  /**
+   * One past the last element in the subtree of each node.
+   */
+  private final IntBuffer ends;
+
+  /**
+   * Coordinates of each element, {@code numDimensions} per element.
+   */
+  private final DoubleBuffer coordinates;
+
+  /**
+   * Offset of the key of each element, and one past the last key.
+   */
+  private final IntBuffer keyOffsets;
+
+  /**
+   * Keys of the elements, in UTF-8.
+   */
+  private final ByteBuffer keyBytes;
+
+  /**
+   * Key of each element.
+   */
+  private final Function<? super T, String> keys;
+
+  /**
+   * Makes an element from its key and coordinates.
+   */
+  private final BiFunction<String, double[], T> decoder;
+
+  /**
+   * Maps a saved tree.
+   *
+   * @param buffer whole file
+   * @param keys key of each element
+   * @param decoder makes an element from its key and coordinates
+   */
+  private MappedKDTree(ByteBuffer buffer, Function<? super T, String> keys,
+    BiFunction<String, double[], T> decoder) {
+    this.keys = keys;
+    this.decoder = decoder;
+    numDimensions = buffer.getInt(12);
+    numElements = buffer.getInt(16);
+    int numNodes = buffer.getInt(20);
+    int numKeyBytes = buffer.getInt(24);
+    int offset = HEADER_BYTES;
+    splitCoordinates = slice(buffer, offset, 4 * numNodes).asIntBuffer();
+    offset += 4 * numNodes;
+    splits = slice(buffer, offset, 8 * numNodes).asDoubleBuffer();
+    offset += 8 * numNodes;
+    rights = slice(buffer, offset, 4 * numNodes).asIntBuffer();
+    offset += 4 * numNodes;
+    begins = slice(buffer, offset, 4 * numNodes).asIntBuffer();
+    offset += 4 * numNodes;
+    ends = slice(buffer, offset, 4 * numNodes).asIntBuffer();
+    offset += 4 * numNodes;
+    int numCoordinates = numElements * numDimensions;
+    coordinates = slice(buffer, offset, 8 * numCoordinates).asDoubleBuffer();
+    offset += 8 * numCoordinates;
+    keyOffsets = slice(buffer, offset, 4 * (numElements + 1)).asIntBuffer();
+    offset += 4 * (numElements + 1);
+    keyBytes = slice(buffer, offset, numKeyBytes);
+  }
+
+  /**
+   * @param buffer buffer
+   * @param offset first byte
+   * @param length number of bytes
+   * @return bytes of the buffer from the offset
+   */
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  /**
+   * Number of bytes a saved tree should have.
+   *
+   * @param numDimensions number of dimensions
+   * @param numElements number of elements
+   * @param numNodes number of nodes
+   * @param numKeyBytes number of bytes of keys
+   * @return length of file
+   */
+  private static long length(long numDimensions, long numElements,
+    long numNodes, long numKeyBytes) {
+    return HEADER_BYTES + 24 * numNodes + 8 * numElements * numDimensions
+      + 4 * (numElements + 1) + numKeyBytes;
+  }
+
+  /**
+   * Saves a tree to a file, which starts with a header of a magic number, the
+   * fingerprint, and the numbers of dimensions, elements, nodes, and bytes of
+   * keys, and then has the node arrays of the tree one after another, the
+   * coordinates of the elements, the offsets of their keys, and their keys in
+   * UTF-8, all big-endian.
+   *
+   * @param <T> a dimensional type
+   * @param tree tree
+   * @param keys key of each element, which with its coordinates is enough to
+   * make it again
+   * @param fingerprint fingerprint of where the elements came from
+   * @param file file
+   * @throws IOException if the file can't be written
+   */
+  public static <T extends Dimensional> void save(FlatKDTree<T> tree,
+    Function<? super T, String> keys, long fingerprint, File file)
+    throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeLong(fingerprint);
+      tree.write(out, keys);
+    }
+  }
+
+  /**
+   * Maps a tree saved by
+   * {@link MappedKDTree#save(FlatKDTree, Function, long, File)}.
+   *
+   * @param <T> a dimensional type
+   * @param file file
+   * @param fingerprint fingerprint the tree must have been saved with
+   * @param keys key of each element, as it was saved
+   * @param decoder makes an element from its key and coordinates
+   * @return mapped tree
+   * @throws IOException if the file can't be read, or isn't a saved tree with
+   * the fingerprint
+   */
+  public static <T extends Dimensional> MappedKDTree<T> open(File file,
+    long fingerprint, Function<? super T, String> keys,
+    BiFunction<String, double[], T> decoder) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel()) {
+      long size = channel.size();
+      if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException("not a saved k-d tree: " + file);
+      }
+      // The mapping stays valid after the channel is closed
+      MappedByteBuffer buffer
+        = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt(0) != MAGIC) {
+        throw new IOException("not a saved k-d tree: " + file);
+      }
+      if (buffer.getLong(4) != fingerprint) {
+        throw new IOException("saved k-d tree is out of date: " + file);
+      }
+      int numDimensions = buffer.getInt(12);
+      int numElements = buffer.getInt(16);
+      int numNodes = buffer.getInt(20);
+      int numKeyBytes = buffer.getInt(24);
+      if (numDimensions < 0 || numElements < 0 || numNodes < 1
+        || numKeyBytes < 0 || size
+        != length(numDimensions, numElements, numNodes, numKeyBytes)) {
+        throw new IOException("saved k-d tree is truncated: " + file);
+      }
+      return new MappedKDTree<>(buffer, keys, decoder);
+    }
+  }
+
+  /**
+   * Fingerprint of a file, from its length and when it was last modified, to
+   * tell whether a tree was saved from it as it is now.
+   *
+   * @param file file
+   * @return fingerprint
+   */
+  public static long fingerprint(File file) {
+    return 31 * file.length() + file.lastModified();
+  }
+
+  /**
+   * @return number of dimensions of each element
+   */
+  int numDimensions() {
+    return numDimensions;
+  }
+
+  /**
+   * Reads the coordinates of an element.
+   *
+   * @param i position of element
+   * @param point where to put the coordinates
+   */
+  private void read(int i, double[] point) {
+    int offset = i * numDimensions;
+    for (int c = 0; c < numDimensions; c++) {
+      point[c] = coordinates.get(offset + c);
+    }
+  }
+
+  /**
+   * Reads the key of an element.
+   *
+   * @param i position of element
+   * @return key
+   */
+  private String key(int i) {
+    int from = keyOffsets.get(i);
+    byte[] bytes = new byte[keyOffsets.get(i + 1) - from];
+    for (int j = 0; j < bytes.length; j++) {
+      bytes[j] = keyBytes.get(from + j);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Makes an element.
+   *
+   * @param i position of element
+   * @param point its coordinates, as read
+   * @return element
+   */
+  private T element(int i, double[] point) {
+    return decoder.apply(key(i), Arrays.copyOf(point, numDimensions));
+  }
+
+  /**
+   * Checks that a query point has as many dimensions as the elements.
+   *
+   * @param d query point
+   * @throws IllegalArgumentException if it doesn't
+   * @throws NullPointerException if {@code d} is null
+   */
+  private void checkDimensions(Dimensional d) {
+    if (d.numDimensions() != numDimensions && numElements > 0) {
+      throw new IllegalArgumentException(String.format(
+        "Dimension mismatch between %s and tree elements", d));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() {
+    return numElements;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean contains(T element) {
+    if (element == null || numElements == 0
+      || element.numDimensions() != numDimensions) {
+      return false;
+    }
+    int node = 0;
+    while (splitCoordinates.get(node) != -1) {
+      node = element.getCoordinate(splitCoordinates.get(node))
+        < splits.get(node) ? node + 1 : rights.get(node);
+    }
+    double[] point = new double[numDimensions];
+    String key = null;
+    for (int i = begins.get(node); i < ends.get(node); i++) {
+      read(i, point);
+      boolean same = true;
+      for (int c = 0; c < numDimensions && same; c++) {
+        same = point[c] == element.getCoordinate(c);
+      }
+      if (same) {
+        if (key == null) {
+          key = keys.apply(element);
+        }
+        if (key.equals(key(i))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, int n, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+    nearestNeighbors(d, ignore, nearest);
+    current.clear();
+    current.addAll(nearest.toList());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    checkDimensions(d);
+    if (nearest.capacity() == 0 || numElements == 0) {
+      return;
+    }
+    nearestNeighbors(0, d, ignore, nearest, new double[numDimensions]);
+  }
+
+  /**
+   * Nearest neighbors search in the subtree of a node.
+   *
+   * @param node node
+   * @param d point to find nearest neighbors from
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param nearest nearest neighbors found so far
+   * @param point space to read coordinates into
+   */
+  private void nearestNeighbors(int node, Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest, double[] point) {
+    int c = splitCoordinates.get(node);
+    if (c == -1) {
+      for (int i = begins.get(node); i < ends.get(node); i++) {
+        read(i, point);
+        double distance = d.distanceTo(point, 0);
+        // Make only elements that can be added
+        if (distance < nearest.bound()) {
+          T element = element(i, point);
+          if (ignore == null || !ignore.test(element)) {
+            nearest.offer(element, distance);
+          }
+        }
+      }
+      return;
+    }
+
+    // Search the side containing the point first
+    double split = splits.get(node);
+    boolean leftFirst = d.getCoordinate(c) < split;
+    nearestNeighbors(leftFirst ? node + 1 : rights.get(node), d, ignore,
+      nearest, point);
+    if (d.distanceToPlane(c, split) < nearest.bound()) {
+      nearestNeighbors(leftFirst ? rights.get(node) : node + 1, d, ignore,
+        nearest, point);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    checkDimensions(d);
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    if (numElements == 0) {
+      return;
+    }
+    withinRadius(0, d, r, ignore, current, new double[numDimensions]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current, ForkJoinPool pool) {
+    if (pool == null || numElements < FlatKDTree.PARALLEL_SIZE) {
+      withinRadius(d, r, ignore, current);
+      return;
+    }
+    checkDimensions(d);
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    // Each side is searched if it contains the point or the splitting plane
+    // is within the radius
+    List<Integer> roots = new ArrayList<>();
+    parallelRoots(0,
+      node -> d.getCoordinate(splitCoordinates.get(node)) < splits.get(node)
+      || d.distanceToPlane(splitCoordinates.get(node), splits.get(node)) <= r,
+      node -> d.getCoordinate(splitCoordinates.get(node)) >= splits.get(node)
+      || d.distanceToPlane(splitCoordinates.get(node), splits.get(node)) <= r,
+      roots);
+    FlatKDTree.searchInParallel(roots, (root, found) -> withinRadius(root, d,
+      r, ignore, found, new double[numDimensions]), current, pool);
+  }
+
+  /**
+   * Radius search in the subtree of a node.
+   *
+   * @param node node
+   * @param d search for elements in the given radius around this point
+   * @param r radius, nonnegative
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param current elements found so far
+   * @param point space to read coordinates into
+   */
+  private void withinRadius(int node, Dimensional d, double r,
+    Predicate<T> ignore, List<DimensionalDistance<T>> current,
+    double[] point) {
+    int c = splitCoordinates.get(node);
+    if (c == -1) {
+      for (int i = begins.get(node); i < ends.get(node); i++) {
+        read(i, point);
+        double distance = d.distanceTo(point, 0);
+        if (distance <= r) {
+          T element = element(i, point);
+          if (ignore == null || !ignore.test(element)) {
+            current.add(new DimensionalDistance<>(element, distance));
+          }
+        }
+      }
+      return;
+    }
+
+    // Search the side containing the point, and the other side if the
+    // splitting plane is within the radius
+    double split = splits.get(node);
+    boolean leftFirst = d.getCoordinate(c) < split;
+    withinRadius(leftFirst ? node + 1 : rights.get(node), d, r, ignore,
+      current, point);
+    if (d.distanceToPlane(c, split) <= r) {
+      withinRadius(leftFirst ? rights.get(node) : node + 1, d, r, ignore,
+        current, point);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    checkDimensions(min);
+    checkDimensions(max);
+    if (numElements == 0) {
+      return;
+    }
+    inBox(0, min, max, visitor, new double[numDimensions]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max, List<? super T> found,
+    ForkJoinPool pool) {
+    if (pool == null || numElements < FlatKDTree.PARALLEL_SIZE) {
+      inBox(min, max, found::add);
+      return;
+    }
+    checkDimensions(min);
+    checkDimensions(max);
+    List<Integer> roots = new ArrayList<>();
+    parallelRoots(0,
+      node -> min.getCoordinate(splitCoordinates.get(node)) < splits.get(node),
+      node -> max.getCoordinate(splitCoordinates.get(node)) >= splits.get(node),
+      roots);
+    FlatKDTree.<T>searchInParallel(roots, (root, buffer) -> inBox(root, min,
+      max, buffer::add, new double[numDimensions]), found, pool);
+  }
+
+  /**
+   * Box search in the subtree of a node.
+   *
+   * @param node node
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @param visitor called with each element in the box
+   * @param point space to read coordinates into
+   */
+  private void inBox(int node, Dimensional min, Dimensional max,
+    Consumer<? super T> visitor, double[] point) {
+    int c = splitCoordinates.get(node);
+    if (c == -1) {
+      for (int i = begins.get(node); i < ends.get(node); i++) {
+        read(i, point);
+        if (inBox(point, min, max)) {
+          visitor.accept(element(i, point));
+        }
+      }
+      return;
+    }
+    // Left side has values less than the split, right side the rest
+    double split = splits.get(node);
+    if (min.getCoordinate(c) < split) {
+      inBox(node + 1, min, max, visitor, point);
+    }
+    if (max.getCoordinate(c) >= split) {
+      inBox(rights.get(node), min, max, visitor, point);
+    }
+  }
+
+  /**
+   * @param point coordinates
+   * @param min corner with the least value of each coordinate
+   * @param max corner with the greatest value of each coordinate
+   * @return whether the coordinates are in the box
+   */
+  private boolean inBox(double[] point, Dimensional min, Dimensional max) {
+    for (int c = 0; c < numDimensions; c++) {
+      if (point[c] < min.getCoordinate(c) || point[c] > max.getCoordinate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the roots of the subtrees a parallel search runs as separate tasks,
+   * like {@link FlatKDTree}.
+   *
+   * @param node node
+   * @param left whether the search goes to the left child of a node
+   * @param right whether the search goes to the right child of a node
+   * @param roots where to add the roots, in preorder
+   */
+  private void parallelRoots(int node, IntPredicate left, IntPredicate right,
+    List<Integer> roots) {
+    if (splitCoordinates.get(node) == -1
+      || ends.get(node) - begins.get(node) < FlatKDTree.PARALLEL_SIZE) {
+      roots.add(node);
+      return;
+    }
+    if (left.test(node)) {
+      parallelRoots(node + 1, left, right, roots);
+    }
+    if (right.test(node)) {
+      parallelRoots(rights.get(node), left, right, roots);
+    }
+  }
+
+  /**
+   * @return string representation of this {@code MappedKDTree}
+   */
+  @Override
+  public String toString() {
+    return String.format("MappedKDTree with %d elements in %d nodes",
+      numElements, splitCoordinates.capacity());
+  }
+}
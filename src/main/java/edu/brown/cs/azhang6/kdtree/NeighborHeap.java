@@ -0,0 +1,200 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the nearest neighbors found so far in a nearest neighbors search:
+ * keeps up to a fixed number of elements in a max-heap on their distances, so
+ * the farthest is replaced in logarithmic time when a nearer element is found.
+ * Distances are kept as primitives, and a {@link DimensionalDistance} is made
+ * for each neighbor only at the end, by {@link NeighborHeap#toList()}. Can be
+ * reused for another search with {@link NeighborHeap#reset(int)}.
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
+public class NeighborHeap<T extends Dimensional> {
+
+  /**
+   * Max number of neighbors.
+   */
+  private int capacity;
+
+  /**
+   * Number of neighbors found so far.
+   */
+  private int size = 0;
+
+  /**
+   * Distance of each neighbor, as a max-heap.
+   */
+  private double[] distances;
+
+  /**
+   * Neighbors, in the same order as their distances.
+   */
+  private Object[] elements;
+
+  /**
+   * New empty heap for up to the given number of neighbors.
+   *
+   * @param capacity max number of neighbors, nonnegative
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  public NeighborHeap(int capacity) {
+    distances = new double[0];
+    elements = new Object[0];
+    reset(capacity);
+  }
+
+  /**
+   * Empties the heap for a new search, for up to the given number of
+   * neighbors.
+   *
+   * @param capacity max number of neighbors, nonnegative
+   * @throws IllegalArgumentException if capacity is negative
+   */
+  public final void reset(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException(
+        "number of nearest neighbors must be nonnegative");
+    }
+    this.capacity = capacity;
+    // Drop references to the last search's neighbors
+    Arrays.fill(elements, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * @return max number of neighbors
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return number of neighbors found so far
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Distance an element must be nearer than to be added: the distance of the
+   * farthest neighbor once the heap is full, and infinite before. Searches can
+   * skip anything at least this far.
+   *
+   * @return distance to beat
+   */
+  public double bound() {
+    if (size < capacity) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return capacity == 0 ? Double.NEGATIVE_INFINITY : distances[0];
+  }
+
+  /**
+   * Adds an element if the heap isn't full yet or it is nearer than the
+   * farthest neighbor, which it then replaces.
+   *
+   * @param element element
+   * @param distance distance of element
+   * @return whether element was added
+   */
+  public boolean offer(T element, double distance) {
+    if (size < capacity) {
+      // Grow as neighbors are found, so a large capacity costs nothing up
+      // front
+      if (size == distances.length) {
+        int newLength = Math.min(capacity, Math.max(16, 2 * size));
+        distances = Arrays.copyOf(distances, newLength);
+        elements = Arrays.copyOf(elements, newLength);
+      }
+      // Sift up from the end
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (distances[parent] >= distance) {
+          break;
+        }
+        distances[i] = distances[parent];
+        elements[i] = elements[parent];
+        i = parent;
+      }
+      distances[i] = distance;
+      elements[i] = element;
+      return true;
+    }
+    if (capacity == 0 || distance >= distances[0]) {
+      return false;
+    }
+    siftDown(distances, elements, 0, size, element, distance);
+    return true;
+  }
+
+  /**
+   * Places an element at a position in a heap and moves it down until it is
+   * no nearer than its children.
+   *
+   * @param distances distances in heap
+   * @param elements elements in heap
+   * @param i position
+   * @param end number of positions in the heap
+   * @param element element
+   * @param distance distance of element
+   */
+  private static void siftDown(double[] distances, Object[] elements, int i,
+    int end, Object element, double distance) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= end) {
+        break;
+      }
+      if (child + 1 < end && distances[child + 1] > distances[child]) {
+        child++;
+      }
+      if (distances[child] <= distance) {
+        break;
+      }
+      distances[i] = distances[child];
+      elements[i] = elements[child];
+      i = child;
+    }
+    distances[i] = distance;
+    elements[i] = element;
+  }
+
+  /**
+   * Gets the neighbors found, nearest first. The heap is left unchanged.
+   *
+   * @return neighbors sorted nearest first
+   */
+  @SuppressWarnings("unchecked")
+  public List<DimensionalDistance<T>> toList() {
+    DimensionalDistance<T>[] sorted = new DimensionalDistance[size];
+    double[] heapDistances = Arrays.copyOf(distances, size);
+    Object[] heapElements = Arrays.copyOf(elements, size);
+    // Heapsort a copy: repeatedly take the farthest off the heap
+    for (int end = size - 1; end >= 0; end--) {
+      sorted[end] = new DimensionalDistance<>((T) heapElements[0],
+        heapDistances[0]);
+      siftDown(heapDistances, heapElements, 0, end, heapElements[end],
+        heapDistances[end]);
+    }
+    return new ArrayList<>(Arrays.asList(sorted));
+  }
+
+  /**
+   * @return string representation of this {@code NeighborHeap}
+   */
+  @Override
+  public String toString() {
+    return String.format("NeighborHeap with %d of %d neighbors", size,
+      capacity);
+  }
+}
@@ -0,0 +1,223 @@
+package edu.brown.cs.azhang6.kdtree;
+
+/**
+ * Selection on a range of keys, each carrying an int such as the index of an
+ * element, for splitting ranges of elements at their median when building a
+ * k-d tree. Elements are moved in place, so building a tree allocates only
+ * the arrays of keys and indices.
+ *
+ * <p>
+ * Selection is introselect: quickselect with a median-of-three pivot and a
+ * three-way partition, so runs of equal keys are settled at once, falling
+ * back to heapsort if the pivots keep turning out badly. It takes linear time
+ * on average and O(n log n) at worst.</p>
+ *
+ * @author aaronzhang
+ */
+final class Select {
+
+  /**
+   * Ranges at most this long are insertion sorted.
+   */
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  /**
+   * Can't be instantiated.
+   */
+  private Select() {
+
+  }
+
+  /**
+   * Splits a range at the median key: keys less than the median come first,
+   * and the rest after. If that would leave nothing first, because the
+   * median is also the least key, the least key greater than the median is
+   * used instead. The first key after the split is the splitting value.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param from first position
+   * @param to one past last position
+   * @return first position not less than the splitting value, or -1 if every
+   * key in the range is the same
+   */
+  static int splitAtMedian(double[] keys, int[] items, int from, int to) {
+    int median = from + (to - from) / 2;
+    select(keys, items, from, to, median);
+    double value = keys[median];
+    // Keys before the median are no greater; move the equal ones next to it
+    int middle = median;
+    for (int i = median - 1; i >= from; i--) {
+      if (keys[i] == value) {
+        swap(keys, items, i, --middle);
+      }
+    }
+    if (middle > from) {
+      return middle;
+    }
+    // Keys from the median on are no less; move the equal ones first, and
+    // then the least of the greater ones
+    int greater = median;
+    for (int i = median; i < to; i++) {
+      if (keys[i] == value) {
+        swap(keys, items, i, greater++);
+      }
+    }
+    if (greater == to) {
+      return -1;
+    }
+    int least = greater;
+    for (int i = greater + 1; i < to; i++) {
+      if (keys[i] < keys[least]) {
+        least = i;
+      }
+    }
+    swap(keys, items, greater, least);
+    return greater;
+  }
+
+  /**
+   * Reorders a range so that the key at position k is the one that would be
+   * there if the range were sorted, with no greater keys before it and no
+   * lesser keys after it.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param from first position
+   * @param to one past last position
+   * @param k position to select, in the range
+   */
+  static void select(double[] keys, int[] items, int from, int to, int k) {
+    // Allow twice the depth of a balanced partitioning before giving up
+    int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+    while (to - from > INSERTION_SORT_SIZE) {
+      if (depth-- == 0) {
+        heapSort(keys, items, from, to);
+        return;
+      }
+      // Median of first, middle, and last as the pivot
+      int mid = from + (to - from) / 2;
+      if (keys[mid] < keys[from]) {
+        swap(keys, items, mid, from);
+      }
+      if (keys[to - 1] < keys[from]) {
+        swap(keys, items, to - 1, from);
+      }
+      if (keys[to - 1] < keys[mid]) {
+        swap(keys, items, to - 1, mid);
+      }
+      double pivot = keys[mid];
+      // Three-way partition: less than the pivot in [from, lt), equal in
+      // [lt, i), unseen in [i, gt], greater than the pivot in (gt, to)
+      int lt = from;
+      int gt = to - 1;
+      int i = from;
+      while (i <= gt) {
+        if (keys[i] < pivot) {
+          swap(keys, items, i++, lt++);
+        } else if (keys[i] > pivot) {
+          swap(keys, items, i, gt--);
+        } else {
+          i++;
+        }
+      }
+      if (k < lt) {
+        to = lt;
+      } else if (k > gt) {
+        from = gt + 1;
+      } else {
+        return;
+      }
+    }
+    insertionSort(keys, items, from, to);
+  }
+
+  /**
+   * Insertion sorts a range.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param from first position
+   * @param to one past last position
+   */
+  private static void insertionSort(double[] keys, int[] items, int from,
+    int to) {
+    for (int i = from + 1; i < to; i++) {
+      double key = keys[i];
+      int item = items[i];
+      int j = i;
+      while (j > from && keys[j - 1] > key) {
+        keys[j] = keys[j - 1];
+        items[j] = items[j - 1];
+        j--;
+      }
+      keys[j] = key;
+      items[j] = item;
+    }
+  }
+
+  /**
+   * Heapsorts a range.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param from first position
+   * @param to one past last position
+   */
+  private static void heapSort(double[] keys, int[] items, int from,
+    int to) {
+    int n = to - from;
+    for (int i = n / 2 - 1; i >= 0; i--) {
+      siftDown(keys, items, from, i, n);
+    }
+    for (int end = n - 1; end > 0; end--) {
+      swap(keys, items, from, from + end);
+      siftDown(keys, items, from, 0, end);
+    }
+  }
+
+  /**
+   * Moves a key down a max-heap laid out from an offset until it is no less
+   * than its children.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param offset position of the root of the heap
+   * @param i position in the heap, relative to the root
+   * @param end number of positions in the heap
+   */
+  private static void siftDown(double[] keys, int[] items, int offset, int i,
+    int end) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= end) {
+        return;
+      }
+      if (child + 1 < end && keys[offset + child + 1] > keys[offset + child]) {
+        child++;
+      }
+      if (keys[offset + child] <= keys[offset + i]) {
+        return;
+      }
+      swap(keys, items, offset + i, offset + child);
+      i = child;
+    }
+  }
+
+  /**
+   * Swaps two positions.
+   *
+   * @param keys keys
+   * @param items item carried by each key
+   * @param i a position
+   * @param j another position
+   */
+  private static void swap(double[] keys, int[] items, int i, int j) {
+    double key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    int item = items[i];
+    items[i] = items[j];
+    items[j] = item;
+  }
+}
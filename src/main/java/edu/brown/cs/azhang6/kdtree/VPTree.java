@@ -0,0 +1,517 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Vantage-point tree. Unlike a k-d tree, which splits on coordinates, each
+ * node picks one of its elements as a vantage point and splits the rest by
+ * their distance from it, at the median: the inner subtree holds those
+ * nearer than the median, in a ball around the vantage point, and the outer
+ * subtree the rest, in a shell around it. Searches prune with the triangle
+ * inequality, so they only rely on {@link Dimensional#distanceTo(Dimensional)}
+ * being a metric, and prune correctly under any metric: great-circle distance
+ * between {@link edu.brown.cs.azhang6.dimension.LatLng}s, near the poles and
+ * across the antimeridian as anywhere else, as well as Euclidean distance
+ * between points of any number of dimensions.
+ *
+ * <p>
+ * Like {@link FlatKDTree}, the nodes are stored in preorder in parallel
+ * arrays, so the inner child of a node is the next node, and each subtree is
+ * a contiguous range of elements, with the vantage point of a node first.
+ * Box queries have no metric to prune with, and check every element.</p>
+ *
+ * @author aaronzhang
+ * @param <T> a dimensional type
+ */
+public class VPTree<T extends Dimensional> implements KDVertex<T> {
+
+  /**
+   * Maximum number of elements in a leaf, unless all its elements are the
+   * same distance from a vantage point.
+   */
+  static final int LEAF_SIZE = KDLeaf.MAX_COUNT;
+
+  /**
+   * Distances may be off by this much, relative to their size, from rounding,
+   * so pruning allows for it.
+   */
+  private static final double SLACK = 1e-9;
+
+  /**
+   * Number of dimensions of each element.
+   */
+  private final int numDimensions;
+
+  /**
+   * Elements, in preorder of the nodes.
+   */
+  private final Object[] elements;
+
+  /**
+   * Outer child of each node, or -1 if the node is a leaf.
+   */
+  private final int[] outers;
+
+  /**
+   * Greatest distance from the vantage point of each node to an element of
+   * its inner subtree.
+   */
+  private final double[] innerRadii;
+
+  /**
+   * Least distance from the vantage point of each node to an element of its
+   * outer subtree.
+   */
+  private final double[] outerRadii;
+
+  /**
+   * Greatest distance from the vantage point of each node to an element of
+   * its outer subtree.
+   */
+  private final double[] maxRadii;
+
+  /**
+   * First element in the subtree of each node, which is the vantage point of
+   * a node that isn't a leaf.
+   */
+  private final int[] begins;
+
+  /**
+   * One past the last element in the subtree of each node.
+   */
+  private final int[] ends;
+
+  /**
+   * Builds a tree with the given elements. Every element should have the same
+   * number of dimensions. External changes to the list argument after
+   * construction will not affect this object.
+   *
+   * @param elements list of elements
+   * @throws IllegalArgumentException if elements have different numbers of
+   * dimensions
+   * @throws NullPointerException if list is null
+   */
+  public VPTree(List<T> elements) {
+    int n = elements.size();
+    numDimensions = n == 0 ? 0 : elements.get(0).numDimensions();
+    Builder builder = new Builder(elements);
+    int numNodes = builder.build(0, n);
+    outers = Arrays.copyOf(builder.outers, numNodes);
+    innerRadii = Arrays.copyOf(builder.innerRadii, numNodes);
+    outerRadii = Arrays.copyOf(builder.outerRadii, numNodes);
+    maxRadii = Arrays.copyOf(builder.maxRadii, numNodes);
+    begins = Arrays.copyOf(builder.begins, numNodes);
+    ends = Arrays.copyOf(builder.ends, numNodes);
+    this.elements = new Object[n];
+    for (int i = 0; i < n; i++) {
+      this.elements[i] = elements.get(builder.order[i]);
+    }
+  }
+
+  /**
+   * Lays out the nodes of a tree, sorting the indices of the elements into
+   * preorder.
+   */
+  private final class Builder {
+
+    /**
+     * Elements, in list order.
+     */
+    private final List<T> elements;
+
+    /**
+     * Indices of the elements, rearranged into preorder.
+     */
+    private final int[] order;
+
+    /**
+     * Distance of each element from the vantage point of the range being
+     * split.
+     */
+    private final double[] distances;
+
+    /**
+     * Outer child of each node.
+     */
+    private final int[] outers;
+
+    /**
+     * Greatest distance to an inner element of each node.
+     */
+    private final double[] innerRadii;
+
+    /**
+     * Least distance to an outer element of each node.
+     */
+    private final double[] outerRadii;
+
+    /**
+     * Greatest distance to an outer element of each node.
+     */
+    private final double[] maxRadii;
+
+    /**
+     * First element in subtree of each node.
+     */
+    private final int[] begins;
+
+    /**
+     * One past last element in subtree of each node.
+     */
+    private final int[] ends;
+
+    /**
+     * Number of nodes laid out so far.
+     */
+    private int numNodes = 0;
+
+    /**
+     * @param elements elements of tree
+     * @throws IllegalArgumentException if elements have different numbers of
+     * dimensions
+     */
+    Builder(List<T> elements) {
+      this.elements = elements;
+      int n = elements.size();
+      order = new int[n];
+      distances = new double[n];
+      for (int i = 0; i < n; i++) {
+        T element = elements.get(i);
+        if (element.numDimensions() != numDimensions) {
+          throw new IllegalArgumentException(String.format(
+            "Dimension mismatch between %s and %s", elements.get(0), element));
+        }
+        order[i] = i;
+      }
+      // A range of m elements has at most m nodes, or one if empty
+      int maxNodes = Math.max(n, 1);
+      outers = new int[maxNodes];
+      innerRadii = new double[maxNodes];
+      outerRadii = new double[maxNodes];
+      maxRadii = new double[maxNodes];
+      begins = new int[maxNodes];
+      ends = new int[maxNodes];
+    }
+
+    /**
+     * @param i position
+     * @return element at position
+     */
+    private T element(int i) {
+      return elements.get(order[i]);
+    }
+
+    /**
+     * Lays out the subtree of a range of elements.
+     *
+     * @param from first element
+     * @param to one past last element
+     * @return number of nodes laid out so far
+     */
+    int build(int from, int to) {
+      int node = numNodes++;
+      begins[node] = from;
+      ends[node] = to;
+      outers[node] = -1;
+      if (to - from <= LEAF_SIZE) {
+        return numNodes;
+      }
+      // Vantage point on the edge of the range: the element farthest from
+      // the one in the middle
+      T middle = element(from + (to - from) / 2);
+      int vantage = from;
+      double farthest = -1;
+      for (int i = from; i < to; i++) {
+        double distance = middle.distanceTo(element(i));
+        if (distance > farthest) {
+          farthest = distance;
+          vantage = i;
+        }
+      }
+      int swap = order[from];
+      order[from] = order[vantage];
+      order[vantage] = swap;
+      T v = element(from);
+      for (int i = from + 1; i < to; i++) {
+        distances[i] = v.distanceTo(element(i));
+      }
+      int split = Select.splitAtMedian(distances, order, from + 1, to);
+      if (split == -1) {
+        // Every other element is the same distance away
+        return numNodes;
+      }
+      double innerRadius = 0;
+      for (int i = from + 1; i < split; i++) {
+        innerRadius = Math.max(innerRadius, distances[i]);
+      }
+      double maxRadius = 0;
+      for (int i = split; i < to; i++) {
+        maxRadius = Math.max(maxRadius, distances[i]);
+      }
+      innerRadii[node] = innerRadius;
+      outerRadii[node] = distances[split];
+      maxRadii[node] = maxRadius;
+      build(from + 1, split);
+      outers[node] = numNodes;
+      return build(split, to);
+    }
+  }
+
+  /**
+   * @param i position of element
+   * @return element
+   */
+  @SuppressWarnings("unchecked")
+  private T element(int i) {
+    return (T) elements[i];
+  }
+
+  /**
+   * Checks that a query point has as many dimensions as the elements.
+   *
+   * @param d query point
+   * @throws IllegalArgumentException if it doesn't
+   * @throws NullPointerException if {@code d} is null
+   */
+  private void checkDimensions(Dimensional d) {
+    if (d.numDimensions() != numDimensions && elements.length > 0) {
+      throw new IllegalArgumentException(String.format(
+        "Dimension mismatch between %s and tree elements", d));
+    }
+  }
+
+  /**
+   * Whether elements at least some distance away might be within a bound,
+   * allowing for rounding in the distances.
+   *
+   * @param lower least distance of the elements
+   * @param bound bound
+   * @return whether they might be within the bound
+   */
+  private static boolean mightBeWithin(double lower, double bound) {
+    return lower <= bound + SLACK * (1 + bound);
+  }
+
+  /**
+   * @param node node that isn't a leaf
+   * @param distance distance from the vantage point of the node
+   * @return least distance to an element of the inner subtree
+   */
+  private double innerBound(int node, double distance) {
+    return distance - innerRadii[node];
+  }
+
+  /**
+   * @param node node that isn't a leaf
+   * @param distance distance from the vantage point of the node
+   * @return least distance to an element of the outer subtree
+   */
+  private double outerBound(int node, double distance) {
+    return Math.max(outerRadii[node] - distance, distance - maxRadii[node]);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() {
+    return elements.length;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean contains(T element) {
+    if (element == null || elements.length == 0
+      || element.numDimensions() != numDimensions) {
+      return false;
+    }
+    return contains(0, element);
+  }
+
+  /**
+   * Checks whether the subtree of a node contains an element.
+   *
+   * @param node node
+   * @param element element
+   * @return whether subtree contains the element
+   */
+  private boolean contains(int node, T element) {
+    if (outers[node] == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        if (elements[i].equals(element)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    T vantage = element(begins[node]);
+    if (vantage.equals(element)) {
+      return true;
+    }
+    double distance = element.distanceTo(vantage);
+    return mightBeWithin(innerBound(node, distance), 0)
+      && contains(node + 1, element)
+      || mightBeWithin(outerBound(node, distance), 0)
+      && contains(outers[node], element);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, int n, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    NeighborHeap<T> nearest = new NeighborHeap<>(n);
+    for (DimensionalDistance<T> dd : current) {
+      nearest.offer(dd.getDimensional(), dd.getDistance());
+    }
+    nearestNeighbors(d, ignore, nearest);
+    current.clear();
+    current.addAll(nearest.toList());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void nearestNeighbors(Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    checkDimensions(d);
+    if (nearest.capacity() == 0 || elements.length == 0) {
+      return;
+    }
+    nearestNeighbors(0, d, ignore, nearest);
+  }
+
+  /**
+   * Nearest neighbors search in the subtree of a node.
+   *
+   * @param node node
+   * @param d point to find nearest neighbors from
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param nearest nearest neighbors found so far
+   */
+  private void nearestNeighbors(int node, Dimensional d, Predicate<T> ignore,
+    NeighborHeap<T> nearest) {
+    if (outers[node] == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        T element = element(i);
+        double distance = d.distanceTo(element);
+        if (distance < nearest.bound()
+          && (ignore == null || !ignore.test(element))) {
+          nearest.offer(element, distance);
+        }
+      }
+      return;
+    }
+    T vantage = element(begins[node]);
+    double distance = d.distanceTo(vantage);
+    if (distance < nearest.bound()
+      && (ignore == null || !ignore.test(vantage))) {
+      nearest.offer(vantage, distance);
+    }
+
+    // Search the subtree the point is in first
+    if (distance < outerRadii[node]) {
+      if (mightBeWithin(innerBound(node, distance), nearest.bound())) {
+        nearestNeighbors(node + 1, d, ignore, nearest);
+      }
+      if (mightBeWithin(outerBound(node, distance), nearest.bound())) {
+        nearestNeighbors(outers[node], d, ignore, nearest);
+      }
+    } else {
+      if (mightBeWithin(outerBound(node, distance), nearest.bound())) {
+        nearestNeighbors(outers[node], d, ignore, nearest);
+      }
+      if (mightBeWithin(innerBound(node, distance), nearest.bound())) {
+        nearestNeighbors(node + 1, d, ignore, nearest);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void withinRadius(Dimensional d, double r, Predicate<T> ignore,
+    List<DimensionalDistance<T>> current) {
+    checkDimensions(d);
+    if (r < 0) {
+      throw new IllegalArgumentException(
+        "radius must be a non-negative decimal");
+    }
+    if (elements.length == 0) {
+      return;
+    }
+    withinRadius(0, d, r, ignore, current);
+  }
+
+  /**
+   * Radius search in the subtree of a node.
+   *
+   * @param node node
+   * @param d search for elements in the given radius around this point
+   * @param r radius, nonnegative
+   * @param ignore ignore elements that satisfy this predicate, if not null
+   * @param current elements found so far
+   */
+  private void withinRadius(int node, Dimensional d, double r,
+    Predicate<T> ignore, List<DimensionalDistance<T>> current) {
+    if (outers[node] == -1) {
+      for (int i = begins[node]; i < ends[node]; i++) {
+        T element = element(i);
+        double distance = d.distanceTo(element);
+        if (distance <= r && (ignore == null || !ignore.test(element))) {
+          current.add(new DimensionalDistance<>(element, distance));
+        }
+      }
+      return;
+    }
+    T vantage = element(begins[node]);
+    double distance = d.distanceTo(vantage);
+    if (distance <= r && (ignore == null || !ignore.test(vantage))) {
+      current.add(new DimensionalDistance<>(vantage, distance));
+    }
+
+    // Search each subtree whose elements might be in the radius
+    if (mightBeWithin(innerBound(node, distance), r)) {
+      withinRadius(node + 1, d, r, ignore, current);
+    }
+    if (mightBeWithin(outerBound(node, distance), r)) {
+      withinRadius(outers[node], d, r, ignore, current);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void inBox(Dimensional min, Dimensional max,
+    Consumer<? super T> visitor) {
+    checkDimensions(min);
+    checkDimensions(max);
+    for (int i = 0; i < elements.length; i++) {
+      T element = element(i);
+      if (KDLeaf.inBox(element, min, max)) {
+        visitor.accept(element);
+      }
+    }
+  }
+
+  /**
+   * @return string representation of this {@code VPTree}
+   */
+  @Override
+  public String toString() {
+    return String.format("VPTree with %d elements in %d nodes",
+      elements.length, outers.length);
+  }
+}
@@ -0,0 +1,157 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Routes many start/end pairs in parallel on a fork-join pool. Routes are
+ * found on a read-only snapshot of the road graph taken when the router is
+ * made, so traffic arriving during a batch doesn't change its results, and
+ * each worker thread searches with its own scratch space.
+ *
+ * <p>
+ * Routes are formatted from the graph's node and way IDs, so workers never
+ * touch the node and way caches, which aren't thread-safe.</p>
+ *
+ * @author aaronzhang
+ */
+public class BatchRouter {
+
+  /**
+   * Routes submitted but not yet written, per thread in the pool.
+   */
+  private static final int WINDOW_PER_THREAD = 4;
+
+  /**
+   * Snapshot of road graph.
+   */
+  private final RoadGraph roads;
+
+  /**
+   * Pool to route on.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Distance fail limit.
+   */
+  private final double failLimit;
+
+  /**
+   * Max number of vertices to check.
+   */
+  private final int maxVertices;
+
+  /**
+   * New batch router on a snapshot of the road graph.
+   *
+   * @param roads road graph
+   * @param pool pool to route on
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   */
+  public BatchRouter(RoadGraph roads, ForkJoinPool pool, double failLimit,
+    int maxVertices) {
+    this.roads = roads.snapshot();
+    this.pool = pool;
+    this.failLimit = failLimit;
+    this.maxVertices = maxVertices;
+  }
+
+  /**
+   * Submits a route to the pool.
+   *
+   * @param start start node id
+   * @param end end node id
+   * @return task whose result is the route formatted like the REPL's output
+   */
+  public ForkJoinTask<String> submit(String start, String end) {
+    return pool.submit(() -> route(start, end));
+  }
+
+  /**
+   * Finds a route and formats it like the REPL's output: one line per way,
+   * or a single line if there is no route.
+   *
+   * @param start start node id
+   * @param end end node id
+   * @return formatted route
+   */
+  public String route(String start, String end) {
+    int s = roads.indexOf(start);
+    int t = roads.indexOf(end);
+    OrderedPair<int[], Double> result = s == -1 || t == -1 ? null
+      : roads.route(s, t, failLimit, maxVertices);
+    if (result == null) {
+      return RouteFormat.noRoute(start, end);
+    }
+    CSRGraph graph = roads.getGraph();
+    int[] edges = result.first();
+    return RouteFormat.route(edges.length,
+      i -> graph.vertexId(graph.tail(edges[i])),
+      i -> graph.vertexId(graph.head(edges[i])),
+      i -> graph.edgeId(edges[i]), "\n");
+  }
+
+  /**
+   * Parses a line and routes it, on the pool.
+   *
+   * @param line line of input
+   * @param parser parses a line into start and end node ids
+   * @return task whose result is the formatted route, or an error
+   */
+  private ForkJoinTask<String> submit(String line,
+    Function<String, OrderedPair<String, String>> parser) {
+    return pool.submit(() -> {
+      OrderedPair<String, String> endpoints;
+      try {
+        endpoints = parser.apply(line);
+      } catch (IllegalArgumentException e) {
+        return "ERROR: " + e.getMessage();
+      }
+      return route(endpoints.first(), endpoints.second());
+    });
+  }
+
+  /**
+   * Routes every line of the input and prints the results in input order,
+   * while later lines are still being routed. Blank lines are skipped. Lines
+   * are parsed in the pool along with their routes, so parsing, such as
+   * snapping coordinates to nodes, runs in parallel too, and the parser must
+   * be safe to call from many threads at once. A parser that throws an
+   * {@link IllegalArgumentException} gets its message printed as an error for
+   * that line. At most a few routes per thread are waiting at a time, so the
+   * input can be any length.
+   *
+   * @param in input
+   * @param out output
+   * @param parser parses a line into start and end node ids
+   * @throws IOException if error reading input
+   */
+  public void routeAll(BufferedReader in, PrintStream out,
+    Function<String, OrderedPair<String, String>> parser) throws IOException {
+    int window = WINDOW_PER_THREAD * pool.getParallelism();
+    Deque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      pending.addLast(submit(line, parser));
+      if (pending.size() >= window) {
+        out.println(pending.removeFirst().join());
+      }
+    }
+    while (!pending.isEmpty()) {
+      out.println(pending.removeFirst().join());
+    }
+  }
+}
@@ -10,30 +10,36 @@ import java.util.Map;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import edu.brown.cs.azhang6.autocorrect.Autocorrect;
 import edu.brown.cs.azhang6.db.Database;
 import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
 import edu.brown.cs.azhang6.dimension.LatLng;
+import edu.brown.cs.azhang6.graph.CSRGraph;
 import edu.brown.cs.azhang6.graph.Edge;
 import edu.brown.cs.azhang6.graph.Vertex;
-import edu.brown.cs.azhang6.graphs.Graphs;
+import edu.brown.cs.azhang6.graphs.ContractionHierarchy;
 import edu.brown.cs.azhang6.graphs.Walk;
-import edu.brown.cs.azhang6.kdtree.KDNodeParallel;
-import edu.brown.cs.azhang6.kdtree.KDVertex;
+import edu.brown.cs.azhang6.kdtree.DynamicKDTree;
+import edu.brown.cs.azhang6.kdtree.FlatKDTree;
 import edu.brown.cs.azhang6.kdtree.LatLngKDTree;
+import edu.brown.cs.azhang6.kdtree.MappedKDTree;
 import edu.brown.cs.azhang6.pair.OrderedPair;
 import freemarker.template.Configuration;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -59,7 +65,9 @@ public class Main {
    * Usage message.
    */
   private static final String USAGE
-    = "Usage: ./run [--gui] [--traffic-port=port] database";
+    = "Usage: ./run [--gui | --batch=file] [--ch] [--crp] [--traffic-port=port]"
+    + " [--kernel=haversine|law_of_cosines|equirectangular|vincenty]"
+    + " database";
 
   /**
    * Command line arguments.
@@ -71,6 +79,26 @@ public class Main {
    */
   private Database db;
 
+  /**
+   * Path to database.
+   */
+  private String dbPath;
+
+  /**
+   * Whether to route with a contraction hierarchy.
+   */
+  private boolean useHierarchy = false;
+
+  /**
+   * Whether to route with a multilevel overlay.
+   */
+  private boolean useOverlay = false;
+
+  /**
+   * How distances to nodes and the lengths of ways are measured.
+   */
+  private DistanceKernel kernel = DistanceKernel.HAVERSINE;
+
   /**
    * Traffic client.
    */
@@ -92,19 +120,24 @@ public class Main {
   static final Gson GSON = new Gson();
 
   /**
-   * KD-tree.
+   * KD-tree. Nodes can be inserted and removed as the map is edited.
    */
-  private KDVertex<Node> nodes;
+  private LatLngKDTree<Node> nodes;
 
   /**
-   * Flag for an empty database of nodes.
+   * Road graph used for routing.
    */
-  private boolean empty = false;
+  private RoadGraph roads;
 
   /**
-   * KD-tree parallel level, for efficiency.
+   * Ways of the road graph by cell, for the ways shown on the map.
    */
-  static final int KD_TREE_PARALLEL_LEVEL = 3;
+  private WayCellIndex ways;
+
+  /**
+   * Flag for an empty database of nodes.
+   */
+  private boolean empty = false;
 
   /**
    * Used in REPL: if input has no quotes, it splits into this many pieces.
@@ -127,6 +160,21 @@ public class Main {
    */
   static final int DIJKSTRA_MAX_VERTICES = 5000;
 
+  /**
+   * Number of landmarks for the routing heuristic.
+   */
+  static final int LANDMARKS = 16;
+
+  /**
+   * Max number of nodes in a cell on each level of the routing overlay.
+   */
+  static final int[] OVERLAY_CELL_SIZES = {256, 4096, 65536};
+
+  /**
+   * Level of the cells ways are grouped by, about 5 by 10 km.
+   */
+  static final int WAY_CELL_LEVEL = 12;
+
   /**
    * Autocorrect.
    */
@@ -162,6 +210,12 @@ public class Main {
    */
   private double shortestPathLength = -1;
 
+  /**
+   * Guards the ways sent to the frontend and the shortest path shown, which
+   * the GUI handlers share.
+   */
+  private final Object shownLock = new Object();
+
   /**
    * Runs application with command line arguments.
    *
@@ -190,8 +244,14 @@ public class Main {
       = parser.nonOptions().ofType(String.class);
     parser.accepts("help", "display help message");
     parser.accepts("gui", "run spark server");
+    parser.accepts("batch", "route every line of a file in parallel")
+      .withRequiredArg().ofType(String.class);
+    parser.accepts("ch", "route with a contraction hierarchy");
+    parser.accepts("crp", "route with an overlay that follows traffic");
     parser.accepts("traffic-port", "traffic server port")
       .withRequiredArg().ofType(int.class);
+    parser.accepts("kernel", "how distances are measured, default haversine")
+      .withRequiredArg().ofType(String.class);
 
     try {
       // Parse options
@@ -207,7 +267,21 @@ public class Main {
         System.exit(0);
       }
 
+      useHierarchy = options.has("ch");
+      useOverlay = options.has("crp");
+      if (options.has("kernel")) {
+        String name = (String) options.valueOf("kernel");
+        try {
+          kernel = DistanceKernel.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+          System.out.println("ERROR: unknown distance kernel: " + name);
+          System.out.println(USAGE);
+          System.exit(1);
+        }
+      }
+
       // Build database
+      dbPath = dbString;
       try {
         db = new Database(dbString);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -220,7 +294,7 @@ public class Main {
           }
         }));
         // Make sure node and way proxies use the database
-        NodeProxy.setDB(db);
+        NodeProxy.setDB(db, kernel);
         WayProxy.setDB(db);
       } catch (ClassNotFoundException | SQLException e) {
         System.out.println("ERROR: couldn't load database");
@@ -240,6 +314,8 @@ public class Main {
       // Whether to run GUI or REPL
       if (options.has("gui")) {
         runSparkServer();
+      } else if (options.has("batch")) {
+        runBatch((String) options.valueOf("batch"));
       } else {
         runREPL();
       }
@@ -251,34 +327,89 @@ public class Main {
   }
 
   /**
-   * Sets up kd-tree.
+   * Sets up kd-tree. Maps the tree saved next to the database, or builds it
+   * from the nodes and saves it if there isn't one for this version of the
+   * database. Changes go in trees on top of it.
    */
   private void setupKDTree() {
+    File index = new File(dbPath + ".kd");
+    long print = MappedKDTree.fingerprint(new File(dbPath));
+    MappedKDTree<Node> base;
+    try {
+      base = MappedKDTree.open(index, print, Node::getId,
+        (id, c) -> NodeProxy.at(id, c[0], c[1]));
+    } catch (IOException e) {
+      base = buildKDTree(index, print);
+    }
+    empty = base.size() == 0;
+    nodes = new LatLngKDTree<>(
+      new DynamicKDTree<>(base, ForkJoinPool.commonPool()), kernel);
+  }
+
+  /**
+   * Builds the kd-tree of nodes, saves it, and maps it. If it can't be saved,
+   * it is mapped from a temporary file instead.
+   *
+   * @param index file to save to
+   * @param print fingerprint of database
+   * @return mapped tree
+   */
+  private MappedKDTree<Node> buildKDTree(File index, long print) {
     Connection conn = db.getConnection();
     try (PreparedStatement prep = conn.prepareStatement(
-      "SELECT id FROM node;")) {
+      "SELECT id, latitude, longitude FROM node;")) {
       List<Node> nodesToAdd = new ArrayList<>();
       db.query(prep, rs -> {
         try {
           while (rs.next()) {
-            nodesToAdd.add(Node.of(rs.getString(1)));
+            nodesToAdd.add(NodeProxy.at(
+              rs.getString(1), rs.getDouble(2), rs.getDouble(3)));
           }
         } catch (SQLException e) {
           throw new RuntimeException(e);
         }
       });
-      if (nodesToAdd.isEmpty()) {
-        empty = true;
+      FlatKDTree<Node> tree
+        = new FlatKDTree<>(nodesToAdd, ForkJoinPool.commonPool());
+      File saved = index;
+      try {
+        MappedKDTree.save(tree, Node::getId, print, saved);
+      } catch (IOException e) {
+        System.err.println("ERROR: couldn't save kd-tree index: " + e);
+        saved = File.createTempFile("nodes", ".kd");
+        saved.deleteOnExit();
+        MappedKDTree.save(tree, Node::getId, print, saved);
       }
-      nodes = new LatLngKDTree<>(
-        new KDNodeParallel<>(nodesToAdd, 0, KD_TREE_PARALLEL_LEVEL));
-    } catch (SQLException e) {
+      return MappedKDTree.open(saved, print, Node::getId,
+        (id, c) -> NodeProxy.at(id, c[0], c[1]));
+    } catch (SQLException | IOException e) {
       throw new RuntimeException(e);
     } finally {
       db.returnConnection(conn);
     }
   }
 
+  /**
+   * Sets up road graph with landmarks for the routing heuristic, and keeps its
+   * traffic updated. With the contraction hierarchy flag, also loads the
+   * hierarchy saved next to the database, or builds and saves it if there isn't
+   * one for this database. With the overlay flag, partitions the graph and
+   * customizes the overlay. Also groups the ways by cell.
+   */
+  private void setupRoadGraph() {
+    roads = RoadGraph.load(db, kernel);
+    ways = new WayCellIndex(roads, WAY_CELL_LEVEL);
+    roads.useLandmarks(LANDMARKS);
+    traffic.setRoadGraph(roads);
+    if (useHierarchy) {
+      roads.setHierarchy(ContractionHierarchy.loadOrBuild(
+        new File(dbPath + ".ch"), roads.getGraph()));
+    }
+    if (useOverlay) {
+      roads.useOverlay(OVERLAY_CELL_SIZES);
+    }
+  }
+
   /**
    * Sets up trie.
    */
@@ -301,6 +432,7 @@ public class Main {
   private void runREPL() {
     // Make sure database of nodes isn't empty
     setupKDTree();
+    setupRoadGraph();
     System.out.println("READY");
     if (empty) {
       System.out.println("ERROR: empty database of nodes");
@@ -310,82 +442,26 @@ public class Main {
     try (BufferedReader reader = new BufferedReader(new InputStreamReader(
       System.in, "UTF-8"))) {
       String line;
-      replLoop:
       while ((line = reader.readLine()) != null) {
         // End if given empty line
         if (line.isEmpty()) {
           break;
         }
 
-        // Else, split line into pieces
-        boolean hasQuotes = line.contains("\"");
-        List<String> piecesQuotes = null;
-        List<Double> piecesSpaces = null;
-        if (hasQuotes) {
-          // Split on quotes to get streets
-          String[] splitByQuotes = line.split("\"");
-          if (splitByQuotes.length != PIECES_QUOTES) {
-            System.out.println(
-              "ERROR: wrong number of quotes");
-            continue;
-          }
-          piecesQuotes = new ArrayList<>();
-          for (int i = 1; i < splitByQuotes.length; i += 2) {
-            piecesQuotes.add(splitByQuotes[i]);
-          }
-        } else {
-          // Split on spaces to get coordinates
-          String[] splitBySpaces = line.split(" ");
-          if (splitBySpaces.length != PIECES_NO_QUOTES) {
-            System.out.println(
-              "ERROR: wrong number of spaces");
-            continue;
-          }
-          piecesSpaces = new ArrayList<>();
-          for (int i = 0; i < splitBySpaces.length; i++) {
-            try {
-              piecesSpaces.add(Double.parseDouble(splitBySpaces[i]));
-            } catch (NumberFormatException e) {
-              System.out.println(
-                "ERROR: can't parse coordinates");
-              continue replLoop;
-            }
-          }
-        }
-
         // Get start and end nodes
-        Node start;
-        Node end;
-        if (hasQuotes) {
-          start = NodeProxy.atIntersection(
-            piecesQuotes.get(0), piecesQuotes.get(1));
-          if (start == null) {
-            System.out.println("ERROR: first two streets don't intersect");
-            continue;
-          }
-          end = NodeProxy.atIntersection(
-            piecesQuotes.get(2), piecesQuotes.get(3));
-          if (end == null) {
-            System.out.println("ERROR: last two streets don't intersect");
-            continue;
-          }
-        } else {
-          start = nodes.nearestNeighbors(
-            new LatLng(piecesSpaces.get(0), piecesSpaces.get(1)),
-            1, null).get(0).getDimensional();
-          end = nodes.nearestNeighbors(
-            new LatLng(piecesSpaces.get(2), piecesSpaces.get(3)),
-            1, null).get(0).getDimensional();
+        OrderedPair<Node, Node> endpoints;
+        try {
+          endpoints = parseEndpoints(line);
+        } catch (IllegalArgumentException e) {
+          System.out.println("ERROR: " + e.getMessage());
+          continue;
         }
+        Node start = endpoints.first();
+        Node end = endpoints.second();
 
         // Find and print shortest path
-        if (start.equals(end)) {
-          System.out.println("ERROR: start and end nodes are the same");
-          continue;
-        }
         OrderedPair<Walk<Node, Way>, Double> shortestPath
-          = Graphs.dijkstraAStarFail(start, n -> n.equals(end),
-            n -> n.tunnelDistanceTo(end),
+          = roads.shortestPath(start, end,
             DIJKSTRA_FAIL, DIJKSTRA_MAX_VERTICES);
         System.out.println(
           formatOutput(shortestPath, "\n", start.getId(), end.getId()));
@@ -395,6 +471,151 @@ public class Main {
     }
   }
 
+  /**
+   * Routes every line of a file in parallel, and prints the routes in the
+   * same format as the REPL, in the same order as the file.
+   *
+   * @param file file with one REPL command per line
+   */
+  private void runBatch(String file) {
+    setupKDTree();
+    setupRoadGraph();
+    if (empty) {
+      System.out.println("ERROR: empty database of nodes");
+      return;
+    }
+    ForkJoinPool pool = new ForkJoinPool();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(file), "UTF-8"))) {
+      new BatchRouter(roads, pool, DIJKSTRA_FAIL, DIJKSTRA_MAX_VERTICES)
+        .routeAll(reader, System.out, line -> {
+          OrderedPair<Node, Node> endpoints;
+          if (line.contains("\"")) {
+            // Street names go through the node and way caches, which aren't
+            // thread-safe; coordinates only read the k-d tree
+            synchronized (this) {
+              endpoints = parseEndpoints(line);
+            }
+          } else {
+            endpoints = parseEndpoints(line);
+          }
+          return new OrderedPair<>(
+            endpoints.first().getId(), endpoints.second().getId());
+        });
+    } catch (IOException e) {
+      System.out.println("ERROR: error reading batch file");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Parses a REPL command into start and end nodes. The command is either
+   * four coordinates separated by spaces, where each node is the nearest to a
+   * latitude and longitude, or four quoted street names, where each node is
+   * at the intersection of two streets.
+   *
+   * @param line command
+   * @return start and end nodes
+   * @throws IllegalArgumentException if command can't be parsed, or doesn't
+   * give two different nodes
+   */
+  private OrderedPair<Node, Node> parseEndpoints(String line) {
+    Node start;
+    Node end;
+    if (line.contains("\"")) {
+      // Split on quotes to get streets
+      String[] splitByQuotes = line.split("\"");
+      if (splitByQuotes.length != PIECES_QUOTES) {
+        throw new IllegalArgumentException("wrong number of quotes");
+      }
+      List<String> piecesQuotes = new ArrayList<>();
+      for (int i = 1; i < splitByQuotes.length; i += 2) {
+        piecesQuotes.add(splitByQuotes[i]);
+      }
+      start = NodeProxy.atIntersection(
+        piecesQuotes.get(0), piecesQuotes.get(1));
+      if (start == null) {
+        throw new IllegalArgumentException(
+          "first two streets don't intersect");
+      }
+      end = NodeProxy.atIntersection(
+        piecesQuotes.get(2), piecesQuotes.get(3));
+      if (end == null) {
+        throw new IllegalArgumentException(
+          "last two streets don't intersect");
+      }
+    } else {
+      // Split on spaces to get coordinates
+      String[] splitBySpaces = line.split(" ");
+      if (splitBySpaces.length != PIECES_NO_QUOTES) {
+        throw new IllegalArgumentException("wrong number of spaces");
+      }
+      List<Double> piecesSpaces = new ArrayList<>();
+      for (int i = 0; i < splitBySpaces.length; i++) {
+        try {
+          piecesSpaces.add(Double.parseDouble(splitBySpaces[i]));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("can't parse coordinates");
+        }
+      }
+      start = nearestNode(piecesSpaces.get(0), piecesSpaces.get(1));
+      end = nearestNode(piecesSpaces.get(2), piecesSpaces.get(3));
+    }
+    if (start.equals(end)) {
+      throw new IllegalArgumentException("start and end nodes are the same");
+    }
+    return new OrderedPair<>(start, end);
+  }
+
+  /**
+   * Snaps a point to the nearest node.
+   *
+   * @param lat latitude
+   * @param lng longitude
+   * @return nearest node
+   */
+  private Node nearestNode(double lat, double lng) {
+    return nodes.nearestNeighbors(new LatLng(lat, lng), 1, null)
+      .get(0).getDimensional();
+  }
+
+  /**
+   * Parses points given as a JSON array of [latitude, longitude] pairs and
+   * snaps each to the nearest node.
+   *
+   * @param json JSON array of points
+   * @return vertex index of nearest node to each point
+   * @throws IllegalArgumentException if points can't be parsed
+   */
+  private int[] snapPoints(String json) {
+    double[][] points;
+    try {
+      points = GSON.fromJson(json, double[][].class);
+    } catch (JsonSyntaxException e) {
+      throw new IllegalArgumentException("can't parse points");
+    }
+    if (points == null) {
+      throw new IllegalArgumentException("no points");
+    }
+    double[] lats = new double[points.length];
+    double[] lngs = new double[points.length];
+    for (int i = 0; i < points.length; i++) {
+      if (points[i] == null || points[i].length != 2) {
+        throw new IllegalArgumentException("point needs lat and lng");
+      }
+      lats[i] = points[i][0];
+      lngs[i] = points[i][1];
+    }
+    Node[] nearest = new Node[points.length];
+    nodes.snap(lats, lngs, null, nearest, ForkJoinPool.commonPool());
+    int[] vertices = new int[points.length];
+    for (int i = 0; i < points.length; i++) {
+      vertices[i] = roads.indexOf(nearest[i].getId());
+    }
+    return vertices;
+  }
+
   /**
    * Formats output of Dijkstra's algorithm with the specified line separator.
    *
@@ -405,32 +626,17 @@ public class Main {
    */
   private String formatOutput(OrderedPair<Walk<Node, Way>, Double> result,
     String lineSeparator, String start, String end) {
-    StringBuilder sb = new StringBuilder();
-
-    // If there is a path, format it
-    if (result != null) {
-      Walk<Node, Way> walk = result.first();
-      List<Vertex<Node, Way>> walkVertices = walk.getVertices();
-      List<Edge<Node, Way>> walkEdges = walk.getEdges();
-      for (int i = 0; i < walkEdges.size(); i++) {
-        Edge<Node, Way> edge = walkEdges.get(i);
-        Vertex<Node, Way> tail = walkVertices.get(i);
-        Vertex<Node, Way> head = walkVertices.get(i + 1);
-        sb.append(String.format("%s -> %s : %s",
-          tail.getValue().get().getId(),
-          head.getValue().get().getId(),
-          edge.getValue().get().getId()));
-        // Don't append the line separator after the last line
-        if (i < walkEdges.size() - 1) {
-          sb.append(lineSeparator);
-        }
-      }
-    } else {
-      // If there isn't a path
-      sb.append(String.format("%s -/- %s", start, end));
+    // If there isn't a path
+    if (result == null) {
+      return RouteFormat.noRoute(start, end);
     }
-
-    return sb.toString();
+    Walk<Node, Way> walk = result.first();
+    List<Vertex<Node, Way>> walkVertices = walk.getVertices();
+    List<Edge<Node, Way>> walkEdges = walk.getEdges();
+    return RouteFormat.route(walkEdges.size(),
+      i -> walkVertices.get(i).getValue().get().getId(),
+      i -> walkVertices.get(i + 1).getValue().get().getId(),
+      i -> walkEdges.get(i).getValue().get().getId(), lineSeparator);
   }
 
   /**
@@ -445,12 +651,17 @@ public class Main {
       setupAutocorrect();
     });
     autoThread.start();
+    Thread roadThread = new Thread(() -> {
+      setupRoadGraph();
+    });
+    roadThread.start();
     try {
       kdThread.join();
       autoThread.join();
+      roadThread.join();
     } catch (InterruptedException e) {
       throw new RuntimeException(
-        "interrupted while setting up kdtree and autocorrect", e);
+        "interrupted while setting up kdtree, autocorrect, and roads", e);
     }
 
     // Setup Spark
@@ -471,6 +682,10 @@ public class Main {
     Spark.post("/findIntersection", new FindIntersectionHandler());
     // Autocorrect (Streetcorrect)
     Spark.post("/auto", new AutocorrectHandler());
+    // Distance matrix
+    Spark.post("/matrix", new MatrixHandler());
+    // Everything within a travel budget
+    Spark.post("/isochrone", new IsochroneHandler());
   }
 
   /**
@@ -487,12 +702,14 @@ public class Main {
      */
     @Override
     public ModelAndView handle(Request req, Response res) {
-      sentWays.clear();
-      oldEdges.clear();
-      newEdges.clear();
-      newCoords.clear();
-      pathEdges.clear();
-      shortestPathLength = -1;
+      synchronized (shownLock) {
+        sentWays.clear();
+        oldEdges.clear();
+        newEdges.clear();
+        newCoords.clear();
+        pathEdges.clear();
+        shortestPathLength = -1;
+      }
       return new ModelAndView(ImmutableMap.of(), "maps.ftl");
     }
   }
@@ -541,44 +758,46 @@ public class Main {
      * @return shortest path
      */
     @Override
-    public synchronized Object handle(final Request req, final Response res) {
+    public Object handle(final Request req, final Response res) {
       // Find shortest path
       QueryParamsMap qm = req.queryMap();
       String startId = qm.value("start_id");
       String endId = qm.value("finish_id");
-      Node startNode = Node.of(startId);
-      Node endNode = Node.of(endId);
-      OrderedPair<Walk<Node, Way>, Double> shortestPath;
-      synchronized (traffic) {
-        shortestPath = Graphs.dijkstraAStarFail(
-          startNode, n -> endNode.equals(n),
-          n -> n.tunnelDistanceTo(endNode),
-          DIJKSTRA_FAIL, DIJKSTRA_MAX_VERTICES);
-      }
-      if (shortestPath != null) {
-        // Send information about shortest path
-        List<Edge<Node, Way>> edges = shortestPath.first().getEdges();
-        pathEdges.clear();
-        edges.forEach(e -> pathEdges.put(e.getValue().get().getId(), true));
-        oldEdges.addAll(newEdges);
-        newEdges.clear();
-        newCoords.clear();
-        shortestPathLength = shortestPath.second();
-      } else {
-        oldEdges.addAll(newEdges);
-        newEdges.clear();
-        newCoords.clear();
-        pathEdges.clear();
-        shortestPathLength = -1;
+      int s = roads.indexOf(startId);
+      int t = roads.indexOf(endId);
+      // Searches pin their own version of the traffic, so routes run
+      // concurrently without a lock
+      OrderedPair<int[], Double> shortestPath = s == -1 || t == -1 ? null
+        : roads.route(s, t, DIJKSTRA_FAIL, DIJKSTRA_MAX_VERTICES);
+      // Only showing the path needs the lock
+      synchronized (shownLock) {
+        if (shortestPath != null) {
+          // Send information about shortest path
+          CSRGraph graph = roads.getGraph();
+          pathEdges.clear();
+          for (int e : shortestPath.first()) {
+            pathEdges.put(graph.edgeId(e), true);
+          }
+          oldEdges.addAll(newEdges);
+          newEdges.clear();
+          newCoords.clear();
+          shortestPathLength = shortestPath.second();
+        } else {
+          oldEdges.addAll(newEdges);
+          newEdges.clear();
+          newCoords.clear();
+          pathEdges.clear();
+          shortestPathLength = -1;
+        }
+        Map<String, Object> variables = ImmutableMap.of(
+          "oldEdges", oldEdges,
+          "newEdges", newEdges,
+          "newCoords", newCoords,
+          "pathEdges", pathEdges,
+          "length", shortestPathLength
+        );
+        return GSON.toJson(variables);
       }
-      Map<String, Object> variables = ImmutableMap.of(
-        "oldEdges", oldEdges,
-        "newEdges", newEdges,
-        "newCoords", newCoords,
-        "pathEdges", pathEdges,
-        "length", shortestPathLength
-      );
-      return GSON.toJson(variables);
     }
   }
 
@@ -595,44 +814,117 @@ public class Main {
      * @return shortest path
      */
     @Override
-    public synchronized Object handle(final Request req, final Response res) {
+    public Object handle(final Request req, final Response res) {
       QueryParamsMap qm = req.queryMap();
       double latitude = Double.parseDouble(qm.value("lat"));
       double longitude = Double.parseDouble(qm.value("lon"));
       double size = Double.parseDouble(qm.value("s"));
       // Get all edges that should be displayed
       LatLngSize box = new LatLngSize(latitude, longitude, size);
-      List<DimensionalDistance<Node>> withinRadius
-        = nodes.withinRadius(new LatLng(latitude, longitude), box.radius, null);
-      List<Node> displayedNodes = withinRadius.stream()
-        .map(dd -> dd.getDimensional())
-        .filter(ll -> box.contains(ll)).collect(Collectors.toList());
-      List<Edge<Node, Way>> edges = new ArrayList<>();
-      displayedNodes.forEach(n -> edges.addAll(n.getDWEdges()));
       // Send information about edges
-      oldEdges.clear();
-      newEdges.clear();
-      newCoords.clear();
-      for (int i = 0; i < edges.size(); i++) {
-        Way e = edges.get(i).getValue().get();
-        if (sentWays.contains(e.getId())) {
-          oldEdges.add(new Object[]{e.getId(), e.getTraffic()});
-        } else {
-          newEdges.add(new Object[]{e.getId(), e.getTraffic()});
-          Node v1 = edges.get(i).getEndpoints().s().getValue().get();
-          Node v2 = edges.get(i).getEndpoints().t().getValue().get();
-          newCoords.add(new double[]{
-            v1.getLat(), v1.getLng(), v2.getLat(), v2.getLng()});
-          sentWays.add(e.getId());
+      synchronized (shownLock) {
+        oldEdges.clear();
+        newEdges.clear();
+        newCoords.clear();
+        CSRGraph graph = roads.getGraph();
+        ways.inBox(box.minLat, box.minLng, box.maxLat, box.maxLng, e -> {
+          String id = graph.edgeId(e);
+          if (sentWays.contains(id)) {
+            oldEdges.add(new Object[]{id, graph.getTraffic(e)});
+          } else {
+            newEdges.add(new Object[]{id, graph.getTraffic(e)});
+            int tail = graph.tail(e);
+            int head = graph.head(e);
+            newCoords.add(new double[]{roads.getLat(tail),
+              roads.getLng(tail), roads.getLat(head), roads.getLng(head)});
+            sentWays.add(id);
+          }
+        });
+        Map<String, Object> variables = ImmutableMap.of(
+          "oldEdges", oldEdges,
+          "newEdges", newEdges,
+          "newCoords", newCoords,
+          "pathEdges", pathEdges,
+          "length", shortestPathLength
+        );
+        return GSON.toJson(variables);
+      }
+    }
+  }
+
+  /**
+   * Handler for /matrix.
+   */
+  private class MatrixHandler implements Route {
+
+    /**
+     * Gets distances between points, each snapped to its nearest node.
+     *
+     * @param req request containing sources, and optionally targets, as JSON
+     * arrays of [latitude, longitude]; targets default to the sources
+     * @param res unused
+     * @return nearest node IDs and distance matrix, with -1 for no path
+     */
+    @Override
+    public Object handle(final Request req, final Response res) {
+      QueryParamsMap qm = req.queryMap();
+      int[] sources = snapPoints(qm.value("sources"));
+      String targetsJson = qm.value("targets");
+      int[] targets = targetsJson == null ? sources : snapPoints(targetsJson);
+      double[][] matrix = roads.distanceMatrix(sources, targets);
+      for (double[] row : matrix) {
+        for (int j = 0; j < row.length; j++) {
+          if (row[j] == Double.POSITIVE_INFINITY) {
+            row[j] = -1;
+          }
         }
       }
+      CSRGraph graph = roads.getGraph();
+      String[] sourceIds = new String[sources.length];
+      for (int i = 0; i < sources.length; i++) {
+        sourceIds[i] = graph.vertexId(sources[i]);
+      }
+      String[] targetIds = new String[targets.length];
+      for (int j = 0; j < targets.length; j++) {
+        targetIds[j] = graph.vertexId(targets[j]);
+      }
+      Map<String, Object> variables = ImmutableMap.of(
+        "sources", sourceIds,
+        "targets", targetIds,
+        "matrix", matrix);
+      return GSON.toJson(variables);
+    }
+  }
+
+  /**
+   * Handler for /isochrone.
+   */
+  private class IsochroneHandler implements Route {
+
+    /**
+     * Gets the ways that can be driven within a budget from a point, snapped
+     * to its nearest node, with the current traffic.
+     *
+     * @param req request containing latitude, longitude, and budget
+     * @param res unused
+     * @return nearest node ID and IDs of ways within budget
+     */
+    @Override
+    public Object handle(final Request req, final Response res) {
+      QueryParamsMap qm = req.queryMap();
+      double latitude = Double.parseDouble(qm.value("lat"));
+      double longitude = Double.parseDouble(qm.value("lon"));
+      double budget = Double.parseDouble(qm.value("budget"));
+      Node start = nearestNode(latitude, longitude);
+      int[] edges = roads.isochrone(roads.indexOf(start.getId()), budget);
+      CSRGraph graph = roads.getGraph();
+      String[] wayIds = new String[edges.length];
+      for (int i = 0; i < edges.length; i++) {
+        wayIds[i] = graph.edgeId(edges[i]);
+      }
       Map<String, Object> variables = ImmutableMap.of(
-        "oldEdges", oldEdges,
-        "newEdges", newEdges,
-        "newCoords", newCoords,
-        "pathEdges", pathEdges,
-        "length", shortestPathLength
-      );
+        "id", start.getId(),
+        "ways", wayIds);
       return GSON.toJson(variables);
     }
   }
@@ -681,7 +973,6 @@ public class Main {
     private final double lngSize;
     private final double minLng;
     private final double maxLng;
-    private final double radius;
 
     /**
      * Calculates info given latitude, longitude, and size.
@@ -702,51 +993,6 @@ public class Main {
       // Min and max longitude shown
       minLng = lng - lngSize / 2;
       maxLng = lng + lngSize / 2;
-      // Approximate radius
-      radius = Math.max(
-        new LatLng(lat, lng).distanceTo(new LatLng(minLat, minLng)),
-        new LatLng(lat, lng).distanceTo(new LatLng(maxLat, maxLng)));
-    }
-
-    /**
-     * Whether point is contained in this region.
-     *
-     * @param point LatLng
-     * @return whether point is contained in this region
-     */
-    private boolean contains(LatLng point) {
-      return containsHelper(point) || containsHelper(wrapped(point));
-    }
-
-    /**
-     * Helper for above method.
-     *
-     * @param point LatLng
-     * @return whether point is contained in this region
-     */
-    private boolean containsHelper(LatLng point) {
-      return point.getLat() >= minLat
-        && point.getLat() <= maxLat
-        && point.getLng() >= minLng
-        && point.getLng() <= maxLng;
-    }
-
-    /**
-     * Returns a LatLng equivalent to the original LatLng, but with longitude
-     * wrapped. So if the original has longitude 160, the result has longitude
-     * -200.
-     *
-     * @param original original LatLng
-     * @return wrapped LatLng
-     */
-    private static LatLng wrapped(LatLng original) {
-      double originalLng = original.getLng();
-      if (originalLng > 0) {
-        return (LatLng) original.withCoordinate(1, originalLng - 360);
-      } else if (originalLng < 0) {
-        return (LatLng) original.withCoordinate(1, originalLng + 360);
-      }
-      return original;
     }
   }
 
@@ -763,20 +1009,22 @@ public class Main {
      * @return shown edges
      */
     @Override
-    public synchronized Object handle(final Request req, final Response res) {
-      pathEdges.clear();
-      oldEdges.addAll(newEdges);
-      newEdges.clear();
-      newCoords.clear();
-      shortestPathLength = -1;
-      Map<String, Object> variables = ImmutableMap.of(
-        "oldEdges", oldEdges,
-        "newEdges", newEdges,
-        "newCoords", newCoords,
-        "pathEdges", pathEdges,
-        "length", shortestPathLength
-      );
-      return GSON.toJson(variables);
+    public Object handle(final Request req, final Response res) {
+      synchronized (shownLock) {
+        pathEdges.clear();
+        oldEdges.addAll(newEdges);
+        newEdges.clear();
+        newCoords.clear();
+        shortestPathLength = -1;
+        Map<String, Object> variables = ImmutableMap.of(
+          "oldEdges", oldEdges,
+          "newEdges", newEdges,
+          "newCoords", newCoords,
+          "pathEdges", pathEdges,
+          "length", shortestPathLength
+        );
+        return GSON.toJson(variables);
+      }
     }
   }
 
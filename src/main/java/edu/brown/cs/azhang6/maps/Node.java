@@ -1,5 +1,6 @@
 package edu.brown.cs.azhang6.maps;
 
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
 import edu.brown.cs.azhang6.dimension.LatLng;
 import edu.brown.cs.azhang6.graph.DWEdge;
 import edu.brown.cs.azhang6.graph.DWVertex;
@@ -46,7 +47,22 @@ public class Node extends LatLng implements DWVertex<Node, Way> {
    */
   public Node(String id, double latitude, double longitude,
     List<? extends DWEdge<Node, Way>> edges) {
-    super(latitude, longitude);
+    this(id, latitude, longitude, edges, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * New node with given ID, latitude, longitude, and edges, measuring
+   * distances from it with the given kernel.
+   *
+   * @param id id
+   * @param latitude latitude
+   * @param longitude longitude
+   * @param edges edges
+   * @param kernel how distances from this node are measured
+   */
+  public Node(String id, double latitude, double longitude,
+    List<? extends DWEdge<Node, Way>> edges, DistanceKernel kernel) {
+    super(latitude, longitude, kernel);
     this.id = id;
     if (edges != null) {
       this.edges = new ArrayList<>(edges);
@@ -1,6 +1,7 @@
 package edu.brown.cs.azhang6.maps;
 
 import edu.brown.cs.azhang6.db.Database;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
 import edu.brown.cs.azhang6.graph.DWEdge;
 import edu.brown.cs.azhang6.graph.MutableDWEdge;
 import java.sql.Connection;
@@ -24,6 +25,11 @@ public class NodeProxy extends Node {
    */
   private static Database db;
 
+  /**
+   * How distances from nodes in the database are measured.
+   */
+  private static DistanceKernel kernel = DistanceKernel.HAVERSINE;
+
   /**
    * Internal node.
    */
@@ -45,10 +51,26 @@ public class NodeProxy extends Node {
    * @param latLng latitude and longitude
    */
   private NodeProxy(String id, double[] latLng) {
-    super(id, latLng[0], latLng[1]);
+    super(id, latLng[0], latLng[1], null, kernel);
     Node.cache(this);
   }
 
+  /**
+   * Gets the node with an ID, making a proxy at the given latitude and
+   * longitude if there isn't one yet, so the database isn't queried for them.
+   *
+   * @param id ID
+   * @param lat latitude
+   * @param lng longitude
+   * @return node
+   */
+  public static Node at(String id, double lat, double lng) {
+    if (Node.has(id)) {
+      return Node.of(id);
+    }
+    return new NodeProxy(id, new double[]{lat, lng});
+  }
+
   /**
    * Looks up latitude and longitude for ID.
    *
@@ -137,7 +159,21 @@ public class NodeProxy extends Node {
    * @param db database
    */
   public static void setDB(Database db) {
+    setDB(db, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * Uses the provided database for node information, measuring distances
+   * from its nodes, and so the lengths of its ways, with the given kernel.
+   * Pass the same kernel to {@link RoadGraph#load(Database, DistanceKernel)}
+   * so that ways and the road graph agree on lengths.
+   *
+   * @param db database
+   * @param kernel how distances from nodes are measured
+   */
+  public static void setDB(Database db, DistanceKernel kernel) {
     NodeProxy.db = db;
+    NodeProxy.kernel = kernel;
   }
 
   /**
@@ -0,0 +1,623 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.db.Database;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
+import edu.brown.cs.azhang6.dimension.LatLng;
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.graph.MutableDWEdge;
+import edu.brown.cs.azhang6.graphs.ContractionHierarchy;
+import edu.brown.cs.azhang6.graphs.Graphs;
+import edu.brown.cs.azhang6.graphs.Landmarks;
+import edu.brown.cs.azhang6.graphs.Overlay;
+import edu.brown.cs.azhang6.graphs.Partition;
+import edu.brown.cs.azhang6.graphs.Walk;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * The whole road network held in memory as a {@link CSRGraph}. Nodes are the
+ * vertices and ways are the edges. Loaded from the database once, so routing
+ * needs no database queries and creates {@link Node} and {@link Way} objects
+ * only for the nodes and ways on the resulting path.
+ *
+ * @author aaronzhang
+ */
+public class RoadGraph {
+
+  /**
+   * Graph of nodes and ways.
+   */
+  private final CSRGraph graph;
+
+  /**
+   * Latitude of each vertex.
+   */
+  private final double[] lats;
+
+  /**
+   * Longitude of each vertex.
+   */
+  private final double[] lngs;
+
+  /**
+   * xyz-coordinates of each vertex, three per vertex. Used for tunnel
+   * distance, which is part of the A* heuristic.
+   */
+  private final double[] xyz;
+
+  /**
+   * How the lengths of ways are measured.
+   */
+  private final DistanceKernel kernel;
+
+  /**
+   * How the A* heuristic measures distance, or null for tunnel distance.
+   */
+  private volatile DistanceKernel heuristicKernel;
+
+  /**
+   * Landmarks for the A* heuristic, or null to use tunnel distance alone.
+   */
+  private volatile Landmarks landmarks;
+
+  /**
+   * Contraction hierarchy used for routing, or null to route with A*.
+   */
+  private volatile ContractionHierarchy hierarchy;
+
+  /**
+   * Multilevel overlay used for routing, or null if none.
+   */
+  private volatile Overlay overlay;
+
+  /**
+   * New road graph with the given graph and vertex positions, whose way
+   * lengths are great-circle distances.
+   *
+   * @param graph graph
+   * @param lats latitude of each vertex
+   * @param lngs longitude of each vertex
+   */
+  RoadGraph(CSRGraph graph, double[] lats, double[] lngs) {
+    this(graph, lats, lngs, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * New road graph with the given graph and vertex positions.
+   *
+   * @param graph graph
+   * @param lats latitude of each vertex
+   * @param lngs longitude of each vertex
+   * @param kernel how the lengths of ways were measured
+   */
+  RoadGraph(CSRGraph graph, double[] lats, double[] lngs,
+    DistanceKernel kernel) {
+    this.graph = graph;
+    this.kernel = kernel;
+    this.lats = lats;
+    this.lngs = lngs;
+    this.xyz = new double[3 * lats.length];
+    for (int v = 0; v < lats.length; v++) {
+      double[] vXYZ = new LatLng(lats[v], lngs[v]).getXYZ();
+      System.arraycopy(vXYZ, 0, xyz, 3 * v, 3);
+    }
+  }
+
+  /**
+   * Snapshot of a road graph, sharing everything but the graph's traffic.
+   *
+   * @param other road graph
+   */
+  private RoadGraph(RoadGraph other) {
+    this.graph = other.graph.snapshot();
+    this.lats = other.lats;
+    this.lngs = other.lngs;
+    this.xyz = other.xyz;
+    this.kernel = other.kernel;
+    this.heuristicKernel = other.heuristicKernel;
+    this.landmarks = other.landmarks;
+    this.hierarchy = other.hierarchy;
+  }
+
+  /**
+   * Loads every node and way from the database, with great-circle distances
+   * for the lengths of ways.
+   *
+   * @param db database
+   * @return road graph
+   */
+  public static RoadGraph load(Database db) {
+    return load(db, DistanceKernel.HAVERSINE);
+  }
+
+  /**
+   * Loads every node and way from the database. Ways whose start or end node
+   * isn't in the database are skipped. Ways already in the cache keep their
+   * traffic. The kernel should be the one given to
+   * {@link NodeProxy#setDB(Database, DistanceKernel)}, so that the graph and
+   * {@link Way#getDistance()} agree on lengths.
+   *
+   * @param db database
+   * @param kernel how the lengths of ways are measured
+   * @return road graph
+   */
+  public static RoadGraph load(Database db, DistanceKernel kernel) {
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    Connection conn = db.getConnection();
+    try {
+      // Read every node
+      double[][] latLngs = new double[2][];
+      try (PreparedStatement prep = conn.prepareStatement(
+        "SELECT id, latitude, longitude FROM node;")) {
+        db.query(prep, rs -> {
+          try {
+            double[] lats = new double[16];
+            double[] lngs = new double[16];
+            int count = 0;
+            while (rs.next()) {
+              if (count == lats.length) {
+                lats = Arrays.copyOf(lats, 2 * count);
+                lngs = Arrays.copyOf(lngs, 2 * count);
+              }
+              builder.addVertex(rs.getString(1));
+              lats[count] = rs.getDouble(2);
+              lngs[count] = rs.getDouble(3);
+              count++;
+            }
+            latLngs[0] = Arrays.copyOf(lats, count);
+            latLngs[1] = Arrays.copyOf(lngs, count);
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+        });
+      }
+      // Read every way, using the node positions for lengths
+      double[] lats = latLngs[0];
+      double[] lngs = latLngs[1];
+      try (PreparedStatement prep = conn.prepareStatement(
+        "SELECT id, start, end FROM way;")) {
+        db.query(prep, rs -> {
+          try {
+            while (rs.next()) {
+              int start = builder.vertexIndex(rs.getString(2));
+              int end = builder.vertexIndex(rs.getString(3));
+              if (start == -1 || end == -1) {
+                continue;
+              }
+              builder.addEdge(rs.getString(1), rs.getString(2),
+                rs.getString(3), kernel.distance(
+                  Math.toRadians(lats[start]), Math.toRadians(lngs[start]),
+                  Math.toRadians(lats[end]), Math.toRadians(lngs[end])));
+            }
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+        });
+      }
+      RoadGraph roads = new RoadGraph(builder.build(), lats, lngs, kernel);
+      // Keep any traffic that was received before loading
+      int[] edges = new int[roads.graph.numEdges()];
+      double[] values = new double[edges.length];
+      int count = 0;
+      for (int e = 0; e < roads.graph.numEdges(); e++) {
+        String id = roads.graph.edgeId(e);
+        if (Way.has(id)) {
+          edges[count] = e;
+          values[count] = Way.of(id).getTraffic();
+          count++;
+        }
+      }
+      roads.graph.setTraffic(Arrays.copyOf(edges, count),
+        Arrays.copyOf(values, count));
+      return roads;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      db.returnConnection(conn);
+    }
+  }
+
+  /**
+   * @return underlying graph
+   */
+  public CSRGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Gets index of node with given ID, or -1 if no such node.
+   *
+   * @param id node id
+   * @return vertex index
+   */
+  public int indexOf(String id) {
+    return graph.vertexIndex(id);
+  }
+
+  /**
+   * @param v vertex index
+   * @return latitude of vertex
+   */
+  public double getLat(int v) {
+    return lats[v];
+  }
+
+  /**
+   * @param v vertex index
+   * @return longitude of vertex
+   */
+  public double getLng(int v) {
+    return lngs[v];
+  }
+
+  /**
+   * Distance between two vertices, measured the way the lengths of ways are.
+   *
+   * @param u vertex index
+   * @param v vertex index
+   * @return distance
+   */
+  public double distance(int u, int v) {
+    return kernel.distance(Math.toRadians(lats[u]), Math.toRadians(lngs[u]),
+      Math.toRadians(lats[v]), Math.toRadians(lngs[v]));
+  }
+
+  /**
+   * Tunnel (straight-line) distance between two vertices. Never more than the
+   * great-circle distance, so it can be used as an A* heuristic.
+   *
+   * @param u vertex index
+   * @param v vertex index
+   * @return tunnel distance
+   */
+  public double tunnelDistance(int u, int v) {
+    double dx = xyz[3 * u] - xyz[3 * v];
+    double dy = xyz[3 * u + 1] - xyz[3 * v + 1];
+    double dz = xyz[3 * u + 2] - xyz[3 * v + 2];
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  /**
+   * Chooses landmarks for the A* heuristic. The landmark bounds are much
+   * tighter than tunnel distance once there is traffic, and stay valid as long
+   * as traffic never makes a way shorter.
+   *
+   * @param count number of landmarks
+   */
+  public void useLandmarks(int count) {
+    landmarks = Landmarks.select(graph, count);
+  }
+
+  /**
+   * Measures the distance of the A* heuristic with the given kernel instead of
+   * tunnel distance. Routes stay shortest only if the kernel never measures
+   * more than the lengths of ways between the same vertices, such as the
+   * kernel the lengths were measured with when it is haversine or law of
+   * cosines. Tunnel distance is shorter than every great-circle distance.
+   *
+   * @param heuristicKernel distance kernel, or null for tunnel distance
+   */
+  public void setHeuristicKernel(DistanceKernel heuristicKernel) {
+    this.heuristicKernel = heuristicKernel;
+  }
+
+  /**
+   * Distance between two vertices for the A* heuristic.
+   *
+   * @param k kernel, or null for tunnel distance
+   * @param u vertex index
+   * @param v vertex index
+   * @return distance
+   */
+  private double estimate(DistanceKernel k, int u, int v) {
+    if (k == null) {
+      return tunnelDistance(u, v);
+    }
+    return k.distance(Math.toRadians(lats[u]), Math.toRadians(lngs[u]),
+      Math.toRadians(lats[v]), Math.toRadians(lngs[v]));
+  }
+
+  /**
+   * A* heuristic for searching toward the given vertex: the larger of the
+   * distance measured by the heuristic kernel, tunnel distance by default,
+   * and the landmark bound, if there are landmarks.
+   *
+   * @param target vertex index
+   * @return heuristic on vertex indices
+   */
+  public IntToDoubleFunction heuristic(int target) {
+    Landmarks l = landmarks;
+    DistanceKernel k = heuristicKernel;
+    if (l == null) {
+      return v -> estimate(k, v, target);
+    }
+    IntToDoubleFunction alt = Graphs.landmarkHeuristic(l, target);
+    return v -> Math.max(estimate(k, v, target), alt.applyAsDouble(v));
+  }
+
+  /**
+   * A* heuristic for searching backward from the given vertex, the
+   * counterpart of {@link RoadGraph#heuristic(int)}.
+   *
+   * @param source vertex index
+   * @return heuristic on vertex indices
+   */
+  public IntToDoubleFunction heuristicFrom(int source) {
+    Landmarks l = landmarks;
+    DistanceKernel k = heuristicKernel;
+    if (l == null) {
+      return v -> estimate(k, source, v);
+    }
+    IntToDoubleFunction alt = Graphs.landmarkHeuristicFrom(l, source);
+    return v -> Math.max(estimate(k, source, v), alt.applyAsDouble(v));
+  }
+
+  /**
+   * Sets the traffic of the ways with the given IDs, publishing the changes
+   * together, so a search sees all of them or none. Ways that aren't in the
+   * graph are skipped. Routes with an overlay only see the changes once
+   * {@link RoadGraph#trafficUpdated()} is called. Copies the traffic of every
+   * way, so changes should be batched rather than made one way at a time.
+   *
+   * @param wayIds way ids
+   * @param traffic traffic multiplier of each way
+   * @throws IllegalArgumentException if there aren't as many multipliers as
+   * ways
+   */
+  public void setTraffic(String[] wayIds, double[] traffic) {
+    if (wayIds.length != traffic.length) {
+      throw new IllegalArgumentException("need one multiplier per way");
+    }
+    int[] edges = new int[wayIds.length];
+    double[] values = new double[wayIds.length];
+    int count = 0;
+    for (int i = 0; i < wayIds.length; i++) {
+      int e = graph.edgeIndex(wayIds[i]);
+      if (e != -1) {
+        edges[count] = e;
+        values[count] = traffic[i];
+        count++;
+      }
+    }
+    edges = Arrays.copyOf(edges, count);
+    values = Arrays.copyOf(values, count);
+    Overlay o = overlay;
+    if (o != null) {
+      // Change and record together, so no customization sees one alone
+      o.setTraffic(edges, values);
+    } else {
+      graph.setTraffic(edges, values);
+    }
+  }
+
+  /**
+   * Brings routing up to date after a batch of traffic changes, by
+   * customizing the cells of the overlay whose edges changed and publishing
+   * the overlay's new version. Routes without an overlay see changes at once.
+   */
+  public void trafficUpdated() {
+    Overlay o = overlay;
+    if (o != null) {
+      o.customize();
+    }
+  }
+
+  /**
+   * Routes with the given contraction hierarchy from now on, or with A* again
+   * if it is null. Routes found with a hierarchy ignore traffic.
+   *
+   * @param hierarchy contraction hierarchy built for this graph, or null
+   */
+  public void setHierarchy(ContractionHierarchy hierarchy) {
+    this.hierarchy = hierarchy;
+  }
+
+  /**
+   * @return contraction hierarchy used for routing, or null if none
+   */
+  public ContractionHierarchy getHierarchy() {
+    return hierarchy;
+  }
+
+  /**
+   * Routes with a multilevel overlay from now on, which follows traffic. The
+   * overlay takes precedence over a contraction hierarchy.
+   *
+   * @param maxCellSizes max number of vertices in a cell on each level, in
+   * increasing order
+   */
+  public void useOverlay(int... maxCellSizes) {
+    overlay = new Overlay(graph, Partition.build(graph, maxCellSizes));
+  }
+
+  /**
+   * Finds the shortest path between two nodes, using bidirectional A* with
+   * {@link RoadGraph#heuristic(int)} and {@link RoadGraph#heuristicFrom(int)}
+   * as the heuristics. The limits have the same
+   * meaning as in {@link Graphs#bidirectionalAStarFail(CSRGraph, int, int,
+   * IntToDoubleFunction, IntToDoubleFunction, double, int)}. If there is an
+   * overlay or a contraction hierarchy, uses it instead and ignores the
+   * limits.
+   *
+   * @param start start node
+   * @param end end node
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return shortest path and its length, or null if no path found
+   */
+  public OrderedPair<Walk<Node, Way>, Double> shortestPath(Node start,
+    Node end, double failLimit, int maxVertices) {
+    int s = indexOf(start.getId());
+    int t = indexOf(end.getId());
+    if (s == -1 || t == -1) {
+      return null;
+    }
+    Overlay o = overlay;
+    Overlay.Version version = o == null ? null : o.current();
+    CSRGraph pinned = version == null ? graph.snapshot() : version.getGraph();
+    OrderedPair<int[], Double> result
+      = route(version, pinned, s, t, failLimit, maxVertices);
+    if (result == null) {
+      return null;
+    }
+    // The ways' weights come from the traffic the search used
+    return new OrderedPair<>(toWalk(pinned, s, result.first()),
+      result.second());
+  }
+
+  /**
+   * Finds the shortest path between two vertices, the same way as
+   * {@link RoadGraph#shortestPath(Node, Node, double, int)}, without creating
+   * any nodes or ways. The search pins one version of the traffic throughout:
+   * the overlay's last customized version if there is an overlay, and
+   * otherwise a snapshot of the graph.
+   *
+   * @param s start vertex index
+   * @param t end vertex index
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return edges of shortest path and its length, or null if no path found
+   */
+  public OrderedPair<int[], Double> route(int s, int t, double failLimit,
+    int maxVertices) {
+    Overlay o = overlay;
+    Overlay.Version version = o == null ? null : o.current();
+    return route(version, version == null ? graph.snapshot()
+      : version.getGraph(), s, t, failLimit, maxVertices);
+  }
+
+  /**
+   * Finds the shortest path between two vertices on a pinned version of the
+   * traffic.
+   *
+   * @param version version of overlay to route with, or null if none
+   * @param pinned snapshot of graph, the version's if there is one
+   * @param s start vertex index
+   * @param t end vertex index
+   * @param failLimit distance fail limit
+   * @param maxVertices max number of vertices to check
+   * @return edges of shortest path and its length, or null if no path found
+   */
+  private OrderedPair<int[], Double> route(Overlay.Version version,
+    CSRGraph pinned, int s, int t, double failLimit, int maxVertices) {
+    ContractionHierarchy ch = hierarchy;
+    if (version != null) {
+      return Graphs.overlayQuery(version, s, t);
+    } else if (ch != null) {
+      return Graphs.contractionHierarchyQuery(ch, s, t);
+    }
+    return Graphs.bidirectionalAStarFail(pinned, s, t, heuristic(t),
+      heuristicFrom(s), failLimit, maxVertices);
+  }
+
+  /**
+   * Finds the distance from each source to each target. Uses the contraction
+   * hierarchy if there is one and no overlay, like
+   * {@link RoadGraph#route(int, int, double, int)}; otherwise searches the
+   * graph with its current traffic.
+   *
+   * @param sources start vertex indices
+   * @param targets end vertex indices
+   * @return distance from the i-th source to the j-th target at
+   * {@code [i][j]}, infinite if there is no path
+   */
+  public double[][] distanceMatrix(int[] sources, int[] targets) {
+    ContractionHierarchy ch = hierarchy;
+    if (overlay == null && ch != null) {
+      return Graphs.distanceMatrix(ch, sources, targets);
+    }
+    return Graphs.distanceMatrix(graph.snapshot(), sources, targets);
+  }
+
+  /**
+   * Finds the edges that can be driven end to end within a budget from a
+   * vertex, with the current traffic.
+   *
+   * @param s start vertex index
+   * @param budget max weight of a walk from the start
+   * @return indices of edges whose heads are within budget through them
+   */
+  public int[] isochrone(int s, double budget) {
+    // Pin the current traffic for the search and the edges it returns
+    CSRGraph pinned = graph.snapshot();
+    OrderedPair<int[], double[]> within
+      = Graphs.dijkstraBudget(pinned, s, budget);
+    int[] vertices = within.first();
+    double[] distances = within.second();
+    int[] edges = new int[16];
+    int count = 0;
+    for (int i = 0; i < vertices.length; i++) {
+      int v = vertices[i];
+      for (int e = pinned.outEdgesBegin(v), end = pinned.outEdgesEnd(v);
+        e < end; e++) {
+        if (distances[i] + pinned.weight(e) <= budget) {
+          if (count == edges.length) {
+            edges = Arrays.copyOf(edges, 2 * count);
+          }
+          edges[count++] = e;
+        }
+      }
+    }
+    return Arrays.copyOf(edges, count);
+  }
+
+  /**
+   * Gets a read-only snapshot of this road graph with the current traffic,
+   * which is safe to route on from many threads at once. Traffic changes to
+   * this road graph don't affect the snapshot. The snapshot routes with the
+   * same landmarks and contraction hierarchy, but never with an overlay, since
+   * the overlay follows this road graph's traffic.
+   *
+   * @return snapshot
+   */
+  public RoadGraph snapshot() {
+    return new RoadGraph(this);
+  }
+
+  /**
+   * Converts a walk given by edge indices into a walk of nodes and ways.
+   *
+   * @param root index of first vertex
+   * @param edges indices of edges in order
+   * @return walk of nodes and ways
+   */
+  public Walk<Node, Way> toWalk(int root, int[] edges) {
+    return toWalk(graph, root, edges);
+  }
+
+  /**
+   * Converts a walk given by edge indices into a walk of nodes and ways,
+   * weighing the ways with the traffic of a snapshot of the graph.
+   *
+   * @param pinned snapshot of graph
+   * @param root index of first vertex
+   * @param edges indices of edges in order
+   * @return walk of nodes and ways
+   */
+  private static Walk<Node, Way> toWalk(CSRGraph pinned, int root,
+    int[] edges) {
+    Node tail = Node.of(pinned.vertexId(root));
+    Walk.Builder<Node, Way> builder = new Walk.Builder<>(tail);
+    for (int e : edges) {
+      Node head = Node.of(pinned.vertexId(pinned.head(e)));
+      builder.addEdgeVertex(new MutableDWEdge<>(
+        Optional.of(Way.of(pinned.edgeId(e))), tail, head, pinned.weight(e)),
+        head);
+      tail = head;
+    }
+    return builder.build();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("[RoadGraph: %s]", graph);
+  }
+}
@@ -0,0 +1,57 @@
+package edu.brown.cs.azhang6.maps;
+
+import java.util.function.IntFunction;
+
+/**
+ * Formats routes the way the REPL prints them: one line per way, giving the
+ * IDs of its start node, end node, and itself, or a single line if there is
+ * no route. Shared by the REPL and {@link BatchRouter}, so their outputs stay
+ * the same.
+ *
+ * @author aaronzhang
+ */
+final class RouteFormat {
+
+  /**
+   * Can't be instantiated.
+   */
+  private RouteFormat() {
+
+  }
+
+  /**
+   * Formats a route.
+   *
+   * @param length number of ways in route
+   * @param tails ID of the start node of the i-th way
+   * @param heads ID of the end node of the i-th way
+   * @param ways ID of the i-th way
+   * @param lineSeparator put between lines
+   * @return formatted route
+   */
+  static String route(int length, IntFunction<String> tails,
+    IntFunction<String> heads, IntFunction<String> ways,
+    String lineSeparator) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append(String.format("%s -> %s : %s", tails.apply(i),
+        heads.apply(i), ways.apply(i)));
+      // Don't append the line separator after the last line
+      if (i < length - 1) {
+        sb.append(lineSeparator);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Formats the absence of a route.
+   *
+   * @param start start node id
+   * @param end end node id
+   * @return formatted line
+   */
+  static String noRoute(String start, String end) {
+    return String.format("%s -/- %s", start, end);
+  }
+}
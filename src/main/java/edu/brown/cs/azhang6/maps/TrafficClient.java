@@ -26,6 +26,11 @@ public class TrafficClient {
    */
   private long lastTimestamp = 0;
 
+  /**
+   * Road graph to keep updated with traffic, if any.
+   */
+  private volatile RoadGraph roads = null;
+
   /**
    * Instantiates client that connects to given URL. The URL does not include
    * the timestamp.
@@ -37,10 +42,9 @@ public class TrafficClient {
   }
 
   /**
-   * Queries traffic server. Synchronized so other classes can choose to run
-   * methods without worrying about the traffic changing in the middle of the
-   * method. For example, we can find the shortest path without worrying about
-   * traffic changing in the middle of the algorithm.
+   * Queries traffic server. The road graph gets every change from one query at
+   * once, so searches running meanwhile, which each see one version of the
+   * traffic, never see half of a query. Synchronized so queries don't overlap.
    *
    * @throws IOException if error reading from server
    */
@@ -55,15 +59,31 @@ public class TrafficClient {
       Object[][] response
         = Main.GSON.fromJson(reader.readLine(), Object[][].class);
       // For each way/traffic pair:
-      for (Object[] wayTraffic : response) {
-        String way = (String) wayTraffic[0];
-        double trafficValue = (double) wayTraffic[1];
-        Way.of(way).setTraffic(trafficValue);
+      String[] ways = new String[response.length];
+      double[] values = new double[response.length];
+      for (int i = 0; i < response.length; i++) {
+        ways[i] = (String) response[i][0];
+        values[i] = (double) response[i][1];
+        Way.of(ways[i]).setTraffic(values[i]);
+      }
+      RoadGraph r = roads;
+      if (r != null) {
+        r.setTraffic(ways, values);
+        r.trafficUpdated();
       }
     }
     lastTimestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
   }
 
+  /**
+   * Keeps the road graph updated with traffic from now on.
+   *
+   * @param roads road graph
+   */
+  public void setRoadGraph(RoadGraph roads) {
+    this.roads = roads;
+  }
+
   /**
    * Periodically queries traffic server after the specified number of
    * milliseconds. Returns immediately.
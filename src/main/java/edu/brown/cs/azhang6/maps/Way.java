@@ -123,7 +123,8 @@ public class Way {
   }
 
   /**
-   * Gets length of way not including traffic.
+   * Gets length of way not including traffic, measured with the start node's
+   * distance kernel.
    *
    * @return distance
    */
@@ -0,0 +1,185 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.dimension.LatLng;
+import edu.brown.cs.azhang6.dimension.MortonCell;
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Ways of a {@link RoadGraph} grouped by the {@link MortonCell} of the node
+ * they start from. The ways are sorted by cell, so the ways in a box are found
+ * by covering the box with a few ranges of cells and scanning the ways in
+ * each range, with no search of a tree and no {@link Node} or {@link Way}
+ * objects.
+ *
+ * @author aaronzhang
+ */
+public class WayCellIndex {
+
+  /**
+   * Finest level of cells, so that a cell and an edge index fit in a long.
+   */
+  public static final int MAX_LEVEL = 15;
+
+  /**
+   * Number of ranges of cells to cover a box with.
+   */
+  static final int COVER_RANGES = 32;
+
+  /**
+   * Road graph.
+   */
+  private final RoadGraph roads;
+
+  /**
+   * Level of cells.
+   */
+  private final int level;
+
+  /**
+   * Cell of each way, in increasing order.
+   */
+  private final long[] cells;
+
+  /**
+   * Edge index of each way, increasing within each cell.
+   */
+  private final int[] edges;
+
+  /**
+   * Groups the ways of a road graph by cell.
+   *
+   * @param roads road graph
+   * @param level level of cells, from 0 to {@value WayCellIndex#MAX_LEVEL}
+   * @throws IllegalArgumentException if level is out of range
+   */
+  public WayCellIndex(RoadGraph roads, int level) {
+    if (level < 0 || level > MAX_LEVEL) {
+      throw new IllegalArgumentException(
+        "level must be from 0 to " + MAX_LEVEL);
+    }
+    this.roads = roads;
+    this.level = level;
+    CSRGraph graph = roads.getGraph();
+    int numEdges = graph.numEdges();
+    long[] keys = new long[numEdges];
+    for (int e = 0; e < numEdges; e++) {
+      int tail = graph.tail(e);
+      long cell = MortonCell.cell(roads.getLat(tail), roads.getLng(tail),
+        level);
+      keys[e] = cell << Integer.SIZE | e;
+    }
+    Arrays.sort(keys);
+    cells = new long[numEdges];
+    edges = new int[numEdges];
+    for (int i = 0; i < numEdges; i++) {
+      cells[i] = keys[i] >>> Integer.SIZE;
+      edges[i] = (int) keys[i];
+    }
+  }
+
+  /**
+   * @return level of cells
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * @return number of ways
+   */
+  public int size() {
+    return edges.length;
+  }
+
+  /**
+   * Gets the ways that start in a cell.
+   *
+   * @param cell code of cell at the level of this index
+   * @return edge indices of ways, in increasing order
+   */
+  public int[] inCell(long cell) {
+    return Arrays.copyOfRange(edges, lowerBound(cell),
+      lowerBound(cell + 1));
+  }
+
+  /**
+   * Visits the ways that start from a node in a box. Longitudes past 180
+   * degrees wrap around the antimeridian. Each way is visited once.
+   *
+   * @param minLat least latitude
+   * @param minLng least longitude
+   * @param maxLat greatest latitude
+   * @param maxLng greatest longitude
+   * @param visitor called with the edge index of each way
+   */
+  public void inBox(double minLat, double minLng, double maxLat,
+    double maxLng, IntConsumer visitor) {
+    double wrap = LatLng.MAX_LNG - LatLng.MIN_LNG;
+    if (maxLng - minLng >= wrap) {
+      search(minLat, LatLng.MIN_LNG, maxLat, LatLng.MAX_LNG, visitor);
+      return;
+    }
+    search(minLat, minLng, maxLat, maxLng, visitor);
+    // A box narrower than 360 degrees crosses the antimeridian at most once
+    if (minLng <= LatLng.MIN_LNG) {
+      search(minLat, minLng + wrap, maxLat, maxLng + wrap, visitor);
+    } else if (maxLng >= LatLng.MAX_LNG) {
+      search(minLat, minLng - wrap, maxLat, maxLng - wrap, visitor);
+    }
+  }
+
+  /**
+   * Visits the ways that start from a node in a box that doesn't cross the
+   * antimeridian.
+   *
+   * @param minLat least latitude
+   * @param minLng least longitude
+   * @param maxLat greatest latitude
+   * @param maxLng greatest longitude
+   * @param visitor called with the edge index of each way
+   */
+  private void search(double minLat, double minLng, double maxLat,
+    double maxLng, IntConsumer visitor) {
+    double west = Math.max(minLng, LatLng.MIN_LNG);
+    double east = Math.min(maxLng, LatLng.MAX_LNG);
+    if (west > east) {
+      return;
+    }
+    CSRGraph graph = roads.getGraph();
+    long[] ranges = MortonCell.cover(minLat, west, maxLat, east, level,
+      COVER_RANGES);
+    for (int r = 0; r < ranges.length; r += 2) {
+      int end = lowerBound(ranges[r + 1]);
+      for (int i = lowerBound(ranges[r]); i < end; i++) {
+        int e = edges[i];
+        int tail = graph.tail(e);
+        double lat = roads.getLat(tail);
+        double lng = roads.getLng(tail);
+        // Cells at the edge of the cover reach past the box
+        if (lat >= minLat && lat <= maxLat && lng >= west && lng <= east) {
+          visitor.accept(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param cell code of cell
+   * @return index of first way whose cell is at least the given cell
+   */
+  private int lowerBound(long cell) {
+    int lo = 0;
+    int hi = cells.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cells[mid] < cell) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -172,6 +172,18 @@ public class Star implements Dimensional {
     return Objects.hash(id, name, getX(), getY(), getZ());
   }
 
+  /**
+   * Euclidean distance to a plane is the difference in the coordinate.
+   *
+   * @param coordinate coordinate fixed by the plane
+   * @param value value of that coordinate on the plane
+   * @return distance to the plane
+   */
+  @Override
+  public double distanceToPlane(int coordinate, double value) {
+    return Math.abs(getCoordinate(coordinate) - value);
+  }
+
   @Override
   public Dimensional withCoordinate(int coordinate, double value) {
     switch (coordinate) {
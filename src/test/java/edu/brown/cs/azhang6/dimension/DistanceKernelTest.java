@@ -0,0 +1,106 @@
+package edu.brown.cs.azhang6.dimension;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link DistanceKernel}.
+ *
+ * @author aaronzhang
+ */
+public class DistanceKernelTest {
+
+  /**
+   * Used to check equality between distances.
+   */
+  private static final double EPSILON = 0.001;
+
+  /**
+   * Every kernel measures nothing from a point to itself, and the same
+   * distance in both directions.
+   */
+  @Test
+  public void testSymmetric() {
+    Random random = new Random(25);
+    for (DistanceKernel kernel : DistanceKernel.values()) {
+      for (int i = 0; i < 100; i++) {
+        double lat1 = Math.toRadians(random.nextDouble() * 140 - 70);
+        double lng1 = Math.toRadians(random.nextDouble() * 360 - 180);
+        double lat2 = Math.toRadians(random.nextDouble() * 140 - 70);
+        double lng2 = Math.toRadians(random.nextDouble() * 360 - 180);
+        assertEquals(0, kernel.distance(lat1, lng1, lat1, lng1), EPSILON);
+        assertEquals(kernel.distance(lat1, lng1, lat2, lng2),
+          kernel.distance(lat2, lng2, lat1, lng1), EPSILON);
+      }
+    }
+  }
+
+  /**
+   * The approximations stay within their documented errors of the haversine
+   * formula at city scale, including across the antimeridian.
+   */
+  @Test
+  public void testErrorBounds() {
+    Random random = new Random(25);
+    for (int i = 0; i < 1000; i++) {
+      double lat1 = Math.toRadians(random.nextDouble() * 140 - 70);
+      double lng1 = Math.toRadians(i % 10 == 0 ? 179.99
+        : random.nextDouble() * 360 - 180);
+      // Within about 10 km
+      double lat2 = lat1 + (random.nextDouble() - 0.5) * 1e-3;
+      double lng2 = lng1 + (random.nextDouble() - 0.5) * 1e-3;
+      if (lng2 > Math.PI) {
+        lng2 -= 2 * Math.PI;
+      }
+      double exact = DistanceKernel.HAVERSINE.distance(lat1, lng1, lat2,
+        lng2);
+      assertEquals(exact, DistanceKernel.EQUIRECTANGULAR.distance(lat1, lng1,
+        lat2, lng2), exact * 1e-6);
+      assertEquals(exact, DistanceKernel.LAW_OF_COSINES.distance(lat1, lng1,
+        lat2, lng2), 2e-4);
+      // The ellipsoid differs from the sphere by at most about 0.5%
+      assertEquals(exact, DistanceKernel.VINCENTY.distance(lat1, lng1, lat2,
+        lng2), exact * 0.006);
+    }
+    // Great-circle formulas agree at every distance
+    assertEquals(DistanceKernel.HAVERSINE.distance(0.5, -1, -0.7, 2),
+      DistanceKernel.LAW_OF_COSINES.distance(0.5, -1, -0.7, 2), EPSILON);
+  }
+
+  /**
+   * Vincenty's formula gives the known geodesic from Flinders Peak to
+   * Buninyong, and falls back to the great-circle distance for antipodes.
+   */
+  @Test
+  public void testVincenty() {
+    double lat1 = -Math.toRadians(37 + 57 / 60.0 + 3.72030 / 3600);
+    double lng1 = Math.toRadians(144 + 25 / 60.0 + 29.52440 / 3600);
+    double lat2 = -Math.toRadians(37 + 39 / 60.0 + 10.15610 / 3600);
+    double lng2 = Math.toRadians(143 + 55 / 60.0 + 35.38390 / 3600);
+    assertEquals(54.972271,
+      DistanceKernel.VINCENTY.distance(lat1, lng1, lat2, lng2), 1e-6);
+    assertEquals(Math.PI * LatLng.RADIUS,
+      DistanceKernel.VINCENTY.distance(0, 0, 0, Math.PI), 1);
+  }
+
+  /**
+   * Points measure distances with their kernel, which they keep when a
+   * coordinate changes.
+   */
+  @Test
+  public void testLatLng() {
+    LatLng a = new LatLng(41.8, -71.4, DistanceKernel.EQUIRECTANGULAR);
+    LatLng b = new LatLng(41.9, -71.3);
+    assertEquals(DistanceKernel.HAVERSINE, b.getKernel());
+    assertEquals(DistanceKernel.EQUIRECTANGULAR.distance(a.getLatRadians(),
+      a.getLngRadians(), b.getLatRadians(), b.getLngRadians()),
+      a.distanceTo(b), 1e-12);
+    assertEquals(a.distanceTo(b), a.distanceTo(new double[]{41.9, -71.3}, 0),
+      1e-12);
+    assertEquals(DistanceKernel.EQUIRECTANGULAR,
+      ((LatLng) a.withCoordinate(1, 0)).getKernel());
+    // Kernels don't change equality
+    assertEquals(new LatLng(41.8, -71.4), a);
+  }
+}
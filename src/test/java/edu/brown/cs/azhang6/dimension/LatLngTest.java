@@ -1,6 +1,9 @@
 package edu.brown.cs.azhang6.dimension;
 
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
 import org.junit.Test;
+import static org.junit.Assume.assumeTrue;
 import static org.junit.Assert.*;
 
 /**
@@ -121,6 +124,54 @@ public class LatLngTest {
       new LatLng(90, 0)), 7359, EPSILON2);
     assertEquals(new LatLng(30, 30).tunnelDistanceTo(
       new LatLng(30, 30)), 0, EPSILON2);
+    LatLng a = new LatLng(41.8, -71.4);
+    LatLng b = new LatLng(-33.9, 151.2);
+    assertEquals(a.tunnelDistanceTo(b), LatLng.chordDistance(a.getUnitX(),
+      a.getUnitY(), a.getUnitZ(), b.getUnitX(), b.getUnitY(), b.getUnitZ()),
+      EPSILON);
+    // Never more than the great-circle distance
+    assertTrue(a.tunnelDistanceTo(b) <= a.distanceTo(b));
+  }
+
+  /**
+   * Unit tests for the coordinates on the unit sphere.
+   */
+  @Test
+  public void testUnit() {
+    LatLng ll = new LatLng(54.1, -18.5);
+    double[] xyz = ll.getXYZ();
+    assertEquals(xyz[0], LatLng.RADIUS * ll.getUnitX(), EPSILON);
+    assertEquals(xyz[1], LatLng.RADIUS * ll.getUnitY(), EPSILON);
+    assertEquals(xyz[2], LatLng.RADIUS * ll.getUnitZ(), EPSILON);
+    assertEquals(1, ll.getUnitX() * ll.getUnitX() + ll.getUnitY()
+      * ll.getUnitY() + ll.getUnitZ() * ll.getUnitZ(), EPSILON);
+    assertEquals(1, new LatLng(90, 0).getUnitZ(), EPSILON);
+    assertEquals(-1, new LatLng(0, 180).getUnitX(), EPSILON);
+  }
+
+  /**
+   * Tunnel distance, the A* heuristic, allocates nothing.
+   */
+  @Test
+  public void testTunnelDistanceAllocation() {
+    java.lang.management.ThreadMXBean bean
+      = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof ThreadMXBean);
+    ThreadMXBean threads = (ThreadMXBean) bean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported()
+      && threads.isThreadAllocatedMemoryEnabled());
+    LatLng a = new LatLng(41.8, -71.4);
+    LatLng b = new LatLng(41.9, -71.3);
+    long thread = Thread.currentThread().getId();
+    double sum = 0;
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 100000; i++) {
+      sum += a.tunnelDistanceTo(b);
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+    assertTrue(sum > 0);
+    // Copying the coordinates would take megabytes
+    assertTrue(allocated < 100000);
   }
 
   /**
@@ -176,4 +227,41 @@ public class LatLngTest {
     assertEquals(new LatLng(19, -10.1).withCoordinate(1, -10.1),
       new LatLng(19, -10.1));
   }
+
+  /**
+   * Unit tests for {@link LatLng#distanceToPlane(int, double)}: never more
+   * than the distance to any point across the plane, and exact where the
+   * nearest point is known.
+   */
+  @Test
+  public void testDistanceToPlane() {
+    // Parallels
+    assertEquals(new LatLng(10, 20).distanceToPlane(0, 20),
+      new LatLng(10, 20).distanceTo(new LatLng(20, 20)), EPSILON);
+    // Meridians, at the equator and across the antimeridian
+    assertEquals(new LatLng(0, 10).distanceToPlane(1, 40),
+      new LatLng(0, 10).distanceTo(new LatLng(0, 40)), EPSILON);
+    assertEquals(new LatLng(0, 175).distanceToPlane(1, -175),
+      new LatLng(0, 175).distanceTo(new LatLng(0, -175)), EPSILON);
+    // More than 90 degrees of longitude away, the nearest point is a pole
+    assertEquals(new LatLng(60, 0).distanceToPlane(1, 150),
+      new LatLng(60, 0).distanceTo(new LatLng(90, 0)), EPSILON);
+    assertEquals(new LatLng(-60, 0).distanceToPlane(1, -150),
+      new LatLng(-60, 0).distanceTo(new LatLng(-90, 0)), EPSILON);
+    // Near a pole, the meridian is nearer than the point along the parallel
+    LatLng north = new LatLng(85, 0);
+    assertTrue(north.distanceToPlane(1, 60)
+      < north.distanceTo(new LatLng(85, 60)));
+    for (double lat = 85; lat <= 90; lat += 0.5) {
+      assertTrue(north.distanceToPlane(1, 60) <= north.distanceTo(
+        new LatLng(lat, 60)) + EPSILON);
+    }
+    boolean caught = false;
+    try {
+      north.distanceToPlane(2, 0);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
 }
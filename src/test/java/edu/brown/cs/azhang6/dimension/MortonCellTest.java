@@ -0,0 +1,113 @@
+package edu.brown.cs.azhang6.dimension;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MortonCell}.
+ *
+ * @author aaronzhang
+ */
+public class MortonCellTest {
+
+  /**
+   * Unit tests for {@link MortonCell#cell(double, double, int)}.
+   */
+  @Test
+  public void testCell() {
+    assertEquals(0, MortonCell.cell(12, 34, 0));
+    // Longitude in the low bit, latitude in the next
+    assertEquals(0, MortonCell.cell(-45, -90, 1));
+    assertEquals(1, MortonCell.cell(-45, 90, 1));
+    assertEquals(2, MortonCell.cell(45, -90, 1));
+    assertEquals(3, MortonCell.cell(45, 90, 1));
+    // Corners and edges
+    assertEquals(0, MortonCell.cell(-90, -180, 5));
+    assertEquals((1L << 10) - 1, MortonCell.cell(90, 180, 5));
+    assertEquals(3, MortonCell.cell(0, 0, 1));
+    long last = (1L << 2 * MortonCell.MAX_LEVEL) - 1;
+    assertEquals(last, MortonCell.cell(90, 180, MortonCell.MAX_LEVEL));
+    // Cells of a level are inside the cells of coarser levels
+    Random random = new Random(23);
+    for (int i = 0; i < 1000; i++) {
+      double lat = random.nextDouble() * 180 - 90;
+      double lng = random.nextDouble() * 360 - 180;
+      int level = 1 + random.nextInt(MortonCell.MAX_LEVEL);
+      assertEquals(MortonCell.cell(lat, lng, level - 1),
+        MortonCell.cell(lat, lng, level) >>> 2);
+    }
+    boolean caught = false;
+    try {
+      MortonCell.cell(0, 0, MortonCell.MAX_LEVEL + 1);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
+
+  /**
+   * Covers hold the cell of every point in the box, stay within the number
+   * of ranges, and hold no cells far from the box when there are enough
+   * ranges.
+   */
+  @Test
+  public void testCover() {
+    Random random = new Random(23);
+    for (int i = 0; i < 200; i++) {
+      double minLat = random.nextDouble() * 180 - 90;
+      double minLng = random.nextDouble() * 360 - 180;
+      double maxLat = Math.min(90, minLat + random.nextDouble() * 20);
+      double maxLng = Math.min(180, minLng + random.nextDouble() * 40);
+      int level = random.nextInt(11);
+      int maxRanges = 1 + random.nextInt(40);
+      long[] ranges = MortonCell.cover(minLat, minLng, maxLat, maxLng, level,
+        maxRanges);
+      assertTrue(ranges.length / 2 <= maxRanges);
+      for (int r = 0; r < ranges.length; r += 2) {
+        assertTrue(ranges[r] < ranges[r + 1]);
+        if (r > 0) {
+          assertTrue(ranges[r - 1] < ranges[r]);
+        }
+      }
+      for (int j = 0; j < 100; j++) {
+        double lat = minLat + random.nextDouble() * (maxLat - minLat);
+        double lng = minLng + random.nextDouble() * (maxLng - minLng);
+        assertTrue(contains(ranges, MortonCell.cell(lat, lng, level)));
+      }
+      assertTrue(contains(ranges, MortonCell.cell(maxLat, maxLng, level)));
+    }
+    // With enough ranges, the cover is the cells touching the box
+    long[] exact = MortonCell.cover(12, 23, 30, 50, 4, 1000);
+    long count = 0;
+    for (int r = 0; r < exact.length; r += 2) {
+      count += exact[r + 1] - exact[r];
+    }
+    // Cells are 22.5 by 11.25 degrees: two columns and two rows
+    assertEquals(4, count);
+    assertEquals(0, MortonCell.cover(1, 0, 0, 1, 4, 10).length);
+    assertArrayEquals(new long[]{0, 1L << 8},
+      MortonCell.cover(-90, -180, 90, 180, 4, 1));
+    boolean caught = false;
+    try {
+      MortonCell.cover(0, 0, 1, 1, 4, 0);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
+
+  /**
+   * @param ranges starts and ends of ranges
+   * @param cell code of cell
+   * @return whether a range contains the cell
+   */
+  private static boolean contains(long[] ranges, long cell) {
+    for (int r = 0; r < ranges.length; r += 2) {
+      if (ranges[r] <= cell && cell < ranges[r + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,153 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for contraction hierarchies.
+ *
+ * @author aaronzhang
+ */
+public class ContractionHierarchyTest {
+
+  /**
+   * Queries agree with Dijkstra on every pair of vertices.
+   */
+  @Test
+  public void testQuery() {
+    assertQueries(GraphsTest.wikipediaCSR());
+    assertQueries(randomGraph(new Random(7), 60, 200));
+    assertQueries(randomGraph(new Random(8), 30, 40));
+  }
+
+  /**
+   * A saved hierarchy loads back the same, but not for another graph.
+   *
+   * @throws IOException if temporary file can't be used
+   */
+  @Test
+  public void testSaveLoad() throws IOException {
+    CSRGraph g = randomGraph(new Random(9), 50, 150);
+    ContractionHierarchy ch = ContractionHierarchy.build(g);
+    File file = File.createTempFile("graph", ".ch");
+    try {
+      ch.save(file);
+      ContractionHierarchy loaded = ContractionHierarchy.load(file, g);
+      assertEquals(ch.numArcs(), loaded.numArcs());
+      for (int v = 0; v < g.numVertices(); v++) {
+        assertEquals(ch.rank(v), loaded.rank(v));
+      }
+      assertQueries(g, loaded);
+      try {
+        ContractionHierarchy.load(file, GraphsTest.wikipediaCSR());
+        fail("loaded hierarchy for another graph");
+      } catch (IOException e) {
+        // Expected
+      }
+      // Rebuilds for the other graph, replacing the file
+      CSRGraph other = GraphsTest.wikipediaCSR();
+      assertQueries(other, ContractionHierarchy.loadOrBuild(file, other));
+      ContractionHierarchy.load(file, other);
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Distance matrices, with and without a hierarchy, agree with Dijkstra,
+   * including repeated and unreachable targets.
+   */
+  @Test
+  public void testDistanceMatrix() {
+    CSRGraph g = randomGraph(new Random(10), 40, 70);
+    ContractionHierarchy ch = ContractionHierarchy.build(g);
+    int[] sources = {0, 5, 5, 17, 39};
+    int[] targets = {3, 0, 22, 3, 8, 31, 39};
+    double[][] plain = Graphs.distanceMatrix(g, sources, targets);
+    double[][] buckets = Graphs.distanceMatrix(ch, sources, targets);
+    assertEquals(sources.length, plain.length);
+    assertEquals(sources.length, buckets.length);
+    for (int i = 0; i < sources.length; i++) {
+      assertEquals(targets.length, plain[i].length);
+      assertEquals(targets.length, buckets[i].length);
+      for (int j = 0; j < targets.length; j++) {
+        int target = targets[j];
+        OrderedPair<int[], Double> expected
+          = Graphs.dijkstraAStar(g, sources[i], v -> v == target, v -> 0);
+        double distance = expected == null
+          ? Double.POSITIVE_INFINITY : expected.second();
+        assertEquals(distance, plain[i][j], 0);
+        assertEquals(distance, buckets[i][j], 0);
+      }
+    }
+    assertEquals(0, Graphs.distanceMatrix(g, new int[0], targets).length);
+    assertEquals(0, Graphs.distanceMatrix(ch, sources, new int[0])[0].length);
+  }
+
+  /**
+   * Random graph with integer edge lengths.
+   *
+   * @param random random
+   * @param n number of vertices
+   * @param m number of edges
+   * @return graph
+   */
+  private static CSRGraph randomGraph(Random random, int n, int m) {
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 0; i < n; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    for (int i = 0; i < m; i++) {
+      builder.addEdge(Integer.toString(i), Integer.toString(random.nextInt(n)),
+        Integer.toString(random.nextInt(n)), random.nextInt(20));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Checks queries on a new hierarchy for the graph.
+   *
+   * @param g graph
+   */
+  private static void assertQueries(CSRGraph g) {
+    assertQueries(g, ContractionHierarchy.build(g));
+  }
+
+  /**
+   * Checks queries against Dijkstra between every pair of vertices, and that
+   * the walks returned are walks in the graph from source to target.
+   *
+   * @param g graph
+   * @param ch hierarchy for graph
+   */
+  private static void assertQueries(CSRGraph g, ContractionHierarchy ch) {
+    for (int s = 0; s < g.numVertices(); s++) {
+      for (int t = 0; t < g.numVertices(); t++) {
+        int target = t;
+        OrderedPair<int[], Double> expected
+          = Graphs.dijkstraAStar(g, s, v -> v == target, v -> 0);
+        OrderedPair<int[], Double> actual
+          = Graphs.contractionHierarchyQuery(ch, s, t);
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        assertEquals(expected.second(), actual.second(), 0);
+        double weight = 0;
+        int tail = s;
+        for (int e : actual.first()) {
+          assertEquals(tail, g.tail(e));
+          weight += g.baseLength(e);
+          tail = g.head(e);
+        }
+        assertEquals(t, tail);
+        assertEquals(actual.second(), weight, 0);
+      }
+    }
+  }
+}
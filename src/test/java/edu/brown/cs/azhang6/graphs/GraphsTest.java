@@ -1,7 +1,9 @@
 package edu.brown.cs.azhang6.graphs;
 
+import edu.brown.cs.azhang6.graph.CSRGraph;
 import edu.brown.cs.azhang6.graph.DWGraph;
 import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.util.Random;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -188,6 +190,161 @@ public class GraphsTest {
       g.vertexByName(1), v -> v.equals(g.vertexByName(6)), v -> 2).second() == 11);
   }
 
+  /**
+   * The example from testDijkstra3 on a CSR graph.
+   */
+  @Test
+  public void testDijkstraAStarCSR() {
+    CSRGraph g = wikipediaCSR();
+    int root = g.vertexIndex("1");
+    assertEquals(Graphs.dijkstraAStar(g, root, v -> v == root, v -> 0)
+      .second(), 0, 0);
+    assertEquals(Graphs.dijkstraAStar(g, root, v -> v == root, v -> 0)
+      .first().length, 0);
+    assertEquals(Graphs.dijkstraAStar(
+      g, root, v -> v == g.vertexIndex("4"), v -> 0).second(), 20, 0);
+    assertEquals(Graphs.dijkstraAStar(
+      g, root, v -> v == g.vertexIndex("5"), v -> 0).second(), 20, 0);
+    // The walk to 5 goes through 3 and 6
+    int[] walk = Graphs.dijkstraAStar(
+      g, root, v -> v == g.vertexIndex("5"), v -> 0).first();
+    assertEquals(walk.length, 3);
+    assertEquals(g.edgeId(walk[0]), "1-3");
+    assertEquals(g.edgeId(walk[1]), "3-6");
+    assertEquals(g.edgeId(walk[2]), "6-5");
+    // Traffic changes the weight of the walk
+    g.setTraffic(new int[]{g.edgeIndex("3-6")}, new double[]{2});
+    assertEquals(Graphs.dijkstraAStar(
+      g, root, v -> v == g.vertexIndex("6"), v -> 0).second(), 13, 0);
+    g.setTraffic(new int[]{g.edgeIndex("3-6")}, new double[]{10});
+    assertEquals(Graphs.dijkstraAStar(
+      g, root, v -> v == g.vertexIndex("6"), v -> 0).second(), 14, 0);
+    // Searching too many vertices fails
+    assertTrue(Graphs.dijkstraAStarFail(g, root,
+      v -> v == g.vertexIndex("5"), v -> 0, 10, 1) == null);
+  }
+
+  /**
+   * Searches one after another on the same thread reuse the same scratch
+   * space, so a search must not see anything left by the one before.
+   */
+  @Test
+  public void testRepeatedSearches() {
+    CSRGraph g = wikipediaCSR();
+    for (int target = 0; target < g.numVertices(); target++) {
+      int t = target;
+      OrderedPair<int[], Double> forward
+        = Graphs.dijkstraAStar(g, 0, v -> v == t, v -> 0);
+      OrderedPair<int[], Double> backward
+        = Graphs.dijkstraAStar(g, t, v -> v == 0, v -> 0);
+      // Every edge in the example has a twin of the same weight
+      assertEquals(forward.second(), backward.second(), 0);
+      double weight = 0;
+      int tail = 0;
+      for (int e : forward.first()) {
+        assertTrue(e >= g.outEdgesBegin(tail) && e < g.outEdgesEnd(tail));
+        weight += g.weight(e);
+        tail = g.head(e);
+      }
+      assertEquals(t, tail);
+      assertEquals(forward.second(), weight, 0);
+    }
+    double[] expected = {0, 7, 9, 20, 20, 11};
+    for (int target = 0; target < g.numVertices(); target++) {
+      int t = target;
+      assertEquals(expected[t], Graphs.dijkstraAStar(
+        g, 0, v -> v == t, v -> 0).second(), 0);
+    }
+    assertNull(Graphs.dijkstraAStarFail(g, 0, v -> v == 4, v -> 1, 10, 6));
+    assertNull(Graphs.dijkstraAStarFail(g, 0, v -> v == 4, v -> 0, 100, 2));
+  }
+
+  /**
+   * Bidirectional search finds walks of the same weight as one-way search,
+   * between every pair of vertices of the example and of a random graph.
+   */
+  @Test
+  public void testBidirectionalAStar() {
+    CSRGraph g = wikipediaCSR();
+    assertBidirectional(g);
+    assertEquals(0, Graphs.bidirectionalAStar(
+      g, 2, 2, v -> 0, v -> 0).first().length);
+
+    Random random = new Random(32);
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 0; i < 40; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    for (int i = 0; i < 120; i++) {
+      builder.addEdge(Integer.toString(i), Integer.toString(random.nextInt(40)),
+        Integer.toString(random.nextInt(40)), random.nextInt(20));
+    }
+    assertBidirectional(builder.build());
+
+    // Fails if the walk is too long or too many vertices are checked
+    assertNull(Graphs.bidirectionalAStarFail(
+      g, 0, 4, v -> 1, v -> 1, 10, Integer.MAX_VALUE));
+    assertNotNull(Graphs.bidirectionalAStarFail(
+      g, 0, 4, v -> 1, v -> 1, 20, Integer.MAX_VALUE));
+    assertNull(Graphs.bidirectionalAStarFail(
+      g, 0, 4, v -> 0, v -> 0, Double.POSITIVE_INFINITY, 1));
+  }
+
+  /**
+   * Checks bidirectional search against one-way search between every pair of
+   * vertices, and that the walks it returns are walks from source to target.
+   *
+   * @param g graph
+   */
+  private static void assertBidirectional(CSRGraph g) {
+    for (int s = 0; s < g.numVertices(); s++) {
+      for (int t = 0; t < g.numVertices(); t++) {
+        int target = t;
+        OrderedPair<int[], Double> expected
+          = Graphs.dijkstraAStar(g, s, v -> v == target, v -> 0);
+        OrderedPair<int[], Double> actual
+          = Graphs.bidirectionalAStar(g, s, t, v -> 0, v -> 0);
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        assertEquals(expected.second(), actual.second(), 0);
+        double weight = 0;
+        int tail = s;
+        for (int e : actual.first()) {
+          assertEquals(tail, g.tail(e));
+          weight += g.weight(e);
+          tail = g.head(e);
+        }
+        assertEquals(t, tail);
+        assertEquals(actual.second(), weight, 0);
+      }
+    }
+  }
+
+  /**
+   * Builds the first example from
+   * https://en.wikipedia.org/wiki/Dijkstra%27s_algorithm as a CSR graph. The
+   * edge from u to v has id "u-v".
+   *
+   * @return graph
+   */
+  static CSRGraph wikipediaCSR() {
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 1; i <= 6; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    int[][] edges = {
+      {1, 6, 14}, {1, 3, 9}, {1, 2, 7}, {2, 1, 7}, {2, 3, 10}, {2, 4, 15},
+      {3, 1, 9}, {3, 2, 10}, {3, 4, 11}, {3, 6, 2}, {4, 5, 6}, {4, 3, 11},
+      {4, 2, 15}, {5, 4, 6}, {5, 6, 9}, {6, 5, 9}, {6, 3, 2}, {6, 1, 14}};
+    for (int[] e : edges) {
+      builder.addEdge(e[0] + "-" + e[1], Integer.toString(e[0]),
+        Integer.toString(e[1]), e[2]);
+    }
+    return builder.build();
+  }
+
   /**
    * Tests specifically for the A* version.
    */
@@ -0,0 +1,74 @@
+package edu.brown.cs.azhang6.graphs;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for indexed min-heap.
+ *
+ * @author aaronzhang
+ */
+public class IndexedMinHeapTest {
+
+  /**
+   * Items come out in order of key.
+   */
+  @Test
+  public void testPoll() {
+    IndexedMinHeap heap = new IndexedMinHeap(2);
+    double[] keys = {5, 3, 8, 1, 9, 2, 7};
+    for (int i = 0; i < keys.length; i++) {
+      heap.ensureCapacity(i + 1);
+      assertTrue(heap.insertOrDecrease(i, keys[i]));
+    }
+    assertEquals(7, heap.size());
+    int[] order = {3, 5, 1, 0, 6, 2, 4};
+    for (int item : order) {
+      assertEquals(keys[item], heap.peekKey(), 0);
+      assertEquals(item, heap.poll());
+      assertFalse(heap.contains(item));
+    }
+    assertTrue(heap.isEmpty());
+  }
+
+  /**
+   * Decreasing a key moves the item up; increasing it does nothing.
+   */
+  @Test
+  public void testDecrease() {
+    IndexedMinHeap heap = new IndexedMinHeap(4);
+    heap.insertOrDecrease(0, 10);
+    heap.insertOrDecrease(1, 20);
+    heap.insertOrDecrease(2, 30);
+    assertFalse(heap.insertOrDecrease(0, 15));
+    assertTrue(heap.insertOrDecrease(2, 5));
+    assertEquals(3, heap.size());
+    assertEquals(2, heap.poll());
+    assertEquals(0, heap.poll());
+    assertEquals(1, heap.poll());
+  }
+
+  /**
+   * Clearing empties the heap so items can be inserted again.
+   */
+  @Test
+  public void testClear() {
+    IndexedMinHeap heap = new IndexedMinHeap(4);
+    heap.insertOrDecrease(0, 1);
+    heap.insertOrDecrease(3, 2);
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertFalse(heap.contains(0));
+    assertFalse(heap.contains(3));
+    assertTrue(heap.insertOrDecrease(3, 4));
+    assertEquals(3, heap.poll());
+  }
+
+  /**
+   * Polling an empty heap.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testPollEmpty() {
+    new IndexedMinHeap(1).poll();
+  }
+}
@@ -0,0 +1,95 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for landmarks.
+ *
+ * @author aaronzhang
+ */
+public class LandmarksTest {
+
+  /**
+   * Bounds never exceed the true distance, and A* with them finds shortest
+   * paths, even with traffic.
+   */
+  @Test
+  public void testBounds() {
+    Random random = new Random(3);
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 0; i < 50; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    for (int i = 0; i < 200; i++) {
+      builder.addEdge(Integer.toString(i), Integer.toString(random.nextInt(50)),
+        Integer.toString(random.nextInt(50)), random.nextDouble() * 10);
+    }
+    CSRGraph g = builder.build();
+    Landmarks landmarks = Landmarks.select(g, 4);
+    assertEquals(4, landmarks.size());
+    int[] edges = new int[(g.numEdges() + 2) / 3];
+    double[] values = new double[edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      edges[i] = 3 * i;
+      values[i] = 1 + random.nextDouble() * 4;
+    }
+    g.setTraffic(edges, values);
+    for (int s = 0; s < g.numVertices(); s++) {
+      for (int t = 0; t < g.numVertices(); t++) {
+        int target = t;
+        OrderedPair<int[], Double> expected
+          = Graphs.dijkstraAStar(g, s, v -> v == target, v -> 0);
+        OrderedPair<int[], Double> actual = Graphs.dijkstraAStar(
+          g, s, v -> v == target, Graphs.landmarkHeuristic(landmarks, t));
+        OrderedPair<int[], Double> bidirectional = Graphs.bidirectionalAStar(
+          g, s, t, Graphs.landmarkHeuristic(landmarks, t),
+          Graphs.landmarkHeuristicFrom(landmarks, s));
+        if (expected == null) {
+          assertNull(actual);
+          assertNull(bidirectional);
+          continue;
+        }
+        assertTrue(landmarks.lowerBound(s, t) <= expected.second());
+        assertEquals(expected.second(), actual.second(), 1e-9);
+        assertEquals(expected.second(), bidirectional.second(), 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Landmarks are distinct, and the bound is exact between a vertex and a
+   * landmark on a path.
+   */
+  @Test
+  public void testSelect() {
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 0; i < 10; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    for (int i = 0; i + 1 < 10; i++) {
+      builder.addEdge(i + "-" + (i + 1), Integer.toString(i),
+        Integer.toString(i + 1), 1);
+      builder.addEdge((i + 1) + "-" + i, Integer.toString(i + 1),
+        Integer.toString(i), 1);
+    }
+    CSRGraph g = builder.build();
+    Landmarks landmarks = Landmarks.select(g, 2);
+    // The ends of the path are farthest apart
+    assertEquals(9, landmarks.landmark(0));
+    assertEquals(0, landmarks.landmark(1));
+    assertEquals(5, landmarks.lowerBound(2, 7), 1e-5);
+    assertEquals(10, Landmarks.select(g, 20).size());
+  }
+
+  /**
+   * Need a landmark.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoLandmarks() {
+    Landmarks.select(GraphsTest.wikipediaCSR(), 0);
+  }
+}
@@ -0,0 +1,188 @@
+package edu.brown.cs.azhang6.graphs;
+
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for multilevel overlays and partitions.
+ *
+ * @author aaronzhang
+ */
+public class OverlayTest {
+
+  /**
+   * Cells are nested and no bigger than their max size.
+   */
+  @Test
+  public void testPartition() {
+    CSRGraph g = grid(12, 12, new Random(1));
+    Partition p = Partition.build(g, 5, 20, 60);
+    assertEquals(3, p.numLevels());
+    assertEquals(144, p.numVertices());
+    int[] maxSizes = {5, 20, 60};
+    for (int l = 0; l < p.numLevels(); l++) {
+      int[] sizes = new int[p.numCells(l)];
+      for (int v = 0; v < g.numVertices(); v++) {
+        sizes[p.cell(l, v)]++;
+        if (l > 0) {
+          assertEquals(p.cell(l, v), p.parent(l - 1, p.cell(l - 1, v)));
+        }
+      }
+      for (int size : sizes) {
+        assertTrue(size > 0 && size <= maxSizes[l]);
+      }
+    }
+  }
+
+  /**
+   * Bad cell sizes.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPartitionSizes() {
+    Partition.build(GraphsTest.wikipediaCSR(), 4, 4);
+  }
+
+  /**
+   * Queries agree with Dijkstra, before and after traffic changes.
+   */
+  @Test
+  public void testQuery() {
+    Random random = new Random(2);
+    CSRGraph g = grid(10, 10, random);
+    Overlay overlay = new Overlay(g, Partition.build(g, 4, 16, 50));
+    assertQueries(g, overlay);
+
+    // Change traffic on a few edges, then customize
+    int[] edges = new int[15];
+    double[] values = new double[edges.length];
+    for (int i = 0; i < edges.length; i++) {
+      edges[i] = random.nextInt(g.numEdges());
+      values[i] = 1 + 10 * random.nextDouble();
+    }
+    g.setTraffic(edges, values);
+    for (int e : edges) {
+      overlay.edgeChanged(e);
+    }
+    int customized = overlay.customize();
+    assertTrue(customized > 0);
+    assertEquals(0, overlay.customize());
+    assertQueries(g, overlay);
+
+    CSRGraph w = GraphsTest.wikipediaCSR();
+    assertQueries(w, new Overlay(w, Partition.build(w, 2, 3)));
+  }
+
+  /**
+   * A version keeps answering queries for its own traffic, with walks that
+   * agree with their weights, while changes wait for customization.
+   */
+  @Test
+  public void testVersions() {
+    Random random = new Random(3);
+    CSRGraph g = grid(10, 10, random);
+    Overlay overlay = new Overlay(g, Partition.build(g, 4, 16, 50));
+    Overlay.Version before = overlay.current();
+    CSRGraph pinned = g.snapshot();
+    int[] edges = new int[g.numEdges()];
+    double[] values = new double[edges.length];
+    for (int e = 0; e < edges.length; e++) {
+      edges[e] = e;
+      values[e] = 1 + 10 * random.nextDouble();
+    }
+    overlay.setTraffic(edges, values);
+    // Not customized yet, so queries still see the old traffic
+    assertSame(before, overlay.current());
+    assertQueries(pinned, before);
+    assertTrue(overlay.customize() > 0);
+    Overlay.Version after = overlay.current();
+    assertNotSame(before, after);
+    assertQueries(g, after);
+    assertQueries(pinned, before);
+  }
+
+  /**
+   * Grid with edges both ways between neighbors, a few missing, and random
+   * lengths.
+   *
+   * @param rows number of rows
+   * @param cols number of columns
+   * @param random random
+   * @return graph
+   */
+  private static CSRGraph grid(int rows, int cols, Random random) {
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int i = 0; i < rows * cols; i++) {
+      builder.addVertex(Integer.toString(i));
+    }
+    int id = 0;
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        int v = r * cols + c;
+        int[] neighbors = {c + 1 < cols ? v + 1 : -1,
+          r + 1 < rows ? v + cols : -1};
+        for (int w : neighbors) {
+          if (w == -1) {
+            continue;
+          }
+          // Some streets are one way
+          if (random.nextInt(5) != 0) {
+            builder.addEdge(Integer.toString(id++), Integer.toString(v),
+              Integer.toString(w), 1 + random.nextInt(9));
+          }
+          if (random.nextInt(5) != 0) {
+            builder.addEdge(Integer.toString(id++), Integer.toString(w),
+              Integer.toString(v), 1 + random.nextInt(9));
+          }
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Checks queries against Dijkstra between every pair of vertices, and that
+   * the walks returned are walks in the graph from source to target.
+   *
+   * @param g graph
+   * @param overlay overlay for graph
+   */
+  private static void assertQueries(CSRGraph g, Overlay overlay) {
+    assertQueries(g, overlay.current());
+  }
+
+  /**
+   * Checks queries on a version of an overlay against Dijkstra between every
+   * pair of vertices, and that the walks returned are walks in the graph from
+   * source to target whose weights add up.
+   *
+   * @param g graph with the version's traffic
+   * @param version version of overlay for graph
+   */
+  private static void assertQueries(CSRGraph g, Overlay.Version version) {
+    for (int s = 0; s < g.numVertices(); s++) {
+      for (int t = 0; t < g.numVertices(); t++) {
+        int target = t;
+        OrderedPair<int[], Double> expected
+          = Graphs.dijkstraAStar(g, s, v -> v == target, v -> 0);
+        OrderedPair<int[], Double> actual = Graphs.overlayQuery(version, s, t);
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        assertEquals(expected.second(), actual.second(), 1e-9);
+        double weight = 0;
+        int tail = s;
+        for (int e : actual.first()) {
+          assertEquals(tail, g.tail(e));
+          weight += g.weight(e);
+          tail = g.head(e);
+        }
+        assertEquals(t, tail);
+        assertEquals(actual.second(), weight, 1e-9);
+      }
+    }
+  }
+}
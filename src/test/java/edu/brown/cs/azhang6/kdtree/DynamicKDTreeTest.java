@@ -0,0 +1,199 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.Point;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static edu.brown.cs.azhang6.kdtree.KDTreeAssert.assertSameDistances;
+
+/**
+ * Tests for {@link DynamicKDTree}.
+ *
+ * @author aaronzhang
+ */
+public class DynamicKDTreeTest {
+
+  /**
+   * Unit tests for inserting, removing, and checking for elements.
+   */
+  @Test
+  public void unit() {
+    DynamicKDTree<Point> tree = new DynamicKDTree<>(new ArrayList<>());
+    assertEquals(0, tree.size());
+    assertTrue(tree.nearestNeighbors(new Point(0, 0), 3, null).isEmpty());
+    assertTrue(tree.insert(new Point(1, 2)));
+    assertFalse(tree.insert(new Point(1, 2)));
+    assertTrue(tree.contains(new Point(1, 2)));
+    assertFalse(tree.contains(null));
+    assertEquals(1, tree.size());
+    assertEquals(new Point(1, 2),
+      tree.nearestNeighbors(new Point(0, 0), 3, null).get(0).getDimensional());
+    assertTrue(tree.remove(new Point(1, 2)));
+    assertFalse(tree.remove(new Point(1, 2)));
+    assertFalse(tree.remove(null));
+    assertEquals(0, tree.size());
+
+    // Dimension mismatch
+    tree.insert(new Point(0, 0));
+    boolean caught1 = false;
+    try {
+      tree.insert(new Point(0, 0, 0));
+    } catch (IllegalArgumentException e) {
+      caught1 = true;
+    }
+    assertTrue(caught1);
+    boolean caught2 = false;
+    try {
+      tree.insert(null);
+    } catch (NullPointerException e) {
+      caught2 = true;
+    }
+    assertTrue(caught2);
+
+    // Repeated elements are kept once
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      points.add(new Point(i % 5, 0));
+    }
+    assertEquals(5, new DynamicKDTree<>(points).size());
+
+    // Trees built once can't be changed
+    boolean caught3 = false;
+    try {
+      new FlatKDTree<>(points).insert(new Point(0, 0));
+    } catch (UnsupportedOperationException e) {
+      caught3 = true;
+    }
+    assertTrue(caught3);
+    boolean caught4 = false;
+    try {
+      new KDNode<>(points, 0).remove(new Point(0, 0));
+    } catch (UnsupportedOperationException e) {
+      caught4 = true;
+    }
+    assertTrue(caught4);
+  }
+
+  /**
+   * Queries match checking every element after random inserts and removes,
+   * including removing elements and inserting them again.
+   */
+  @Test
+  public void random() {
+    Random random = new Random(18);
+    List<Point> initial = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      initial.add(randomPoint(random));
+    }
+    DynamicKDTree<Point> tree = new DynamicKDTree<>(initial);
+    List<Point> live = new ArrayList<>(new HashSet<>(initial));
+    List<Point> gone = new ArrayList<>();
+    for (int step = 0; step < 5000; step++) {
+      int op = random.nextInt(10);
+      if (op < 5) {
+        Point p = randomPoint(random);
+        assertEquals(!live.contains(p), tree.insert(p));
+        if (!live.contains(p)) {
+          live.add(p);
+        }
+      } else if (op < 8 && !live.isEmpty()) {
+        Point p = live.remove(random.nextInt(live.size()));
+        assertTrue(tree.remove(p));
+        gone.add(p);
+      } else if (!gone.isEmpty()) {
+        Point p = gone.remove(random.nextInt(gone.size()));
+        if (!live.contains(p)) {
+          assertTrue(tree.insert(p));
+          live.add(p);
+        }
+      }
+      if (step % 250 == 0) {
+        assertMatches(tree, live, random);
+      }
+    }
+    assertMatches(tree, live, random);
+    // The logarithmic method keeps few trees
+    assertTrue(tree.numTrees() <= 12);
+  }
+
+  /**
+   * Merges in the background on a pool give the same results, while queries
+   * keep running.
+   *
+   * @throws InterruptedException should not be thrown
+   */
+  @Test
+  public void background() throws InterruptedException {
+    Random random = new Random(18);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      DynamicKDTree<Point> tree = new DynamicKDTree<>(new ArrayList<>(), pool);
+      List<Point> live = new ArrayList<>();
+      for (int i = 0; i < 20 * DynamicKDTree.BUFFER_SIZE; i++) {
+        Point p = randomPoint(random);
+        if (tree.insert(p)) {
+          live.add(p);
+        }
+        if (i % 3 == 0) {
+          assertTrue(tree.remove(live.remove(random.nextInt(live.size()))));
+        }
+        if (i % 500 == 0) {
+          assertEquals(live.size(), tree.size());
+          assertEquals(live.size(), tree.withinRadius(new Point(0, 0),
+            Double.POSITIVE_INFINITY, null).size());
+        }
+      }
+      tree.awaitMerges();
+      assertMatches(tree, live, random);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * @param random random number generator
+   * @return point with small integer coordinates, so some repeat
+   */
+  private static Point randomPoint(Random random) {
+    return new Point(random.nextInt(100), random.nextInt(100));
+  }
+
+  /**
+   * Checks size, containment, and queries against a stub of the live
+   * elements.
+   *
+   * @param tree tree
+   * @param live elements that should be in the tree
+   * @param random random number generator
+   */
+  private static void assertMatches(DynamicKDTree<Point> tree,
+    List<Point> live, Random random) {
+    assertEquals(live.size(), tree.size());
+    for (Point p : live) {
+      assertTrue(tree.contains(p));
+    }
+    KDTreeStub<Point> stub = new KDTreeStub<>(live);
+    for (int i = 0; i < 20; i++) {
+      Point query = randomPoint(random);
+      int n = 1 + random.nextInt(20);
+      assertSameDistances(stub.nearestNeighbors(query, n, null),
+        tree.nearestNeighbors(query, n, null));
+      double r = random.nextInt(15);
+      assertSameDistances(stub.withinRadius(query, r, null),
+        tree.withinRadius(query, r, null));
+      Point max = new Point(query.getCoordinate(0) + r,
+        query.getCoordinate(1) + r);
+      assertEquals(new HashSet<>(stub.inBox(query, max)),
+        new HashSet<>(tree.inBox(query, max)));
+      assertEquals(stub.inBox(query, max).size(),
+        tree.inBox(query, max).size());
+    }
+  }
+}
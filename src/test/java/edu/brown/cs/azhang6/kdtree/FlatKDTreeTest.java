@@ -0,0 +1,251 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.LatLng;
+import edu.brown.cs.azhang6.dimension.Point;
+import edu.brown.cs.azhang6.stars.Star;
+import edu.brown.cs.azhang6.stars.StarsReader;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link FlatKDTree}.
+ *
+ * @author aaronzhang
+ */
+public class FlatKDTreeTest {
+
+  /**
+   * Unit tests for the constructor, {@link FlatKDTree#size()}, and
+   * {@link FlatKDTree#contains(Dimensional)}, including empty trees and
+   * repeated coordinates.
+   */
+  @Test
+  public void unit() {
+    // Empty tree
+    List<Point> points = new ArrayList<>();
+    FlatKDTree<Point> empty = new FlatKDTree<>(points);
+    assertEquals(empty.size(), 0);
+    assertFalse(empty.contains(new Point(0, 0)));
+    assertTrue(empty.nearestNeighbors(new Point(0, 0), 3, null).isEmpty());
+    assertTrue(empty.withinRadius(new Point(0, 0), 3, null).isEmpty());
+
+    // Many points on a line, with many repeated coordinates
+    for (int i = 0; i < 200; i++) {
+      points.add(new Point(i % 7, 0));
+    }
+    FlatKDTree<Point> tree = new FlatKDTree<>(points);
+    assertEquals(tree.size(), 200);
+    for (Point p : points) {
+      assertTrue(tree.contains(p));
+    }
+    assertFalse(tree.contains(new Point(7, 0)));
+    assertFalse(tree.contains(new Point(0, 0, 0)));
+    assertFalse(tree.contains(null));
+    assertEquals(tree.withinRadius(new Point(3, 0), 0, null).size(), 29);
+    assertEquals(tree.nearestNeighbors(new Point(3, 0.5), 40, null).size(),
+      40);
+
+    // Every point the same
+    List<Point> same = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      same.add(new Point(1, 2));
+    }
+    FlatKDTree<Point> sameTree = new FlatKDTree<>(same);
+    assertEquals(sameTree.size(), 50);
+    assertEquals(sameTree.withinRadius(new Point(1, 2), 0, null).size(), 50);
+
+    // Throw an exception for a dimension mismatch
+    points.add(new Point(50));
+    boolean caught = false;
+    try {
+      new FlatKDTree<>(points);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
+
+  /**
+   * Checks queries against the oracle on stars and on points on the globe.
+   *
+   * @throws Exception should not be thrown
+   */
+  @Test
+  public void integration() throws Exception {
+    // File with 1000 lines
+    StarsReader reader = new StarsReader("files/stardata-med.csv", ",");
+    List<Star> stars = reader.readToList();
+    FlatKDTree<Star> tree = new FlatKDTree<>(stars);
+    assertEquals(tree.size(), stars.size());
+
+    // Invalid arguments
+    boolean caught1 = false;
+    try {
+      tree.nearestNeighbors(new Point(0, 0), 1, null);
+    } catch (IllegalArgumentException e) {
+      caught1 = true;
+    }
+    assertTrue(caught1);
+    boolean caught2 = false;
+    try {
+      tree.withinRadius(new Point(0, 0, 0), -0.1, null);
+    } catch (IllegalArgumentException e) {
+      caught2 = true;
+    }
+    assertTrue(caught2);
+    boolean caught3 = false;
+    try {
+      tree.nearestNeighbors(null, 5, null);
+    } catch (NullPointerException e) {
+      caught3 = true;
+    }
+    assertTrue(caught3);
+
+    KDTreeOracle<Star> oracle = new KDTreeOracle<>(tree, stars);
+    assertTrue(oracle.testNearestNeighbors());
+    assertTrue(oracle.testRadiusSearch());
+
+    // Great-circle distance, measured from the flat coordinates
+    Random random = new Random(11);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      lls.add(new LatLng(random.nextDouble() * 2 + 41,
+        random.nextDouble() * 2 - 72));
+    }
+    FlatKDTree<LatLng> llTree = new FlatKDTree<>(lls);
+    KDTreeOracle<LatLng> llOracle
+      = new KDTreeOracle<>(llTree, lls, LatLng::new);
+    assertTrue(llOracle.testNearestNeighbors());
+    assertTrue(llOracle.testRadiusSearch());
+  }
+
+  /**
+   * Box queries find the same elements as checking every element, for both
+   * kinds of tree.
+   *
+   * @throws Exception should not be thrown
+   */
+  @Test
+  public void inBox() throws Exception {
+    StarsReader reader = new StarsReader("files/stardata-med.csv", ",");
+    List<Star> stars = reader.readToList();
+    List<KDVertex<Star>> trees = new ArrayList<>();
+    trees.add(new KDNode<>(stars, 0));
+    trees.add(new FlatKDTree<>(stars));
+    trees.add(new KDTreeStub<>(stars));
+    Random random = new Random(15);
+    for (int i = 0; i < 50; i++) {
+      // Box around a star, so some boxes have corners on elements
+      Star center = stars.get(random.nextInt(stars.size()));
+      double[] low = new double[3];
+      double[] high = new double[3];
+      for (int c = 0; c < 3; c++) {
+        low[c] = center.getCoordinate(c) - random.nextInt(3) * 50;
+        high[c] = center.getCoordinate(c) + random.nextInt(3) * 50;
+      }
+      Point min = new Point(low);
+      Point max = new Point(high);
+      List<Star> expected = new ArrayList<>();
+      for (Star star : stars) {
+        if (KDLeaf.inBox(star, min, max)) {
+          expected.add(star);
+        }
+      }
+      assertTrue(expected.contains(center));
+      for (KDVertex<Star> tree : trees) {
+        List<Star> actual = tree.inBox(min, max);
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+      }
+    }
+
+    // Empty trees and dimension mismatches
+    assertTrue(new FlatKDTree<Star>(new ArrayList<>())
+      .inBox(new Point(0, 0, 0), new Point(1, 1, 1)).isEmpty());
+    boolean caught = false;
+    try {
+      new FlatKDTree<>(stars).inBox(new Point(0, 0), new Point(1, 1));
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
+
+  /**
+   * Building in parallel lays out the same tree as building on one thread.
+   */
+  @Test
+  public void parallel() {
+    Random random = new Random(17);
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 4 * FlatKDTree.PARALLEL_SIZE; i++) {
+      // Some repeated coordinates
+      points.add(new Point(random.nextInt(1000), random.nextDouble()));
+    }
+    FlatKDTree<Point> sequential = new FlatKDTree<>(points);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      FlatKDTree<Point> parallel = new FlatKDTree<>(points, pool);
+      assertEquals(sequential.toString(), parallel.toString());
+      assertEquals(points.size(), parallel.size());
+      for (int i = 0; i < 50; i++) {
+        Point query = points.get(random.nextInt(points.size()));
+        assertTrue(parallel.contains(query));
+        assertEquals(sequential.nearestNeighbors(query, 20, null),
+          parallel.nearestNeighbors(query, 20, null));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Searching in parallel finds the same elements as searching on one
+   * thread.
+   */
+  @Test
+  public void parallelQueries() {
+    Random random = new Random(21);
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 4 * FlatKDTree.PARALLEL_SIZE; i++) {
+      points.add(new Point(random.nextInt(1000), random.nextInt(1000)));
+    }
+    List<KDVertex<Point>> trees = new ArrayList<>();
+    trees.add(new FlatKDTree<>(points));
+    trees.add(new DynamicKDTree<>(points));
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (KDVertex<Point> tree : trees) {
+        for (int i = 0; i < 20; i++) {
+          Point query = new Point(random.nextInt(1000), random.nextInt(1000));
+          double r = random.nextInt(400);
+          List<DimensionalDistance<Point>> sequential = new ArrayList<>();
+          tree.withinRadius(query, r, p -> p.getCoordinate(0) < 100,
+            sequential);
+          List<DimensionalDistance<Point>> parallel = new ArrayList<>();
+          tree.withinRadius(query, r, p -> p.getCoordinate(0) < 100,
+            parallel, pool);
+          assertEquals(sequential.size(), parallel.size());
+          assertEquals(new HashSet<>(sequential), new HashSet<>(parallel));
+          Point max = new Point(query.getCoordinate(0) + r,
+            query.getCoordinate(1) + r);
+          List<Point> inBox = new ArrayList<>();
+          tree.inBox(query, max, inBox, pool);
+          assertEquals(tree.inBox(query, max).size(), inBox.size());
+          assertEquals(new HashSet<>(tree.inBox(query, max)),
+            new HashSet<>(inBox));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -12,6 +12,7 @@ import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import org.junit.Test;
@@ -79,6 +80,24 @@ public class KDNodeTest {
     }
     assertTrue(caught4);
 
+    // Mismatches after the first element are caught too, however the tree is
+    // built
+    List<Point> mixed = new ArrayList<>();
+    mixed.add(new Point(1, 2));
+    mixed.add(new Point(3, 4, 5));
+    try {
+      new KDNode<>(mixed, 0);
+      fail("built a tree with a dimension mismatch");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      new KDNodeParallel<>(mixed, 0);
+      fail("built a parallel tree with a dimension mismatch");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
     // Null argument in constructor
     boolean caught5 = false;
     try {
@@ -213,9 +232,51 @@ public class KDNodeTest {
     assertTrue(oracle.testRadiusSearch());
 
     // Oracle tests for parallel kd-tree
-    KDNodeParallel<Star> treeParallel = new KDNodeParallel<>(stars, 0, 3);
+    KDNodeParallel<Star> treeParallel = new KDNodeParallel<>(stars, 0);
     KDTreeOracle<Star> oracleParallel = new KDTreeOracle<>(treeParallel, stars);
     assertTrue(oracleParallel.testNearestNeighbors());
     assertTrue(oracleParallel.testRadiusSearch());
   }
+
+  /**
+   * Bulk loading splits at the exact median, so with distinct coordinates
+   * the halves of every node differ in size by at most one, and repeated
+   * points don't break construction.
+   */
+  @Test
+  public void balanced() {
+    Random random = new Random(16);
+    List<Point> points = new ArrayList<>();
+    // Enough points to build in parallel
+    for (int i = 0; i < 4 * KDNodeParallel.PARALLEL_SIZE; i++) {
+      points.add(new Point(random.nextDouble(), random.nextDouble()));
+    }
+    assertBalanced(new KDNode<>(points, 0));
+    KDNodeParallel<Point> parallel = new KDNodeParallel<>(points, 0);
+    assertBalanced(parallel);
+    assertEquals(points.size(), parallel.size());
+
+    List<Point> same = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      same.add(new Point(i % 2, 3));
+    }
+    KDNode<Point> sameTree = new KDNode<>(same, 1);
+    assertEquals(100, sameTree.size());
+    assertEquals(50, sameTree.withinRadius(new Point(0, 3), 0, null).size());
+  }
+
+  /**
+   * Checks that the subtrees of each node differ in size by at most one.
+   *
+   * @param vertex root of tree
+   */
+  private static void assertBalanced(KDVertex<?> vertex) {
+    if (vertex instanceof KDNode) {
+      KDNode<?> node = (KDNode<?>) vertex;
+      assertTrue(Math.abs(node.getLeft().size() - node.getRight().size())
+        <= 1);
+      assertBalanced(node.getLeft());
+      assertBalanced(node.getRight());
+    }
+  }
 }
@@ -1,6 +1,8 @@
 package edu.brown.cs.azhang6.kdtree;
 
 import edu.brown.cs.azhang6.db.Database;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
 import edu.brown.cs.azhang6.dimension.LatLng;
 import edu.brown.cs.azhang6.maps.Node;
 import edu.brown.cs.azhang6.maps.NodeProxy;
@@ -8,10 +10,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import static edu.brown.cs.azhang6.kdtree.KDTreeAssert.assertSameDistances;
 
 /**
  * Uses KD-tree oracle to test {@link LatLngKDTree}.
@@ -116,6 +123,246 @@ public class LatLngKDTreeTest {
       .get(0).getDimensional(), b1);
   }
 
+  /**
+   * Queries near the antimeridian and the poles match great-circle distance
+   * without duplicates, for both kinds of tree.
+   */
+  @Test
+  public void testAntimeridian() {
+    Random random = new Random(13);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      // Near the antimeridian, on both sides
+      double lng = 175 + random.nextDouble() * 5;
+      lls.add(new LatLng(random.nextDouble() * 20 - 10,
+        random.nextBoolean() ? lng : -lng));
+      // Anywhere else
+      lls.add(new LatLng(random.nextDouble() * 20 - 10,
+        random.nextDouble() * 360 - 180));
+      // Near the poles, where meridians converge
+      lls.add(new LatLng(random.nextBoolean() ? 80 + random.nextDouble() * 10
+        : -80 - random.nextDouble() * 10, random.nextDouble() * 360 - 180));
+    }
+    KDTreeStub<LatLng> stub = new KDTreeStub<>(lls);
+    List<LatLngKDTree<LatLng>> trees = new ArrayList<>();
+    trees.add(new LatLngKDTree<>(new KDNode<>(lls, 0)));
+    trees.add(new LatLngKDTree<>(new FlatKDTree<>(lls)));
+    for (LatLngKDTree<LatLng> tree : trees) {
+      for (int i = 0; i < 100; i++) {
+        LatLng query = i % 2 == 0 ? lls.get(i)
+          : new LatLng(random.nextDouble() * 180 - 90,
+            random.nextDouble() * 360 - 180);
+        int n = 1 + random.nextInt(30);
+        assertSameResults(stub.nearestNeighbors(query, n, null),
+          tree.nearestNeighbors(query, n, null));
+        double r = random.nextDouble() * 1500;
+        assertSameResults(stub.withinRadius(query, r, null),
+          tree.withinRadius(query, r, null));
+      }
+    }
+  }
+
+  /**
+   * Box queries find every element in boxes that cross the antimeridian, and
+   * find each only once.
+   */
+  @Test
+  public void testInBox() {
+    Random random = new Random(15);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      lls.add(new LatLng(random.nextDouble() * 180 - 90,
+        random.nextDouble() * 360 - 180));
+    }
+    lls.add(new LatLng(0, 180));
+    lls.add(new LatLng(0, -180));
+    List<LatLngKDTree<LatLng>> trees = new ArrayList<>();
+    trees.add(new LatLngKDTree<>(new KDNode<>(lls, 0)));
+    trees.add(new LatLngKDTree<>(new FlatKDTree<>(lls)));
+    double[][] boxes = {
+      {-10, 170, 10, 190},
+      {-10, -190, 10, -170},
+      {-10, -180, 10, -170},
+      {-10, 170, 10, 180},
+      {-10, 200, 10, 220},
+      {-90, -200, 90, 200},
+      {-45, -30, 45, 30},
+      {20, -60, 80, 280}
+    };
+    for (double[] box : boxes) {
+      LatLng min = new LatLng(box[0], box[1]);
+      LatLng max = new LatLng(box[2], box[3]);
+      List<LatLng> expected = new ArrayList<>();
+      for (LatLng ll : lls) {
+        double lng = ll.getLng();
+        if (ll.getLat() >= box[0] && ll.getLat() <= box[2]
+          && (lng >= box[1] && lng <= box[3]
+          || lng + 360 >= box[1] && lng + 360 <= box[3]
+          || lng - 360 >= box[1] && lng - 360 <= box[3])) {
+          expected.add(ll);
+        }
+      }
+      for (LatLngKDTree<LatLng> tree : trees) {
+        List<LatLng> actual = tree.inBox(min, max);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+      }
+    }
+  }
+
+  /**
+   * Snapping a batch finds the same distances as snapping each point alone,
+   * in parallel or not, and nothing when everything is ignored.
+   */
+  @Test
+  public void testSnap() {
+    Random random = new Random(20);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      lls.add(new LatLng(random.nextDouble() * 180 - 90,
+        random.nextDouble() * 360 - 180));
+    }
+    LatLngKDTree<LatLng> tree = new LatLngKDTree<>(new FlatKDTree<>(lls));
+    int n = 3 * LatLngKDTree.BATCH_SIZE + 7;
+    double[] lats = new double[n];
+    double[] lngs = new double[n];
+    for (int i = 0; i < n; i++) {
+      lats[i] = random.nextDouble() * 180 - 90;
+      lngs[i] = random.nextDouble() * 360 - 180;
+    }
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      for (ForkJoinPool p : new ForkJoinPool[]{null, pool}) {
+        LatLng[] nearest = new LatLng[n];
+        tree.snap(lats, lngs, null, nearest, p);
+        for (int i = 0; i < n; i++) {
+          LatLng query = new LatLng(lats[i], lngs[i]);
+          assertEquals(tree.nearestNeighbors(query, 1, null).get(0)
+            .getDistance(), nearest[i].distanceTo(query), 1e-9);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    LatLng[] none = new LatLng[2];
+    tree.snap(new double[]{0, 1}, new double[]{0, 1}, ll -> true, none, null);
+    assertNull(none[0]);
+    assertNull(none[1]);
+    boolean caught = false;
+    try {
+      tree.snap(new double[1], new double[2], null, new LatLng[1], null);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+    // Neighbouring cells are next to each other on the curve
+    assertEquals(1, Math.abs(LatLngKDTree.hilbertIndex(-90, -180)
+      - LatLngKDTree.hilbertIndex(-90, -180 + 360.0 / (1 << 16))));
+  }
+
+  /**
+   * Trees measure distances with their own kernel, whatever the kernel of the
+   * query, also across the antimeridian.
+   */
+  @Test
+  public void testKernel() {
+    Random random = new Random(25);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      double lng = 179.8 + random.nextDouble() * 0.4;
+      lls.add(new LatLng(41.5 + random.nextDouble() * 0.5,
+        lng > 180 ? lng - 360 : lng));
+    }
+    KDTreeStub<LatLng> stub = new KDTreeStub<>(lls);
+    LatLngKDTree<LatLng> tree = new LatLngKDTree<>(new FlatKDTree<>(lls),
+      DistanceKernel.EQUIRECTANGULAR);
+    for (int i = 0; i < 50; i++) {
+      double lng = 179.8 + random.nextDouble() * 0.4;
+      LatLng query = new LatLng(41.5 + random.nextDouble() * 0.5,
+        lng > 180 ? lng - 360 : lng);
+      LatLng flat = new LatLng(query.getLat(), query.getLng(),
+        DistanceKernel.EQUIRECTANGULAR);
+      int n = 1 + random.nextInt(10);
+      assertSameResults(stub.nearestNeighbors(flat, n, null),
+        tree.nearestNeighbors(query, n, null));
+      double r = random.nextDouble() * 10;
+      assertSameResults(stub.withinRadius(flat, r, null),
+        tree.withinRadius(query, r, null));
+    }
+  }
+
+  /**
+   * With every kernel, pruning by the kernel's bound finds the same elements
+   * as measuring every element, near the equator, where the ellipsoid is
+   * flattest along meridians, and near the antimeridian and the poles.
+   */
+  @Test
+  public void testKernelsBruteForce() {
+    Random random = new Random(25);
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 6000; i++) {
+      switch (i % 3) {
+        case 0:
+          lls.add(new LatLng(random.nextDouble() * 2 - 1,
+            random.nextDouble() * 2 - 1));
+          break;
+        case 1:
+          double lng = 179 + random.nextDouble() * 2;
+          lls.add(new LatLng(random.nextDouble() * 2 - 1,
+            lng > 180 ? lng - 360 : lng));
+          break;
+        default:
+          lls.add(new LatLng(88 + random.nextDouble() * 2,
+            random.nextDouble() * 360 - 180));
+          break;
+      }
+    }
+    for (DistanceKernel kernel : DistanceKernel.values()) {
+      KDTreeStub<LatLng> stub = new KDTreeStub<>(lls);
+      LatLngKDTree<LatLng> tree = new LatLngKDTree<>(new FlatKDTree<>(lls),
+        kernel);
+      for (int i = 0; i < 300; i++) {
+        LatLng query = lls.get(random.nextInt(lls.size()));
+        LatLng measured = new LatLng(query.getLat(),
+          Math.min(180, query.getLng() + random.nextDouble() * 0.1), kernel);
+        int n = 1 + random.nextInt(20);
+        List<DimensionalDistance<LatLng>> nearest =
+          stub.nearestNeighbors(measured, n, null);
+        assertSameResults(nearest, tree.nearestNeighbors(measured, n, null));
+        // The farthest of them is right on the boundary, where the kernel
+        // and the great-circle distance disagree; the slack covers rounding
+        // in measuring from flat coordinates
+        double r = nearest.get(n - 1).getDistance() + 1e-9;
+        assertEquals(elements(stub.withinRadius(measured, r, null)),
+          elements(tree.withinRadius(measured, r, null)));
+      }
+    }
+  }
+
+  /**
+   * @param results query results
+   * @return elements of results
+   */
+  private static Set<LatLng> elements(
+    List<DimensionalDistance<LatLng>> results) {
+    return results.stream().map(DimensionalDistance::getDimensional)
+      .collect(Collectors.toSet());
+  }
+
+  /**
+   * Checks that query results have the same distances in the same order, and
+   * no element twice.
+   *
+   * @param expected expected results
+   * @param actual actual results
+   */
+  private static void assertSameResults(
+    List<DimensionalDistance<LatLng>> expected,
+    List<DimensionalDistance<LatLng>> actual) {
+    assertSameDistances(expected, actual, 1e-6);
+    assertEquals(actual.size(), elements(actual).size());
+  }
+
   /**
    * Generates random LatLng to use in tests.
    *
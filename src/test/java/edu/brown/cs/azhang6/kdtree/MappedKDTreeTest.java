@@ -0,0 +1,228 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.Point;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static edu.brown.cs.azhang6.kdtree.KDTreeAssert.assertSameDistances;
+
+/**
+ * Tests for {@link MappedKDTree}.
+ *
+ * @author aaronzhang
+ */
+public class MappedKDTreeTest {
+
+  /**
+   * A saved tree maps back with the same elements and gives the same results
+   * as checking every element.
+   *
+   * @throws IOException if temporary file can't be used
+   */
+  @Test
+  public void saveOpen() throws IOException {
+    Random random = new Random(19);
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      points.add(new Point(random.nextInt(100), random.nextInt(100)));
+    }
+    File file = File.createTempFile("points", ".kd");
+    try {
+      MappedKDTree.save(new FlatKDTree<>(points), MappedKDTreeTest::key, 7,
+        file);
+      MappedKDTree<Point> tree = open(file, 7);
+      assertEquals(points.size(), tree.size());
+      for (Point p : points) {
+        assertTrue(tree.contains(p));
+      }
+      assertFalse(tree.contains(new Point(0.5, 0.5)));
+      assertFalse(tree.contains(new Point(0, 0, 0)));
+      assertFalse(tree.contains(null));
+      KDTreeStub<Point> stub = new KDTreeStub<>(points);
+      for (int i = 0; i < 20; i++) {
+        Point query = new Point(random.nextInt(100), random.nextInt(100));
+        int n = 1 + random.nextInt(20);
+        assertSameDistances(stub.nearestNeighbors(query, n, null),
+          tree.nearestNeighbors(query, n, null));
+        double r = random.nextInt(15);
+        assertSameDistances(stub.withinRadius(query, r, null),
+          tree.withinRadius(query, r, null));
+        Point max = new Point(query.getCoordinate(0) + r,
+          query.getCoordinate(1) + r);
+        assertEquals(new HashSet<>(stub.inBox(query, max)),
+          new HashSet<>(tree.inBox(query, max)));
+      }
+      // Predicates see the elements
+      Point origin = new Point(0, 0);
+      assertTrue(tree.withinRadius(origin, 50,
+        p -> p.getCoordinate(0) < 10).stream()
+        .allMatch(dd -> dd.getDimensional().getCoordinate(0) >= 10));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Searching in parallel finds the same elements as searching on one
+   * thread.
+   *
+   * @throws IOException if temporary file can't be used
+   */
+  @Test
+  public void parallel() throws IOException {
+    Random random = new Random(21);
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 3 * FlatKDTree.PARALLEL_SIZE; i++) {
+      points.add(new Point(random.nextDouble(), random.nextDouble()));
+    }
+    File file = File.createTempFile("points", ".kd");
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      MappedKDTree.save(new FlatKDTree<>(points), MappedKDTreeTest::key, 7,
+        file);
+      MappedKDTree<Point> tree = open(file, 7);
+      for (int i = 0; i < 10; i++) {
+        Point query = new Point(random.nextDouble(), random.nextDouble());
+        double r = random.nextDouble() / 2;
+        List<DimensionalDistance<Point>> parallel = new ArrayList<>();
+        tree.withinRadius(query, r, null, parallel, pool);
+        assertEquals(new HashSet<>(tree.withinRadius(query, r, null)),
+          new HashSet<>(parallel));
+        Point max = new Point(query.getCoordinate(0) + r,
+          query.getCoordinate(1) + r);
+        List<Point> inBox = new ArrayList<>();
+        tree.inBox(query, max, inBox, pool);
+        assertEquals(new HashSet<>(tree.inBox(query, max)),
+          new HashSet<>(inBox));
+        assertEquals(tree.inBox(query, max).size(), inBox.size());
+      }
+    } finally {
+      pool.shutdown();
+      file.delete();
+    }
+  }
+
+  /**
+   * Files that weren't saved with the fingerprint, or are cut short, don't
+   * open; empty trees do.
+   *
+   * @throws IOException if temporary file can't be used
+   */
+  @Test
+  public void badFiles() throws IOException {
+    File file = File.createTempFile("points", ".kd");
+    try {
+      List<Point> points = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        points.add(new Point(i, -i));
+      }
+      MappedKDTree.save(new FlatKDTree<>(points), MappedKDTreeTest::key, 7,
+        file);
+      try {
+        open(file, 8);
+        fail("opened tree saved with another fingerprint");
+      } catch (IOException e) {
+        // Expected
+      }
+      try (FileOutputStream out = new FileOutputStream(file, true)) {
+        out.write(0);
+      }
+      try {
+        open(file, 7);
+        fail("opened tree with extra bytes");
+      } catch (IOException e) {
+        // Expected
+      }
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        out.write(new byte[]{1, 2, 3});
+      }
+      try {
+        open(file, 7);
+        fail("opened file that isn't a tree");
+      } catch (IOException e) {
+        // Expected
+      }
+
+      MappedKDTree.save(new FlatKDTree<>(new ArrayList<>()),
+        MappedKDTreeTest::key, 7, file);
+      MappedKDTree<Point> empty = open(file, 7);
+      assertEquals(0, empty.size());
+      assertTrue(empty.nearestNeighbors(new Point(0, 0), 3, null).isEmpty());
+      assertTrue(empty.inBox(new Point(0, 0), new Point(1, 1)).isEmpty());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * A dynamic tree can change the elements of a mapped tree it starts from.
+   *
+   * @throws IOException if temporary file can't be used
+   */
+  @Test
+  public void dynamicBase() throws IOException {
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      points.add(new Point(i % 25, i / 25));
+    }
+    File file = File.createTempFile("points", ".kd");
+    try {
+      MappedKDTree.save(new FlatKDTree<>(points), MappedKDTreeTest::key, 7,
+        file);
+      DynamicKDTree<Point> tree = new DynamicKDTree<>(open(file, 7), null);
+      assertEquals(500, tree.size());
+      assertFalse(tree.insert(new Point(3, 4)));
+      assertTrue(tree.remove(new Point(3, 4)));
+      assertFalse(tree.remove(new Point(3, 4)));
+      assertFalse(tree.contains(new Point(3, 4)));
+      assertTrue(tree.insert(new Point(3.5, 4)));
+      assertEquals(500, tree.size());
+      assertEquals(new Point(3.5, 4), tree.nearestNeighbors(new Point(3, 4),
+        1, null).get(0).getDimensional());
+      assertTrue(tree.insert(new Point(3, 4)));
+      assertTrue(tree.contains(new Point(3, 4)));
+      assertEquals(501, tree.size());
+      assertEquals(501, tree.inBox(new Point(-1, -1), new Point(30, 30))
+        .size());
+      boolean caught = false;
+      try {
+        tree.insert(new Point(0, 0, 0));
+      } catch (IllegalArgumentException e) {
+        caught = true;
+      }
+      assertTrue(caught);
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * @param p point
+   * @return key of point
+   */
+  private static String key(Point p) {
+    return p.toString();
+  }
+
+  /**
+   * @param file file
+   * @param fingerprint fingerprint
+   * @return tree of points saved in file
+   * @throws IOException if file isn't a saved tree with the fingerprint
+   */
+  private static MappedKDTree<Point> open(File file, long fingerprint)
+    throws IOException {
+    return MappedKDTree.open(file, fingerprint, MappedKDTreeTest::key,
+      (key, c) -> new Point(c));
+  }
+}
@@ -0,0 +1,97 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.Point;
+import edu.brown.cs.azhang6.stars.Star;
+import edu.brown.cs.azhang6.stars.StarsReader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link NeighborHeap}.
+ *
+ * @author aaronzhang
+ */
+public class NeighborHeapTest {
+
+  /**
+   * Keeps the nearest elements offered, and can be reused.
+   */
+  @Test
+  public void unit() {
+    boolean caught = false;
+    try {
+      new NeighborHeap<Point>(-1);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+
+    // Nothing fits in an empty heap
+    NeighborHeap<Point> empty = new NeighborHeap<>(0);
+    assertFalse(empty.offer(new Point(0), 0));
+    assertTrue(empty.toList().isEmpty());
+
+    Random random = new Random(12);
+    NeighborHeap<Point> heap = new NeighborHeap<>(25);
+    for (int trial = 0; trial < 3; trial++) {
+      heap.reset(25 * trial + 1);
+      List<Double> offered = new ArrayList<>();
+      assertEquals(Double.POSITIVE_INFINITY, heap.bound(), 0);
+      for (int i = 0; i < 500; i++) {
+        double distance = random.nextInt(200);
+        offered.add(distance);
+        heap.offer(new Point(distance), distance);
+      }
+      Collections.sort(offered);
+      List<DimensionalDistance<Point>> nearest = heap.toList();
+      assertEquals(heap.capacity(), nearest.size());
+      assertEquals(heap.capacity(), heap.size());
+      for (int i = 0; i < nearest.size(); i++) {
+        assertEquals(offered.get(i), nearest.get(i).getDistance(), 0);
+        assertEquals(offered.get(i),
+          nearest.get(i).getDimensional().getCoordinate(0), 0);
+      }
+      assertEquals(offered.get(heap.capacity() - 1), heap.bound(), 0);
+      // Listing leaves the heap alone
+      assertEquals(nearest, heap.toList());
+    }
+  }
+
+  /**
+   * k-d trees give the same results searching with a heap as with a list.
+   *
+   * @throws Exception should not be thrown
+   */
+  @Test
+  public void trees() throws Exception {
+    StarsReader reader = new StarsReader("files/stardata-med.csv", ",");
+    List<Star> stars = reader.readToList();
+    List<KDVertex<Star>> trees = new ArrayList<>();
+    trees.add(new KDNode<>(stars, 0));
+    trees.add(new FlatKDTree<>(stars));
+    KDTreeStub<Star> stub = new KDTreeStub<>(stars);
+    NeighborHeap<Star> heap = new NeighborHeap<>(1);
+    for (KDVertex<Star> tree : trees) {
+      for (int n : new int[]{1, 10, 500, 2000}) {
+        Star query = stars.get(n % stars.size());
+        List<DimensionalDistance<Star>> expected
+          = stub.nearestNeighbors(query, n, null);
+        heap.reset(n);
+        tree.nearestNeighbors(query, null, heap);
+        List<DimensionalDistance<Star>> actual = heap.toList();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+          assertEquals(expected.get(i).getDistance(),
+            actual.get(i).getDistance(), 1e-9);
+        }
+      }
+    }
+  }
+}
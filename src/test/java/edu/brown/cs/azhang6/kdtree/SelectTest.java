@@ -0,0 +1,101 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Select}.
+ *
+ * @author aaronzhang
+ */
+public class SelectTest {
+
+  /**
+   * Selects the same key as sorting, and keeps each item with its key, on
+   * random, sorted, reversed, and repetitive keys.
+   */
+  @Test
+  public void select() {
+    Random random = new Random(16);
+    for (int trial = 0; trial < 200; trial++) {
+      int n = 1 + random.nextInt(300);
+      double[] keys = new double[n];
+      for (int i = 0; i < n; i++) {
+        switch (trial % 4) {
+          case 0:
+            keys[i] = random.nextDouble();
+            break;
+          case 1:
+            keys[i] = i;
+            break;
+          case 2:
+            keys[i] = n - i;
+            break;
+          default:
+            keys[i] = random.nextInt(3);
+        }
+      }
+      double[] original = Arrays.copyOf(keys, n);
+      int[] items = new int[n];
+      for (int i = 0; i < n; i++) {
+        items[i] = i;
+      }
+      double[] sorted = Arrays.copyOf(keys, n);
+      Arrays.sort(sorted);
+      int k = random.nextInt(n);
+      Select.select(keys, items, 0, n, k);
+      assertEquals(sorted[k], keys[k], 0);
+      for (int i = 0; i < n; i++) {
+        assertEquals(original[items[i]], keys[i], 0);
+        if (i < k) {
+          assertTrue(keys[i] <= keys[k]);
+        } else if (i > k) {
+          assertTrue(keys[i] >= keys[k]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Splits in half where keys allow, with keys less than the split first.
+   */
+  @Test
+  public void splitAtMedian() {
+    Random random = new Random(16);
+    for (int trial = 0; trial < 200; trial++) {
+      int n = 1 + random.nextInt(300);
+      double[] keys = new double[n];
+      for (int i = 0; i < n; i++) {
+        keys[i] = trial % 2 == 0 ? random.nextDouble() : random.nextInt(3);
+      }
+      int[] items = new int[n];
+      int middle = Select.splitAtMedian(keys, items, 0, n);
+      if (middle == -1) {
+        for (double key : keys) {
+          assertEquals(keys[0], key, 0);
+        }
+        continue;
+      }
+      assertTrue(middle > 0 && middle < n);
+      double split = keys[middle];
+      for (int i = 0; i < n; i++) {
+        assertEquals(i < middle, keys[i] < split);
+      }
+      if (trial % 2 == 0) {
+        // Distinct keys split exactly in half
+        assertEquals(n / 2, middle);
+      }
+    }
+
+    // All the same
+    assertEquals(-1, Select.splitAtMedian(new double[]{2, 2, 2}, new int[3],
+      0, 3));
+    // Median is also the least key
+    double[] keys = {1, 1, 1, 1, 5, 3};
+    assertEquals(4, Select.splitAtMedian(keys, new int[6], 0, 6));
+    assertEquals(3, keys[4], 0);
+  }
+}
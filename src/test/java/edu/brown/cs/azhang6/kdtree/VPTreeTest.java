@@ -0,0 +1,234 @@
+package edu.brown.cs.azhang6.kdtree;
+
+import edu.brown.cs.azhang6.dimension.Dimensional;
+import edu.brown.cs.azhang6.dimension.DimensionalDistance;
+import edu.brown.cs.azhang6.dimension.LatLng;
+import edu.brown.cs.azhang6.dimension.Point;
+import edu.brown.cs.azhang6.stars.Star;
+import edu.brown.cs.azhang6.stars.StarsReader;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static edu.brown.cs.azhang6.kdtree.KDTreeAssert.assertSameDistances;
+
+/**
+ * Tests for {@link VPTree}.
+ *
+ * @author aaronzhang
+ */
+public class VPTreeTest {
+
+  /**
+   * Unit tests for empty trees, containment, and arguments.
+   */
+  @Test
+  public void unit() {
+    VPTree<Point> empty = new VPTree<>(new ArrayList<>());
+    assertEquals(0, empty.size());
+    assertFalse(empty.contains(new Point(0, 0)));
+    assertTrue(empty.nearestNeighbors(new Point(0, 0), 3, null).isEmpty());
+    assertTrue(empty.withinRadius(new Point(0, 0), 3, null).isEmpty());
+
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      // Repeated points, some all the same distance from others
+      points.add(new Point(i % 7, 0));
+    }
+    VPTree<Point> tree = new VPTree<>(points);
+    assertEquals(100, tree.size());
+    for (int i = 0; i < 7; i++) {
+      assertTrue(tree.contains(new Point(i, 0)));
+    }
+    assertFalse(tree.contains(new Point(0.5, 0)));
+    assertFalse(tree.contains(null));
+    assertEquals(15, tree.withinRadius(new Point(0, 0), 0, null).size());
+
+    boolean caught1 = false;
+    try {
+      tree.withinRadius(new Point(0, 0), -1, null);
+    } catch (IllegalArgumentException e) {
+      caught1 = true;
+    }
+    assertTrue(caught1);
+    boolean caught2 = false;
+    try {
+      tree.nearestNeighbors(new Point(0, 0, 0), 1, null);
+    } catch (IllegalArgumentException e) {
+      caught2 = true;
+    }
+    assertTrue(caught2);
+    points.add(new Point(0, 0, 0));
+    boolean caught3 = false;
+    try {
+      new VPTree<>(points);
+    } catch (IllegalArgumentException e) {
+      caught3 = true;
+    }
+    assertTrue(caught3);
+  }
+
+  /**
+   * Queries match checking every element, for stars, points with many
+   * dimensions, and latitudes and longitudes near the poles and the
+   * antimeridian.
+   *
+   * @throws Exception should not be thrown
+   */
+  @Test
+  public void queries() throws Exception {
+    Random random = new Random(22);
+    StarsReader reader = new StarsReader("files/stardata-med.csv", ",");
+    List<Star> stars = reader.readToList();
+    assertMatches(stars, stars, random, 20);
+
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      double[] coordinates = new double[12];
+      for (int c = 0; c < coordinates.length; c++) {
+        coordinates[c] = random.nextDouble();
+      }
+      points.add(new Point(coordinates));
+    }
+    assertMatches(points, points.subList(0, 50), random, 0.5);
+
+    List<LatLng> lls = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      lls.add(new LatLng(80 + random.nextDouble() * 10,
+        random.nextDouble() * 360 - 180));
+      lls.add(new LatLng(random.nextDouble() * 180 - 90,
+        random.nextBoolean() ? 179.9 : -179.9));
+    }
+    List<LatLng> queries = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      queries.add(new LatLng(85 + random.nextDouble() * 5,
+        random.nextDouble() * 360 - 180));
+      queries.add(new LatLng(random.nextDouble() * 180 - 90, 180));
+    }
+    assertMatches(lls, queries, random, 500);
+  }
+
+  /**
+   * On points with many dimensions that lie near a curve, nearest neighbor
+   * searches measure fewer distances than a k-d tree, which splits on every
+   * coordinate in turn although the points only spread out along the curve.
+   */
+  @Test
+  public void fewerDistances() {
+    Random random = new Random(22);
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      points.add(curvePoint(random.nextDouble(), random));
+    }
+    VPTree<Point> vp = new VPTree<>(points);
+    FlatKDTree<Point> kd = new FlatKDTree<>(points);
+    long vpCount = 0;
+    long kdCount = 0;
+    for (int i = 0; i < 100; i++) {
+      Point p = curvePoint(random.nextDouble(), random);
+      CountingPoint query = new CountingPoint(p);
+      assertEquals(kd.nearestNeighbors(p, 5, null),
+        vp.nearestNeighbors(query, 5, null));
+      vpCount += query.count;
+      query = new CountingPoint(p);
+      kd.nearestNeighbors(query, 5, null);
+      kdCount += query.count;
+    }
+    assertTrue(vpCount < kdCount);
+  }
+
+  /**
+   * @param t position along the curve, from 0 to 1
+   * @param random random number generator
+   * @return point with 16 dimensions near the curve
+   */
+  private static Point curvePoint(double t, Random random) {
+    double[] coordinates = new double[16];
+    for (int c = 0; c < coordinates.length; c++) {
+      coordinates[c] = (c % 2 == 0 ? t : t * t)
+        + random.nextGaussian() * 0.01;
+    }
+    return new Point(coordinates);
+  }
+
+  /**
+   * Point that counts the distances measured from it.
+   */
+  private static class CountingPoint extends Point {
+
+    /**
+     * Number of distances measured.
+     */
+    private int count = 0;
+
+    /**
+     * @param p point to copy
+     */
+    CountingPoint(Point p) {
+      super(coordinates(p));
+    }
+
+    /**
+     * @param p point
+     * @return coordinates of point
+     */
+    private static double[] coordinates(Point p) {
+      double[] coordinates = new double[p.numDimensions()];
+      for (int c = 0; c < coordinates.length; c++) {
+        coordinates[c] = p.getCoordinate(c);
+      }
+      return coordinates;
+    }
+
+    @Override
+    public double distanceTo(Dimensional o) {
+      count++;
+      return super.distanceTo(o);
+    }
+
+    @Override
+    public double distanceTo(double[] other, int offset) {
+      count++;
+      return super.distanceTo(other, offset);
+    }
+  }
+
+  /**
+   * Checks that a vantage-point tree gives the same results as checking every
+   * element.
+   *
+   * @param <T> a dimensional type
+   * @param elements elements of tree
+   * @param queries points to query from
+   * @param random random number generator
+   * @param maxRadius greatest radius to search
+   */
+  private static <T extends Dimensional> void assertMatches(List<T> elements,
+    List<? extends Dimensional> queries, Random random, double maxRadius) {
+    VPTree<T> tree = new VPTree<>(elements);
+    KDTreeStub<T> stub = new KDTreeStub<>(elements);
+    assertEquals(elements.size(), tree.size());
+    for (T element : elements) {
+      assertTrue(tree.contains(element));
+    }
+    for (Dimensional query : queries) {
+      int n = 1 + random.nextInt(30);
+      assertSameDistances(stub.nearestNeighbors(query, n, null),
+        tree.nearestNeighbors(query, n, null));
+      double r = random.nextDouble() * maxRadius;
+      List<DimensionalDistance<T>> expected = stub.withinRadius(query, r, null);
+      List<DimensionalDistance<T>> actual = tree.withinRadius(query, r, null);
+      assertSameDistances(expected, actual);
+      assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+    }
+    // Box queries check every element
+    Dimensional min = elements.get(0);
+    Dimensional max = elements.get(1);
+    assertEquals(new HashSet<>(stub.inBox(min, max)),
+      new HashSet<>(tree.inBox(min, max)));
+  }
+}
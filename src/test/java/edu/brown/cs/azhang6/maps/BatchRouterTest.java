@@ -0,0 +1,135 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.db.Database;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BatchRouter}.
+ *
+ * @author aaronzhang
+ */
+public class BatchRouterTest {
+
+  /**
+   * Database.
+   */
+  private static Database db;
+
+  /**
+   * Opens database.
+   */
+  @BeforeClass
+  public static void setUpClass() {
+    try {
+      db = new Database("files/smallMaps.sqlite3");
+    } catch (ClassNotFoundException | SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Closes database.
+   */
+  @AfterClass
+  public static void tearDownClass() {
+    try {
+      if (db != null) {
+        db.close();
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Routes come out in input order, with errors in place, and lines are
+   * parsed in the pool rather than on the calling thread.
+   *
+   * @throws IOException never
+   */
+  @Test
+  public void testRouteAll() throws IOException {
+    RoadGraph roads = RoadGraph.load(db);
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      BatchRouter router = new BatchRouter(roads, pool, 10, 5000);
+      StringBuilder input = new StringBuilder();
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        int s = i % 6;
+        int t = (i * 7 + 1) % 6;
+        input.append(String.format("/n/%d /n/%d%n", s, t));
+        expected.append(router.route("/n/" + s, "/n/" + t))
+          .append(System.lineSeparator());
+        if (i % 10 == 0) {
+          input.append("bad\n\n");
+          expected.append("ERROR: bad line").append(System.lineSeparator());
+        }
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Set<Thread> parsers = ConcurrentHashMap.newKeySet();
+      router.routeAll(new BufferedReader(new StringReader(input.toString())),
+        new PrintStream(bytes, true, "UTF-8"), line -> {
+          parsers.add(Thread.currentThread());
+          String[] ids = line.split(" ");
+          if (ids.length != 2) {
+            throw new IllegalArgumentException("bad line");
+          }
+          return new OrderedPair<>(ids[0], ids[1]);
+        });
+      assertEquals(expected.toString(), bytes.toString("UTF-8"));
+      assertFalse(parsers.isEmpty());
+      assertFalse(parsers.contains(Thread.currentThread()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Formats routes like the REPL.
+   */
+  @Test
+  public void testRoute() {
+    BatchRouter router = new BatchRouter(
+      RoadGraph.load(db), ForkJoinPool.commonPool(), 10, 5000);
+    assertEquals("/n/0 -> /n/1 : /w/0", router.route("/n/0", "/n/1"));
+    assertEquals("/n/5 -/- /n/0", router.route("/n/5", "/n/0"));
+    assertEquals("/n/0 -/- nonexistent", router.route("/n/0", "nonexistent"));
+    assertEquals(3, router.route("/n/0", "/n/5").split("\n").length);
+  }
+
+  /**
+   * Traffic after the router is made doesn't affect it.
+   */
+  @Test
+  public void testSnapshot() {
+    RoadGraph roads = RoadGraph.load(db);
+    BatchRouter router = new BatchRouter(
+      roads, ForkJoinPool.commonPool(), 10, 5000);
+    String before = router.route("/n/0", "/n/5");
+    String[] ways = new String[7];
+    double[] traffic = new double[ways.length];
+    for (int w = 0; w < ways.length; w++) {
+      ways[w] = "/w/" + w;
+      traffic[w] = 50 + w;
+    }
+    roads.setTraffic(ways, traffic);
+    assertEquals(before, router.route("/n/0", "/n/5"));
+    // A new snapshot has the new traffic
+    int w0 = roads.getGraph().edgeIndex("/w/0");
+    assertEquals(50, roads.snapshot().getGraph().getTraffic(w0), 0);
+  }
+}
@@ -70,7 +70,7 @@ public class MainTest {
         }
       });
       nodes = new LatLngKDTree<>(
-        new KDNodeParallel<>(nodesToAdd, 0, Main.KD_TREE_PARALLEL_LEVEL));
+        new KDNodeParallel<>(nodesToAdd, 0));
     } catch (SQLException e) {
       throw new RuntimeException(e);
     } finally {
@@ -0,0 +1,293 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.db.Database;
+import edu.brown.cs.azhang6.dimension.DistanceKernel;
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import edu.brown.cs.azhang6.graphs.Graphs;
+import edu.brown.cs.azhang6.pair.OrderedPair;
+import java.sql.SQLException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RoadGraph}.
+ *
+ * @author aaronzhang
+ */
+public class RoadGraphTest {
+
+  /**
+   * Database.
+   */
+  private static Database db;
+
+  /**
+   * For comparing doubles.
+   */
+  private static final double EPSILON = 0.001;
+
+  /**
+   * Opens database.
+   */
+  @BeforeClass
+  public static void setUpClass() {
+    try {
+      db = new Database("files/smallMaps.sqlite3");
+    } catch (ClassNotFoundException | SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Closes database.
+   */
+  @AfterClass
+  public static void tearDownClass() {
+    try {
+      if (db != null) {
+        db.close();
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Tests for {@link RoadGraph#load(Database)}.
+   */
+  @Test
+  public void testLoad() {
+    RoadGraph roads = RoadGraph.load(db);
+    CSRGraph g = roads.getGraph();
+    assertEquals(g.numVertices(), 6);
+    assertEquals(g.numEdges(), 7);
+    int n0 = roads.indexOf("/n/0");
+    assertEquals(roads.getLat(n0), 41.82, EPSILON);
+    assertEquals(roads.getLng(n0), -71.4, EPSILON);
+    assertEquals(roads.indexOf("nonexistent"), -1);
+    // /n/0 is the start of /w/0 and /w/2
+    assertEquals(g.outEdgesEnd(n0) - g.outEdgesBegin(n0), 2);
+    int w0 = g.edgeIndex("/w/0");
+    assertEquals(g.vertexId(g.head(w0)), "/n/1");
+    assertEquals(g.baseLength(w0), roads.distance(n0, roads.indexOf("/n/1")),
+      EPSILON);
+  }
+
+  /**
+   * Tests routing over the loaded graph.
+   */
+  @Test
+  public void testRoute() {
+    RoadGraph roads = RoadGraph.load(db);
+    CSRGraph g = roads.getGraph();
+    int n0 = roads.indexOf("/n/0");
+    int n5 = roads.indexOf("/n/5");
+    OrderedPair<int[], Double> path = Graphs.dijkstraAStar(
+      g, n0, v -> v == n5, roads.heuristic(n5));
+    assertEquals(path.first().length, 3);
+    double length = 0;
+    for (int e : path.first()) {
+      length += g.baseLength(e);
+    }
+    assertEquals(path.second(), length, EPSILON);
+    assertEquals(g.vertexId(g.head(path.first()[2])), "/n/5");
+    // Ways only go one way, so there's no path back
+    assertTrue(Graphs.dijkstraAStar(
+      g, n5, v -> v == n0, roads.heuristic(n0)) == null);
+    // Heavy traffic on /w/1 makes the path avoid it
+    roads.setTraffic(new String[]{"/w/1"}, new double[]{100});
+    int[] walk = Graphs.dijkstraAStar(
+      g, n0, v -> v == n5, roads.heuristic(n5)).first();
+    for (int e : walk) {
+      assertNotEquals(g.edgeId(e), "/w/1");
+    }
+  }
+
+  /**
+   * Bidirectional search agrees with one-way search on every pair of nodes.
+   */
+  @Test
+  public void testBidirectionalRoute() {
+    RoadGraph roads = RoadGraph.load(db);
+    CSRGraph g = roads.getGraph();
+    for (int s = 0; s < g.numVertices(); s++) {
+      for (int t = 0; t < g.numVertices(); t++) {
+        int target = t;
+        OrderedPair<int[], Double> expected = Graphs.dijkstraAStar(
+          g, s, v -> v == target, roads.heuristic(t));
+        OrderedPair<int[], Double> actual = Graphs.bidirectionalAStar(
+          g, s, t, roads.heuristic(t), roads.heuristic(s));
+        if (expected == null) {
+          assertTrue(actual == null);
+        } else {
+          assertEquals(actual.second(), expected.second(), EPSILON);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ways can be measured, and the heuristic can measure, with other kernels,
+   * and routes stay the same.
+   */
+  @Test
+  public void testKernels() {
+    RoadGraph exact = RoadGraph.load(db);
+    RoadGraph flat = RoadGraph.load(db, DistanceKernel.EQUIRECTANGULAR);
+    CSRGraph g = exact.getGraph();
+    CSRGraph h = flat.getGraph();
+    for (int e = 0; e < g.numEdges(); e++) {
+      assertEquals(g.baseLength(e),
+        h.baseLength(h.edgeIndex(g.edgeId(e))), 1e-9);
+    }
+    int n0 = exact.indexOf("/n/0");
+    int n5 = exact.indexOf("/n/5");
+    exact.setHeuristicKernel(DistanceKernel.HAVERSINE);
+    assertEquals(exact.distance(n0, n5),
+      exact.heuristic(n5).applyAsDouble(n0), 1e-12);
+    OrderedPair<int[], Double> path = Graphs.dijkstraAStar(
+      g, n0, v -> v == n5, exact.heuristic(n5));
+    OrderedPair<int[], Double> flatPath = Graphs.dijkstraAStar(
+      h, flat.indexOf("/n/0"), v -> v == flat.indexOf("/n/5"),
+      flat.heuristic(flat.indexOf("/n/5")));
+    assertEquals(path.second(), flatPath.second(), EPSILON);
+    exact.setHeuristicKernel(null);
+    assertEquals(exact.tunnelDistance(n0, n5),
+      exact.heuristic(n5).applyAsDouble(n0), 1e-12);
+  }
+
+  /**
+   * Ways measure themselves with the kernel their nodes were loaded with, so
+   * they agree with a graph loaded with the same kernel.
+   */
+  @Test
+  public void testWayKernel() {
+    NodeProxy.setDB(db, DistanceKernel.VINCENTY);
+    WayProxy.setDB(db);
+    Node.clearCache();
+    Way.clearCache();
+    try {
+      RoadGraph exact = RoadGraph.load(db);
+      RoadGraph vincenty = RoadGraph.load(db, DistanceKernel.VINCENTY);
+      CSRGraph g = vincenty.getGraph();
+      CSRGraph h = exact.getGraph();
+      // Cache the nodes so ways look up the proxies made with the kernel
+      for (int v = 0; v < g.numVertices(); v++) {
+        NodeProxy.at(g.vertexId(v), vincenty.getLat(v), vincenty.getLng(v));
+      }
+      for (int e = 0; e < g.numEdges(); e++) {
+        String id = g.edgeId(e);
+        Way way = new WayProxy(id);
+        assertEquals(g.baseLength(e), way.getDistance(), 1e-12);
+        assertNotEquals(h.baseLength(h.edgeIndex(id)), way.getDistance(),
+          1e-12);
+      }
+    } finally {
+      NodeProxy.setDB(db);
+      Node.clearCache();
+      Way.clearCache();
+    }
+  }
+
+  /**
+   * With an overlay, routes use the last customized version of the traffic,
+   * with way weights that add up to the route's length, until traffic is
+   * updated.
+   */
+  @Test
+  public void testOverlayVersions() {
+    RoadGraph roads = RoadGraph.load(db);
+    roads.useOverlay(2, 4);
+    CSRGraph g = roads.getGraph();
+    int n0 = roads.indexOf("/n/0");
+    int n5 = roads.indexOf("/n/5");
+    OrderedPair<int[], Double> before = roads.route(n0, n5, 10, 5000);
+    String[] ids = new String[g.numEdges()];
+    double[] traffic = new double[ids.length];
+    for (int e = 0; e < ids.length; e++) {
+      ids[e] = g.edgeId(e);
+      traffic[e] = 2 + e;
+    }
+    roads.setTraffic(ids, traffic);
+    OrderedPair<int[], Double> pending = roads.route(n0, n5, 10, 5000);
+    assertArrayEquals(before.first(), pending.first());
+    assertEquals(before.second(), pending.second(), 0);
+    roads.trafficUpdated();
+    OrderedPair<int[], Double> after = roads.route(n0, n5, 10, 5000);
+    double length = 0;
+    for (int e : after.first()) {
+      length += g.weight(e);
+    }
+    assertEquals(after.second(), length, EPSILON);
+    assertTrue(after.second() > before.second());
+  }
+
+  /**
+   * Isochrones contain exactly the ways that can be driven within budget.
+   */
+  @Test
+  public void testIsochrone() {
+    RoadGraph roads = RoadGraph.load(db);
+    CSRGraph g = roads.getGraph();
+    int n0 = roads.indexOf("/n/0");
+    int n5 = roads.indexOf("/n/5");
+    int[] all = new int[g.numVertices()];
+    for (int v = 0; v < all.length; v++) {
+      all[v] = v;
+    }
+    double[] distances = Graphs.distanceMatrix(g, new int[]{n0}, all)[0];
+    double[] budgets = {0, distances[n5] / 2, distances[n5], 1e9};
+    for (double budget : budgets) {
+      boolean[] expected = new boolean[g.numEdges()];
+      int count = 0;
+      for (int e = 0; e < g.numEdges(); e++) {
+        if (distances[g.tail(e)] + g.weight(e) <= budget) {
+          expected[e] = true;
+          count++;
+        }
+      }
+      int[] edges = roads.isochrone(n0, budget);
+      assertEquals(count, edges.length);
+      for (int e : edges) {
+        assertTrue(expected[e]);
+      }
+    }
+    assertEquals(0, roads.isochrone(n0, 0).length);
+    assertEquals(g.numEdges(), roads.isochrone(n0, 1e9).length);
+    // Nothing is reachable from /n/5
+    assertEquals(0, roads.isochrone(n5, 1e9).length);
+  }
+
+  /**
+   * Traffic changes are published together, and snapshots keep the version
+   * they were taken with.
+   */
+  @Test
+  public void testTrafficVersions() {
+    RoadGraph roads = RoadGraph.load(db);
+    CSRGraph g = roads.getGraph();
+    int w1 = g.edgeIndex("/w/1");
+    int w4 = g.edgeIndex("/w/4");
+    CSRGraph before = g.snapshot();
+    roads.setTraffic(new String[]{"/w/1", "/w/none", "/w/4"},
+      new double[]{3, 7, 5});
+    assertEquals(3, g.getTraffic(w1), 0);
+    assertEquals(5, g.getTraffic(w4), 0);
+    assertEquals(1, before.getTraffic(w1), 0);
+    assertEquals(1, before.getTraffic(w4), 0);
+    assertEquals(g.baseLength(w1), before.weight(w1), 0);
+    // Changes to a snapshot don't reach the graph
+    CSRGraph after = g.snapshot();
+    after.setTraffic(new int[]{w1}, new double[]{9});
+    assertEquals(9, after.getTraffic(w1), 0);
+    assertEquals(3, g.getTraffic(w1), 0);
+    try {
+      roads.setTraffic(new String[]{"/w/1"}, new double[0]);
+      fail("set traffic without values");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package edu.brown.cs.azhang6.maps;
+
+import edu.brown.cs.azhang6.dimension.MortonCell;
+import edu.brown.cs.azhang6.graph.CSRGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link WayCellIndex}.
+ *
+ * @author aaronzhang
+ */
+public class WayCellIndexTest {
+
+  /**
+   * Boxes, including boxes across the antimeridian, give the ways that start
+   * in them, each once.
+   */
+  @Test
+  public void testInBox() {
+    Random random = new Random(23);
+    int numVertices = 2000;
+    double[] lats = new double[numVertices];
+    double[] lngs = new double[numVertices];
+    CSRGraph.Builder builder = new CSRGraph.Builder();
+    for (int v = 0; v < numVertices; v++) {
+      builder.addVertex("/n/" + v);
+      lats[v] = random.nextDouble() * 180 - 90;
+      lngs[v] = v % 10 == 0 ? (v % 20 == 0 ? 180 : -180)
+        : random.nextDouble() * 360 - 180;
+    }
+    for (int e = 0; e < 3 * numVertices; e++) {
+      builder.addEdge("/w/" + e, "/n/" + random.nextInt(numVertices),
+        "/n/" + random.nextInt(numVertices), 1);
+    }
+    RoadGraph roads = new RoadGraph(builder.build(), lats, lngs);
+    CSRGraph graph = roads.getGraph();
+    WayCellIndex ways = new WayCellIndex(roads, 6);
+    assertEquals(graph.numEdges(), ways.size());
+    assertEquals(6, ways.getLevel());
+    for (int i = 0; i < 100; i++) {
+      double minLat = random.nextDouble() * 200 - 100;
+      double minLng = random.nextDouble() * 400 - 200;
+      double maxLat = minLat + random.nextDouble() * 50;
+      double maxLng = minLng + random.nextDouble() * (i == 0 ? 400 : 60);
+      List<Integer> found = new ArrayList<>();
+      ways.inBox(minLat, minLng, maxLat, maxLng, found::add);
+      int[] actual = found.stream().mapToInt(e -> e).sorted().toArray();
+      List<Integer> expected = new ArrayList<>();
+      for (int e = 0; e < graph.numEdges(); e++) {
+        int tail = graph.tail(e);
+        if (inBox(roads.getLat(tail), roads.getLng(tail), minLat, minLng,
+          maxLat, maxLng)) {
+          expected.add(e);
+        }
+      }
+      assertArrayEquals(expected.stream().mapToInt(e -> e).toArray(), actual);
+    }
+    // Ways in a cell start in it
+    int tail = graph.tail(0);
+    long cell = MortonCell.cell(roads.getLat(tail), roads.getLng(tail), 6);
+    int[] inCell = ways.inCell(cell);
+    assertTrue(Arrays.binarySearch(inCell, 0) >= 0);
+    boolean caught = false;
+    try {
+      new WayCellIndex(roads, WayCellIndex.MAX_LEVEL + 1);
+    } catch (IllegalArgumentException e) {
+      caught = true;
+    }
+    assertTrue(caught);
+  }
+
+  /**
+   * @param lat latitude
+   * @param lng longitude
+   * @param minLat least latitude
+   * @param minLng least longitude
+   * @param maxLat greatest latitude
+   * @param maxLng greatest longitude
+   * @return whether the point is in the box, wrapping longitudes
+   */
+  private static boolean inBox(double lat, double lng, double minLat,
+    double minLng, double maxLat, double maxLng) {
+    if (lat < minLat || lat > maxLat) {
+      return false;
+    }
+    if (maxLng - minLng >= 360) {
+      return true;
+    }
+    for (double wrap = -360; wrap <= 360; wrap += 360) {
+      if (lng + wrap >= minLng && lng + wrap <= maxLng) {
+        return true;
+      }
+    }
+    return false;
+  }
+}